@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import org.gnucash.android.R;
+import org.gnucash.android.receivers.ExportScheduler;
 
 /**
  * An {@link Application} subclass for retrieving static context
@@ -30,9 +31,26 @@ public class GnuCashApplication extends Application{
 
     private static Context context;
 
+    /**
+     * Reschedules the background exports when their preferences change.
+     * Held in a field because the preferences only keep weak references to their listeners
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener mExportScheduleListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (key.equals(getString(R.string.key_scheduled_export))
+                    || key.equals(getString(R.string.key_scheduled_export_interval)))
+                ExportScheduler.schedule(GnuCashApplication.this);
+        }
+    };
+
     public void onCreate(){
         super.onCreate();
         GnuCashApplication.context = getApplicationContext();
+        ExportScheduler.schedule(this);
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .registerOnSharedPreferenceChangeListener(mExportScheduleListener);
     }
 
     /**
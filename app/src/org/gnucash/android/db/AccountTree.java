@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db;
+
+import android.database.Cursor;
+import org.gnucash.android.model.Account.AccountType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Immutable in-memory snapshot of the account hierarchy.
+ * <p>The tree is built from a single query of the accounts table and answers structural questions about accounts
+ * (parent, children, depth, fully qualified name, placeholder flag, descendants) without going back to the database.
+ * The accounts are stored in pre-order, so all descendants of an account occupy a contiguous range of positions
+ * and ancestor checks are simple range comparisons.</p>
+ * <p>GnuCash ROOT accounts are part of the tree, but they do not contribute to the depth
+ * or the full name of their descendants.</p>
+ * <p>Instances are shared by all {@link AccountsDbAdapter}s, use {@link AccountsDbAdapter#getAccountTree()}
+ * to obtain the current snapshot</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public final class AccountTree {
+
+    /**
+     * Columns which are needed from the accounts table to build the tree
+     */
+    static final String[] PROJECTION = new String[]{
+            DatabaseHelper.KEY_ROW_ID,
+            DatabaseHelper.KEY_UID,
+            DatabaseHelper.KEY_NAME,
+            DatabaseHelper.KEY_PARENT_ACCOUNT_UID,
+            DatabaseHelper.KEY_TYPE,
+            DatabaseHelper.KEY_CURRENCY_CODE,
+            DatabaseHelper.KEY_PLACEHOLDER
+    };
+
+    /**
+     * Sort order of the accounts query. Children of an account are kept in this order
+     */
+    static final String SORT_ORDER = DatabaseHelper.KEY_NAME + " ASC";
+
+    /*
+     * Account attributes, indexed by the pre-order position of the account in the tree
+     */
+    private final long[] mIds;
+    private final String[] mUIDs;
+    private final String[] mNames;
+    private final String[] mFullNames;
+    private final String[] mCurrencyCodes;
+    private final AccountType[] mAccountTypes;
+    private final boolean[] mPlaceholders;
+    private final int[] mParentPositions;
+    private final int[] mDepths;
+
+    /**
+     * Exclusive end of the range of pre-order positions occupied by the sub-tree of each account
+     */
+    private final int[] mSubtreeEnds;
+
+    /**
+     * Positions of the direct children of each account, ordered by name
+     */
+    private final int[][] mChildPositions;
+
+    /**
+     * Maps database record IDs to pre-order positions
+     */
+    private final HashMap<Long, Integer> mIdPositions;
+
+    /**
+     * Maps account unique IDs to pre-order positions
+     */
+    private final HashMap<String, Integer> mUIDPositions;
+
+    /**
+     * Builds the tree from a cursor over the accounts table.
+     * The cursor must contain the columns in {@link #PROJECTION} and is not closed by the constructor
+     * @param cursor Cursor to all account records, sorted by {@link #SORT_ORDER}
+     */
+    AccountTree(Cursor cursor){
+        int count = cursor.getCount();
+        long[] ids              = new long[count];
+        String[] uids           = new String[count];
+        String[] names          = new String[count];
+        String[] parentUIDs     = new String[count];
+        String[] currencyCodes  = new String[count];
+        AccountType[] types     = new AccountType[count];
+        boolean[] placeholders  = new boolean[count];
+
+        HashMap<String, Integer> rowsByUID = new HashMap<String, Integer>(count * 2);
+        int row = 0;
+        while (row < count && cursor.moveToNext()){
+            ids[row]            = cursor.getLong(0);
+            uids[row]           = DatabaseAdapter.internUID(cursor.getString(1));
+            names[row]          = cursor.getString(2);
+            parentUIDs[row]     = DatabaseAdapter.internUID(cursor.getString(3));
+            types[row]          = AccountType.valueOf(cursor.getString(4));
+            currencyCodes[row]  = cursor.getString(5);
+            placeholders[row]   = cursor.getInt(6) == 1;
+            rowsByUID.put(uids[row], row);
+            row++;
+        }
+        count = row;
+
+        //link every account to its parent, accounts with unknown parents become top level accounts
+        int[] parentRows = new int[count];
+        List<List<Integer>> childRows = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            childRows.add(new ArrayList<Integer>());
+        }
+        List<Integer> topLevelRows = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            Integer parentRow = parentUIDs[i] == null ? null : rowsByUID.get(parentUIDs[i]);
+            if (parentRow == null || parentRow == i){
+                parentRows[i] = -1;
+                topLevelRows.add(i);
+            } else {
+                parentRows[i] = parentRow;
+                childRows.get(parentRow).add(i);
+            }
+        }
+
+        mIds            = new long[count];
+        mUIDs           = new String[count];
+        mNames          = new String[count];
+        mFullNames      = new String[count];
+        mCurrencyCodes  = new String[count];
+        mAccountTypes   = new AccountType[count];
+        mPlaceholders   = new boolean[count];
+        mParentPositions = new int[count];
+        mDepths         = new int[count];
+        mSubtreeEnds    = new int[count];
+        mChildPositions = new int[count][];
+        mIdPositions    = new HashMap<Long, Integer>(count * 2);
+        mUIDPositions   = new HashMap<String, Integer>(count * 2);
+
+        //assign pre-order positions iteratively, arbitrary nesting depth is allowed
+        int[] positions = new int[count];
+        int[] nextChild = new int[count];
+        boolean[] visited = new boolean[count];
+        int[] stack = new int[count];
+        int position = 0;
+        for (int start = 0; start < count + topLevelRows.size(); start++) {
+            //first traverse from the top level accounts, then from anything left over in a cyclic hierarchy
+            int startRow = start < topLevelRows.size() ? topLevelRows.get(start) : start - topLevelRows.size();
+            if (visited[startRow])
+                continue;
+
+            int stackSize = 0;
+            visited[startRow] = true;
+            positions[startRow] = position;
+            mFullNames[position] = names[startRow];
+            mDepths[position] = 0;
+            mParentPositions[position] = -1;
+            position++;
+            stack[stackSize++] = startRow;
+
+            while (stackSize > 0){
+                int parentRow = stack[stackSize - 1];
+                List<Integer> children = childRows.get(parentRow);
+                if (nextChild[parentRow] < children.size()){
+                    int childRow = children.get(nextChild[parentRow]++);
+                    if (visited[childRow])
+                        continue;
+
+                    visited[childRow] = true;
+                    int parentPosition = positions[parentRow];
+                    boolean isRootParent = types[parentRow] == AccountType.ROOT;
+                    positions[childRow] = position;
+                    mParentPositions[position] = parentPosition;
+                    mDepths[position] = isRootParent ? mDepths[parentPosition] : mDepths[parentPosition] + 1;
+                    mFullNames[position] = isRootParent ? names[childRow]
+                            : mFullNames[parentPosition] + AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR + names[childRow];
+                    position++;
+                    stack[stackSize++] = childRow;
+                } else {
+                    mSubtreeEnds[positions[parentRow]] = position;
+                    stackSize--;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int pos = positions[i];
+            mIds[pos]           = ids[i];
+            mUIDs[pos]          = uids[i];
+            mNames[pos]         = names[i];
+            mCurrencyCodes[pos] = currencyCodes[i];
+            mAccountTypes[pos]  = types[i];
+            mPlaceholders[pos]  = placeholders[i];
+            mIdPositions.put(ids[i], pos);
+            mUIDPositions.put(uids[i], pos);
+
+            List<Integer> children = childRows.get(i);
+            int[] childPositions = new int[children.size()];
+            int childCount = 0;
+            for (int childRow : children) {
+                //skip links which were broken up because of a cyclic hierarchy
+                if (mParentPositions[positions[childRow]] == pos)
+                    childPositions[childCount++] = positions[childRow];
+            }
+            if (childCount < childPositions.length){
+                int[] trimmed = new int[childCount];
+                System.arraycopy(childPositions, 0, trimmed, 0, childCount);
+                childPositions = trimmed;
+            }
+            mChildPositions[pos] = childPositions;
+        }
+    }
+
+    /**
+     * Returns the pre-order position of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return Position of the account in the tree, or -1 if the account is not in the tree
+     */
+    private int positionOf(long accountId){
+        Integer position = mIdPositions.get(accountId);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Returns the pre-order position of the account with unique ID <code>accountUID</code>
+     * @param accountUID Unique Identifier of the account
+     * @return Position of the account in the tree, or -1 if the account is not in the tree
+     */
+    private int positionOf(String accountUID){
+        if (accountUID == null)
+            return -1;
+        Integer position = mUIDPositions.get(accountUID);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Returns the number of accounts in the tree, including GnuCash ROOT accounts
+     * @return Number of accounts in the tree
+     */
+    public int size(){
+        return mIds.length;
+    }
+
+    /**
+     * Returns <code>true</code> if the account with record ID <code>accountId</code> is in the tree
+     * @param accountId Database record ID of the account
+     * @return <code>true</code> if the account is part of this snapshot, <code>false</code> otherwise
+     */
+    public boolean contains(long accountId){
+        return mIdPositions.containsKey(accountId);
+    }
+
+    /**
+     * Returns the database record ID of the account with unique ID <code>accountUID</code>
+     * @param accountUID Unique Identifier of the account
+     * @return Database record ID of the account, or -1 if the account is not in the tree
+     */
+    public long getId(String accountUID){
+        int position = positionOf(accountUID);
+        return position < 0 ? -1 : mIds[position];
+    }
+
+    /**
+     * Returns the unique ID of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return Unique Identifier of the account, or <code>null</code> if the account is not in the tree
+     */
+    public String getUID(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? null : mUIDs[position];
+    }
+
+    /**
+     * Returns the simple name of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return Name of the account, or <code>null</code> if the account is not in the tree
+     */
+    public String getName(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? null : mNames[position];
+    }
+
+    /**
+     * Returns the fully qualified name of the account with record ID <code>accountId</code>.
+     * The full name includes the names of all parent accounts, except the GnuCash ROOT account
+     * @param accountId Database record ID of the account
+     * @return Fully qualified name of the account, or <code>null</code> if the account is not in the tree
+     */
+    public String getFullName(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? null : mFullNames[position];
+    }
+
+    /**
+     * Returns the fully qualified name of the account with unique ID <code>accountUID</code>
+     * @param accountUID Unique Identifier of the account
+     * @return Fully qualified name of the account, or <code>null</code> if the account is not in the tree
+     * @see #getFullName(long)
+     */
+    public String getFullName(String accountUID){
+        int position = positionOf(accountUID);
+        return position < 0 ? null : mFullNames[position];
+    }
+
+    /**
+     * Returns the ISO 4217 currency code of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return Currency code of the account, or <code>null</code> if the account is not in the tree
+     */
+    public String getCurrencyCode(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? null : mCurrencyCodes[position];
+    }
+
+    /**
+     * Returns the type of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return {@link AccountType} of the account, or <code>null</code> if the account is not in the tree
+     */
+    public AccountType getAccountType(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? null : mAccountTypes[position];
+    }
+
+    /**
+     * Returns <code>true</code> if the account with record ID <code>accountId</code> is a placeholder account
+     * @param accountId Database record ID of the account
+     * @return <code>true</code> if the account is a placeholder account, <code>false</code> otherwise
+     */
+    public boolean isPlaceholder(long accountId){
+        int position = positionOf(accountId);
+        return position >= 0 && mPlaceholders[position];
+    }
+
+    /**
+     * Returns <code>true</code> if the account with unique ID <code>accountUID</code> is a placeholder account
+     * @param accountUID Unique Identifier of the account
+     * @return <code>true</code> if the account is a placeholder account, <code>false</code> otherwise
+     */
+    public boolean isPlaceholder(String accountUID){
+        int position = positionOf(accountUID);
+        return position >= 0 && mPlaceholders[position];
+    }
+
+    /**
+     * Returns the record ID of the parent of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return Record ID of the parent account, or -1 if the account has no parent or is not in the tree
+     */
+    public long getParentId(long accountId){
+        int position = positionOf(accountId);
+        if (position < 0 || mParentPositions[position] < 0)
+            return -1;
+        return mIds[mParentPositions[position]];
+    }
+
+    /**
+     * Returns the nesting depth of the account with record ID <code>accountId</code>.
+     * Top level accounts have a depth of 0. GnuCash ROOT accounts are not counted
+     * @param accountId Database record ID of the account
+     * @return Depth of the account in the hierarchy, or -1 if the account is not in the tree
+     */
+    public int getDepth(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? -1 : mDepths[position];
+    }
+
+    /**
+     * Returns the number of direct sub-accounts of the account with record ID <code>accountId</code>
+     * @param accountId Database record ID of the account
+     * @return Number of direct sub-accounts
+     */
+    public int getChildCount(long accountId){
+        int position = positionOf(accountId);
+        return position < 0 ? 0 : mChildPositions[position].length;
+    }
+
+    /**
+     * Returns the record IDs of the direct sub-accounts of the account with record ID <code>accountId</code>,
+     * ordered by account name
+     * @param accountId Database record ID of the parent account
+     * @return List of record IDs of the sub-accounts
+     */
+    public List<Long> getChildIds(long accountId){
+        int position = positionOf(accountId);
+        if (position < 0)
+            return new ArrayList<Long>();
+
+        int[] childPositions = mChildPositions[position];
+        List<Long> childIds = new ArrayList<Long>(childPositions.length);
+        for (int childPosition : childPositions) {
+            childIds.add(mIds[childPosition]);
+        }
+        return childIds;
+    }
+
+    /**
+     * Returns the record IDs of the account with record ID <code>accountId</code> and all its descendants,
+     * in pre-order
+     * @param accountId Database record ID of the account
+     * @return List of record IDs of the account sub-tree, empty if the account is not in the tree
+     */
+    public List<Long> getSubtreeIds(long accountId){
+        int position = positionOf(accountId);
+        if (position < 0)
+            return new ArrayList<Long>();
+
+        List<Long> subtreeIds = new ArrayList<Long>(mSubtreeEnds[position] - position);
+        for (int i = position; i < mSubtreeEnds[position]; i++) {
+            subtreeIds.add(mIds[i]);
+        }
+        return subtreeIds;
+    }
+
+    /**
+     * Returns <code>true</code> if the account with record ID <code>accountId</code> is a descendant
+     * (direct or indirect sub-account) of the account with record ID <code>ancestorId</code>
+     * @param ancestorId Database record ID of the presumed ancestor
+     * @param accountId Database record ID of the account
+     * @return <code>true</code> if <code>accountId</code> is in the sub-tree of <code>ancestorId</code>
+     */
+    public boolean isDescendant(long ancestorId, long accountId){
+        int ancestorPosition = positionOf(ancestorId);
+        int position = positionOf(accountId);
+        if (ancestorPosition < 0 || position < 0)
+            return false;
+        return position > ancestorPosition && position < mSubtreeEnds[ancestorPosition];
+    }
+}
@@ -41,10 +41,49 @@ public class AccountsDbAdapter extends DatabaseAdapter {
      */
     public static final String ACCOUNT_NAME_SEPARATOR = ":";
 
+    /**
+     * Columns needed to display an account in the accounts list.
+     * Structural information (sub-accounts, placeholder flag) is taken from the {@link AccountTree}
+     * @see #fetchAccountsForList(String)
+     */
+    public static final String[] ACCOUNT_LIST_PROJECTION = new String[]{
+            DatabaseHelper.KEY_ROW_ID,
+            DatabaseHelper.KEY_NAME,
+            DatabaseHelper.KEY_COLOR_CODE
+    };
+
+    /**
+     * Index of the color code column in cursors with the {@link #ACCOUNT_LIST_PROJECTION}
+     */
+    public static final int ACCOUNT_LIST_COLUMN_COLOR_CODE = 2;
+
+    /**
+     * Columns needed to display an account in a drop-down list of accounts.
+     * Accounts are identified by record ID and displayed with their full name
+     * @see #fetchAccountsOrderedByFullName(String)
+     */
+    public static final String[] ACCOUNT_SPINNER_PROJECTION = new String[]{
+            DatabaseHelper.KEY_ROW_ID,
+            DatabaseHelper.KEY_FULL_NAME
+    };
+
 	/**
 	 * Transactions database adapter for manipulating transactions associated with accounts
 	 */
 	private TransactionsDbAdapter mTransactionsAdapter;
+
+    /**
+     * Snapshot of the account hierarchy which is shared by all adapter instances.
+     * It is discarded whenever accounts are modified and rebuilt on the next request
+     * @see #getAccountTree()
+     */
+    private static AccountTree sAccountTree;
+
+    /**
+     * Incremented every time the account tree is invalidated.
+     * Prevents a snapshot which was built while accounts were being modified from being cached
+     */
+    private static long sAccountTreeGeneration = 0;
 	
 	/**
 	 * Constructor. Creates a new adapter instance using the application context
@@ -90,15 +129,18 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 		} else {
 			Log.d(TAG, "Adding new account to db");
 			rowId = mDb.insert(DatabaseHelper.ACCOUNTS_TABLE_NAME, null, contentValues);
+            if (rowId > 0)
+                mTransactionsAdapter.linkTransactionsToAccount(rowId, account.getUID());
 		}
 		
 		//now add transactions if there are any
 		if (rowId > 0){
             //update the fully qualified account name
-            updateAccount(rowId, DatabaseHelper.KEY_FULL_NAME, getFullyQualifiedAccountName(rowId));
+            //queried directly instead of from the account tree, so that bulk imports do not rebuild the tree for every account
+            updateAccount(rowId, DatabaseHelper.KEY_FULL_NAME, queryFullyQualifiedAccountName(account.getUID()));
 			for (Transaction t : account.getTransactions()) {
                 //FIXME: This is a hack until actual splits are implemented
-                if (t.getDoubleEntryAccountUID().equals(account.getUID())){
+                if (account.getUID().equals(t.getDoubleEntryAccountUID())){
                     Transaction trx = new Transaction(t,false);
 //                    trx.setAmount(trx.getAmount().negate());
                     if (trx.getType() == TransactionType.DEBIT) {
@@ -116,6 +158,16 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 		return rowId;
 	}
 
+    /**
+     * Starts adding many accounts and transactions in one database transaction.
+     * <p>Faster than calling {@link #addAccount(Account)} for every account, see {@link BatchInserter}.
+     * The adapter must not be used to modify the database until the inserter is closed</p>
+     * @return Inserter to which the accounts and transactions are added
+     */
+    public BatchInserter beginBatchInsert(){
+        return new BatchInserter(mDb);
+    }
+
     /**
      * This feature goes through all the rows in the accounts and changes value for <code>columnKey</code> to <code>newValue</code><br/>
      * The <code>newValue</code> parameter is taken as string since SQLite typically stores everything as text.
@@ -128,7 +180,10 @@ public class AccountsDbAdapter extends DatabaseAdapter {
         ContentValues contentValues = new ContentValues();
         contentValues.put(columnKey, newValue);
 
-        return mDb.update(DatabaseHelper.ACCOUNTS_TABLE_NAME, contentValues, null, null);
+        int count = mDb.update(DatabaseHelper.ACCOUNTS_TABLE_NAME, contentValues, null, null);
+        //invalidated after the write, so that a concurrent rebuild cannot cache the old accounts
+        invalidateAccountTree();
+        return count;
     }
 
     /**
@@ -142,8 +197,10 @@ public class AccountsDbAdapter extends DatabaseAdapter {
         ContentValues contentValues = new ContentValues();
         contentValues.put(columnKey, newValue);
 
-        return mDb.update(DatabaseHelper.ACCOUNTS_TABLE_NAME, contentValues,
+        int count = mDb.update(DatabaseHelper.ACCOUNTS_TABLE_NAME, contentValues,
                 DatabaseHelper.KEY_ROW_ID + "=" + accountId, null);
+        invalidateAccountTree();
+        return count;
     }
 
 	/**
@@ -165,6 +222,7 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 			result &= mTransactionsAdapter.deleteRecord(id);
 		}
 		result &= deleteRecord(DatabaseHelper.ACCOUNTS_TABLE_NAME, rowId);
+        invalidateAccountTree();
         c.close();
 		return result;
 	}
@@ -182,10 +240,12 @@ public class AccountsDbAdapter extends DatabaseAdapter {
         else
             contentValues.put(DatabaseHelper.KEY_PARENT_ACCOUNT_UID, newParentUID);
 
-        return mDb.update(DatabaseHelper.ACCOUNTS_TABLE_NAME,
+        int count = mDb.update(DatabaseHelper.ACCOUNTS_TABLE_NAME,
                 contentValues,
                 DatabaseHelper.KEY_PARENT_ACCOUNT_UID + "= '" + oldParentUID + "' ",
                 null);
+        invalidateAccountTree();
+        return count;
     }
 
 	/**
@@ -197,19 +257,15 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 	 * @return <code>true</code> if deletion was successful, <code>false</code> otherwise.
 	 */
 	public boolean transactionPreservingDelete(long accountId, long accountReassignId){
-		Cursor transactionsCursor = mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME, 
-				new String[]{DatabaseHelper.KEY_ACCOUNT_UID}, 
-				DatabaseHelper.KEY_ACCOUNT_UID + " = " + accountId,
-				null, null, null, null);
-		if (transactionsCursor != null && transactionsCursor.getCount() > 0){
-			Log.d(TAG, "Found transactions. Migrating to new account");
-			ContentValues contentValues = new ContentValues();
-			contentValues.put(DatabaseHelper.KEY_ACCOUNT_UID, accountReassignId);
-			mDb.update(DatabaseHelper.TRANSACTIONS_TABLE_NAME, 
-					contentValues, 
-					DatabaseHelper.KEY_ACCOUNT_UID + "=" + accountId,
-					null);
-			transactionsCursor.close();
+		ContentValues contentValues = new ContentValues();
+		contentValues.put(DatabaseHelper.KEY_ACCOUNT_UID, getAccountUID(accountReassignId));
+		contentValues.put(DatabaseHelper.KEY_ACCOUNT_ID, accountReassignId);
+		int count = mDb.update(DatabaseHelper.TRANSACTIONS_TABLE_NAME,
+				contentValues,
+				DatabaseHelper.KEY_ACCOUNT_ID + "=" + accountId,
+				null);
+		if (count > 0){
+			Log.d(TAG, "Migrated " + count + " transactions to new account");
 		}
 		return destructiveDeleteAccount(accountId);
 	}
@@ -224,11 +280,15 @@ public class AccountsDbAdapter extends DatabaseAdapter {
         Log.d(TAG, "Delete account with rowId with its transactions and sub-accounts: " + accountId);
         boolean result = false;
 
-        List<Long> subAccountIds = getSubAccountIds(accountId);
-        for (long subAccountId : subAccountIds) {
-            result |= recursiveDestructiveDelete(subAccountId);
+        //resolve the whole sub-tree up front, every deletion discards the account tree
+        List<Long> accountIds = getAccountTree().getSubtreeIds(accountId);
+        if (accountIds.isEmpty())
+            accountIds.add(accountId);
+        //sub-accounts come after their parents in the tree, so delete in reverse order
+        Collections.reverse(accountIds);
+        for (long id : accountIds) {
+            result |= destructiveDeleteAccount(id);
         }
-        result |= destructiveDeleteAccount(accountId);
 
         return result;
     }
@@ -238,27 +298,59 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 	 * <p>The method will not move the cursor position, so the cursor should already be pointing
      * to the account record in the database<br/>
      * <b>Note</b> that this method expects the cursor to contain all columns from the database table</p>
+     * <p>Only the account header is built, the transactions of the account are not loaded.
+     * Use {@link #loadTransactions(Account)} if they are needed, or {@link #getTransactionCount(long)}
+     * and {@link #hasTransactions(long)} if only the number of transactions is of interest</p>
      *
 	 * @param c Cursor pointing to account record in database
 	 * @return {@link Account} object constructed from database record
 	 */
 	public Account buildAccountInstance(Cursor c){
 		Account account = new Account(c.getString(DatabaseAdapter.COLUMN_NAME));
-		String uid = c.getString(DatabaseAdapter.COLUMN_UID);
+		String uid = internUID(c.getString(DatabaseAdapter.COLUMN_UID));
 		account.setUID(uid);
-		account.setParentUID(c.getString(DatabaseAdapter.COLUMN_PARENT_ACCOUNT_UID));
+		account.setParentUID(internUID(c.getString(DatabaseAdapter.COLUMN_PARENT_ACCOUNT_UID)));
 		account.setAccountType(AccountType.valueOf(c.getString(DatabaseAdapter.COLUMN_TYPE)));
-		//make sure the account currency is set before setting the transactions
-		//else the transactions end up with a different currency from the account
 		account.setCurrency(Currency.getInstance(c.getString(DatabaseAdapter.COLUMN_CURRENCY_CODE)));
-		account.setTransactions(mTransactionsAdapter.getAllTransactionsForAccount(uid));
         account.setPlaceHolderFlag(c.getInt(DatabaseAdapter.COLUMN_PLACEHOLDER) == 1);
-        account.setDefaultTransferAccountUID(c.getString(DatabaseAdapter.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID));
+        account.setDefaultTransferAccountUID(internUID(c.getString(DatabaseAdapter.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID)));
         account.setColorCode(c.getString(DatabaseAdapter.COLUMN_COLOR_CODE));
         account.setFavorite(c.getInt(DatabaseAdapter.COLUMN_FAVORITE) == 1);
         account.setFullName(c.getString(DatabaseAdapter.COLUMN_FULL_NAME));
 		return account;
 	}
+
+    /**
+     * Loads all the transactions of <code>account</code> from the database and sets them on the account.
+     * <p>Accounts built by this adapter do not contain their transactions, so this method should be called
+     * before working with {@link Account#getTransactions()} or {@link Account#getBalance()}</p>
+     * @param account Account whose transactions are to be loaded
+     * @return The same <code>account</code>, with its transactions set
+     */
+    public Account loadTransactions(Account account){
+        //the account currency is already set, so the transactions end up with the currency of the account
+        account.setTransactions(mTransactionsAdapter.getAllTransactionsForAccount(account.getUID()));
+        return account;
+    }
+
+    /**
+     * Returns the number of transactions in the account with record ID <code>accountId</code>.
+     * The count is performed in the database without loading the transactions
+     * @param accountId Database record ID of the account
+     * @return Number of transactions in the account
+     */
+    public int getTransactionCount(long accountId){
+        return mTransactionsAdapter.getTransactionsCount(accountId);
+    }
+
+    /**
+     * Returns <code>true</code> if the account with record ID <code>accountId</code> has any transactions
+     * @param accountId Database record ID of the account
+     * @return <code>true</code> if the account has transactions, <code>false</code> otherwise
+     */
+    public boolean hasTransactions(long accountId){
+        return mTransactionsAdapter.hasTransactions(accountId);
+    }
 		
 	/**
 	 * Fetch an account from the database which has a unique ID <code>uid</code>
@@ -437,21 +529,67 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 	
 	/**
 	 * Returns a list of accounts which have transactions that have not been exported yet
+	 * @param lastExportedSequence Change sequence number up to which transactions have been exported
 	 * @return List of {@link Account}s with unexported transactions
+	 * @see TransactionsDbAdapter#getLastExportedSequence(String)
 	 */
-	public List<Account> getExportableAccounts(){
-        //TODO: Optimize to use SQL DISTINCT and load only necessary accounts from db
-		List<Account> accountsList = getAllAccounts();
-		Iterator<Account> it = accountsList.iterator();
-		
-		while (it.hasNext()){
-			Account account = it.next();
-			
-			if (!account.hasUnexportedTransactions())
-				it.remove();
+	public List<Account> getExportableAccounts(long lastExportedSequence){
+        String unexportedAccountIds = "SELECT " + DatabaseHelper.KEY_ACCOUNT_ID
+                + " FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
+                + " WHERE " + DatabaseHelper.KEY_CHANGE_SEQUENCE + " > " + lastExportedSequence
+                + " UNION SELECT " + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID
+                + " FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
+                + " WHERE " + DatabaseHelper.KEY_CHANGE_SEQUENCE + " > " + lastExportedSequence;
+
+		LinkedList<Account> accountsList = new LinkedList<Account>();
+		Cursor c = fetchAccounts(DatabaseHelper.KEY_TYPE + " != '" + AccountType.ROOT.name() + "' AND "
+                + DatabaseHelper.KEY_ROW_ID + " IN (" + unexportedAccountIds + ")");
+		if (c == null)
+			return accountsList;
+
+		while (c.moveToNext()){
+			accountsList.add(buildAccountInstance(c));
 		}
+		c.close();
 		return accountsList;
 	}
+
+    /**
+     * Returns a cursor to all account records for exporting the account tree.
+     * GnuCash ROOT accounts are ignored. The accounts are sorted by full name, so that parent accounts
+     * come before their sub-accounts
+     * @return {@link Cursor} to all account records
+     * @see #getGnuCashRootAccountUID()
+     */
+    public Cursor fetchAccountsForExport(){
+        return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
+                null,
+                DatabaseHelper.KEY_TYPE + " != ?",
+                new String[]{AccountType.ROOT.name()},
+                null, null,
+                DatabaseHelper.KEY_FULL_NAME + " ASC");
+    }
+
+    /**
+     * Returns the ISO 4217 codes of the currencies used by the accounts, sorted by code
+     * @return List of currency codes
+     */
+    public List<String> getCurrencyCodes(){
+        List<String> currencyCodes = new ArrayList<String>();
+        Cursor cursor = mDb.query(true, DatabaseHelper.ACCOUNTS_TABLE_NAME,
+                new String[]{DatabaseHelper.KEY_CURRENCY_CODE},
+                DatabaseHelper.KEY_TYPE + " != ?",
+                new String[]{AccountType.ROOT.name()},
+                null, null,
+                DatabaseHelper.KEY_CURRENCY_CODE + " ASC", null);
+        if (cursor != null){
+            while (cursor.moveToNext()){
+                currencyCodes.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        return currencyCodes;
+	}
 	
 	/**
 	 * Returns a cursor to all account records in the database.
@@ -473,13 +611,14 @@ public class AccountsDbAdapter extends DatabaseAdapter {
     /**
      * Returns a cursor to all account records in the database ordered by full name.
      * GnuCash ROOT accounts are ignored
+     * <p>The cursor only contains the columns in {@link #ACCOUNT_SPINNER_PROJECTION}</p>
      * @return {@link Cursor} to all account records
      */
     public Cursor fetchAllRecordsOrderedByFullName(){
         Log.v(TAG, "Fetching all accounts from db");
         String selection =  DatabaseHelper.KEY_TYPE + " != ?" ;
         return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                null,
+                ACCOUNT_SPINNER_PROJECTION,
                 selection,
                 new String[]{AccountType.ROOT.name()},
                 null, null,
@@ -517,29 +656,53 @@ public class AccountsDbAdapter extends DatabaseAdapter {
 
     /**
      * Returns a Cursor set of accounts which fulfill <code>condition</code>
-     * <p>This method returns the accounts list sorted by the full account name</p>
+     * <p>This method returns the accounts list sorted by the full account name.
+     * The cursor only contains the columns in {@link #ACCOUNT_SPINNER_PROJECTION}</p>
      * @param condition SQL WHERE statement without the 'WHERE' itself
      * @return Cursor set of accounts which fulfill <code>condition</code>
      */
     public Cursor fetchAccountsOrderedByFullName(String condition){
         Log.v(TAG, "Fetching all accounts from db where " + condition);
         return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                null, condition, null, null, null,
+                ACCOUNT_SPINNER_PROJECTION, condition, null, null, null,
                 DatabaseHelper.KEY_FULL_NAME + " ASC");
     }
+
+    /**
+     * Returns a Cursor set of accounts which fulfill <code>condition</code> for display in the accounts list.
+     * <p>The cursor only contains the columns in {@link #ACCOUNT_LIST_PROJECTION} and is sorted by account name</p>
+     * @param condition SQL WHERE statement without the 'WHERE' itself
+     * @return Cursor set of accounts which fulfill <code>condition</code>
+     */
+    public Cursor fetchAccountsForList(String condition){
+        Log.v(TAG, "Fetching accounts list from db where " + condition);
+        return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
+                ACCOUNT_LIST_PROJECTION, condition, null, null, null,
+                DatabaseHelper.KEY_NAME + " ASC");
+    }
     /**
      * Returns the balance of an account while taking sub-accounts into consideration
      * @return Account Balance of an account including sub-accounts
      */
     public Money getAccountBalance(long accountId){
-        String currencyCode = getCurrencyCode(accountId);
+        return getAccountBalance(getAccountTree(), accountId);
+    }
+
+    /**
+     * Computes the balance of an account and its sub-accounts, using <code>accountTree</code> to traverse the hierarchy
+     * @param accountTree Snapshot of the account hierarchy
+     * @param accountId Database record ID of the account
+     * @return Account Balance of an account including sub-accounts
+     */
+    private Money getAccountBalance(AccountTree accountTree, long accountId){
+        String currencyCode = accountTree.getCurrencyCode(accountId);
         currencyCode = currencyCode == null ? Money.DEFAULT_CURRENCY_CODE : currencyCode;
         Money balance = Money.createInstance(currencyCode);
 
-        List<Long> subAccounts = getSubAccountIds(accountId);
+        List<Long> subAccounts = accountTree.getChildIds(accountId);
         for (long id : subAccounts){
             //recurse because arbitrary nesting depth is allowed
-            Money subBalance = getAccountBalance(id);
+            Money subBalance = getAccountBalance(accountTree, id);
             if (subBalance.getCurrency().equals(balance.getCurrency())){
                 //only add the balances if they are of the same currency
                 //ignore sub accounts of different currency just like GnuCash desktop does
@@ -561,19 +724,45 @@ public class AccountsDbAdapter extends DatabaseAdapter {
      * @return List of IDs for the sub-accounts for account <code>accountId</code>
      */
     public List<Long> getSubAccountIds(long accountId){
-        List<Long> subAccounts = new ArrayList<Long>();
-        Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                new String[]{DatabaseHelper.KEY_ROW_ID}, DatabaseHelper.KEY_PARENT_ACCOUNT_UID + " = ?",
-                new String[]{getAccountUID(accountId)}, null, null, null);
+        return getAccountTree().getChildIds(accountId);
+    }
 
-        if (cursor != null){
-            while (cursor.moveToNext()){
-                subAccounts.add(cursor.getLong(DatabaseAdapter.COLUMN_ROW_ID));
-            }
-            cursor.close();
+    /**
+     * Returns the current snapshot of the account hierarchy.
+     * <p>The snapshot is built with a single query the first time it is requested after accounts have been modified
+     * and is then shared by all adapter instances. It should be re-requested rather than kept around,
+     * since it does not reflect changes made after it was built</p>
+     * @return {@link AccountTree} of all accounts in the database
+     */
+    public AccountTree getAccountTree(){
+        long generation;
+        synchronized (AccountsDbAdapter.class){
+            if (sAccountTree != null)
+                return sAccountTree;
+            generation = sAccountTreeGeneration;
         }
 
-        return subAccounts;
+        Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME, AccountTree.PROJECTION,
+                null, null, null, null, AccountTree.SORT_ORDER);
+        AccountTree accountTree = new AccountTree(cursor);
+        cursor.close();
+
+        synchronized (AccountsDbAdapter.class){
+            if (generation == sAccountTreeGeneration)
+                sAccountTree = accountTree;
+        }
+        return accountTree;
+    }
+
+    /**
+     * Discards the cached account tree so that it is rebuilt on the next call to {@link #getAccountTree()}.
+     * <p>Must be called whenever account records are added, modified or deleted</p>
+     */
+    public static void invalidateAccountTree(){
+        synchronized (AccountsDbAdapter.class){
+            sAccountTree = null;
+            sAccountTreeGeneration++;
+        }
     }
 
     /**
@@ -584,7 +773,7 @@ public class AccountsDbAdapter extends DatabaseAdapter {
     public Cursor fetchSubAccounts(long accountId){
         Log.v(TAG, "Fetching sub accounts for account id " + accountId);
         return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                null,
+                ACCOUNT_LIST_PROJECTION,
                 DatabaseHelper.KEY_PARENT_ACCOUNT_UID + " = ?",
                 new String[]{getAccountUID(accountId)},
                 null, null, DatabaseHelper.KEY_NAME + " ASC");
@@ -604,7 +793,7 @@ public class AccountsDbAdapter extends DatabaseAdapter {
         condition.append(")");
         condition.append(" AND ");
         condition.append(DatabaseHelper.KEY_TYPE + " != " + "'" + AccountType.ROOT.name() + "'");
-        return fetchAccounts(condition.toString());
+        return fetchAccountsForList(condition.toString());
     }
 
     /**
@@ -613,20 +802,19 @@ public class AccountsDbAdapter extends DatabaseAdapter {
      */
     public Cursor fetchRecentAccounts(int numberOfRecents){
         Cursor recentTxCursor = mDb.query(true, DatabaseHelper.TRANSACTIONS_TABLE_NAME,
-                new String[]{DatabaseHelper.KEY_ACCOUNT_UID},
+                new String[]{DatabaseHelper.KEY_ACCOUNT_ID},
                 null, null, null, null, DatabaseHelper.KEY_TIMESTAMP + " DESC", Integer.toString(numberOfRecents));
-        StringBuilder recentAccountUIDs = new StringBuilder("(");
+        StringBuilder recentAccountIds = new StringBuilder("(");
         while (recentTxCursor.moveToNext()){
-            String uid = recentTxCursor.getString(recentTxCursor.getColumnIndexOrThrow(DatabaseHelper.KEY_ACCOUNT_UID));
-            recentAccountUIDs.append("'" + uid + "'");
+            recentAccountIds.append(recentTxCursor.getLong(0));
             if (!recentTxCursor.isLast())
-                recentAccountUIDs.append(",");
+                recentAccountIds.append(",");
         }
-        recentAccountUIDs.append(")");
+        recentAccountIds.append(")");
         recentTxCursor.close();
 
         return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                null, DatabaseHelper.KEY_UID + " IN " + recentAccountUIDs.toString(),
+                ACCOUNT_LIST_PROJECTION, DatabaseHelper.KEY_ROW_ID + " IN " + recentAccountIds.toString(),
                 null, null, null, DatabaseHelper.KEY_NAME + " ASC");
 
     }
@@ -638,9 +826,7 @@ public class AccountsDbAdapter extends DatabaseAdapter {
     public Cursor fetchFavoriteAccounts(){
         Log.v(TAG, "Fetching favorite accounts from db");
         String condition = DatabaseHelper.KEY_FAVORITE + " = 1";
-        return mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                null, condition, null, null, null,
-                DatabaseHelper.KEY_NAME + " ASC");
+        return fetchAccountsForList(condition);
     }
 
     /**
@@ -654,10 +840,13 @@ public class AccountsDbAdapter extends DatabaseAdapter {
      */
     public String getGnuCashRootAccountUID(){
         String condition = DatabaseHelper.KEY_TYPE + "= '" + AccountType.ROOT.name() + "'";
-        Cursor cursor =  fetchAccounts(condition);
+        Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
+                new String[]{DatabaseHelper.KEY_UID}, condition, null, null, null, null);
         String rootUID = null;
-        if (cursor != null && cursor.moveToFirst()){
-            rootUID = cursor.getString(DatabaseAdapter.COLUMN_UID);
+        if (cursor != null){
+            if (cursor.moveToFirst()){
+                rootUID = cursor.getString(0);
+            }
             cursor.close();
         }
         return rootUID;
@@ -669,18 +858,7 @@ public class AccountsDbAdapter extends DatabaseAdapter {
      * @return Number of sub accounts
      */
     public int getSubAccountCount(long accountId){
-        //TODO: at some point when API level 11 and above only is supported, use DatabaseUtils.queryNumEntries
-
-        String queryCount = "SELECT COUNT(*) FROM " + DatabaseHelper.ACCOUNTS_TABLE_NAME + " WHERE "
-                + DatabaseHelper.KEY_PARENT_ACCOUNT_UID + " = ?";
-        String accountUID = getAccountUID(accountId);
-        if (accountUID == null) //if the account UID is null, then the accountId param was invalid. Just return
-            return 0;
-        Cursor cursor = mDb.rawQuery(queryCount, new String[]{accountUID});
-        cursor.moveToFirst();
-        int count = cursor.getInt(0);
-        cursor.close();
-        return count;
+        return getAccountTree().getChildCount(accountId);
     }
 
 	/**
@@ -807,6 +985,26 @@ public class AccountsDbAdapter extends DatabaseAdapter {
      * @return Fully qualified (with parent hierarchy) account name
      */
     public String getFullyQualifiedAccountName(String accountUID){
+        return getAccountTree().getFullName(accountUID);
+    }
+
+    /**
+     * Overloaded convenience method.
+     * Looks up the full name of the account with record ID <code>accountId</code> in the account tree
+     * @param accountId Database record ID of account
+     * @return Fully qualified (with parent hierarchy) account name
+     */
+    public String getFullyQualifiedAccountName(long accountId){
+        return getAccountTree().getFullName(accountId);
+    }
+
+    /**
+     * Computes the full account name by querying the parent accounts one after the other.
+     * <p>Used while adding accounts, when building a new {@link AccountTree} for every account would be wasteful</p>
+     * @param accountUID Unique ID of account
+     * @return Fully qualified (with parent hierarchy) account name
+     */
+    private String queryFullyQualifiedAccountName(String accountUID){
         String accountName = getAccountName(accountUID);
         String parentAccountUID = getParentAccountUID(accountUID);
 
@@ -814,54 +1012,27 @@ public class AccountsDbAdapter extends DatabaseAdapter {
             return accountName;
         }
 
-        String parentAccountName = getFullyQualifiedAccountName(parentAccountUID);
+        String parentAccountName = queryFullyQualifiedAccountName(parentAccountUID);
 
         return parentAccountName + ACCOUNT_NAME_SEPARATOR + accountName;
     }
 
-    /**
-     * Overloaded convenience method.
-     * Simply resolves the account UID and calls {@link #getFullyQualifiedAccountName(String)}
-     * @param accountId Database record ID of account
-     * @return Fully qualified (with parent hierarchy) account name
-     */
-    public String getFullyQualifiedAccountName(long accountId){
-        return getFullyQualifiedAccountName(getAccountUID(accountId));
-    }
-
     /**
      * Returns <code>true</code> if the account with unique ID <code>accountUID</code> is a placeholder account.
      * @param accountUID Unique identifier of the account
      * @return <code>true</code> if the account is a placeholder account, <code>false</code> otherwise
      */
     public boolean isPlaceholderAccount(String accountUID){
-        if (accountUID == null)
-            return false;
-
-        Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
-                new String[]{DatabaseHelper.KEY_ROW_ID, DatabaseHelper.KEY_PLACEHOLDER},
-                DatabaseHelper.KEY_UID + " = ?",
-                new String[]{accountUID}, null, null, null);
-
-        if (cursor == null)
-            return false;
-        if (!cursor.moveToFirst()) {
-            cursor.close();
-            return false;
-        }
-        boolean isPlaceholder = cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_PLACEHOLDER)) == 1;
-        cursor.close();
-
-        return isPlaceholder;
+        return getAccountTree().isPlaceholder(accountUID);
     }
 
     /**
-     * Convenience method, resolves the account unique ID and calls {@link #isPlaceholderAccount(String)}
+     * Returns <code>true</code> if the account with record ID <code>accountId</code> is a placeholder account.
      * @param accountId Database row ID of the account
      * @return <code>true</code> if the account is a placeholder account, <code>false</code> otherwise
      */
     public boolean isPlaceholderAccount(long accountId){
-        return isPlaceholderAccount(getAccountUID(accountId));
+        return getAccountTree().isPlaceholder(accountId);
     }
 
     /**
@@ -893,7 +1064,9 @@ public class AccountsDbAdapter extends DatabaseAdapter {
     @Override
 	public int deleteAllRecords(){
 		mDb.delete(DatabaseHelper.TRANSACTIONS_TABLE_NAME, null, null);
-        return mDb.delete(DatabaseHelper.ACCOUNTS_TABLE_NAME, null, null);
+        int count = mDb.delete(DatabaseHelper.ACCOUNTS_TABLE_NAME, null, null);
+        invalidateAccountTree();
+        return count;
 	}
 
 }
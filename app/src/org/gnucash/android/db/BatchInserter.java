@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Adds or updates many accounts and transactions at once, e.g. when importing a GnuCash book.
+ * <p>All records are written in a single database transaction, which is started when the inserter is created
+ * by {@link AccountsDbAdapter#beginBatchInsert()}. Records are buffered and written in batches with compiled
+ * statements. The record IDs of the existing accounts are read once up front instead of being looked up for every record.
+ * Only a bounded number of transactions is held in memory, so transactions can be streamed into the inserter</p>
+ * <p>The fully qualified account names are computed in a single in-memory pass over the account hierarchy
+ * when the inserter is committed, so parent accounts may be added after their children.
+ * Transactions may also be added before their accounts, they are linked to them when committing.
+ * Transactions which are attached to {@link Account}s are not saved, they have to be added separately</p>
+ * <p>Existing accounts and transactions whose unique IDs are not GUIDs are also matched by the GUID
+ * they are exported with, see {@link GncXmlHelper#formatGuid(String)}. Re-importing an exported book therefore
+ * updates them instead of adding copies, and they keep their unique IDs</p>
+ * <p>Records added to the inserter are new changes for incremental exports, unless the inserter is marked
+ * with {@link #markExported()}.</p>
+ * <p>The inserter must be used on the thread which created it, and must be closed in any case.
+ * Closing an inserter which has not been committed rolls back all records added to it</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class BatchInserter {
+    /**
+     * Number of records which are buffered before they are written to the database
+     */
+    public static final int BATCH_SIZE = 500;
+
+    /**
+     * Account columns which are set by the insert and update statements, in the order of the statement parameters
+     */
+    private static final String[] ACCOUNT_COLUMNS = new String[]{
+            DatabaseHelper.KEY_NAME,
+            DatabaseHelper.KEY_TYPE,
+            DatabaseHelper.KEY_UID,
+            DatabaseHelper.KEY_CURRENCY_CODE,
+            DatabaseHelper.KEY_PLACEHOLDER,
+            DatabaseHelper.KEY_COLOR_CODE,
+            DatabaseHelper.KEY_FAVORITE,
+            DatabaseHelper.KEY_FULL_NAME,
+            DatabaseHelper.KEY_PARENT_ACCOUNT_UID,
+            DatabaseHelper.KEY_DEFAULT_TRANSFER_ACCOUNT_UID
+    };
+
+    /**
+     * Transaction columns which are set by the insert and update statements, in the order of the statement parameters
+     */
+    private static final String[] TRANSACTION_COLUMNS = new String[]{
+            DatabaseHelper.KEY_NAME,
+            DatabaseHelper.KEY_AMOUNT,
+            DatabaseHelper.KEY_TYPE,
+            DatabaseHelper.KEY_UID,
+            DatabaseHelper.KEY_ACCOUNT_UID,
+            DatabaseHelper.KEY_TIMESTAMP,
+            DatabaseHelper.KEY_DESCRIPTION,
+            DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_UID,
+            DatabaseHelper.KEY_RECURRENCE_PERIOD,
+            DatabaseHelper.KEY_ACCOUNT_ID,
+            DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID
+    };
+
+    /**
+     * Database in which the records are saved. Must be the connection on which the transaction was started
+     */
+    private final SQLiteDatabase mDb;
+
+    private final SQLiteStatement mInsertAccountStatement;
+    private final SQLiteStatement mUpdateAccountStatement;
+    private final SQLiteStatement mInsertTransactionStatement;
+    private final SQLiteStatement mUpdateTransactionStatement;
+    private final SQLiteStatement mTransactionIdStatement;
+
+    /**
+     * Record IDs of the accounts in the database, including the ones added so far, by unique ID
+     */
+    private final HashMap<String, Long> mAccountIds = new HashMap<String, Long>();
+
+    /**
+     * Unique IDs of the existing accounts which are not GUIDs, by the GUID they are exported with
+     */
+    private final HashMap<String, String> mAccountUIDsByGuid = new HashMap<String, String>();
+
+    /**
+     * Unique IDs of the existing transactions which are not GUIDs, by the GUID they are exported with
+     */
+    private final HashMap<String, String> mTransactionUIDsByGuid = new HashMap<String, String>();
+
+    /**
+     * Record IDs of the accounts which were added or updated
+     */
+    private final List<Long> mSavedAccountIds = new ArrayList<Long>();
+
+    /**
+     * Accounts which have not been written to the database yet
+     */
+    private final List<Account> mPendingAccounts = new ArrayList<Account>(BATCH_SIZE);
+
+    /**
+     * Transactions which have not been written to the database yet
+     */
+    private final List<Transaction> mPendingTransactions = new ArrayList<Transaction>(BATCH_SIZE);
+
+    /**
+     * Unique IDs of the transactions which have not been written to the database yet
+     */
+    private final HashSet<String> mPendingTransactionUIDs = new HashSet<String>();
+
+    /**
+     * Change sequence number of the transactions before any records were added
+     */
+    private final long mInitialChangeSequence;
+
+    private int mTransactionCount = 0;
+    private boolean mMarkExported = false;
+    private boolean mCommitted = false;
+    private boolean mClosed = false;
+
+    /**
+     * Starts a database transaction and prepares the statements.
+     * Created by {@link AccountsDbAdapter#beginBatchInsert()}
+     * @param db Writable database
+     */
+    BatchInserter(SQLiteDatabase db){
+        mDb = db;
+        mDb.beginTransaction();
+
+        mInsertAccountStatement = mDb.compileStatement(buildInsertSql(DatabaseHelper.ACCOUNTS_TABLE_NAME, ACCOUNT_COLUMNS));
+        mUpdateAccountStatement = mDb.compileStatement(buildUpdateSql(DatabaseHelper.ACCOUNTS_TABLE_NAME, ACCOUNT_COLUMNS));
+        mInsertTransactionStatement = mDb.compileStatement(
+                buildInsertSql(DatabaseHelper.TRANSACTIONS_TABLE_NAME, TRANSACTION_COLUMNS));
+        mUpdateTransactionStatement = mDb.compileStatement(
+                buildUpdateSql(DatabaseHelper.TRANSACTIONS_TABLE_NAME, TRANSACTION_COLUMNS));
+        //yields -1 instead of failing if there is no such transaction
+        mTransactionIdStatement = mDb.compileStatement("SELECT COALESCE((SELECT " + DatabaseHelper.KEY_ROW_ID
+                + " FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
+                + " WHERE " + DatabaseHelper.KEY_UID + " = ?), -1)");
+
+        mInitialChangeSequence = DatabaseUtils.longForQuery(mDb, "SELECT " + DatabaseHelper.KEY_LAST_SEQUENCE
+                + " FROM " + DatabaseHelper.CHANGE_SEQUENCE_TABLE_NAME, null);
+
+        Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
+                new String[]{DatabaseHelper.KEY_ROW_ID, DatabaseHelper.KEY_UID},
+                null, null, null, null, null);
+        if (cursor != null){
+            while (cursor.moveToNext()){
+                String accountUID = cursor.getString(1);
+                mAccountIds.put(accountUID, cursor.getLong(0));
+                putExportedGuid(mAccountUIDsByGuid, accountUID);
+            }
+            cursor.close();
+        }
+
+        //transactions created in the app have GUIDs, only older ones and imported ones may not
+        cursor = mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME, new String[]{DatabaseHelper.KEY_UID},
+                "length(" + DatabaseHelper.KEY_UID + ") <> 32 OR " + DatabaseHelper.KEY_UID + " GLOB '*[^0-9a-f]*'",
+                null, null, null, null);
+        if (cursor != null){
+            while (cursor.moveToNext()){
+                putExportedGuid(mTransactionUIDsByGuid, cursor.getString(0));
+            }
+            cursor.close();
+        }
+    }
+
+    /**
+     * Maps the GUID which <code>uid</code> is exported with to <code>uid</code>, if they differ
+     */
+    private static void putExportedGuid(HashMap<String, String> uidsByGuid, String uid){
+        if (uid == null)
+            return;
+        String guid = GncXmlHelper.formatGuid(uid);
+        if (!guid.equals(uid))
+            uidsByGuid.put(guid, uid);
+    }
+
+    /**
+     * Returns the unique ID of the existing account which is exported with the GUID <code>accountUID</code>,
+     * or <code>accountUID</code> itself
+     */
+    private String resolveAccountUID(String accountUID){
+        String existingUID = accountUID == null ? null : mAccountUIDsByGuid.get(accountUID);
+        return existingUID == null ? accountUID : existingUID;
+    }
+
+    /**
+     * Returns the unique ID of the existing transaction which is exported with the GUID <code>transactionUID</code>,
+     * or <code>transactionUID</code> itself
+     */
+    private String resolveTransactionUID(String transactionUID){
+        String existingUID = transactionUID == null ? null : mTransactionUIDsByGuid.get(transactionUID);
+        return existingUID == null ? transactionUID : existingUID;
+    }
+
+    /**
+     * Adds an account. If an account with the same unique ID already exists, it is updated instead.
+     * The account is written to the database once the batch is full, or when the inserter is committed
+     * @param account Account to add. Must not be modified afterwards
+     */
+    public void addAccount(Account account){
+        mPendingAccounts.add(account);
+        if (mPendingAccounts.size() >= BATCH_SIZE)
+            flushAccounts();
+    }
+
+    /**
+     * Adds a transaction. If a transaction with the same unique ID already exists, it is updated instead.
+     * The transaction is written to the database once the batch is full, or when the inserter is committed
+     * @param transaction Transaction to add. Must not be modified afterwards
+     */
+    public void addTransaction(Transaction transaction){
+        mPendingTransactions.add(transaction);
+        mPendingTransactionUIDs.add(resolveTransactionUID(transaction.getUID()));
+        if (mPendingTransactions.size() >= BATCH_SIZE)
+            flushTransactions();
+    }
+
+    /**
+     * Returns <code>true</code> if a transaction with the unique ID <code>transactionUID</code> exists in the database
+     * or was added to the inserter. The lookup uses the unique index of the transactions table
+     * @param transactionUID Unique ID of a transaction
+     * @return <code>true</code> if the transaction exists, <code>false</code> otherwise
+     */
+    public boolean containsTransaction(String transactionUID){
+        transactionUID = resolveTransactionUID(transactionUID);
+        if (mPendingTransactionUIDs.contains(transactionUID))
+            return true;
+        mTransactionIdStatement.bindString(1, transactionUID);
+        return mTransactionIdStatement.simpleQueryForLong() > 0;
+    }
+
+    /**
+     * Records the added transactions as already exported, e.g. because they are imported from the book
+     * they would be exported to. When committing, the export profiles which had exported all changes before
+     * the inserter was created are moved past the added transactions.
+     * Profiles with pending changes keep them, and export the added transactions along with them
+     */
+    public void markExported(){
+        mMarkExported = true;
+    }
+
+    /**
+     * Writes the pending records, links transactions which were saved before their accounts,
+     * sets the fully qualified names of all added accounts and commits the transaction
+     */
+    public void commit(){
+        flushTransactions();
+        linkTransactions(DatabaseHelper.KEY_ACCOUNT_ID, DatabaseHelper.KEY_ACCOUNT_UID);
+        linkTransactions(DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID, DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_UID);
+        updateFullNames();
+        if (mMarkExported)
+            advanceExportProfiles();
+        mDb.setTransactionSuccessful();
+        mCommitted = true;
+        close();
+    }
+
+    /**
+     * Ends the transaction. All records are rolled back unless the inserter was committed
+     */
+    public void close(){
+        if (mClosed)
+            return;
+        mClosed = true;
+        mInsertAccountStatement.close();
+        mUpdateAccountStatement.close();
+        mInsertTransactionStatement.close();
+        mUpdateTransactionStatement.close();
+        mTransactionIdStatement.close();
+        try {
+            mDb.endTransaction();
+        } finally {
+            AccountsDbAdapter.invalidateAccountTree();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the records were committed to the database
+     * @return <code>true</code> if committed, <code>false</code> otherwise
+     */
+    public boolean isCommitted(){
+        return mCommitted;
+    }
+
+    /**
+     * Returns the number of accounts which were added or updated so far, including the pending ones
+     * @return Number of accounts
+     */
+    public int getAccountCount(){
+        return mSavedAccountIds.size() + mPendingAccounts.size();
+    }
+
+    /**
+     * Returns the number of transactions which were added or updated so far, including the pending ones
+     * @return Number of transactions
+     */
+    public int getTransactionCount(){
+        return mTransactionCount + mPendingTransactions.size();
+    }
+
+    /**
+     * Moves the export profiles which were up to date before the inserter was created to the current change sequence.
+     * The default profile is created if it does not exist yet, so that it does not export the added transactions
+     */
+    private void advanceExportProfiles(){
+        mDb.execSQL("INSERT OR IGNORE INTO " + DatabaseHelper.EXPORT_PROFILES_TABLE_NAME
+                + " (" + DatabaseHelper.KEY_NAME + ", " + DatabaseHelper.KEY_LAST_EXPORTED_SEQUENCE + ")"
+                + " VALUES (?, ?)", new Object[]{DatabaseHelper.DEFAULT_EXPORT_PROFILE_NAME, mInitialChangeSequence});
+        mDb.execSQL("UPDATE " + DatabaseHelper.EXPORT_PROFILES_TABLE_NAME
+                + " SET " + DatabaseHelper.KEY_LAST_EXPORTED_SEQUENCE
+                + " = (SELECT " + DatabaseHelper.KEY_LAST_SEQUENCE + " FROM " + DatabaseHelper.CHANGE_SEQUENCE_TABLE_NAME + ")"
+                + " WHERE " + DatabaseHelper.KEY_LAST_EXPORTED_SEQUENCE + " >= ?", new Object[]{mInitialChangeSequence});
+    }
+
+    /**
+     * Writes the pending accounts to the database
+     */
+    private void flushAccounts(){
+        for (Account account : mPendingAccounts) {
+            String accountUID = resolveAccountUID(account.getUID());
+            Long accountId = mAccountIds.get(accountUID);
+            if (accountId != null){
+                bindAccount(mUpdateAccountStatement, account);
+                mUpdateAccountStatement.bindLong(ACCOUNT_COLUMNS.length + 1, accountId);
+                mUpdateAccountStatement.execute();
+            } else {
+                bindAccount(mInsertAccountStatement, account);
+                accountId = mInsertAccountStatement.executeInsert();
+                mAccountIds.put(accountUID, accountId);
+            }
+            mSavedAccountIds.add(accountId);
+        }
+        mPendingAccounts.clear();
+    }
+
+    /**
+     * Writes the pending transactions to the database, after the pending accounts
+     * so that the transactions can reference them
+     */
+    private void flushTransactions(){
+        flushAccounts();
+        for (Transaction transaction : mPendingTransactions) {
+            mTransactionIdStatement.bindString(1, resolveTransactionUID(transaction.getUID()));
+            long transactionId = mTransactionIdStatement.simpleQueryForLong();
+            if (transactionId > 0){
+                bindTransaction(mUpdateTransactionStatement, transaction);
+                mUpdateTransactionStatement.bindLong(TRANSACTION_COLUMNS.length + 1, transactionId);
+                mUpdateTransactionStatement.execute();
+            } else {
+                bindTransaction(mInsertTransactionStatement, transaction);
+                mInsertTransactionStatement.executeInsert();
+            }
+            mTransactionCount++;
+        }
+        mPendingTransactions.clear();
+        mPendingTransactionUIDs.clear();
+    }
+
+    /**
+     * Binds the attributes of <code>account</code> to the parameters of <code>statement</code>,
+     * in the order of {@link #ACCOUNT_COLUMNS}. Unique IDs of existing accounts are bound instead of their GUIDs
+     */
+    private void bindAccount(SQLiteStatement statement, Account account){
+        statement.clearBindings();
+        bindString(statement, 1, account.getName());
+        bindString(statement, 2, account.getAccountType().name());
+        bindString(statement, 3, resolveAccountUID(account.getUID()));
+        bindString(statement, 4, account.getCurrency().getCurrencyCode());
+        statement.bindLong(5, account.isPlaceholderAccount() ? 1 : 0);
+        bindString(statement, 6, account.getColorHexCode());
+        statement.bindLong(7, account.isFavorite() ? 1 : 0);
+        //replaced by the name including the parents when committing
+        bindString(statement, 8, account.getFullName());
+        bindString(statement, 9, resolveAccountUID(account.getParentUID()));
+        bindString(statement, 10, resolveAccountUID(account.getDefaultTransferAccountUID()));
+    }
+
+    /**
+     * Binds the attributes of <code>transaction</code> to the parameters of <code>statement</code>,
+     * in the order of {@link #TRANSACTION_COLUMNS}. Accounts which are not known yet are linked when committing.
+     * Unique IDs of existing records are bound instead of their GUIDs
+     */
+    private void bindTransaction(SQLiteStatement statement, Transaction transaction){
+        String accountUID = resolveAccountUID(transaction.getAccountUID());
+        String doubleEntryAccountUID = resolveAccountUID(transaction.getDoubleEntryAccountUID());
+        statement.clearBindings();
+        bindString(statement, 1, transaction.getName());
+        bindString(statement, 2, transaction.getAmount().toPlainString());
+        bindString(statement, 3, transaction.getTransactionType().name());
+        bindString(statement, 4, resolveTransactionUID(transaction.getUID()));
+        bindString(statement, 5, accountUID);
+        statement.bindLong(6, transaction.getTimeMillis());
+        bindString(statement, 7, transaction.getDescription());
+        bindString(statement, 8, doubleEntryAccountUID);
+        statement.bindLong(9, transaction.getRecurrencePeriod());
+        bindAccountId(statement, 10, accountUID);
+        bindAccountId(statement, 11, doubleEntryAccountUID);
+    }
+
+    private void bindAccountId(SQLiteStatement statement, int index, String accountUID){
+        Long accountId = accountUID == null ? null : mAccountIds.get(accountUID);
+        if (accountId == null)
+            statement.bindNull(index);
+        else
+            statement.bindLong(index, accountId);
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value){
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
+    private static String buildInsertSql(String tableName, String[] columns){
+        StringBuilder sql = new StringBuilder("INSERT INTO " + tableName + " (");
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            String separator = i == 0 ? "" : ", ";
+            sql.append(separator).append(columns[i]);
+            parameters.append(separator).append("?");
+        }
+        return sql.append(") VALUES (").append(parameters).append(")").toString();
+    }
+
+    /**
+     * Builds an update of all <code>columns</code> of the record whose ID is the last parameter
+     */
+    private static String buildUpdateSql(String tableName, String[] columns){
+        StringBuilder sql = new StringBuilder("UPDATE " + tableName + " SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]).append(" = ?");
+        }
+        return sql.append(" WHERE " + DatabaseHelper.KEY_ROW_ID + " = ?").toString();
+    }
+
+    /**
+     * Sets the account record ID in column <code>idColumn</code> of transactions which were saved before their account.
+     * Executed on the connection of the inserter, since other connections are blocked by its transaction
+     * @see TransactionsDbAdapter#linkTransactionsToAccount(long, String)
+     */
+    private void linkTransactions(String idColumn, String uidColumn){
+        mDb.execSQL("UPDATE " + DatabaseHelper.TRANSACTIONS_TABLE_NAME + " SET " + idColumn
+                + " = (SELECT " + DatabaseHelper.KEY_ROW_ID + " FROM " + DatabaseHelper.ACCOUNTS_TABLE_NAME
+                + " WHERE " + DatabaseHelper.ACCOUNTS_TABLE_NAME + "." + DatabaseHelper.KEY_UID
+                + " = " + DatabaseHelper.TRANSACTIONS_TABLE_NAME + "." + uidColumn + ")"
+                + " WHERE " + idColumn + " IS NULL AND " + uidColumn + " IS NOT NULL");
+    }
+
+    /**
+     * Sets the fully qualified names of the added accounts from a snapshot of the account hierarchy
+     * which includes the uncommitted accounts
+     */
+    private void updateFullNames(){
+        Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME, AccountTree.PROJECTION,
+                null, null, null, null, AccountTree.SORT_ORDER);
+        AccountTree accountTree = new AccountTree(cursor);
+        cursor.close();
+
+        SQLiteStatement statement = mDb.compileStatement("UPDATE " + DatabaseHelper.ACCOUNTS_TABLE_NAME
+                + " SET " + DatabaseHelper.KEY_FULL_NAME + " = ? WHERE " + DatabaseHelper.KEY_ROW_ID + " = ?");
+        try {
+            for (long accountId : mSavedAccountIds) {
+                bindString(statement, 1, accountTree.getFullName(accountId));
+                statement.bindLong(2, accountId);
+                statement.execute();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
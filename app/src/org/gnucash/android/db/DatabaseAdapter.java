@@ -22,6 +22,9 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
 /**
  * Adapter to be used for creating and opening the database for read/write operations.
  * The adapter abstracts several methods for database access and should be subclassed
@@ -47,9 +50,11 @@ public abstract class DatabaseAdapter {
 	public static final int COLUMN_DESCRIPTION 	= 5;
 	public static final int COLUMN_TIMESTAMP 	= 6;
 	public static final int COLUMN_ACCOUNT_UID 	= 7;
-	public static final int COLUMN_EXPORTED 	= 8;
+	//column 8 is the legacy exported flag, see DatabaseHelper#KEY_EXPORTED
 	public static final int COLUMN_DOUBLE_ENTRY_ACCOUNT_UID = 9;
     public static final int COLUMN_RECURRENCE_PERIOD = 10;
+    public static final int COLUMN_ACCOUNT_ID   = 11;
+    public static final int COLUMN_DOUBLE_ENTRY_ACCOUNT_ID = 12;
 	
 	//columns indices specific to accounts
 	public static final int COLUMN_CURRENCY_CODE        = 4;
@@ -60,6 +65,15 @@ public abstract class DatabaseAdapter {
 	public static final int COLUMN_FAVORITE             = 9;
     public static final int COLUMN_FULL_NAME            = 10;
 
+    /**
+     * Pool of account unique IDs which is shared by all adapters.
+     * <p>Records loaded from the database reference the pooled UID instances instead of holding one copy
+     * of the same account UID per record. The pool only holds weak references, so UIDs which are no longer
+     * used by any object can still be garbage collected</p>
+     */
+    private static final WeakHashMap<String, WeakReference<String>> sUIDPool
+            = new WeakHashMap<String, WeakReference<String>>();
+
 	/**
 	 * {@link DatabaseHelper} for creating and opening the database
 	 */
@@ -116,6 +130,27 @@ public abstract class DatabaseAdapter {
         return mDb.isOpen();
     }
 
+    /**
+     * Returns the canonical instance of the unique ID <code>uid</code>.
+     * <p>Should be used for account UIDs read from the database, since many records reference the same accounts</p>
+     * @param uid Unique ID string, may be <code>null</code>
+     * @return Pooled string equal to <code>uid</code>, or <code>null</code> if <code>uid</code> is null
+     */
+    static String internUID(String uid){
+        if (uid == null)
+            return null;
+
+        synchronized (sUIDPool){
+            WeakReference<String> reference = sUIDPool.get(uid);
+            String pooledUID = reference == null ? null : reference.get();
+            if (pooledUID == null){
+                sUIDPool.put(uid, new WeakReference<String>(uid));
+                pooledUID = uid;
+            }
+            return pooledUID;
+        }
+    }
+
     /**
      * Returns the context used to create this adapter
      * @return Android application context
@@ -46,7 +46,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 * Database version.
 	 * With any change to the database schema, this number must increase
 	 */
-	private static final int DATABASE_VERSION = 6;
+	private static final int DATABASE_VERSION = 9;
 	
 	/**
 	 * Name of accounts table
@@ -57,6 +57,23 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 * Name of transactions table
 	 */
 	public static final String TRANSACTIONS_TABLE_NAME 	= "transactions";
+
+    /**
+     * Name of the table of export profiles.
+     * Each profile stores the change sequence up to which transactions have been exported for it
+     */
+    public static final String EXPORT_PROFILES_TABLE_NAME = "export_profiles";
+
+    /**
+     * Name of the single-row table holding the last change sequence number which was handed out
+     */
+    public static final String CHANGE_SEQUENCE_TABLE_NAME = "change_sequence";
+
+    /**
+     * Name of the export profile used when no other profile is specified.
+     * Databases upgraded from versions which used the exported flags start with this profile
+     */
+    public static final String DEFAULT_EXPORT_PROFILE_NAME = "default";
 	
 	/**
 	 * Name of the row ID of database records
@@ -114,6 +131,19 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 */
 	public static final String KEY_DOUBLE_ENTRY_ACCOUNT_UID 	= "double_account_uid";
 
+    /**
+     * Database record ID of the account to which a transaction belongs.
+     * <p>Queries use this column instead of {@link #KEY_ACCOUNT_UID} to match transactions with accounts.
+     * The unique ID is only kept for the identity of the account during import and export</p>
+     */
+    public static final String KEY_ACCOUNT_ID = "account_id";
+
+    /**
+     * Database record ID of the double entry account of a transaction.
+     * Integer counterpart of {@link #KEY_DOUBLE_ENTRY_ACCOUNT_UID}
+     */
+    public static final String KEY_DOUBLE_ENTRY_ACCOUNT_ID = "double_account_id";
+
     /**
      * Each account has a default target for transfers when in double entry mode unless otherwise specified.
      * This key holds the UID of the default transfer account for double entries.
@@ -137,7 +167,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	public static final String KEY_TIMESTAMP 	= "timestamp";
 	
 	/**
-	 * Flag for exported transactions in the database
+	 * Flag for exported transactions in the database.
+	 * Only read when upgrading to version 8, exports are tracked with {@link #KEY_CHANGE_SEQUENCE} since then
 	 */
 	public static final String KEY_EXPORTED		= "is_exported";
 
@@ -157,6 +188,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     public static final String KEY_FAVORITE = "favorite";
 
+    /**
+     * Change sequence number of a transaction.
+     * Every insert or modification of a transaction assigns it a number higher than all before
+     */
+    public static final String KEY_CHANGE_SEQUENCE = "change_seq";
+
+    /**
+     * Change sequence number up to which the transactions have been exported for an export profile
+     */
+    public static final String KEY_LAST_EXPORTED_SEQUENCE = "last_exported_seq";
+
+    /**
+     * Last change sequence number handed out, in the change sequence table
+     */
+    public static final String KEY_LAST_SEQUENCE = "last_seq";
+
 	/**********************************************************************************************************
 	//if you modify the order of the columns (i.e. the way they are created), 
 	//make sure to modify the indices in DatabaseAdapter
@@ -195,11 +242,111 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			+ KEY_EXPORTED 		+ " tinyint default 0, "
 			+ KEY_DOUBLE_ENTRY_ACCOUNT_UID 	+ " varchar(255), "
             + KEY_RECURRENCE_PERIOD         + " integer default 0, "
+            + KEY_ACCOUNT_ID                + " integer, "
+            + KEY_DOUBLE_ENTRY_ACCOUNT_ID   + " integer, "
+            + KEY_CHANGE_SEQUENCE           + " integer default 0, "
 			+ "FOREIGN KEY (" 	+ KEY_ACCOUNT_UID + ") REFERENCES " + ACCOUNTS_TABLE_NAME + " (" + KEY_UID + "), "
 			+ "FOREIGN KEY (" 	+ KEY_DOUBLE_ENTRY_ACCOUNT_UID + ") REFERENCES " + ACCOUNTS_TABLE_NAME + " (" + KEY_UID + "), "
+            + "FOREIGN KEY (" 	+ KEY_ACCOUNT_ID + ") REFERENCES " + ACCOUNTS_TABLE_NAME + " (" + KEY_ROW_ID + "), "
+            + "FOREIGN KEY (" 	+ KEY_DOUBLE_ENTRY_ACCOUNT_ID + ") REFERENCES " + ACCOUNTS_TABLE_NAME + " (" + KEY_ROW_ID + "), "
 			+ "UNIQUE (" 		+ KEY_UID + ") " 
 			+ ");";
 
+    /**
+     * SQL statement to create the index of transactions by account record ID
+     */
+    private static final String TRANSACTIONS_ACCOUNT_ID_INDEX_CREATE = "create index if not exists "
+            + "transactions_account_id_index on " + TRANSACTIONS_TABLE_NAME + " (" + KEY_ACCOUNT_ID + ");";
+
+    /**
+     * SQL statement to create the index of transactions by double entry account record ID
+     */
+    private static final String TRANSACTIONS_DOUBLE_ACCOUNT_ID_INDEX_CREATE = "create index if not exists "
+            + "transactions_double_account_id_index on " + TRANSACTIONS_TABLE_NAME + " (" + KEY_DOUBLE_ENTRY_ACCOUNT_ID + ");";
+
+    /**
+     * SQL statement to create the index of transactions by change sequence number
+     */
+    private static final String TRANSACTIONS_CHANGE_SEQUENCE_INDEX_CREATE = "create index if not exists "
+            + "transactions_change_seq_index on " + TRANSACTIONS_TABLE_NAME + " (" + KEY_CHANGE_SEQUENCE + ");";
+
+    /**
+     * SQL statement to create the index of transactions by time, for exports of a date range
+     */
+    private static final String TRANSACTIONS_TIMESTAMP_INDEX_CREATE = "create index if not exists "
+            + "transactions_timestamp_index on " + TRANSACTIONS_TABLE_NAME + " (" + KEY_TIMESTAMP + ");";
+
+    /**
+     * SQL statement to create the export profiles table
+     */
+    private static final String EXPORT_PROFILES_TABLE_CREATE = "create table " + EXPORT_PROFILES_TABLE_NAME + " ("
+            + KEY_ROW_ID                    + " integer primary key autoincrement, "
+            + KEY_NAME                      + " varchar(255) not null, "
+            + KEY_LAST_EXPORTED_SEQUENCE    + " integer not null default 0, "
+            + "UNIQUE (" + KEY_NAME + ")"
+            + ");";
+
+    /**
+     * SQL statement to create the change sequence table
+     */
+    private static final String CHANGE_SEQUENCE_TABLE_CREATE = "create table " + CHANGE_SEQUENCE_TABLE_NAME + " ("
+            + KEY_LAST_SEQUENCE + " integer not null"
+            + ");";
+
+    /**
+     * SQL statements of the trigger body which assigns the next change sequence number to a transaction
+     */
+    private static final String ASSIGN_CHANGE_SEQUENCE = " BEGIN"
+            + " UPDATE " + CHANGE_SEQUENCE_TABLE_NAME + " SET " + KEY_LAST_SEQUENCE + " = " + KEY_LAST_SEQUENCE + " + 1;"
+            + " UPDATE " + TRANSACTIONS_TABLE_NAME + " SET " + KEY_CHANGE_SEQUENCE
+            + " = (SELECT " + KEY_LAST_SEQUENCE + " FROM " + CHANGE_SEQUENCE_TABLE_NAME + ")"
+            + " WHERE " + KEY_ROW_ID + " = NEW." + KEY_ROW_ID + ";"
+            + " END;";
+
+    /**
+     * SQL statement to create the trigger which numbers inserted transactions
+     */
+    private static final String TRANSACTIONS_INSERT_TRIGGER_CREATE = "create trigger if not exists "
+            + "transactions_insert_change_seq AFTER INSERT ON " + TRANSACTIONS_TABLE_NAME
+            + ASSIGN_CHANGE_SEQUENCE;
+
+    /**
+     * Transaction columns whose changes count as modifications, because they are exported
+     */
+    private static final String[] CHANGE_SEQUENCE_COLUMNS = new String[]{
+            KEY_NAME, KEY_TYPE, KEY_AMOUNT, KEY_DESCRIPTION,
+            KEY_TIMESTAMP, KEY_ACCOUNT_UID, KEY_DOUBLE_ENTRY_ACCOUNT_UID, KEY_RECURRENCE_PERIOD
+    };
+
+    /**
+     * Name of the trigger which renumbers modified transactions
+     */
+    private static final String TRANSACTIONS_UPDATE_TRIGGER_NAME = "transactions_update_change_seq";
+
+    /**
+     * SQL statement to create the trigger which renumbers modified transactions.
+     * Only changes to the exported contents of a transaction count as modifications, so saving a transaction
+     * with the same contents again, e.g. when importing the same file twice, does not renumber it
+     */
+    private static final String TRANSACTIONS_UPDATE_TRIGGER_CREATE = buildUpdateTriggerSql();
+
+    private static String buildUpdateTriggerSql(){
+        StringBuilder columns = new StringBuilder();
+        StringBuilder changedCondition = new StringBuilder();
+        for (String column : CHANGE_SEQUENCE_COLUMNS) {
+            if (columns.length() > 0){
+                columns.append(", ");
+                changedCondition.append(" OR ");
+            }
+            columns.append(column);
+            changedCondition.append("OLD.").append(column).append(" IS NOT NEW.").append(column);
+        }
+        return "create trigger if not exists " + TRANSACTIONS_UPDATE_TRIGGER_NAME
+                + " AFTER UPDATE OF " + columns + " ON " + TRANSACTIONS_TABLE_NAME
+                + " WHEN " + changedCondition
+                + ASSIGN_CHANGE_SEQUENCE;
+    }
+
 	/**
 	 * Constructor
 	 * @param context Application context
@@ -213,8 +360,25 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		Log.i(TAG, "Creating gnucash database tables");
 		db.execSQL(ACCOUNTS_TABLE_CREATE);
 		db.execSQL(TRANSACTIONS_TABLE_CREATE);
+        db.execSQL(TRANSACTIONS_ACCOUNT_ID_INDEX_CREATE);
+        db.execSQL(TRANSACTIONS_DOUBLE_ACCOUNT_ID_INDEX_CREATE);
+        db.execSQL(TRANSACTIONS_TIMESTAMP_INDEX_CREATE);
+        createChangeSequence(db);
 	}
 
+    /**
+     * Creates the tables, index and triggers for numbering transaction changes and tracking exports
+     * @param db SQLite database
+     */
+    private void createChangeSequence(SQLiteDatabase db){
+        db.execSQL(EXPORT_PROFILES_TABLE_CREATE);
+        db.execSQL(CHANGE_SEQUENCE_TABLE_CREATE);
+        db.execSQL("INSERT INTO " + CHANGE_SEQUENCE_TABLE_NAME + " (" + KEY_LAST_SEQUENCE + ") VALUES (0)");
+        db.execSQL(TRANSACTIONS_CHANGE_SEQUENCE_INDEX_CREATE);
+        db.execSQL(TRANSACTIONS_INSERT_TRIGGER_CREATE);
+        db.execSQL(TRANSACTIONS_UPDATE_TRIGGER_CREATE);
+    }
+
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		Log.i(TAG, "Upgrading database from version " 
@@ -313,6 +477,62 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
                 oldVersion = 6;
             }
+
+            if (oldVersion == 6 && newVersion >= 7){
+                Log.i(TAG, "Upgrading database to version 7");
+                Log.i(TAG, "Adding integer account references to transactions");
+                db.execSQL("ALTER TABLE " + TRANSACTIONS_TABLE_NAME
+                        + " ADD COLUMN " + KEY_ACCOUNT_ID + " integer");
+                db.execSQL("ALTER TABLE " + TRANSACTIONS_TABLE_NAME
+                        + " ADD COLUMN " + KEY_DOUBLE_ENTRY_ACCOUNT_ID + " integer");
+
+                //resolve the account record IDs from the existing unique ID references
+                db.execSQL("UPDATE " + TRANSACTIONS_TABLE_NAME + " SET " + KEY_ACCOUNT_ID
+                        + " = (SELECT " + KEY_ROW_ID + " FROM " + ACCOUNTS_TABLE_NAME
+                        + " WHERE " + ACCOUNTS_TABLE_NAME + "." + KEY_UID + " = "
+                        + TRANSACTIONS_TABLE_NAME + "." + KEY_ACCOUNT_UID + ")");
+                db.execSQL("UPDATE " + TRANSACTIONS_TABLE_NAME + " SET " + KEY_DOUBLE_ENTRY_ACCOUNT_ID
+                        + " = (SELECT " + KEY_ROW_ID + " FROM " + ACCOUNTS_TABLE_NAME
+                        + " WHERE " + ACCOUNTS_TABLE_NAME + "." + KEY_UID + " = "
+                        + TRANSACTIONS_TABLE_NAME + "." + KEY_DOUBLE_ENTRY_ACCOUNT_UID + ")");
+
+                db.execSQL(TRANSACTIONS_ACCOUNT_ID_INDEX_CREATE);
+                db.execSQL(TRANSACTIONS_DOUBLE_ACCOUNT_ID_INDEX_CREATE);
+
+                oldVersion = 7;
+            }
+
+            if (oldVersion == 7 && newVersion >= 8){
+                Log.i(TAG, "Upgrading database to version 8");
+                Log.i(TAG, "Replacing exported flags with change sequence numbers");
+                db.execSQL("ALTER TABLE " + TRANSACTIONS_TABLE_NAME
+                        + " ADD COLUMN " + KEY_CHANGE_SEQUENCE + " integer default 0");
+
+                //number the exported transactions below the unexported ones,
+                //so that the default profile has exported exactly the transactions which were flagged
+                String maxRowId = "(SELECT IFNULL(MAX(" + KEY_ROW_ID + "), 0) FROM " + TRANSACTIONS_TABLE_NAME + ")";
+                db.execSQL("UPDATE " + TRANSACTIONS_TABLE_NAME + " SET " + KEY_CHANGE_SEQUENCE + " = " + KEY_ROW_ID
+                        + " WHERE " + KEY_EXPORTED + " = 1");
+                db.execSQL("UPDATE " + TRANSACTIONS_TABLE_NAME + " SET " + KEY_CHANGE_SEQUENCE
+                        + " = " + KEY_ROW_ID + " + " + maxRowId
+                        + " WHERE " + KEY_EXPORTED + " IS NOT 1");
+
+                createChangeSequence(db);
+                db.execSQL("UPDATE " + CHANGE_SEQUENCE_TABLE_NAME + " SET " + KEY_LAST_SEQUENCE + " = 2 * " + maxRowId);
+                db.execSQL("INSERT INTO " + EXPORT_PROFILES_TABLE_NAME
+                        + " (" + KEY_NAME + ", " + KEY_LAST_EXPORTED_SEQUENCE + ")"
+                        + " VALUES ('" + DEFAULT_EXPORT_PROFILE_NAME + "', " + maxRowId + ")");
+
+                oldVersion = 8;
+            }
+
+            if (oldVersion == 8 && newVersion >= 9){
+                Log.i(TAG, "Upgrading database to version 9");
+                Log.i(TAG, "Adding index of transactions by time");
+                db.execSQL(TRANSACTIONS_TIMESTAMP_INDEX_CREATE);
+
+                oldVersion = 9;
+            }
 		}
 
         if (oldVersion != newVersion) {
@@ -29,6 +29,7 @@ import org.gnucash.android.model.Transaction.TransactionType;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Currency;
 import java.util.List;
 
@@ -40,6 +41,49 @@ import java.util.List;
  */
 public class TransactionsDbAdapter extends DatabaseAdapter {
 
+    /**
+     * Columns needed to display a transaction in the transactions list of an account
+     * @see #fetchTransactionsForList(long)
+     */
+    public static final String[] TRANSACTION_LIST_PROJECTION = new String[]{
+            DatabaseHelper.KEY_ROW_ID,
+            DatabaseHelper.KEY_NAME,
+            DatabaseHelper.KEY_AMOUNT,
+            DatabaseHelper.KEY_DESCRIPTION,
+            DatabaseHelper.KEY_TIMESTAMP,
+            DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID
+    };
+
+    /*
+     * Column indices for cursors with the TRANSACTION_LIST_PROJECTION
+     */
+    public static final int TRANSACTION_LIST_COLUMN_AMOUNT        = 2;
+    public static final int TRANSACTION_LIST_COLUMN_DESCRIPTION   = 3;
+    public static final int TRANSACTION_LIST_COLUMN_TIMESTAMP     = 4;
+    public static final int TRANSACTION_LIST_COLUMN_DOUBLE_ENTRY_ACCOUNT_ID = 5;
+
+    /*
+     * Column indices for cursors returned by fetchTransactionsForExport(boolean).
+     * The statement account is the account under which the row is exported,
+     * and the transfer account is the other account of the transaction
+     */
+    public static final int EXPORT_COLUMN_ACCOUNT_ID                = 0;
+    public static final int EXPORT_COLUMN_ACCOUNT_UID               = 1;
+    public static final int EXPORT_COLUMN_ACCOUNT_FULL_NAME         = 2;
+    public static final int EXPORT_COLUMN_ACCOUNT_TYPE              = 3;
+    public static final int EXPORT_COLUMN_CURRENCY_CODE             = 4;
+    public static final int EXPORT_COLUMN_UID                       = 5;
+    public static final int EXPORT_COLUMN_NAME                      = 6;
+    public static final int EXPORT_COLUMN_TYPE                      = 7;
+    public static final int EXPORT_COLUMN_AMOUNT                    = 8;
+    public static final int EXPORT_COLUMN_DESCRIPTION               = 9;
+    public static final int EXPORT_COLUMN_TIMESTAMP                 = 10;
+    public static final int EXPORT_COLUMN_EXPORTED                  = 11;
+    public static final int EXPORT_COLUMN_TRANSFER_ACCOUNT_UID      = 12;
+    public static final int EXPORT_COLUMN_TRANSFER_ACCOUNT_FULL_NAME = 13;
+    public static final int EXPORT_COLUMN_TRANSFER_ACCOUNT_TYPE     = 14;
+    public static final int EXPORT_COLUMN_TRANSFER_SIDE             = 15;
+
 	/**
 	 * Constructor. 
 	 * Calls to the base class to open the database
@@ -65,9 +109,10 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 		contentValues.put(DatabaseHelper.KEY_ACCOUNT_UID, transaction.getAccountUID());
 		contentValues.put(DatabaseHelper.KEY_TIMESTAMP, transaction.getTimeMillis());
 		contentValues.put(DatabaseHelper.KEY_DESCRIPTION, transaction.getDescription());
-		contentValues.put(DatabaseHelper.KEY_EXPORTED, transaction.isExported() ? 1 : 0);
 		contentValues.put(DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_UID, transaction.getDoubleEntryAccountUID());
 		contentValues.put(DatabaseHelper.KEY_RECURRENCE_PERIOD, transaction.getRecurrencePeriod());
+        putAccountID(contentValues, DatabaseHelper.KEY_ACCOUNT_ID, transaction.getAccountUID());
+        putAccountID(contentValues, DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID, transaction.getDoubleEntryAccountUID());
 
 		long rowId = -1;
 		if ((rowId = fetchTransactionWithUID(transaction.getUID())) > 0){
@@ -82,6 +127,44 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 		return rowId;
 	}
 
+    /**
+     * Resolves the record ID of the account with unique ID <code>accountUID</code> and puts it in <code>contentValues</code>.
+     * <p>If the account does not exist (yet), the column is set to NULL.
+     * It is filled in later by {@link #linkTransactionsToAccount(long, String)} when the account is added</p>
+     * @param contentValues Content values of the transaction record
+     * @param columnKey Name of the account ID column
+     * @param accountUID Unique ID of the account which is referenced
+     */
+    private void putAccountID(ContentValues contentValues, String columnKey, String accountUID){
+        long accountId = accountUID == null ? -1 : getAccountID(accountUID);
+        if (accountId > 0)
+            contentValues.put(columnKey, accountId);
+        else
+            contentValues.putNull(columnKey);
+    }
+
+    /**
+     * Sets the account record ID on transactions which reference the account with unique ID <code>accountUID</code>
+     * but were saved before the account itself.
+     * <p>This happens e.g. when importing, where transfer transactions may be saved before their double entry account</p>
+     * @param accountId Database record ID of the account
+     * @param accountUID Unique ID of the account
+     */
+    public void linkTransactionsToAccount(long accountId, String accountUID){
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseHelper.KEY_ACCOUNT_ID, accountId);
+        mDb.update(DatabaseHelper.TRANSACTIONS_TABLE_NAME, contentValues,
+                DatabaseHelper.KEY_ACCOUNT_ID + " IS NULL AND " + DatabaseHelper.KEY_ACCOUNT_UID + " = ?",
+                new String[]{accountUID});
+
+        contentValues = new ContentValues();
+        contentValues.put(DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID, accountId);
+        mDb.update(DatabaseHelper.TRANSACTIONS_TABLE_NAME, contentValues,
+                DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " IS NULL AND "
+                        + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_UID + " = ?",
+                new String[]{accountUID});
+    }
+
     /**
 	 * Fetch a transaction from the database which has a unique ID <code>uid</code>
 	 * @param uid Unique Identifier of transaction to be retrieved
@@ -132,15 +215,7 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 	 * @return Cursor holding set of transactions for particular account
 	 */
 	public Cursor fetchAllTransactionsForAccount(String accountUID){
-        //fetch transactions from this account except recurring transactions. Those have their own view
-		Cursor cursor = mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME, 
-				null, 
-				"((" + DatabaseHelper.KEY_ACCOUNT_UID + " = '" + accountUID + "') "
-				+ "OR (" + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_UID + " = '" + accountUID + "' ))"
-                + " AND " + DatabaseHelper.KEY_RECURRENCE_PERIOD + " = 0",
-				null, null, null, DatabaseHelper.KEY_TIMESTAMP + " DESC");
-
-		return cursor;
+		return fetchAllTransactionsForAccount(getAccountID(accountUID));
 	}
 
     /**
@@ -166,8 +241,30 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 	 * @return Cursor holding set of transactions for particular account
 	 */
 	public Cursor fetchAllTransactionsForAccount(long accountID){
-		return fetchAllTransactionsForAccount(getAccountUID(accountID));	
+        //fetch transactions from this account except recurring transactions. Those have their own view
+		return mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME,
+				null,
+				"(" + DatabaseHelper.KEY_ACCOUNT_ID + " = " + accountID
+				+ " OR " + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " = " + accountID + ")"
+                + " AND " + DatabaseHelper.KEY_RECURRENCE_PERIOD + " = 0",
+				null, null, null, DatabaseHelper.KEY_TIMESTAMP + " DESC");
 	}
+
+    /**
+     * Returns a cursor to the transactions of the account with ID <code>accountID</code> for display in a list.
+     * <p>The same transactions as in {@link #fetchAllTransactionsForAccount(long)} are returned, but the cursor
+     * only contains the columns in {@link #TRANSACTION_LIST_PROJECTION}</p>
+     * @param accountID ID of the account whose transactions are to be retrieved
+     * @return Cursor holding set of transactions for particular account
+     */
+    public Cursor fetchTransactionsForList(long accountID){
+        return mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME,
+                TRANSACTION_LIST_PROJECTION,
+                "(" + DatabaseHelper.KEY_ACCOUNT_ID + " = " + accountID
+                + " OR " + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " = " + accountID + ")"
+                + " AND " + DatabaseHelper.KEY_RECURRENCE_PERIOD + " = 0",
+                null, null, null, DatabaseHelper.KEY_TIMESTAMP + " DESC");
+    }
 	
 	/**
 	 * Returns list of all transactions for account with UID <code>accountUID</code>
@@ -219,8 +316,8 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 	 * @return {@link Transaction} object constructed from database record
 	 */
 	public Transaction buildTransactionInstance(Cursor c){		
-		String accountUID = c.getString(DatabaseAdapter.COLUMN_ACCOUNT_UID);
-		String doubleAccountUID = c.getString(DatabaseAdapter.COLUMN_DOUBLE_ENTRY_ACCOUNT_UID);
+		String accountUID = internUID(c.getString(DatabaseAdapter.COLUMN_ACCOUNT_UID));
+		String doubleAccountUID = internUID(c.getString(DatabaseAdapter.COLUMN_DOUBLE_ENTRY_ACCOUNT_UID));
 		Currency currency = Currency.getInstance(getCurrencyCode(accountUID));
 		String amount = c.getString(DatabaseAdapter.COLUMN_AMOUNT);
 		Money moneyAmount = new Money(new BigDecimal(amount), currency);
@@ -232,7 +329,6 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 		transaction.setAccountUID(accountUID);
 		transaction.setTime(c.getLong(DatabaseAdapter.COLUMN_TIMESTAMP));
 		transaction.setDescription(c.getString(DatabaseAdapter.COLUMN_DESCRIPTION));
-		transaction.setExported(c.getInt(DatabaseAdapter.COLUMN_EXPORTED) == 1);
 		transaction.setDoubleEntryAccountUID(doubleAccountUID);
         transaction.setRecurrencePeriod(recurrencePeriod);
 		transaction.setTransactionType(Transaction.TransactionType.valueOf(c.getString(DatabaseAdapter.COLUMN_TYPE)));
@@ -274,8 +370,18 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 	 * @see #getCurrencyCode(String)
 	 */
 	public String getCurrencyCode(long accountId){
-		String accountUID = getAccountUID(accountId);
-		return getCurrencyCode(accountUID);
+		Cursor cursor = mDb.query(DatabaseHelper.ACCOUNTS_TABLE_NAME,
+				new String[] {DatabaseHelper.KEY_CURRENCY_CODE},
+				DatabaseHelper.KEY_ROW_ID + " = " + accountId,
+				null, null, null, null);
+		String currencyCode = null;
+		if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                currencyCode = cursor.getString(0);
+            }
+            cursor.close();
+        }
+		return currencyCode;
 	}
 	
 	/**
@@ -319,6 +425,7 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 		String accountUID = getAccountUID(accountId);
 		ContentValues contentValue = new ContentValues();
 		contentValue.put(DatabaseHelper.KEY_ACCOUNT_UID, accountUID);
+		contentValue.put(DatabaseHelper.KEY_ACCOUNT_ID, accountId);
 		
 		return mDb.update(DatabaseHelper.TRANSACTIONS_TABLE_NAME, 
 				contentValue, 
@@ -332,16 +439,65 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 	 * @return Number of transactions assigned to account with id <code>accountId</code>
 	 */
 	public int getTransactionsCount(long accountId){
-		Cursor cursor = fetchAllTransactionsForAccount(accountId);
-		int count = 0;
-		if (cursor == null)
-			return count;
-		else {
-			count = cursor.getCount();
-			cursor.close();
-		}
-		return count;
-	}
+        String queryCount = "SELECT COUNT(*) FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
+                + " WHERE (" + DatabaseHelper.KEY_ACCOUNT_ID + " = ? OR "
+                + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " = ?) AND "
+                + DatabaseHelper.KEY_RECURRENCE_PERIOD + " = 0";
+        String accountIdArg = Long.toString(accountId);
+        Cursor cursor = mDb.rawQuery(queryCount, new String[]{accountIdArg, accountIdArg});
+        int count = 0;
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+            cursor.close();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of transactions belonging to account with unique ID <code>accountUID</code>.
+     * <p>Transactions for which the account is the double entry account are counted as well,
+     * but recurring transactions are not. The count is computed in the database, so no transactions are loaded</p>
+     * @param accountUID Unique Identifier of the account
+     * @return Number of transactions assigned to account with unique ID <code>accountUID</code>
+     */
+    public int getTransactionsCount(String accountUID){
+        return getTransactionsCount(getAccountID(accountUID));
+    }
+
+    /**
+     * Returns <code>true</code> if the account with unique ID <code>accountUID</code> has at least one transaction.
+     * @param accountUID Unique Identifier of the account
+     * @return <code>true</code> if the account has transactions, <code>false</code> otherwise
+     * @see #hasTransactions(long)
+     */
+    public boolean hasTransactions(String accountUID){
+        return hasTransactions(getAccountID(accountUID));
+    }
+
+    /**
+     * Returns <code>true</code> if the account with record ID <code>accountId</code> has at least one transaction.
+     * <p>This is cheaper than {@link #getTransactionsCount(long)} since the query stops at the first match</p>
+     * @param accountId Database record ID of the account
+     * @return <code>true</code> if the account has transactions, <code>false</code> otherwise
+     */
+    public boolean hasTransactions(long accountId){
+        String accountIdArg = Long.toString(accountId);
+        Cursor cursor = mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME,
+                new String[]{DatabaseHelper.KEY_ROW_ID},
+                "(" + DatabaseHelper.KEY_ACCOUNT_ID + " = ? OR "
+                + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " = ?) AND "
+                + DatabaseHelper.KEY_RECURRENCE_PERIOD + " = 0",
+                new String[]{accountIdArg, accountIdArg},
+                null, null, null, "1");
+        boolean hasTransactions = false;
+        if (cursor != null) {
+            hasTransactions = cursor.moveToFirst();
+            cursor.close();
+        }
+        return hasTransactions;
+    }
 	
 	/**
 	 * Returns the total number of transactions in the database
@@ -362,14 +518,14 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 	 */
 	public Money getTransactionsSum(long accountId) {
         //FIXME: Properly compute the balance while considering normal account balance
-        String accountUID = getAccountUID(accountId);
+        String accountIdArg = Long.toString(accountId);
 
         String querySum = "SELECT TOTAL(" + DatabaseHelper.KEY_AMOUNT
                 + ") FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
-                + " WHERE " + DatabaseHelper.KEY_ACCOUNT_UID + " = ? AND "
+                + " WHERE " + DatabaseHelper.KEY_ACCOUNT_ID + " = ? AND "
                 + DatabaseHelper.KEY_RECURRENCE_PERIOD + "=0";
 
-        Cursor sumCursor = mDb.rawQuery(querySum, new String[]{accountUID});
+        Cursor sumCursor = mDb.rawQuery(querySum, new String[]{accountIdArg});
         double sum = 0d;
 
         if (sumCursor != null) {
@@ -381,10 +537,10 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
 
         querySum = "SELECT TOTAL(" + DatabaseHelper.KEY_AMOUNT
                 + ") FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
-                + " WHERE " + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_UID + " = ? AND "
+                + " WHERE " + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " = ? AND "
                 + DatabaseHelper.KEY_RECURRENCE_PERIOD + "=0";
 
-        sumCursor = mDb.rawQuery(querySum, new String[]{accountUID});
+        sumCursor = mDb.rawQuery(querySum, new String[]{accountIdArg});
 
         if (sumCursor != null) {
             if (sumCursor.moveToFirst()) {
@@ -394,7 +550,7 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
         }
 
         BigDecimal sumDecimal = new BigDecimal(sum);
-        Currency currency = Currency.getInstance(getCurrencyCode(accountUID));
+        Currency currency = Currency.getInstance(getCurrencyCode(accountId));
         return new Money(sumDecimal, currency);
 	}
 	
@@ -428,31 +584,202 @@ public class TransactionsDbAdapter extends DatabaseAdapter {
         return Account.AccountType.valueOf(type);
     }
 
+    /**
+     * Returns a cursor to the transactions for export, joined with their accounts.
+     * <p>Each row carries the full name, type and currency of the statement account and the
+     * unique ID, full name and type of the transfer account, so that exporters need no further queries.
+     * The columns are given by the <code>EXPORT_COLUMN_*</code> constants.
+     * Rows are grouped by statement account and ordered by time, newest first, within each account.
+     * Recurring transactions are not included</p>
+     * <p>If <code>includeTransferSide</code> is <code>true</code>, every transfer also appears a second time
+     * under its transfer account, with {@link #EXPORT_COLUMN_TRANSFER_SIDE} set to 1 and the accounts swapped.
+     * The amount is not negated on that row</p>
+     * @param includeTransferSide Include the rows for the transfer accounts of transactions
+     * @param lastExportedSequence Change sequence number up to which transactions count as exported
+     * @param changedOnly Only return transactions which changed after <code>lastExportedSequence</code>
+     * @return Cursor to the transactions for export
+     * @see #getLastExportedSequence(String)
+     */
+    public Cursor fetchTransactionsForExport(boolean includeTransferSide, long lastExportedSequence, boolean changedOnly){
+        return fetchTransactionsForExport(includeTransferSide, lastExportedSequence, changedOnly, 0, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Returns a cursor to the transactions for export in a time range and for a subset of the accounts.
+     * The filters are part of the query, so rows which do not match them are never read.
+     * <p>Every transaction which has one of the accounts <code>accountIds</code> as account or as transfer account
+     * is returned. If <code>includeTransferSide</code> is <code>true</code>, the rows of such a transaction
+     * are returned under both of its accounts, including the one which was not selected.
+     * Callers which list transfers under both accounts skip the sections of the accounts which were not selected</p>
+     * @param includeTransferSide Include the rows for the transfer accounts of transactions
+     * @param lastExportedSequence Change sequence number up to which transactions count as exported
+     * @param changedOnly Only return transactions which changed after <code>lastExportedSequence</code>
+     * @param startTime Earliest time of the transactions in milliseconds, inclusive
+     * @param endTime Time in milliseconds before which the transactions lie, exclusive. <code>Long.MAX_VALUE</code> for no limit
+     * @param accountIds Database record IDs of the exported accounts, or <code>null</code> to export all accounts
+     * @return Cursor to the transactions for export
+     * @see #fetchTransactionsForExport(boolean, long, boolean)
+     */
+    public Cursor fetchTransactionsForExport(boolean includeTransferSide, long lastExportedSequence, boolean changedOnly,
+                                             long startTime, long endTime, Collection<Long> accountIds){
+        String condition = "t." + DatabaseHelper.KEY_RECURRENCE_PERIOD + " = 0";
+        if (changedOnly){
+            condition += " AND t." + DatabaseHelper.KEY_CHANGE_SEQUENCE + " > " + lastExportedSequence;
+        }
+        if (startTime > 0){
+            condition += " AND t." + DatabaseHelper.KEY_TIMESTAMP + " >= " + startTime;
+        }
+        if (endTime < Long.MAX_VALUE){
+            condition += " AND t." + DatabaseHelper.KEY_TIMESTAMP + " < " + endTime;
+        }
+
+        String accountCondition = "";
+        String transferAccountCondition = "";
+        if (accountIds != null){
+            StringBuilder idList = new StringBuilder();
+            for (Long accountId : accountIds) {
+                if (idList.length() > 0)
+                    idList.append(',');
+                idList.append(accountId);
+            }
+            accountCondition = " AND (t." + DatabaseHelper.KEY_ACCOUNT_ID + " IN (" + idList + ")"
+                    + " OR t." + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " IN (" + idList + "))";
+            transferAccountCondition = " AND t." + DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID + " IN (" + idList + ")";
+        }
+
+        String query = buildExportQuery(DatabaseHelper.KEY_ACCOUNT_ID, DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID, 0,
+                lastExportedSequence, condition + accountCondition);
+        if (includeTransferSide){
+            query += " UNION ALL " + buildExportQuery(DatabaseHelper.KEY_DOUBLE_ENTRY_ACCOUNT_ID, DatabaseHelper.KEY_ACCOUNT_ID, 1,
+                    lastExportedSequence, condition + transferAccountCondition);
+        }
+        query += " ORDER BY " + (EXPORT_COLUMN_ACCOUNT_ID + 1) + " ASC, "
+                + (EXPORT_COLUMN_TIMESTAMP + 1) + " DESC";
+        return mDb.rawQuery(query, null);
+    }
+
+    /**
+     * Builds the SELECT statement for one side of the export query
+     * @param accountColumn Transactions column which references the statement account
+     * @param transferAccountColumn Transactions column which references the transfer account
+     * @param transferSide Value of the {@link #EXPORT_COLUMN_TRANSFER_SIDE} column
+     * @param lastExportedSequence Change sequence number up to which transactions count as exported
+     * @param condition Condition on the transactions, which are aliased as <code>t</code>
+     * @return SQL query string
+     * @see #fetchTransactionsForExport(boolean, long, boolean)
+     */
+    private static String buildExportQuery(String accountColumn, String transferAccountColumn, int transferSide,
+                                           long lastExportedSequence, String condition){
+        return "SELECT a." + DatabaseHelper.KEY_ROW_ID
+                + ", a." + DatabaseHelper.KEY_UID
+                + ", a." + DatabaseHelper.KEY_FULL_NAME
+                + ", a." + DatabaseHelper.KEY_TYPE
+                + ", a." + DatabaseHelper.KEY_CURRENCY_CODE
+                + ", t." + DatabaseHelper.KEY_UID
+                + ", t." + DatabaseHelper.KEY_NAME
+                + ", t." + DatabaseHelper.KEY_TYPE
+                + ", t." + DatabaseHelper.KEY_AMOUNT
+                + ", t." + DatabaseHelper.KEY_DESCRIPTION
+                + ", t." + DatabaseHelper.KEY_TIMESTAMP
+                + ", t." + DatabaseHelper.KEY_CHANGE_SEQUENCE + " <= " + lastExportedSequence
+                + ", x." + DatabaseHelper.KEY_UID
+                + ", x." + DatabaseHelper.KEY_FULL_NAME
+                + ", x." + DatabaseHelper.KEY_TYPE
+                + ", " + transferSide
+                + " FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME + " t"
+                + " INNER JOIN " + DatabaseHelper.ACCOUNTS_TABLE_NAME + " a"
+                + " ON t." + accountColumn + " = a." + DatabaseHelper.KEY_ROW_ID
+                + " LEFT OUTER JOIN " + DatabaseHelper.ACCOUNTS_TABLE_NAME + " x"
+                + " ON t." + transferAccountColumn + " = x." + DatabaseHelper.KEY_ROW_ID
+                + " WHERE " + condition;
+    }
+
+    /**
+     * Returns the last change sequence number which was assigned to a transaction.
+     * All transactions inserted or modified later get higher numbers
+     * @return Current change sequence number
+     */
+    public long getCurrentChangeSequence(){
+        Cursor cursor = mDb.query(DatabaseHelper.CHANGE_SEQUENCE_TABLE_NAME,
+                new String[]{DatabaseHelper.KEY_LAST_SEQUENCE},
+                null, null, null, null, null);
+        long sequence = 0;
+        if (cursor != null){
+            if (cursor.moveToFirst())
+                sequence = cursor.getLong(0);
+            cursor.close();
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns the change sequence number up to which transactions have been exported with the export profile <code>profileName</code>.
+     * Transactions with higher change sequence numbers were added or modified after the last export
+     * @param profileName Name of the export profile
+     * @return Last exported change sequence number, or 0 if nothing has been exported with the profile
+     */
+    public long getLastExportedSequence(String profileName){
+        Cursor cursor = mDb.query(DatabaseHelper.EXPORT_PROFILES_TABLE_NAME,
+                new String[]{DatabaseHelper.KEY_LAST_EXPORTED_SEQUENCE},
+                DatabaseHelper.KEY_NAME + " = ?", new String[]{profileName},
+                null, null, null);
+        long sequence = 0;
+        if (cursor != null){
+            if (cursor.moveToFirst())
+                sequence = cursor.getLong(0);
+            cursor.close();
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns <code>true</code> if transactions were added or modified since the last export with the export profile
+     * <code>profileName</code>. Only the change sequence and the export profile are read, no transactions
+     * @param profileName Name of the export profile
+     * @return <code>true</code> if there are transactions which were not exported with the profile
+     */
+    public boolean hasUnexportedChanges(String profileName){
+        return getCurrentChangeSequence() > getLastExportedSequence(profileName);
+    }
+
+    /**
+     * Records that the transactions up to change sequence number <code>sequence</code> have been exported
+     * with the export profile <code>profileName</code>. The profile is created if it does not exist yet.
+     * Both happen in one database transaction
+     * @param profileName Name of the export profile
+     * @param sequence Change sequence number up to which transactions have been exported
+     * @see #getCurrentChangeSequence()
+     */
+    public void setLastExportedSequence(String profileName, long sequence){
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseHelper.KEY_LAST_EXPORTED_SEQUENCE, sequence);
+        mDb.beginTransaction();
+        try {
+            int rows = mDb.update(DatabaseHelper.EXPORT_PROFILES_TABLE_NAME, contentValues,
+                    DatabaseHelper.KEY_NAME + " = ?", new String[]{profileName});
+            if (rows == 0){
+                contentValues.put(DatabaseHelper.KEY_NAME, profileName);
+                mDb.insert(DatabaseHelper.EXPORT_PROFILES_TABLE_NAME, null, contentValues);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
 	/**
-	 * Marks an account record as exported
-	 * @param accountUID Unique ID of the record to be marked as exported
-	 * @return Number of records marked as exported
-	 */
-	public int markAsExported(String accountUID){
-		ContentValues contentValues = new ContentValues();
-		contentValues.put(DatabaseHelper.KEY_EXPORTED, 1);
-		
-		return mDb.update(DatabaseHelper.TRANSACTIONS_TABLE_NAME, 
-				contentValues, 
-				DatabaseHelper.KEY_ACCOUNT_UID + "='" + accountUID + "'", 
-				null);
-	}
-	
-	/**
-	 * Returns list of all accounts which have not been exported yet
-	 * @return List of {@link Account}s which have not been exported
+	 * Returns the transactions of an account which were added or modified since the last export
+	 * with the default export profile
+	 * @param accountUID Unique ID of the account
+	 * @return List of {@link Transaction}s which have not been exported
 	 */
 	public List<Transaction> getNonExportedTransactionsForAccount(String accountUID){
+		long lastExportedSequence = getLastExportedSequence(DatabaseHelper.DEFAULT_EXPORT_PROFILE_NAME);
 		Cursor c = mDb.query(DatabaseHelper.TRANSACTIONS_TABLE_NAME, 
 				null, 
-				DatabaseHelper.KEY_EXPORTED + "= 0 AND " + 
-				DatabaseHelper.KEY_ACCOUNT_UID + "= '" + accountUID + "'", 
-				null, null, null, null);
+				DatabaseHelper.KEY_CHANGE_SEQUENCE + " > " + lastExportedSequence + " AND " +
+				DatabaseHelper.KEY_ACCOUNT_UID + " = ?",
+				new String[]{accountUID}, null, null, null);
 		ArrayList<Transaction> transactionsList = new ArrayList<Transaction>();
 		if (c == null)
 			return transactionsList;
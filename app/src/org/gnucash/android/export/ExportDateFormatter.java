@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formatter for the dates in exported files.
+ * <p>Times are converted from milliseconds since epoch directly into characters, without creating
+ * {@link Date} or calendar objects. The output is the same as that of a {@link SimpleDateFormat} with the pattern
+ * of the layout and the same time zone. The formatter has no mutable state except a cache of the time zone offset,
+ * so one instance can be shared by all threads of an export</p>
+ * <p>The time zone offset is cached for a whole UTC day if the offset is the same at its start and end.
+ * Days with a daylight saving time transition are not cached, their offsets are looked up for every time</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public final class ExportDateFormatter {
+    /**
+     * Layouts of the formatted dates
+     */
+    public enum Layout {
+        /**
+         * Date and time for OFX, as <code>yyyyMMddHHmmss</code>
+         */
+        OFX("yyyyMMddHHmmss"),
+
+        /**
+         * Date for QIF, as <code>yyyy/M/d</code>
+         */
+        QIF("yyyy/M/d"),
+
+        /**
+         * Date, time and time zone offset for GnuCash XML, as <code>yyyy-MM-dd HH:mm:ss Z</code>
+         */
+        GNC_XML("yyyy-MM-dd HH:mm:ss Z");
+
+        private final String mPattern;
+
+        Layout(String pattern) {
+            mPattern = pattern;
+        }
+
+        /**
+         * Returns the {@link SimpleDateFormat} pattern which produces the same output as the layout
+         * @return Date format pattern
+         */
+        public String getPattern() {
+            return mPattern;
+        }
+    }
+
+    /**
+     * Maximum number of characters of a formatted date, in any layout and for any year
+     */
+    public static final int MAX_LENGTH = 32;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Start of the Gregorian calendar in {@link java.util.GregorianCalendar}. Earlier dates are in the Julian calendar
+     */
+    private static final long GREGORIAN_CUTOVER_MILLIS = -12219292800000L;
+
+    /**
+     * Start of the year 10000, from which years have more than four digits
+     */
+    private static final long YEAR_10000_MILLIS = 253402300800000L;
+
+    /**
+     * Buffers for {@link #format(long, Writer)}, one per thread
+     */
+    private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[MAX_LENGTH];
+        }
+    };
+
+    private final Layout mLayout;
+
+    private final TimeZone mTimeZone;
+
+    /**
+     * Last UTC day for which the time zone offset was constant. Replaced as a whole, so it can be read without locking
+     */
+    private volatile OffsetCache mOffsetCache;
+
+    /**
+     * Creates a formatter for the default time zone
+     * @param layout Layout of the formatted dates
+     */
+    public ExportDateFormatter(Layout layout){
+        this(layout, TimeZone.getDefault());
+    }
+
+    /**
+     * Creates a formatter
+     * @param layout Layout of the formatted dates
+     * @param timeZone Time zone in which the dates are formatted
+     */
+    public ExportDateFormatter(Layout layout, TimeZone timeZone){
+        mLayout = layout;
+        //time zones are mutable
+        mTimeZone = (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Formats <code>timeMillis</code> into <code>buffer</code>
+     * @param timeMillis Time in milliseconds since epoch
+     * @param buffer Buffer for the characters. At least {@link #MAX_LENGTH} characters must be available from <code>offset</code>
+     * @param offset Index in <code>buffer</code> at which the formatted date starts
+     * @return Number of characters written to <code>buffer</code>
+     */
+    public int format(long timeMillis, char[] buffer, int offset){
+        long localMillis = timeMillis + getOffset(timeMillis);
+        if (localMillis < GREGORIAN_CUTOVER_MILLIS || localMillis >= YEAR_10000_MILLIS)
+            return formatSlowly(timeMillis, buffer, offset);
+
+        long days = localMillis / MILLIS_PER_DAY;
+        int millisOfDay = (int) (localMillis % MILLIS_PER_DAY);
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        //civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        int position = offset;
+        position = writeDigits(buffer, position, year, 4);
+        int secondOfDay = millisOfDay / 1000;
+        switch (mLayout) {
+            case OFX:
+                position = writeDigits(buffer, position, month, 2);
+                position = writeDigits(buffer, position, day, 2);
+                position = writeDigits(buffer, position, secondOfDay / 3600, 2);
+                position = writeDigits(buffer, position, secondOfDay / 60 % 60, 2);
+                position = writeDigits(buffer, position, secondOfDay % 60, 2);
+                break;
+            case QIF:
+                buffer[position++] = '/';
+                position = writeDigits(buffer, position, month, month < 10 ? 1 : 2);
+                buffer[position++] = '/';
+                position = writeDigits(buffer, position, day, day < 10 ? 1 : 2);
+                break;
+            case GNC_XML:
+                buffer[position++] = '-';
+                position = writeDigits(buffer, position, month, 2);
+                buffer[position++] = '-';
+                position = writeDigits(buffer, position, day, 2);
+                buffer[position++] = ' ';
+                position = writeDigits(buffer, position, secondOfDay / 3600, 2);
+                buffer[position++] = ':';
+                position = writeDigits(buffer, position, secondOfDay / 60 % 60, 2);
+                buffer[position++] = ':';
+                position = writeDigits(buffer, position, secondOfDay % 60, 2);
+                buffer[position++] = ' ';
+                //whole minutes of the offset, truncated towards zero like SimpleDateFormat
+                int offsetMinutes = (int) ((localMillis - timeMillis) / 60000);
+                buffer[position++] = offsetMinutes < 0 ? '-' : '+';
+                offsetMinutes = Math.abs(offsetMinutes);
+                position = writeDigits(buffer, position, offsetMinutes / 60, 2);
+                position = writeDigits(buffer, position, offsetMinutes % 60, 2);
+                break;
+        }
+        return position - offset;
+    }
+
+    /**
+     * Formats <code>timeMillis</code> and writes it to <code>writer</code>, using a buffer of the calling thread
+     * @param timeMillis Time in milliseconds since epoch
+     * @param writer Writer for the formatted date
+     * @throws IOException if the date could not be written
+     */
+    public void format(long timeMillis, Writer writer) throws IOException {
+        char[] buffer = BUFFER.get();
+        writer.write(buffer, 0, format(timeMillis, buffer, 0));
+    }
+
+    /**
+     * Formats <code>timeMillis</code> as a string
+     * @param timeMillis Time in milliseconds since epoch
+     * @return Formatted date
+     */
+    public String format(long timeMillis){
+        char[] buffer = BUFFER.get();
+        return new String(buffer, 0, format(timeMillis, buffer, 0));
+    }
+
+    /**
+     * Returns the offset of the time zone from UTC at <code>timeMillis</code>, from the cache if possible
+     */
+    private int getOffset(long timeMillis){
+        OffsetCache cache = mOffsetCache;
+        if (cache != null && timeMillis >= cache.mStart && timeMillis < cache.mEnd)
+            return cache.mOffset;
+
+        int offset = mTimeZone.getOffset(timeMillis);
+        long dayStart = timeMillis - timeMillis % MILLIS_PER_DAY;
+        if (dayStart > timeMillis)
+            dayStart -= MILLIS_PER_DAY;
+        long dayEnd = dayStart + MILLIS_PER_DAY;
+        //time zones change their offset at most once a day
+        if (mTimeZone.getOffset(dayStart) == offset && mTimeZone.getOffset(dayEnd - 1) == offset)
+            mOffsetCache = new OffsetCache(dayStart, dayEnd, offset);
+        return offset;
+    }
+
+    /**
+     * Formats dates outside the range of the fast path with a {@link SimpleDateFormat}
+     */
+    private int formatSlowly(long timeMillis, char[] buffer, int offset){
+        SimpleDateFormat dateFormat = new SimpleDateFormat(mLayout.getPattern(), Locale.US);
+        dateFormat.setTimeZone(mTimeZone);
+        String formattedDate = dateFormat.format(new Date(timeMillis));
+        formattedDate.getChars(0, formattedDate.length(), buffer, offset);
+        return formattedDate.length();
+    }
+
+    /**
+     * Writes <code>value</code> with at least <code>minDigits</code> digits, padded with zeros
+     * @return Index in <code>buffer</code> after the last digit
+     */
+    private static int writeDigits(char[] buffer, int position, int value, int minDigits){
+        int digits = 1;
+        for (int limit = 10; value >= limit && digits < 10; limit *= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Time zone offset which is valid in a range of time
+     */
+    private static final class OffsetCache {
+        final long mStart;
+        final long mEnd;
+        final int mOffset;
+
+        OffsetCache(long start, long end, int offset){
+            mStart = start;
+            mEnd = end;
+            mOffset = offset;
+        }
+    }
+}
@@ -17,9 +17,14 @@
 package org.gnucash.android.export;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.DatePickerDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.os.Bundle;
+import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.support.v4.app.DialogFragment;
 import android.util.Log;
@@ -28,10 +33,19 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.*;
 import org.gnucash.android.R;
+import org.gnucash.android.db.AccountTree;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.ui.transaction.dialog.DatePickerDialogFragment;
 
 import java.io.File;
+import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -46,7 +60,69 @@ public class ExportDialogFragment extends DialogFragment {
 	 * accepts files, like Google Drive.
 	 */
 	Spinner mDestinationSpinner;
+
+    /**
+     * Text view showing the formats which are exported together with the selected one.
+     * Opens the format selection when clicked
+     */
+    TextView mOtherFormatsTextView;
+
+    /**
+     * Spinner for selecting the compression of the exported files.
+     * The positions match the constants of {@link ExportParams.Compression}
+     */
+    Spinner mCompressionSpinner;
+
+    /**
+     * Spinner for selecting the size after which the export is continued in a new file
+     */
+    Spinner mSplitSizeSpinner;
+
+    /**
+     * Maximum file sizes in megabytes for the entries of the split size spinner. 0 means the export is not split
+     */
+    private static final int[] SPLIT_SIZES_MB = {0, 1, 5, 10};
 	
+    /**
+     * Checkbox for restricting the export to a date range
+     */
+    CheckBox mDateRangeCheckBox;
+
+    /**
+     * Text views showing the first and the last day of the exported date range
+     */
+    TextView mStartDateTextView, mEndDateTextView;
+
+    /**
+     * Text view showing the accounts selected for export. Opens the account selection when clicked
+     */
+    TextView mAccountsTextView;
+
+    /**
+     * Checkbox for exporting the sub-accounts of the selected accounts as well
+     */
+    CheckBox mSubAccountsCheckBox;
+
+    /**
+     * First day of the exported date range
+     */
+    private Calendar mStartDate;
+
+    /**
+     * Last day of the exported date range, inclusive
+     */
+    private Calendar mEndDate;
+
+    /**
+     * Unique IDs of the accounts selected for export, or <code>null</code> if all accounts are exported
+     */
+    private List<String> mSelectedAccountUIDs;
+
+    /**
+     * Formatter for the dates of the date range
+     */
+    private static final DateFormat DATE_FORMATTER = DateFormat.getDateInstance();
+
 	/**
 	 * Checkbox indicating that all transactions should be exported,
 	 * regardless of whether they have been exported previously or not
@@ -69,7 +145,8 @@ public class ExportDialogFragment extends DialogFragment {
 	Button mCancelButton;
 	
 	/**
-	 * File path for saving the OFX files
+	 * File path for saving the exported files which are shared with another application.
+	 * Exports to the SD card are written directly to their final location
 	 */
 	String mFilePath;
 	
@@ -82,6 +159,11 @@ public class ExportDialogFragment extends DialogFragment {
 
     private ExportFormat mExportFormat = ExportFormat.QIF;
 
+    /**
+     * Formats which are exported in the same pass as {@link #mExportFormat}
+     */
+    private List<ExportFormat> mOtherExportFormats = new ArrayList<ExportFormat>();
+
 	/**
 	 * Click listener for positive button in the dialog.
 	 * @author Ngewi Fet <ngewif@gmail.com>
@@ -91,11 +173,38 @@ public class ExportDialogFragment extends DialogFragment {
 		@Override
 		public void onClick(View v) {
             ExportParams exportParameters = new ExportParams(mExportFormat);
+            List<ExportFormat> exportFormats = new ArrayList<ExportFormat>();
+            exportFormats.add(mExportFormat);
+            for (ExportFormat format : mOtherExportFormats) {
+                if (format != mExportFormat)
+                    exportFormats.add(format);
+            }
+            exportParameters.setExportFormats(exportFormats);
             exportParameters.setExportAllTransactions(mExportAllCheckBox.isChecked());
-            exportParameters.setTargetFilepath(mFilePath);
             int position = mDestinationSpinner.getSelectedItemPosition();
-            exportParameters.setExportTarget(position == 0 ? ExportParams.ExportTarget.SHARING : ExportParams.ExportTarget.SD_CARD);
-            exportParameters.setDeleteTransactionsAfterExport(mDeleteAllCheckBox.isChecked());
+            if (position == 0) {
+                exportParameters.setExportTarget(ExportParams.ExportTarget.SHARING);
+                exportParameters.setTargetFilepath(mFilePath);
+            } else {
+                exportParameters.setExportTarget(ExportParams.ExportTarget.SD_CARD);
+                exportParameters.setTargetFilepath(Environment.getExternalStorageDirectory()
+                        + "/gnucash/" + buildExportFilename(mExportFormat));
+            }
+            if (mDateRangeCheckBox.isChecked()) {
+                //the range includes the whole end day
+                Calendar endTime = (Calendar) mEndDate.clone();
+                endTime.add(Calendar.DAY_OF_MONTH, 1);
+                exportParameters.setDateRange(mStartDate.getTimeInMillis(), endTime.getTimeInMillis());
+            }
+            exportParameters.setAccountUIDs(mSelectedAccountUIDs);
+            exportParameters.setIncludeSubAccounts(mSubAccountsCheckBox.isChecked());
+            //deleting all transactions after a partial export would lose the ones which were not exported
+            boolean filtered = mDateRangeCheckBox.isChecked() || mSelectedAccountUIDs != null;
+            exportParameters.setDeleteTransactionsAfterExport(mDeleteAllCheckBox.isChecked() && !filtered);
+            exportParameters.setCompression(ExportParams.Compression.values()[mCompressionSpinner.getSelectedItemPosition()]);
+            exportParameters.setMaxFileSize(SPLIT_SIZES_MB[mSplitSizeSpinner.getSelectedItemPosition()] * 1024L * 1024L);
+            //only worthwhile if there are idle cores to render the accounts on
+            exportParameters.setParallelExport(Runtime.getRuntime().availableProcessors() > 1);
 
             dismiss();
 
@@ -112,6 +221,14 @@ public class ExportDialogFragment extends DialogFragment {
                 break;
             case R.id.radio_qif_format:
                 mExportFormat = ExportFormat.QIF;
+                break;
+            case R.id.radio_csv_format:
+                mExportFormat = ExportFormat.CSV;
+                break;
+            case R.id.radio_gnc_xml_format:
+                mExportFormat = ExportFormat.GNC_XML;
+                //GnuCash saves its books compressed as well
+                mCompressionSpinner.setSelection(ExportParams.Compression.GZIP.ordinal());
         }
         mFilePath = getActivity().getExternalFilesDir(null) + "/" + buildExportFilename(mExportFormat);
         return;
@@ -141,6 +258,18 @@ public class ExportDialogFragment extends DialogFragment {
 		        R.array.export_destinations, android.R.layout.simple_spinner_item);		
 		adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);		
 		mDestinationSpinner.setAdapter(adapter);
+
+        mCompressionSpinner = (Spinner) v.findViewById(R.id.spinner_export_compression);
+        ArrayAdapter<CharSequence> compressionAdapter = ArrayAdapter.createFromResource(getActivity(),
+                R.array.export_compression_options, android.R.layout.simple_spinner_item);
+        compressionAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mCompressionSpinner.setAdapter(compressionAdapter);
+
+        mSplitSizeSpinner = (Spinner) v.findViewById(R.id.spinner_export_split_size);
+        ArrayAdapter<CharSequence> splitSizeAdapter = ArrayAdapter.createFromResource(getActivity(),
+                R.array.export_split_sizes, android.R.layout.simple_spinner_item);
+        splitSizeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mSplitSizeSpinner.setAdapter(splitSizeAdapter);
 		
 		SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
 		mExportAllCheckBox = (CheckBox) v.findViewById(R.id.checkbox_export_all);
@@ -148,6 +277,8 @@ public class ExportDialogFragment extends DialogFragment {
 		
 		mDeleteAllCheckBox = (CheckBox) v.findViewById(R.id.checkbox_post_export_delete);
 		mDeleteAllCheckBox.setChecked(sharedPrefs.getBoolean(getString(R.string.key_delete_transactions_after_export), false));
+
+        bindFilterViews(v);
 		
 		mSaveButton = (Button) v.findViewById(R.id.btn_save);
 		mSaveButton.setText(R.string.btn_export);
@@ -179,8 +310,195 @@ public class ExportDialogFragment extends DialogFragment {
         RadioButton qifRadioButton = (RadioButton) v.findViewById(R.id.radio_qif_format);
         qifRadioButton.setChecked(defaultExportFormat.equalsIgnoreCase(ExportFormat.QIF.name()));
         qifRadioButton.setOnClickListener(clickListener);
+
+        RadioButton csvRadioButton = (RadioButton) v.findViewById(R.id.radio_csv_format);
+        csvRadioButton.setChecked(defaultExportFormat.equalsIgnoreCase(ExportFormat.CSV.name()));
+        csvRadioButton.setOnClickListener(clickListener);
+
+        RadioButton gncXmlRadioButton = (RadioButton) v.findViewById(R.id.radio_gnc_xml_format);
+        gncXmlRadioButton.setChecked(defaultExportFormat.equalsIgnoreCase(ExportFormat.GNC_XML.name()));
+        gncXmlRadioButton.setOnClickListener(clickListener);
+
+        mOtherFormatsTextView = (TextView) v.findViewById(R.id.input_export_other_formats);
+        mOtherFormatsTextView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showOtherFormatSelection();
+            }
+        });
 	}
 
+    /**
+     * Shows a dialog for selecting the formats which are exported together with the selected one
+     */
+    private void showOtherFormatSelection(){
+        final ExportFormat[] formats = ExportFormat.values();
+        final boolean[] checkedItems = new boolean[formats.length];
+        for (int i = 0; i < formats.length; i++) {
+            checkedItems[i] = mOtherExportFormats.contains(formats[i]);
+        }
+
+        //the entries are in the order of the export formats
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.label_export_other_formats)
+                .setMultiChoiceItems(R.array.export_formats, checkedItems,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                                checkedItems[which] = isChecked;
+                            }
+                        })
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        List<ExportFormat> otherFormats = new ArrayList<ExportFormat>();
+                        for (int i = 0; i < formats.length; i++) {
+                            if (checkedItems[i])
+                                otherFormats.add(formats[i]);
+                        }
+                        setOtherExportFormats(otherFormats);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Sets the formats which are exported together with the selected one and updates their summary
+     * @param exportFormats Other export formats, may be empty
+     */
+    private void setOtherExportFormats(List<ExportFormat> exportFormats){
+        mOtherExportFormats = exportFormats;
+        if (exportFormats.isEmpty()) {
+            mOtherFormatsTextView.setText(R.string.label_export_no_other_formats);
+            return;
+        }
+        String[] formatNames = getResources().getStringArray(R.array.export_formats);
+        StringBuilder summary = new StringBuilder();
+        for (ExportFormat format : exportFormats) {
+            summary.append(summary.length() == 0 ? "" : ", ").append(formatNames[format.ordinal()]);
+        }
+        mOtherFormatsTextView.setText(summary);
+    }
+
+
+    /**
+     * Binds the views for restricting the export to a date range and to a subset of the accounts.
+     * The date range defaults to the previous month
+     */
+    private void bindFilterViews(View v){
+        Calendar today = Calendar.getInstance();
+        mStartDate = new GregorianCalendar(today.get(Calendar.YEAR), today.get(Calendar.MONTH), 1);
+        mStartDate.add(Calendar.MONTH, -1);
+        mEndDate = (Calendar) mStartDate.clone();
+        mEndDate.add(Calendar.MONTH, 1);
+        mEndDate.add(Calendar.DAY_OF_MONTH, -1);
+
+        final View dateRangeLayout = v.findViewById(R.id.layout_export_date_range);
+        mDateRangeCheckBox = (CheckBox) v.findViewById(R.id.checkbox_export_date_range);
+        mDateRangeCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                dateRangeLayout.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            }
+        });
+
+        mStartDateTextView = (TextView) v.findViewById(R.id.input_export_start_date);
+        mEndDateTextView = (TextView) v.findViewById(R.id.input_export_end_date);
+        bindDateView(mStartDateTextView, mStartDate);
+        bindDateView(mEndDateTextView, mEndDate);
+
+        mAccountsTextView = (TextView) v.findViewById(R.id.input_export_accounts);
+        mAccountsTextView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showAccountSelection();
+            }
+        });
+        mSubAccountsCheckBox = (CheckBox) v.findViewById(R.id.checkbox_export_sub_accounts);
+    }
+
+    /**
+     * Shows <code>date</code> in <code>dateView</code> and lets the user change it with a date picker
+     */
+    private void bindDateView(final TextView dateView, final Calendar date){
+        dateView.setText(DATE_FORMATTER.format(date.getTime()));
+        dateView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                DatePickerDialog.OnDateSetListener listener = new DatePickerDialog.OnDateSetListener() {
+                    @Override
+                    public void onDateSet(DatePicker datePicker, int year, int monthOfYear, int dayOfMonth) {
+                        date.set(year, monthOfYear, dayOfMonth);
+                        dateView.setText(DATE_FORMATTER.format(date.getTime()));
+                    }
+                };
+                new DatePickerDialogFragment(listener, date.getTimeInMillis())
+                        .show(getFragmentManager(), "export_date_dialog");
+            }
+        });
+    }
+
+    /**
+     * Shows a dialog for selecting the accounts to export. Selecting no account exports all accounts
+     */
+    private void showAccountSelection(){
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(getActivity());
+        AccountTree accountTree = accountsDbAdapter.getAccountTree();
+        final List<String> accountUIDs = new ArrayList<String>();
+        List<String> accountNames = new ArrayList<String>();
+        Cursor cursor = accountsDbAdapter.fetchAllRecordsOrderedByFullName();
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                accountUIDs.add(accountTree.getUID(cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_ROW_ID))));
+                accountNames.add(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_FULL_NAME)));
+            }
+            cursor.close();
+        }
+        accountsDbAdapter.close();
+
+        final boolean[] checkedItems = new boolean[accountUIDs.size()];
+        if (mSelectedAccountUIDs != null) {
+            for (int i = 0; i < checkedItems.length; i++) {
+                checkedItems[i] = mSelectedAccountUIDs.contains(accountUIDs.get(i));
+            }
+        }
+
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.title_select_export_accounts)
+                .setMultiChoiceItems(accountNames.toArray(new CharSequence[accountNames.size()]), checkedItems,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                                checkedItems[which] = isChecked;
+                            }
+                        })
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        List<String> selectedAccountUIDs = new ArrayList<String>();
+                        for (int i = 0; i < checkedItems.length; i++) {
+                            if (checkedItems[i])
+                                selectedAccountUIDs.add(accountUIDs.get(i));
+                        }
+                        setSelectedAccounts(selectedAccountUIDs.isEmpty() ? null : selectedAccountUIDs);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Sets the accounts to export and updates the account summary
+     * @param accountUIDs Unique IDs of the selected accounts, or <code>null</code> to export all accounts
+     */
+    private void setSelectedAccounts(List<String> accountUIDs){
+        mSelectedAccountUIDs = accountUIDs;
+        if (accountUIDs == null)
+            mAccountsTextView.setText(R.string.label_export_all_accounts);
+        else
+            mAccountsTextView.setText(getString(R.string.label_export_selected_accounts, accountUIDs.size()));
+    }
 
 	/**
 	 * Callback for when the activity chooser dialog is completed
@@ -206,15 +524,7 @@ public class ExportDialogFragment extends DialogFragment {
 		String filename = formatter.format(
 				new Date(System.currentTimeMillis())) 
 				+ "_gnucash_all";
-        switch (format) {
-            case QIF:
-                filename += ".qif";
-                break;
-            case OFX:
-                filename += ".ofx";
-                break;
-        }
-		return filename;
+		return filename + format.getExtension();
 	}
 }
 
@@ -15,21 +15,70 @@
  */
 package org.gnucash.android.export;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
 /**
  * Enumeration of the different export formats supported by the application
 * @author Ngewi Fet <ngewif@gmail.com>
 */
 public enum ExportFormat {
-    QIF("Quicken Interchange Format"),
-    OFX("Open Financial eXchange");
+    QIF("Quicken Interchange Format", "application/xml", ".qif"),
+    OFX("Open Financial eXchange", "application/xml", ".ofx"),
+    CSV("Comma Separated Values", "text/csv", ".csv"),
+    GNC_XML("GnuCash XML", "application/xml", ".gnucash");
 
     /**
      * Full name of the export format acronym
      */
     private String mDescription;
 
-    ExportFormat(String description) {
+    /**
+     * MIME type with which exported files are shared
+     */
+    private String mMimeType;
+
+    /**
+     * Extension of the exported files, including the dot
+     */
+    private String mExtension;
+
+    ExportFormat(String description, String mimeType, String extension) {
         this.mDescription = description;
+        this.mMimeType = mimeType;
+        this.mExtension = extension;
+    }
+
+    /**
+     * Returns the MIME type with which uncompressed exported files are shared
+     * @return MIME type of the format
+     */
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * Returns the extension of uncompressed exported files
+     * @return File extension, including the dot
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * Parses a comma separated list of format names, as stored in the preferences
+     * @param formatNames Names of the formats, for example <code>QIF,GNC_XML</code>
+     * @return Formats in the order of this enumeration, without duplicates. Empty if no format is listed
+     * @throws IllegalArgumentException if a name is not the name of an export format
+     */
+    public static List<ExportFormat> parseList(String formatNames) {
+        EnumSet<ExportFormat> formats = EnumSet.noneOf(ExportFormat.class);
+        for (String formatName : formatNames.split(",")) {
+            if (formatName.trim().length() > 0)
+                formats.add(valueOf(formatName.trim()));
+        }
+        return new ArrayList<ExportFormat>(formats);
     }
 
     @Override
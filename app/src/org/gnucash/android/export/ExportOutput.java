@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Destination for the data written by an {@link Exporter}.
+ * <p>The output is written to one or more part files, which are optionally compressed while they are written.
+ * If a maximum part size is set, the exporter starts a new part file once the current one has reached that size.
+ * Parts are only split between accounts, so each part is a complete document of the export format</p>
+ * <p>The parts are written directly in the directory of the target file, but under temporary names.
+ * They only get their final names when the output is closed, so an incomplete export never appears
+ * under the name of a finished one</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class ExportOutput {
+    /**
+     * Size of the buffer of the part writers
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Path of the file for the export, as named without compression or splitting
+     */
+    private final String mTargetFilepath;
+
+    /**
+     * Compression of the part files
+     */
+    private final ExportParams.Compression mCompression;
+
+    /**
+     * Size in bytes after which a new part file is started, or 0 if the output is not split
+     */
+    private final long mMaxPartSize;
+
+    /**
+     * Suffix of the part files while they are written
+     */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * Files which have been written so far, under their final names
+     */
+    private final List<File> mFiles = new ArrayList<File>();
+
+    /**
+     * Temporary files which have been written and not yet renamed to their final names
+     */
+    private final List<File> mTempFiles = new ArrayList<File>();
+
+    /**
+     * Writer supplied by the caller, if the output goes to a single writer instead of files
+     */
+    private Writer mExternalWriter;
+
+    /**
+     * Writer for the current part file
+     */
+    private Writer mWriter;
+
+    /**
+     * Counts the bytes written to the current part file, after compression
+     */
+    private CountingOutputStream mCountingStream;
+
+    /**
+     * Creates an output which writes to files
+     * @param targetFilepath Path of the export file. Part numbers and compression extensions are added to it
+     * @param compression Compression of the files
+     * @param maxPartSize Size in bytes after which a new file is started, or 0 to write only one file
+     */
+    public ExportOutput(String targetFilepath, ExportParams.Compression compression, long maxPartSize){
+        mTargetFilepath = targetFilepath;
+        mCompression = compression;
+        mMaxPartSize = maxPartSize;
+    }
+
+    /**
+     * Creates an output which writes everything to <code>writer</code>.
+     * The output is never split, and <code>writer</code> is not closed by {@link #close()}
+     * @param writer Writer for the output
+     */
+    public ExportOutput(Writer writer){
+        this(null, ExportParams.Compression.NONE, 0);
+        mExternalWriter = writer;
+    }
+
+    /**
+     * Closes the current part, if any, and opens the next one
+     * @return Writer for the new part
+     * @throws IOException if the part file could not be created
+     */
+    public Writer nextPart() throws IOException {
+        if (mExternalWriter != null) {
+            if (!mFiles.isEmpty() || mWriter != null)
+                throw new IllegalStateException("Output to a writer cannot be split");
+            mWriter = mExternalWriter;
+            return mWriter;
+        }
+        closePart();
+
+        File file = buildPartFile(mFiles.size() + 1);
+        File tempFile = new File(file.getPath() + TEMP_FILE_SUFFIX);
+        File directory = tempFile.getParentFile();
+        if (directory != null)
+            directory.mkdirs();
+        mCountingStream = new CountingOutputStream(new FileOutputStream(tempFile));
+        OutputStream outputStream;
+        switch (mCompression) {
+            case GZIP:
+                outputStream = new GZIPOutputStream(mCountingStream, BUFFER_SIZE);
+                break;
+            case ZIP:
+                ZipOutputStream zipOutputStream = new ZipOutputStream(mCountingStream);
+                zipOutputStream.putNextEntry(new ZipEntry(buildPartFile(mFiles.size() + 1, ExportParams.Compression.NONE).getName()));
+                outputStream = zipOutputStream;
+                break;
+            default:
+                outputStream = mCountingStream;
+        }
+        mFiles.add(file);
+        mTempFiles.add(tempFile);
+        mWriter = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"), BUFFER_SIZE);
+        return mWriter;
+    }
+
+    /**
+     * Returns <code>true</code> if the current part has reached the maximum part size
+     * @return <code>true</code> if a new part should be started, <code>false</code> otherwise
+     * @throws IOException if buffered output could not be written
+     */
+    public boolean isPartFull() throws IOException {
+        if (mMaxPartSize <= 0 || mCountingStream == null)
+            return false;
+        //push the buffered characters through to the compressor, to get a better estimate of the size
+        mWriter.flush();
+        return mCountingStream.getCount() >= mMaxPartSize;
+    }
+
+    /**
+     * Closes the current part file and gives all part files their final names.
+     * Existing files with the same names are replaced. A writer supplied to the constructor is only flushed
+     * @throws IOException if a file could not be completed or renamed
+     */
+    public void close() throws IOException {
+        closePart();
+        while (!mTempFiles.isEmpty()) {
+            File tempFile = mTempFiles.get(0);
+            File file = mFiles.get(mFiles.size() - mTempFiles.size());
+            if (!tempFile.renameTo(file)) {
+                //renaming over an existing file fails on some file systems
+                file.delete();
+                if (!tempFile.renameTo(file))
+                    throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+            mTempFiles.remove(0);
+        }
+    }
+
+    /**
+     * Closes several outputs together. All part files are completed before any of them gets its final name,
+     * so that a failure while completing one output leaves none of the outputs under their final names
+     * @param outputs Outputs to close
+     * @throws IOException if a file could not be completed or renamed
+     * @see #close()
+     */
+    public static void closeAll(List<ExportOutput> outputs) throws IOException {
+        for (ExportOutput output : outputs) {
+            output.closePart();
+        }
+        for (ExportOutput output : outputs) {
+            output.close();
+        }
+    }
+
+    /**
+     * Closes the writer of the current part file
+     */
+    private void closePart() throws IOException {
+        if (mWriter == null)
+            return;
+        if (mWriter == mExternalWriter)
+            mWriter.flush();
+        else
+            mWriter.close();
+        mWriter = null;
+        mCountingStream = null;
+    }
+
+    /**
+     * Closes the output and deletes all files which have been written, for example after a failed or cancelled export
+     */
+    public void deleteFiles(){
+        try {
+            closePart();
+        } catch (IOException e) {
+            //the files are deleted anyway
+        }
+        for (File tempFile : mTempFiles) {
+            tempFile.delete();
+        }
+        for (File file : mFiles.subList(0, mFiles.size() - mTempFiles.size())) {
+            file.delete();
+        }
+        mTempFiles.clear();
+        mFiles.clear();
+    }
+
+    /**
+     * Returns the files which have been written, in order.
+     * Until the output is closed, the files exist under temporary names
+     * @return List of the part files
+     */
+    public List<File> getFiles(){
+        return mFiles;
+    }
+
+    /**
+     * Returns the MIME type of the written files
+     * @param uncompressedType MIME type of the export format
+     * @return MIME type of the files
+     */
+    public String getMimeType(String uncompressedType){
+        switch (mCompression) {
+            case GZIP:
+                return "application/x-gzip";
+            case ZIP:
+                return "application/zip";
+            default:
+                return uncompressedType;
+        }
+    }
+
+    private File buildPartFile(int partNumber){
+        return buildPartFile(partNumber, mCompression);
+    }
+
+    /**
+     * Builds the file for part number <code>partNumber</code>.
+     * If the output is split, the part number is added to the file name before the extension
+     */
+    private File buildPartFile(int partNumber, ExportParams.Compression compression){
+        String path = mTargetFilepath;
+        if (mMaxPartSize > 0) {
+            int extensionStart = path.lastIndexOf('.');
+            if (extensionStart > path.lastIndexOf(File.separatorChar))
+                path = path.substring(0, extensionStart) + "_" + partNumber + path.substring(extensionStart);
+            else
+                path = path + "_" + partNumber;
+        }
+        switch (compression) {
+            case GZIP:
+                path += ".gz";
+                break;
+            case ZIP:
+                path += ".zip";
+                break;
+        }
+        return new File(path);
+    }
+
+    /**
+     * Output stream which counts the bytes written through it
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream outputStream){
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        long getCount(){
+            return mCount;
+        }
+    }
+}
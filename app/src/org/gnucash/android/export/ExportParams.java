@@ -16,6 +16,12 @@
 
 package org.gnucash.android.export;
 
+import org.gnucash.android.db.DatabaseHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Encapsulation of the parameters used for exporting transactions.
  * The parameters are determined by the user in the export dialog and are then transmitted to the asynchronous task which
@@ -32,12 +38,22 @@ public class ExportParams {
      */
     public enum ExportTarget {SD_CARD, SHARING};
 
+    /**
+     * Options for compressing the exported files while they are written
+     */
+    public enum Compression {NONE, GZIP, ZIP};
+
     /**
      * Format to use for the exported transactions
      * By default, the {@link ExportFormat#QIF} format is used
      */
     private ExportFormat mExportFormat      = ExportFormat.QIF;
 
+    /**
+     * All formats which are written by the export, starting with {@link #mExportFormat}
+     */
+    private List<ExportFormat> mExportFormats = Collections.singletonList(ExportFormat.QIF);
+
     /**
      * Flag to determine if all transactions (including previously exported ones) should be exported
      * By default only new transactions since the last export will be exported.
@@ -50,6 +66,48 @@ public class ExportParams {
      */
     private boolean mDeleteTransactionsAfterExport = false;
 
+    /**
+     * Flag to render the accounts on several threads in parallel.
+     * The output is the same as that of a sequential export
+     */
+    private boolean mParallelExport = false;
+
+    /**
+     * Name of the export profile which tracks which transactions have already been exported
+     */
+    private String mExportProfile = DatabaseHelper.DEFAULT_EXPORT_PROFILE_NAME;
+
+    /**
+     * Compression of the exported files
+     */
+    private Compression mCompression = Compression.NONE;
+
+    /**
+     * Size in bytes after which the export is continued in a new file.
+     * By default (0), the export is written to a single file
+     */
+    private long mMaxFileSize = 0;
+
+    /**
+     * Earliest time of the exported transactions in milliseconds. By default (0), there is no lower limit
+     */
+    private long mStartTime = 0;
+
+    /**
+     * Time in milliseconds before which the exported transactions lie. By default, there is no upper limit
+     */
+    private long mEndTime = Long.MAX_VALUE;
+
+    /**
+     * Unique IDs of the accounts to export. By default (<code>null</code>), all accounts are exported
+     */
+    private List<String> mAccountUIDs;
+
+    /**
+     * Flag for exporting the sub-accounts of the selected accounts as well
+     */
+    private boolean mIncludeSubAccounts = true;
+
     /**
      * Destination for the exported transactions
      */
@@ -65,7 +123,7 @@ public class ExportParams {
      * @param format Format to use when exporting the transactions
      */
     public ExportParams(ExportFormat format){
-        mExportFormat = format;
+        setExportFormat(format);
     }
 
     /**
@@ -82,6 +140,28 @@ public class ExportParams {
      */
     public void setExportFormat(ExportFormat exportFormat) {
         this.mExportFormat = exportFormat;
+        this.mExportFormats = Collections.singletonList(exportFormat);
+    }
+
+    /**
+     * Returns all formats which are written by the export
+     * @return List of export formats, starting with the one returned by {@link #getExportFormat()}
+     */
+    public List<ExportFormat> getExportFormats() {
+        return mExportFormats;
+    }
+
+    /**
+     * Sets several formats which are written together, in a single pass over the transactions.
+     * The first format becomes the main export format, which determines the target file path
+     * @param exportFormats Export formats. Must not be empty
+     * @see #getTargetFilepath(ExportFormat)
+     */
+    public void setExportFormats(List<ExportFormat> exportFormats) {
+        if (exportFormats.isEmpty())
+            throw new IllegalArgumentException("At least one export format is required");
+        this.mExportFormat = exportFormats.get(0);
+        this.mExportFormats = new ArrayList<ExportFormat>(exportFormats);
     }
 
     /**
@@ -116,6 +196,131 @@ public class ExportParams {
         this.mDeleteTransactionsAfterExport = deleteTransactions;
     }
 
+    /**
+     * Returns flag whether the accounts are rendered on several threads in parallel
+     * @return <code>true</code> if the export runs in parallel, <code>false</code> otherwise
+     */
+    public boolean isParallelExport() {
+        return mParallelExport;
+    }
+
+    /**
+     * Sets flag for rendering the accounts on several threads in parallel
+     * @param parallelExport Set to <code>true</code> to export in parallel, <code>false</code> for a sequential export
+     */
+    public void setParallelExport(boolean parallelExport) {
+        this.mParallelExport = parallelExport;
+    }
+
+    /**
+     * Returns the name of the export profile which tracks the exported transactions
+     * @return Name of the export profile
+     */
+    public String getExportProfile() {
+        return mExportProfile;
+    }
+
+    /**
+     * Sets the export profile which tracks the exported transactions.
+     * Each profile keeps its own record of exported transactions, so that several export targets
+     * can independently receive only the transactions which are new to them
+     * @param exportProfile Name of the export profile
+     */
+    public void setExportProfile(String exportProfile) {
+        this.mExportProfile = exportProfile;
+    }
+
+    /**
+     * Returns the compression of the exported files
+     * @return {@link org.gnucash.android.export.ExportParams.Compression}
+     */
+    public Compression getCompression() {
+        return mCompression;
+    }
+
+    /**
+     * Sets the compression of the exported files
+     * @param compression Compression to use
+     */
+    public void setCompression(Compression compression) {
+        this.mCompression = compression;
+    }
+
+    /**
+     * Returns the size in bytes after which the export is continued in a new file
+     * @return Maximum file size in bytes, or 0 if the export is not split
+     */
+    public long getMaxFileSize() {
+        return mMaxFileSize;
+    }
+
+    /**
+     * Sets the size in bytes after which the export is continued in a new file.
+     * Files are only split between accounts, so they may be somewhat larger than this size
+     * @param maxFileSize Maximum file size in bytes, or 0 to write a single file
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.mMaxFileSize = maxFileSize;
+    }
+
+    /**
+     * Returns the earliest time of the exported transactions
+     * @return Start of the date range in milliseconds, or 0 if there is no lower limit
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * Returns the time before which the exported transactions lie
+     * @return End of the date range in milliseconds, exclusive. <code>Long.MAX_VALUE</code> if there is no upper limit
+     */
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /**
+     * Restricts the export to the transactions in a date range
+     * @param startTime Start of the range in milliseconds, inclusive. 0 for no lower limit
+     * @param endTime End of the range in milliseconds, exclusive. <code>Long.MAX_VALUE</code> for no upper limit
+     */
+    public void setDateRange(long startTime, long endTime) {
+        this.mStartTime = startTime;
+        this.mEndTime = endTime;
+    }
+
+    /**
+     * Returns the unique IDs of the accounts to export
+     * @return List of account UIDs, or <code>null</code> if all accounts are exported
+     */
+    public List<String> getAccountUIDs() {
+        return mAccountUIDs;
+    }
+
+    /**
+     * Restricts the export to the transactions of some accounts
+     * @param accountUIDs Unique IDs of the accounts to export, or <code>null</code> to export all accounts
+     */
+    public void setAccountUIDs(List<String> accountUIDs) {
+        this.mAccountUIDs = accountUIDs;
+    }
+
+    /**
+     * Returns <code>true</code> if the sub-accounts of the selected accounts are exported as well
+     * @return <code>true</code> if sub-accounts are included, <code>false</code> otherwise
+     */
+    public boolean shouldIncludeSubAccounts() {
+        return mIncludeSubAccounts;
+    }
+
+    /**
+     * Sets whether the sub-accounts of the selected accounts are exported as well
+     * @param includeSubAccounts <code>true</code> to include sub-accounts
+     */
+    public void setIncludeSubAccounts(boolean includeSubAccounts) {
+        this.mIncludeSubAccounts = includeSubAccounts;
+    }
+
     /**
      * Get the target for the exported file
      * @return {@link org.gnucash.android.export.ExportParams.ExportTarget}
@@ -149,4 +354,20 @@ public class ExportParams {
         this.mTargetFilepath = mTargetFilepath;
     }
 
+    /**
+     * Returns the target file path for one of the export formats.
+     * The path of the main format is the target file path. For the other formats,
+     * the extension of the main format is replaced with theirs
+     * @param format Export format
+     * @return String path to the file for <code>format</code>
+     */
+    public String getTargetFilepath(ExportFormat format) {
+        if (format == mExportFormat)
+            return mTargetFilepath;
+        String path = mTargetFilepath;
+        if (path.endsWith(mExportFormat.getExtension()))
+            path = path.substring(0, path.length() - mExportFormat.getExtension().length());
+        return path + format.getExtension();
+    }
+
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+/**
+ * Interface for receiving the progress of an {@link Exporter} and for cancelling the export.
+ * Both methods are called on the exporting thread
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public interface ExportProgressListener {
+
+    /**
+     * Callback with the number of transaction rows which have been processed so far.
+     * It is called while the rows are read, at most a few times per second, and once more when all rows have been processed
+     * @param processedRows Number of rows of the export cursor which have been processed
+     * @param totalRows Total number of rows in the export cursor
+     */
+    public void onExportProgress(int processedRows, int totalRows);
+
+    /**
+     * Returns <code>true</code> if the export should stop.
+     * The exporter checks this every few rows, and then fails with an {@link java.io.InterruptedIOException}
+     * without marking any transactions as exported
+     * @return <code>true</code> if the export has been cancelled, <code>false</code> otherwise
+     */
+    public boolean isExportCancelled();
+}
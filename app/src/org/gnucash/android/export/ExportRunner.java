@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import org.gnucash.android.R;
+import org.gnucash.android.export.csv.CsvExporter;
+import org.gnucash.android.export.ofx.OfxExporter;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.export.xml.GncXmlExporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs an export as described by a set of {@link ExportParams} on the calling thread.
+ * <p>The exporters for the formats are created as configured in the preferences. The files are written
+ * directly to the target location, and the transactions are only marked as exported once all files are complete.
+ * The runner is used by the interactive {@link ExporterTask} as well as by scheduled exports</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class ExportRunner {
+    /**
+     * Tag for logging
+     */
+    private static final String TAG = "ExportRunner";
+
+    /**
+     * Application context
+     */
+    private final Context mContext;
+
+    /**
+     * Export parameters
+     */
+    private final ExportParams mExportParams;
+
+    /**
+     * Listener for the progress of the export, or <code>null</code>
+     */
+    private ExportProgressListener mProgressListener;
+
+    /**
+     * Files which were written by the export
+     */
+    private List<File> mExportedFiles;
+
+    /**
+     * MIME type of the exported files
+     */
+    private String mMimeType;
+
+    /**
+     * Creates a runner for an export
+     * @param context Application context
+     * @param exportParams Parameters of the export
+     */
+    public ExportRunner(Context context, ExportParams exportParams){
+        mContext = context;
+        mExportParams = exportParams;
+    }
+
+    /**
+     * Sets the listener which receives the progress of the export and can cancel it
+     * @param progressListener Progress listener, or <code>null</code> to not report progress
+     */
+    public void setProgressListener(ExportProgressListener progressListener){
+        mProgressListener = progressListener;
+    }
+
+    /**
+     * Exports the transactions in all formats of the export parameters.
+     * If the export fails or is cancelled, the files written so far are deleted and no transactions are marked as exported
+     * @throws IOException if the files could not be written
+     * @throws java.io.InterruptedIOException if the export was cancelled by the progress listener
+     */
+    public void run() throws IOException {
+        List<ExportFormat> exportFormats = mExportParams.getExportFormats();
+        if (exportFormats.size() == 1)
+            export(createExporter(exportFormats.get(0)));
+        else
+            export(exportFormats);
+    }
+
+    /**
+     * Returns the files which were written by the last run
+     * @return List of exported files
+     */
+    public List<File> getExportedFiles(){
+        return mExportedFiles;
+    }
+
+    /**
+     * Returns the MIME type of the files which were written by the last run
+     * @return MIME type of the exported files
+     */
+    public String getMimeType(){
+        return mMimeType;
+    }
+
+    /**
+     * Creates the exporter for <code>format</code>, as configured in the preferences
+     * @param format Export format
+     * @return Exporter for the format
+     */
+    private Exporter createExporter(ExportFormat format){
+        boolean exportAllTransactions = mExportParams.shouldExportAllTransactions();
+        switch (format) {
+            case QIF:
+                return new QifExporter(mContext, exportAllTransactions);
+
+            case OFX: {
+                boolean useXmlHeader = PreferenceManager.getDefaultSharedPreferences(mContext)
+                        .getBoolean(mContext.getString(R.string.key_xml_ofx_header), false);
+                return new OfxExporter(mContext, exportAllTransactions, useXmlHeader);
+            }
+
+            case CSV:
+                return createCsvExporter(exportAllTransactions);
+
+            case GNC_XML:
+                //a GnuCash book always contains all transactions
+                return new GncXmlExporter(mContext);
+
+            default:
+                throw new IllegalArgumentException("Unsupported export format " + format);
+        }
+    }
+
+    /**
+     * Creates the CSV exporter, with the columns, the date pattern, the delimiter and the decimal separator
+     * set in the preferences. Invalid settings are logged and replaced by the defaults of the exporter
+     * @param exportAllTransactions Flag for exporting all transactions instead of only the new ones
+     * @return CSV exporter
+     */
+    private CsvExporter createCsvExporter(boolean exportAllTransactions){
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        CsvExporter exporter = new CsvExporter(mContext, exportAllTransactions);
+        boolean perAccount = preferences.getBoolean(mContext.getString(R.string.key_csv_export_per_account), false);
+        exporter.setMode(perAccount ? CsvExporter.Mode.ACCOUNTS : CsvExporter.Mode.BOOK);
+
+        String columns = preferences.getString(mContext.getString(R.string.key_csv_export_columns), null);
+        if (columns != null){
+            try {
+                CsvExporter.Column[] columnList = CsvExporter.Column.parseList(columns);
+                if (columnList.length > 0)
+                    exporter.setColumns(columnList);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring invalid CSV columns " + columns);
+            }
+        }
+
+        String datePattern = preferences.getString(mContext.getString(R.string.key_csv_date_pattern), null);
+        if (datePattern != null && datePattern.trim().length() > 0){
+            try {
+                exporter.setDatePattern(datePattern.trim());
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring invalid CSV date pattern " + datePattern);
+            }
+        }
+
+        String delimiter = preferences.getString(mContext.getString(R.string.key_csv_delimiter), null);
+        if (delimiter != null && delimiter.length() == 1)
+            exporter.setDelimiter(delimiter.charAt(0));
+
+        String decimalSeparator = preferences.getString(mContext.getString(R.string.key_csv_decimal_separator), null);
+        if (decimalSeparator != null && decimalSeparator.length() == 1)
+            exporter.setDecimalSeparator(decimalSeparator.charAt(0));
+        return exporter;
+    }
+
+    /**
+     * Exports the transactions in the database with <code>exporter</code> directly to the target file.
+     * The exported data is streamed to the file as it is generated, compressed and split into several files
+     * as set in the export parameters. If the export fails or is cancelled, the files written so far are deleted
+     * and no transactions are marked as exported
+     * @param exporter Exporter for the export format
+     * @throws IOException if file could not be saved
+     */
+    private void export(Exporter exporter) throws IOException {
+        configureExporter(exporter);
+
+        ExportOutput output = new ExportOutput(mExportParams.getTargetFilepath(),
+                mExportParams.getCompression(), mExportParams.getMaxFileSize());
+        boolean completed = false;
+        try {
+            exporter.export(output);
+            //only mark the transactions as exported once the files are complete
+            output.close();
+            exporter.markExported();
+            completed = true;
+        } finally {
+            if (!completed)
+                output.deleteFiles();
+        }
+        mExportedFiles = output.getFiles();
+        mMimeType = output.getMimeType(mExportParams.getExportFormat().getMimeType());
+    }
+
+    /**
+     * Exports the transactions in the database to several formats in a single pass over the database.
+     * Each format is written to its own target file, compressed and split as set in the export parameters.
+     * The transactions are only marked as exported once all files are complete. If the export of any format fails,
+     * the files of all formats are deleted
+     * @param exportFormats Formats to export
+     * @throws IOException if a file could not be saved
+     */
+    private void export(List<ExportFormat> exportFormats) throws IOException {
+        List<ExportOutput> outputs = new ArrayList<ExportOutput>();
+        for (ExportFormat format : exportFormats) {
+            outputs.add(new ExportOutput(mExportParams.getTargetFilepath(format),
+                    mExportParams.getCompression(), mExportParams.getMaxFileSize()));
+        }
+        //the other formats are written in the same pass as the first one
+        Exporter exporter = createExporter(exportFormats.get(0));
+        for (int i = 1; i < exportFormats.size(); i++) {
+            exporter.addFormat(createExporter(exportFormats.get(i)), outputs.get(i));
+        }
+        configureExporter(exporter);
+
+        boolean completed = false;
+        try {
+            exporter.export(outputs.get(0));
+            ExportOutput.closeAll(outputs);
+            exporter.markExported();
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (ExportOutput output : outputs) {
+                    output.deleteFiles();
+                }
+            }
+        }
+
+        mExportedFiles = new ArrayList<File>();
+        mMimeType = null;
+        for (int i = 0; i < outputs.size(); i++) {
+            ExportOutput output = outputs.get(i);
+            mExportedFiles.addAll(output.getFiles());
+            String mimeType = output.getMimeType(exportFormats.get(i).getMimeType());
+            //files of different types can only be shared together as generic files
+            mMimeType = mMimeType == null || mMimeType.equals(mimeType) ? mimeType : "*/*";
+        }
+    }
+
+    /**
+     * Applies the export parameters which are common to all formats to <code>exporter</code>
+     * @param exporter Exporter to configure
+     */
+    private void configureExporter(Exporter exporter){
+        exporter.setExportProfile(mExportParams.getExportProfile());
+        exporter.setDateRange(mExportParams.getStartTime(), mExportParams.getEndTime());
+        exporter.setAccountFilter(mExportParams.getAccountUIDs(), mExportParams.shouldIncludeSubAccounts());
+        if (mExportParams.isParallelExport()){
+            exporter.setThreadCount(Runtime.getRuntime().availableProcessors());
+        }
+        exporter.setProgressListener(mProgressListener);
+    }
+}
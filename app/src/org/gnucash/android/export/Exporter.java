@@ -0,0 +1,897 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import org.gnucash.android.db.AccountTree;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Base class for exporters which write the transactions in the database account by account.
+ * <p>The transactions are read from the export cursor of {@link TransactionsDbAdapter#fetchTransactionsForExport(boolean, long, boolean)}.
+ * The rows are streamed to the exporter one at a time: subclasses start the section for an account in
+ * {@link #startAccount(Writer, Cursor)}, which returns an {@link AccountSection} receiving the transactions of the account.
+ * Subclasses can also write a document header and footer</p>
+ * <p>If more than one thread is set with {@link #setThreadCount(int)}, the account sections are rendered
+ * to separate buffers on a pool of worker threads, in chunks of a bounded number of rows, and written out in the original order.
+ * The chunks are rendered independently of each other, also those of the same account, and the running state
+ * of their sections is merged when they are written out.
+ * The cursor is still read on the calling thread, so the output is the same as that of a sequential export</p>
+ * <p>When exporting to an {@link ExportOutput} with a maximum part size, a new part is started between accounts
+ * once the current part is full. Each part gets its own header and footer</p>
+ * <p>Which transactions are new is tracked per export profile, so that several export targets can each
+ * receive all new transactions. See {@link #setExportProfile(String)}.
+ * The transactions are only marked as exported by {@link #markExported()}, after the output is complete</p>
+ * <p>Progress is reported to an {@link ExportProgressListener} while the rows are read, which can also cancel the export.
+ * A cancelled export leaves the export profile unchanged</p>
+ * <p>The export can be restricted to a date range and to a subset of the accounts with {@link #setDateRange(long, long)}
+ * and {@link #setAccountFilter(Collection, boolean)}. The filters are applied in the database query.
+ * A filtered export does not mark any transactions as exported, because the transactions outside
+ * the filters would otherwise be lost for the next export with the same profile</p>
+ * <p>Several formats can be written in a single pass over the database, by adding the exporters of the other formats
+ * with {@link #addFormat(Exporter, ExportOutput)}. Each row is then read once and handed to every format which needs it</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public abstract class Exporter {
+    /**
+     * Application context
+     */
+    protected final Context mContext;
+
+    /**
+     * Flag indicating whether to ignore the export profile.
+     * If set to true, then all transactions will be exported, regardless of whether their change sequence numbers
+     * are below the last sequence exported with the profile
+     */
+    protected final boolean mExportAll;
+
+    /**
+     * Unique IDs of the accounts to export, or <code>null</code> if all accounts are exported
+     */
+    private Set<String> mAccountUIDs;
+
+    /**
+     * Name of the export profile which tracks the exported transactions
+     */
+    private String mExportProfile = DatabaseHelper.DEFAULT_EXPORT_PROFILE_NAME;
+
+    /**
+     * Number of threads used to render the account sections
+     */
+    private int mThreadCount = 1;
+
+    /**
+     * Maximum number of rows which are copied from the cursor and rendered on a worker thread at once
+     */
+    private static final int CHUNK_ROWS = 256;
+
+    /**
+     * Minimum time in milliseconds between two progress reports
+     */
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+
+    /**
+     * Listener for the progress of the export, or <code>null</code> if none is set
+     */
+    private ExportProgressListener mProgressListener;
+
+    /**
+     * Time of the last progress report
+     */
+    private long mLastProgressTime;
+
+    /**
+     * Number of rows after which the progress is reported and the cancellation of the export is checked
+     */
+    private static final int PROGRESS_ROWS = 64;
+
+    /**
+     * Rows read since the progress was last reported
+     */
+    private int mRowsSinceProgress;
+
+    /**
+     * Change sequence up to which the last finished export has written the transactions,
+     * or -1 if there is no finished export which has not been marked as exported yet
+     */
+    private long mExportedSequence = -1;
+
+    /**
+     * Earliest time of the exported transactions in milliseconds
+     */
+    private long mStartTime = 0;
+
+    /**
+     * Time in milliseconds before which the exported transactions lie
+     */
+    private long mEndTime = Long.MAX_VALUE;
+
+    /**
+     * Unique IDs of the accounts selected for export, or <code>null</code> to export all accounts
+     */
+    private Collection<String> mFilterAccountUIDs;
+
+    /**
+     * Flag for exporting the descendants of the accounts in {@link #mFilterAccountUIDs} as well
+     */
+    private boolean mIncludeSubAccounts;
+
+    /**
+     * Database record IDs of the accounts selected by the account filter in the running export,
+     * or <code>null</code> if all accounts are exported
+     */
+    private Set<Long> mFilterAccountIds;
+
+    /**
+     * Output of the export which is currently running
+     */
+    private ExportOutput mOutput;
+
+    /**
+     * Writer for the current part of {@link #mOutput}
+     */
+    private Writer mWriter;
+
+    /**
+     * Exporters of the formats which are written together with this one
+     */
+    private final List<Exporter> mAddedFormats = new ArrayList<Exporter>();
+
+    /**
+     * Outputs of the added formats, in the same order
+     */
+    private final List<ExportOutput> mAddedOutputs = new ArrayList<ExportOutput>();
+
+    /**
+     * Creates a new exporter
+     * @param context Application context
+     * @param exportAll Whether all transactions should be exported or only new ones since last export
+     */
+    public Exporter(Context context, boolean exportAll){
+        mContext = context;
+        mExportAll = exportAll;
+    }
+
+    /**
+     * Sets the export profile which tracks the exported transactions.
+     * Only transactions which were added or modified since the last export with the same profile count as new
+     * @param profileName Name of the export profile
+     */
+    public void setExportProfile(String profileName){
+        mExportProfile = profileName;
+    }
+
+    /**
+     * Sets the number of threads used to render the account sections.
+     * By default, accounts are rendered one after the other on the exporting thread
+     * @param threadCount Number of worker threads. Values below 2 disable parallel rendering
+     */
+    public void setThreadCount(int threadCount){
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Sets the listener which receives the progress of the export and can cancel it
+     * @param progressListener Progress listener, or <code>null</code> to not report progress
+     */
+    public void setProgressListener(ExportProgressListener progressListener){
+        mProgressListener = progressListener;
+    }
+
+    /**
+     * Restricts the export to the transactions in a time range
+     * @param startTime Earliest time of the transactions in milliseconds, inclusive. 0 for no limit
+     * @param endTime Time in milliseconds before which the transactions lie, exclusive. <code>Long.MAX_VALUE</code> for no limit
+     */
+    public void setDateRange(long startTime, long endTime){
+        mStartTime = startTime;
+        mEndTime = endTime;
+    }
+
+    /**
+     * Restricts the export to the transactions of some accounts.
+     * <p>Exporters which list transfers under both accounts only write the sections of the selected accounts.
+     * The other exporters write every transaction which has one of the selected accounts as account or as transfer account</p>
+     * @param accountUIDs Unique IDs of the accounts to export, or <code>null</code> to export all accounts
+     * @param includeSubAccounts If <code>true</code>, the descendants of the selected accounts are exported as well
+     */
+    public void setAccountFilter(Collection<String> accountUIDs, boolean includeSubAccounts){
+        mFilterAccountUIDs = accountUIDs;
+        mIncludeSubAccounts = includeSubAccounts;
+    }
+
+    /**
+     * Returns <code>true</code> if the export is restricted by a date range or an account filter
+     * @return <code>true</code> if not all transactions in question are exported, <code>false</code> otherwise
+     */
+    public boolean isFiltered(){
+        return mStartTime > 0 || mEndTime < Long.MAX_VALUE || mFilterAccountUIDs != null;
+    }
+
+    /**
+     * Adds another format which is written in the same pass over the database as the format of this exporter.
+     * <p>The export cursor is read once, with the rows needed by any of the formats, and each row is handed to
+     * every format which needs it. The added format is written to its own output. The export profile, the filters,
+     * the thread count and the progress listener of this exporter apply to all formats, the settings of
+     * <code>exporter</code> itself are ignored except whether it exports all transactions.
+     * The transactions are marked as exported for all formats at once by {@link #markExported()}</p>
+     * @param exporter Exporter for the format
+     * @param output Output to which the format is written. The last part is flushed, but not closed by the export
+     */
+    public void addFormat(Exporter exporter, ExportOutput output){
+        mAddedFormats.add(exporter);
+        mAddedOutputs.add(output);
+    }
+
+    /**
+     * Writes the accounts and their transactions to <code>writer</code>.
+     * <p>All transactions are read from one database cursor, already joined with their accounts,
+     * and written out one account at a time. Once the output has been flushed, the transactions are marked as exported
+     * with {@link #markExported()}</p>
+     * @param writer Writer for the output. It is flushed, but not closed
+     * @throws IOException if the output could not be written
+     * @throws InterruptedIOException if the export was cancelled by the progress listener
+     */
+    public void export(Writer writer) throws IOException {
+        export(new ExportOutput(writer));
+        markExported();
+    }
+
+    /**
+     * Writes the accounts and their transactions to <code>output</code>, which may split them over several parts.
+     * The last part is flushed, but not closed.
+     * <p>No transactions are marked as exported. Once the output has been completed,
+     * the caller has to call {@link #markExported()}</p>
+     * @param output Output for the export
+     * @throws IOException if the output could not be written
+     * @throws InterruptedIOException if the export was cancelled by the progress listener
+     * @see #export(Writer)
+     */
+    public void export(ExportOutput output) throws IOException {
+        mExportedSequence = -1;
+        mRowsSinceProgress = 0;
+        Exporter[] formats = new Exporter[mAddedFormats.size() + 1];
+        formats[0] = this;
+        for (int i = 1; i < formats.length; i++) {
+            formats[i] = mAddedFormats.get(i - 1);
+        }
+
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(mContext);
+        ExecutorService executor = mThreadCount > 1 ? Executors.newFixedThreadPool(mThreadCount) : null;
+        try {
+            //taken before reading, so that changes made during the export are exported again next time
+            long currentSequence = transactionsDbAdapter.getCurrentChangeSequence();
+            long lastExportedSequence = transactionsDbAdapter.getLastExportedSequence(mExportProfile);
+            Set<Long> filterAccountIds = resolveFilterAccountIds();
+            //the cursor contains the rows needed by any of the formats
+            boolean includesTransferSide = false;
+            boolean readsChangedOnly = true;
+            for (Exporter format : formats) {
+                format.prepare(lastExportedSequence, filterAccountIds);
+                includesTransferSide |= format.includesTransferSide();
+                readsChangedOnly &= format.readsChangedOnly();
+            }
+
+            startOutput(output);
+            for (int i = 1; i < formats.length; i++) {
+                formats[i].startOutput(mAddedOutputs.get(i - 1));
+            }
+            Cursor cursor = transactionsDbAdapter.fetchTransactionsForExport(includesTransferSide,
+                    lastExportedSequence, readsChangedOnly, mStartTime, mEndTime, filterAccountIds);
+            if (cursor != null) {
+                try {
+                    if (executor == null)
+                        writeAccounts(cursor, formats);
+                    else
+                        writeAccounts(cursor, formats, executor);
+                } finally {
+                    cursor.close();
+                }
+            }
+            for (Exporter format : formats) {
+                format.finishOutput();
+            }
+
+            mExportedSequence = currentSequence;
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+            transactionsDbAdapter.close();
+        }
+    }
+
+    /**
+     * Marks the transactions written by the last call of {@link #export(ExportOutput)} as exported.
+     * <p>This must only be called after the output has been completed, so that transactions are never marked
+     * as exported without having been written. All changes to the export state are made in one database transaction.
+     * A filtered export leaves the export profile unchanged</p>
+     * @throws InterruptedIOException if the export was cancelled by the progress listener
+     * @throws IllegalStateException if there is no finished export to mark
+     */
+    public void markExported() throws InterruptedIOException {
+        if (mExportedSequence < 0)
+            throw new IllegalStateException("No finished export to mark as exported");
+        //last chance to cancel before anything is marked as exported
+        checkCancelled();
+
+        if (isFiltered()){
+            mExportedSequence = -1;
+            return;
+        }
+
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(mContext);
+        try {
+            transactionsDbAdapter.setLastExportedSequence(mExportProfile, mExportedSequence);
+        } finally {
+            transactionsDbAdapter.close();
+        }
+        mExportedSequence = -1;
+    }
+
+    /**
+     * Returns <code>true</code> if transfers should also be listed under their transfer accounts
+     * @return <code>true</code> if the export cursor includes the transfer side of transactions
+     * @see TransactionsDbAdapter#fetchTransactionsForExport(boolean, long, boolean)
+     */
+    protected abstract boolean includesTransferSide();
+
+    /**
+     * Returns <code>true</code> if the exported accounts should include their previously exported transactions,
+     * for example to compute balances. Previously exported transactions are only written if all transactions are exported.
+     * By default, only new transactions are read from the database
+     * @return <code>true</code> if previously exported transactions are needed, <code>false</code> otherwise
+     */
+    protected boolean includesExportedTransactions(){
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if only the transactions changed since the last export are read from the database
+     * @return <code>true</code> if previously exported transactions are skipped, <code>false</code> otherwise
+     */
+    private boolean readsChangedOnly(){
+        return !mExportAll && !includesExportedTransactions();
+    }
+
+    /**
+     * Writes everything which precedes the first account section
+     * @param writer Writer for the output
+     * @throws IOException if the output could not be written
+     */
+    protected void writeHeader(Writer writer) throws IOException {
+        //nothing to write by default
+    }
+
+    /**
+     * Writes the beginning of the section for the account in the current row of <code>cursor</code>.
+     * <p>The cursor is positioned at the first transaction of the account, which is then passed to the returned
+     * section like all following transactions of the account. Implementations must not move the cursor.
+     * This method and the methods of the section may be called on a worker thread, so any state of
+     * the section must be kept in the section</p>
+     * <p>When the account is rendered in parallel chunks, this method is called for every chunk with the first
+     * row of the chunk. Only the beginning written for the first chunk is used, the sections of the following
+     * chunks are merged into the first one with {@link AccountSection#merge(AccountSection)}</p>
+     * @param writer Writer for the section
+     * @param cursor Export cursor, positioned at the first transaction of the account
+     * @return Section which receives the transactions of the account
+     * @throws IOException if the output could not be written
+     */
+    protected abstract AccountSection startAccount(Writer writer, Cursor cursor) throws IOException;
+
+    /**
+     * Writes everything which follows the last account section
+     * @param writer Writer for the output
+     * @throws IOException if the output could not be written
+     */
+    protected void writeFooter(Writer writer) throws IOException {
+        //nothing to write by default
+    }
+
+    /**
+     * Section of one account in the output, as started by {@link #startAccount(Writer, Cursor)}.
+     * <p>The section receives the transactions of the account one at a time, in the order of the export cursor.
+     * When sections are rendered in parallel, the writer may differ between calls, so implementations must
+     * not keep a writer, or anything which writes to it, beyond one call</p>
+     */
+    protected interface AccountSection {
+        /**
+         * Writes the transaction in the current row of <code>cursor</code>
+         * @param writer Writer for the section
+         * @param cursor Export cursor, positioned at a transaction of the account. It must not be moved
+         * @throws IOException if the output could not be written
+         */
+        void writeTransaction(Writer writer, Cursor cursor) throws IOException;
+
+        /**
+         * Writes the end of the section, after the last transaction of the account
+         * @param writer Writer for the section
+         * @throws IOException if the output could not be written
+         */
+        void finish(Writer writer) throws IOException;
+
+        /**
+         * Adds the running state of <code>following</code>, such as a balance, to this section.
+         * Called before the section is finished, when the rows of the account were rendered in parallel chunks
+         * @param following Section of the same account which received the rows following those of this section
+         */
+        void merge(AccountSection following);
+    }
+
+    /**
+     * Moves <code>cursor</code> to the next row and checks if it still belongs to the account <code>accountId</code>.
+     * All rows of the export cursor are passed through here, so every {@link #PROGRESS_ROWS} rows the progress is
+     * reported and the export is stopped if it has been cancelled, even within large accounts
+     * @param cursor Export cursor
+     * @param accountId Database record ID of the account whose section is being written
+     * @return <code>true</code> if the cursor is at another transaction of the account, <code>false</code> otherwise
+     * @throws InterruptedIOException if the export has been cancelled
+     */
+    private boolean moveToNextInAccount(Cursor cursor, long accountId) throws InterruptedIOException {
+        boolean moved = cursor.moveToNext();
+        //the final report is made once all rows have been written
+        if (moved && ++mRowsSinceProgress >= PROGRESS_ROWS){
+            mRowsSinceProgress = 0;
+            updateProgress(cursor);
+        }
+        return moved && cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_ID) == accountId;
+    }
+
+    /**
+     * Opens the first part of <code>output</code> and writes the header to it
+     * @param output Output for the export
+     * @throws IOException if the output could not be written
+     */
+    private void startOutput(ExportOutput output) throws IOException {
+        mOutput = output;
+        mWriter = output.nextPart();
+        writeHeader(mWriter);
+    }
+
+    /**
+     * Writes the footer to the current part and flushes it
+     * @throws IOException if the output could not be written
+     */
+    private void finishOutput() throws IOException {
+        writeFooter(mWriter);
+        mWriter.flush();
+        mWriter = null;
+        mOutput = null;
+    }
+
+    /**
+     * Returns <code>true</code> if this format writes the transaction in the current row of <code>cursor</code>.
+     * The export cursor may contain rows which are only needed by other formats of the same export
+     * @param cursor Export cursor
+     * @return <code>true</code> if the row is passed to the account section, <code>false</code> otherwise
+     */
+    private boolean acceptsRow(Cursor cursor){
+        if (cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_SIDE) == 1 && !includesTransferSide())
+            return false;
+        return !readsChangedOnly() || cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_EXPORTED) == 0;
+    }
+
+    /**
+     * Writes the sections for all exported accounts in <code>cursor</code> on the calling thread.
+     * Each row is read once and passed to the section of every format which exports it
+     * @param formats Exporters of the formats, with their outputs started
+     */
+    private void writeAccounts(Cursor cursor, Exporter[] formats) throws IOException {
+        boolean[] exportsAccount = new boolean[formats.length];
+        AccountSection[] sections = new AccountSection[formats.length];
+
+        cursor.moveToFirst();
+        while (!cursor.isAfterLast()){
+            long accountId = cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_ID);
+            for (int i = 0; i < formats.length; i++) {
+                exportsAccount[i] = formats[i].shouldExportAccount(cursor);
+                sections[i] = null;
+            }
+
+            do {
+                for (int i = 0; i < formats.length; i++) {
+                    Exporter format = formats[i];
+                    if (!exportsAccount[i] || !format.acceptsRow(cursor))
+                        continue;
+                    //a format only gets a section for the account if it writes any of its rows
+                    if (sections[i] == null)
+                        sections[i] = format.startAccount(format.mWriter, cursor);
+                    sections[i].writeTransaction(format.mWriter, cursor);
+                }
+            } while (moveToNextInAccount(cursor, accountId));
+
+            boolean moreAccounts = !cursor.isAfterLast();
+            for (int i = 0; i < formats.length; i++) {
+                if (sections[i] == null)
+                    continue;
+                sections[i].finish(formats[i].mWriter);
+                if (moreAccounts)
+                    formats[i].nextPartIfFull();
+            }
+        }
+        updateProgress(cursor);
+    }
+
+    /**
+     * Renders the sections for all exported accounts in <code>cursor</code> on the worker threads of
+     * <code>executor</code> and writes them out in the order of the cursor.
+     * <p>The rows are copied in chunks of at most {@link #CHUNK_ROWS} rows, and each chunk is rendered for every
+     * format which exports the account. Each chunk is rendered with a section of its own, so the chunks of a large
+     * account are rendered at the same time like those of different accounts. The sections are merged as the chunks
+     * are written. The number of chunks waiting to be written is bounded, so that memory use
+     * does not depend on the size of the accounts</p>
+     * @param formats Exporters of the formats, with their outputs started
+     */
+    private void writeAccounts(Cursor cursor, Exporter[] formats, ExecutorService executor) throws IOException {
+        int maxPendingChunks = 2 * mThreadCount;
+        LinkedList<PendingChunk> pendingChunks = new LinkedList<PendingChunk>();
+        SectionRenderer[] renderers = new SectionRenderer[formats.length];
+        String[] columnNames = cursor.getColumnNames();
+
+        cursor.moveToFirst();
+        while (!cursor.isAfterLast()){
+            long accountId = cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_ID);
+            boolean exported = false;
+            for (int i = 0; i < formats.length; i++) {
+                renderers[i] = formats[i].shouldExportAccount(cursor) ? new SectionRenderer(formats[i], columnNames) : null;
+                exported |= renderers[i] != null;
+            }
+            if (!exported){
+                skipAccount(cursor);
+                continue;
+            }
+
+            boolean moreRows;
+            do {
+                List<Object[]> rows = copyRows(cursor, accountId);
+                moreRows = !cursor.isAfterLast()
+                        && cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_ID) == accountId;
+                boolean moreAccounts = !moreRows && !cursor.isAfterLast();
+                for (SectionRenderer renderer : renderers) {
+                    if (renderer != null)
+                        pendingChunks.add(renderer.submit(executor, rows, !moreRows, moreAccounts));
+                }
+
+                while (pendingChunks.size() >= maxPendingChunks){
+                    pendingChunks.removeFirst().write();
+                }
+            } while (moreRows);
+        }
+
+        while (!pendingChunks.isEmpty()){
+            pendingChunks.removeFirst().write();
+        }
+        updateProgress(cursor);
+    }
+
+    /**
+     * Renders the section of one format for one account on the worker threads, from chunks of copied rows
+     */
+    private static class SectionRenderer {
+        private final Exporter mFormat;
+
+        /**
+         * Column names of the export cursor
+         */
+        private final String[] mColumnNames;
+
+        /**
+         * Section of the account, or <code>null</code> while none of the written chunks has rows of the format.
+         * The sections of the following chunks are merged into it. Only accessed on the thread reading the cursor
+         */
+        private AccountSection mSection;
+
+        SectionRenderer(Exporter format, String[] columnNames){
+            mFormat = format;
+            mColumnNames = columnNames;
+        }
+
+        /**
+         * Submits a chunk of rows of the account for rendering
+         * @param rows Rows of the chunk, which are not modified any more
+         * @param lastChunk Flag for the last chunk of the account, after which the section is finished
+         * @param moreAccounts Flag for accounts following in the cursor, after which a new part may be started
+         * @return Chunk which waits to be written
+         */
+        PendingChunk submit(ExecutorService executor, final List<Object[]> rows, boolean lastChunk, boolean moreAccounts){
+            Future<RenderedChunk> chunk = executor.submit(new Callable<RenderedChunk>() {
+                @Override
+                public RenderedChunk call() throws IOException {
+                    return render(rows);
+                }
+            });
+            return new PendingChunk(this, chunk, lastChunk, moreAccounts);
+        }
+
+        /**
+         * Renders a chunk of rows with a section of its own. Called on a worker thread
+         */
+        private RenderedChunk render(List<Object[]> rows) throws IOException {
+            MatrixCursor cursor = new MatrixCursor(mColumnNames, rows.size());
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+
+            RenderedChunk chunk = new RenderedChunk();
+            try {
+                while (cursor.moveToNext()){
+                    if (!mFormat.acceptsRow(cursor))
+                        continue;
+                    if (chunk.mSection == null)
+                        chunk.mSection = mFormat.startAccount(chunk.mStart, cursor);
+                    chunk.mSection.writeTransaction(chunk.mTransactions, cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+            return chunk;
+        }
+
+        /**
+         * Writes a rendered chunk to the current part of the output of the format, and finishes the section
+         * after the last chunk. Called in the order of the chunks
+         */
+        void write(RenderedChunk chunk, boolean lastChunk) throws IOException {
+            Writer writer = mFormat.mWriter;
+            if (chunk.mSection != null){
+                //the beginning of the section is only written for the first chunk with rows of the format
+                if (mSection == null){
+                    writer.write(chunk.mStart.toString());
+                    mSection = chunk.mSection;
+                } else {
+                    mSection.merge(chunk.mSection);
+                }
+                writer.write(chunk.mTransactions.toString());
+            }
+            if (lastChunk && mSection != null)
+                mSection.finish(writer);
+        }
+    }
+
+    /**
+     * Output of one chunk of an account section, as rendered on a worker thread
+     */
+    private static class RenderedChunk {
+        /**
+         * Beginning of the section, as written when the section of the chunk was started
+         */
+        final StringWriter mStart = new StringWriter();
+
+        /**
+         * Transactions of the chunk
+         */
+        final StringWriter mTransactions = new StringWriter();
+
+        /**
+         * Section which rendered the chunk, or <code>null</code> if none of the rows is written by the format
+         */
+        AccountSection mSection;
+    }
+
+    /**
+     * Chunk of an account section which is rendered on a worker thread and waits to be written to the output of its format
+     */
+    private static class PendingChunk {
+        private final SectionRenderer mRenderer;
+
+        private final Future<RenderedChunk> mChunk;
+
+        /**
+         * Flag for the last chunk of the account, after which the section is finished
+         */
+        private final boolean mLastChunk;
+
+        /**
+         * Flag for the last chunk of an account which is followed by more accounts, after which a new part may be started
+         */
+        private final boolean mEndsAccount;
+
+        PendingChunk(SectionRenderer renderer, Future<RenderedChunk> chunk, boolean lastChunk, boolean moreAccounts){
+            mRenderer = renderer;
+            mChunk = chunk;
+            mLastChunk = lastChunk;
+            mEndsAccount = lastChunk && moreAccounts;
+        }
+
+        /**
+         * Waits for the chunk to be rendered and writes it to the current part of the output of its format
+         */
+        void write() throws IOException {
+            mRenderer.write(getRendered(mChunk), mLastChunk);
+            //parts are only split after a section which has been written
+            if (mEndsAccount && mRenderer.mSection != null)
+                mRenderer.mFormat.nextPartIfFull();
+        }
+    }
+
+    /**
+     * Reports the rows of <code>cursor</code> which have been processed to the progress listener,
+     * unless the last report was too recent. The final report is always made
+     * @throws InterruptedIOException if the export has been cancelled
+     */
+    private void updateProgress(Cursor cursor) throws InterruptedIOException {
+        if (mProgressListener == null)
+            return;
+        checkCancelled();
+
+        long now = System.currentTimeMillis();
+        boolean finished = cursor.isAfterLast();
+        if (finished || now - mLastProgressTime >= PROGRESS_INTERVAL_MILLIS) {
+            mLastProgressTime = now;
+            int totalRows = cursor.getCount();
+            mProgressListener.onExportProgress(finished ? totalRows : cursor.getPosition(), totalRows);
+        }
+    }
+
+    /**
+     * Stops the export if the progress listener has cancelled it
+     * @throws InterruptedIOException if the export has been cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (mProgressListener != null && mProgressListener.isExportCancelled())
+            throw new InterruptedIOException("Export was cancelled");
+    }
+
+    /**
+     * Closes the current part with the footer and starts a new part with a header, if the current part is full
+     * @throws IOException if the output could not be written
+     */
+    private void nextPartIfFull() throws IOException {
+        if (!mOutput.isPartFull())
+            return;
+
+        writeFooter(mWriter);
+        mWriter = mOutput.nextPart();
+        writeHeader(mWriter);
+    }
+
+    /**
+     * Waits for a chunk of an account section to be rendered and returns it
+     */
+    private static RenderedChunk getRendered(Future<RenderedChunk> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Determines the accounts to export, before the export cursor is read
+     * @param lastExportedSequence Change sequence number up to which transactions count as exported
+     * @param filterAccountIds Record IDs of the accounts selected by the account filter, or <code>null</code> for all accounts
+     */
+    private void prepare(long lastExportedSequence, Set<Long> filterAccountIds){
+        mFilterAccountIds = filterAccountIds;
+        loadExportableAccounts(lastExportedSequence);
+    }
+
+    /**
+     * Loads the unique IDs of the accounts which have transactions changed after <code>lastExportedSequence</code>.
+     * If all transactions are exported, all accounts are exported
+     */
+    private void loadExportableAccounts(long lastExportedSequence){
+        if (mExportAll){
+            mAccountUIDs = null;
+            return;
+        }
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(mContext);
+        mAccountUIDs = new HashSet<String>();
+        for (Account account : accountsDbAdapter.getExportableAccounts(lastExportedSequence)) {
+            mAccountUIDs.add(account.getUID());
+        }
+        accountsDbAdapter.close();
+    }
+
+    /**
+     * Returns the database record IDs of the accounts selected by the account filter, including their
+     * descendants if requested. Unknown accounts are ignored
+     * @return Account record IDs, or <code>null</code> if there is no account filter
+     */
+    private Set<Long> resolveFilterAccountIds(){
+        if (mFilterAccountUIDs == null)
+            return null;
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(mContext);
+        try {
+            AccountTree accountTree = accountsDbAdapter.getAccountTree();
+            Set<Long> accountIds = new HashSet<Long>();
+            for (String accountUID : mFilterAccountUIDs) {
+                long accountId = accountTree.getId(accountUID);
+                if (accountId < 0)
+                    continue;
+                if (mIncludeSubAccounts)
+                    accountIds.addAll(accountTree.getSubtreeIds(accountId));
+                else
+                    accountIds.add(accountId);
+            }
+            return accountIds;
+        } finally {
+            accountsDbAdapter.close();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the account in the current row of <code>cursor</code> should be exported
+     * @param cursor Export cursor
+     * @return <code>true</code> if the account has transactions to export, <code>false</code> otherwise
+     */
+    private boolean shouldExportAccount(Cursor cursor){
+        //the export cursor also lists transfers under the transfer accounts which were not selected
+        if (mFilterAccountIds != null && includesTransferSide()
+                && !mFilterAccountIds.contains(cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_ID)))
+            return false;
+        return mAccountUIDs == null
+                || mAccountUIDs.contains(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_UID));
+    }
+
+    /**
+     * Moves <code>cursor</code> past all rows of the account in the current row
+     */
+    private void skipAccount(Cursor cursor) throws InterruptedIOException {
+        long accountId = cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_ID);
+        while (moveToNextInAccount(cursor, accountId)){
+            //skip
+        }
+    }
+
+    /**
+     * Copies up to {@link #CHUNK_ROWS} rows of the account <code>accountId</code>, starting at the current row
+     * of <code>cursor</code>, so that they can be read on another thread.
+     * <code>cursor</code> is left at the first row which was not copied
+     */
+    private List<Object[]> copyRows(Cursor cursor, long accountId) throws InterruptedIOException {
+        int columnCount = cursor.getColumnCount();
+        List<Object[]> rows = new ArrayList<Object[]>();
+        do {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = cursor.getString(i);
+            }
+            rows.add(row);
+        } while (moveToNextInAccount(cursor, accountId) && rows.size() < CHUNK_ROWS);
+        return rows;
+    }
+}
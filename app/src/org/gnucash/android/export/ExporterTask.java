@@ -18,43 +18,31 @@ package org.gnucash.android.export;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
 import android.widget.Toast;
 import org.gnucash.android.R;
-import org.gnucash.android.export.ofx.OfxExporter;
-import org.gnucash.android.export.ofx.OfxHelper;
-import org.gnucash.android.export.qif.QifExporter;
 import org.gnucash.android.ui.account.AccountsActivity;
 import org.gnucash.android.ui.transaction.dialog.TransactionsDeleteConfirmationDialogFragment;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.ProcessingInstruction;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import java.io.*;
-import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Asynchronous task for exporting transactions.
  *
  * @author Ngewi Fet <ngewif@gmail.com>
  */
-public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
+public class ExporterTask extends AsyncTask<ExportParams, Integer, Boolean> {
     /**
      * App context
      */
@@ -72,6 +60,22 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
      */
     private ExportParams mExportParams;
 
+    /**
+     * Files which were written by the export
+     */
+    private List<File> mExportedFiles;
+
+    /**
+     * MIME type of the exported files
+     */
+    private String mMimeType;
+
+    /**
+     * Error which made the export fail, or <code>null</code>.
+     * It is reported in {@link #onPostExecute(Boolean)}, since toasts can only be shown on the UI thread
+     */
+    private Exception mExportException;
+
     public ExporterTask(Context context){
         this.mContext = context;
     }
@@ -83,6 +87,23 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
         mProgressDialog.setTitle(R.string.title_progress_exporting_transactions);
         mProgressDialog.setIndeterminate(true);
         mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setCancelable(true);
+        mProgressDialog.setCanceledOnTouchOutside(false);
+        mProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialogInterface) {
+                //the export checks for cancellation while it reads the transactions, also within an account.
+                //It stops at its next progress report, see onCancelled()
+                cancel(false);
+            }
+        });
+        mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, mContext.getString(android.R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        dialogInterface.cancel();
+                    }
+                });
         mProgressDialog.show();
     }
 
@@ -94,32 +115,55 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
     @Override
     protected Boolean doInBackground(ExportParams... params) {
         mExportParams = params[0];
-        boolean exportAllTransactions = mExportParams.shouldExportAllTransactions();
-        try {
-            switch (mExportParams.getExportFormat()) {
-                case QIF: {
-                    QifExporter qifExporter = new QifExporter(mContext, exportAllTransactions);
-                    String qif = qifExporter.generateQIF();
-
-                    writeQifExternalStorage(qif);
-                }
-                return true;
+        ExportRunner exportRunner = new ExportRunner(mContext, mExportParams);
+        exportRunner.setProgressListener(new ExportProgressListener() {
+            @Override
+            public void onExportProgress(int processedRows, int totalRows) {
+                publishProgress(processedRows, totalRows);
+            }
 
-                case OFX: {
-                    Document document = exportOfx(exportAllTransactions);
-                    writeOfxToExternalStorage(document);
-                }
-                return true;
+            @Override
+            public boolean isExportCancelled() {
+                return isCancelled();
             }
+        });
+        try {
+            exportRunner.run();
+            mExportedFiles = exportRunner.getExportedFiles();
+            mMimeType = exportRunner.getMimeType();
+            return true;
         } catch (Exception e) {
-            e.printStackTrace();
-            Log.e(TAG, e.getMessage());
-            Toast.makeText(mContext, R.string.error_exporting,
-                    Toast.LENGTH_LONG).show();
-        };
+            if (isCancelled()) {
+                Log.i(TAG, "Export was cancelled");
+                return false;
+            }
+            Log.e(TAG, "Export failed", e);
+            mExportException = e;
+        }
         return false;
     }
 
+    /**
+     * Shows the number of processed transactions in the progress dialog
+     * @param values Number of processed rows and total number of rows
+     */
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mProgressDialog.setIndeterminate(false);
+        mProgressDialog.setMax(values[1]);
+        mProgressDialog.setProgress(values[0]);
+    }
+
+    /**
+     * Called instead of {@link #onPostExecute(Boolean)} when the export was cancelled.
+     * The partial output has already been deleted and no transactions were marked as exported
+     */
+    @Override
+    protected void onCancelled() {
+        mProgressDialog.dismiss();
+        Toast.makeText(mContext, R.string.toast_export_cancelled, Toast.LENGTH_SHORT).show();
+    }
+
     /**
      * Transmits the exported transactions to the designated location, either SD card or third-party application
      * @param exportResult Result of background export execution
@@ -128,6 +172,9 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
     protected void onPostExecute(Boolean exportResult) {
 
         if (!exportResult){
+            mProgressDialog.dismiss();
+            if (mExportException != null)
+                Toast.makeText(mContext, R.string.error_exporting, Toast.LENGTH_LONG).show();
             Toast.makeText(mContext,
                     mContext.getString(R.string.toast_error_exporting),
                     Toast.LENGTH_LONG).show();
@@ -136,28 +183,16 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
 
         switch (mExportParams.getExportTarget()) {
             case SHARING:
-                shareFile(mExportParams.getTargetFilepath());
+                shareFiles(mExportedFiles);
                 break;
 
             case SD_CARD:
-                File src = new File(mExportParams.getTargetFilepath());
-                new File(Environment.getExternalStorageDirectory() + "/gnucash/").mkdirs();
-                File dst = new File(Environment.getExternalStorageDirectory()
-                        + "/gnucash/" + ExportDialogFragment.buildExportFilename(mExportParams.getExportFormat()));
-
-                try {
-                    copyFile(src, dst);
-                } catch (IOException e) {
-                    Toast.makeText(mContext,
-                            mContext.getString(R.string.toast_error_exporting_ofx) + dst.getAbsolutePath(),
-                            Toast.LENGTH_LONG).show();
-                    Log.e(TAG, e.getMessage());
-                    break;
-                }
-
-                //file already exists, just let the user know
+                //the export was written directly to the SD card, just let the user know
+                File exportedFile = mExportedFiles.get(0);
+                String exportedPath = mExportedFiles.size() == 1
+                        ? exportedFile.getAbsolutePath() : exportedFile.getParentFile().getAbsolutePath();
                 Toast.makeText(mContext,
-                        mContext.getString(R.string.toast_ofx_exported_to) + dst.getAbsolutePath(),
+                        mContext.getString(R.string.toast_ofx_exported_to) + exportedPath,
                         Toast.LENGTH_LONG).show();
                 break;
 
@@ -181,86 +216,27 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
     }
 
 
-    /**
-     * Exports transactions in the database to the OFX format.
-     * The accounts are written to a DOM document and returned
-     * @param exportAll Flag to export all transactions or only the new ones since last export
-     * @return DOM {@link Document} containing the OFX file information
-     * @throws javax.xml.parsers.ParserConfigurationException
-     */
-    protected Document exportOfx(boolean exportAll) throws ParserConfigurationException {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory
-                .newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-
-        Document document = docBuilder.newDocument();
-        Element root = document.createElement("OFX");
-
-        ProcessingInstruction pi = document.createProcessingInstruction("OFX", OfxHelper.OFX_HEADER);
-        document.appendChild(pi);
-        document.appendChild(root);
-
-        OfxExporter exporter = new OfxExporter(mContext, exportAll);
-        exporter.toOfx(document, root);
-
-        return document;
-    }
-
-    /**
-     * Writes out the String containing the exported transaction in QIF format to disk
-     * @param qif String containing exported transactions
-     * @throws IOException
-     */
-    private void writeQifExternalStorage(String qif) throws IOException {
-        File file = new File(mExportParams.getTargetFilepath());
-
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-        writer.write(qif);
-
-        writer.flush();
-        writer.close();
-    }
-
-    /**
-     * Writes the OFX document <code>doc</code> to external storage
-     * @param doc Document containing OFX file data
-     * @throws IOException if file could not be saved
-     */
-    private void writeOfxToExternalStorage(Document doc) throws IOException{
-        File file = new File(mExportParams.getTargetFilepath());
-
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-        boolean useXmlHeader = PreferenceManager.getDefaultSharedPreferences(mContext)
-                .getBoolean(mContext.getString(R.string.key_xml_ofx_header), false);
-
-        //if we want SGML OFX headers, write first to string and then prepend header
-        if (useXmlHeader){
-            write(doc, writer, false);
-        } else {
-            Node ofxNode = doc.getElementsByTagName("OFX").item(0);
-            StringWriter stringWriter = new StringWriter();
-            write(ofxNode, stringWriter, true);
-
-            StringBuffer stringBuffer = new StringBuffer(OfxHelper.OFX_SGML_HEADER);
-            stringBuffer.append('\n');
-            writer.write(stringBuffer.toString() + stringWriter.toString());
-        }
-
-        writer.flush();
-        writer.close();
-    }
-
     /**
      * Starts an intent chooser to allow the user to select an activity to receive
-     * the exported OFX file
-     * @param path String path to the file on disk
+     * the exported files
+     * @param files Exported files on disk
      */
-    private void shareFile(String path){
+    private void shareFiles(List<File> files){
         String defaultEmail = PreferenceManager.getDefaultSharedPreferences(mContext)
                 .getString(mContext.getString(R.string.key_default_export_email), null);
-        Intent shareIntent = new Intent(Intent.ACTION_SEND);
-        shareIntent.setType("application/xml");
-        shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse("file://" + path));
+        Intent shareIntent;
+        if (files.size() == 1) {
+            shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse("file://" + files.get(0).getAbsolutePath()));
+        } else {
+            ArrayList<Uri> fileUris = new ArrayList<Uri>();
+            for (File file : files) {
+                fileUris.add(Uri.parse("file://" + file.getAbsolutePath()));
+            }
+            shareIntent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+            shareIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, fileUris);
+        }
+        shareIntent.setType(mMimeType);
         shareIntent.putExtra(Intent.EXTRA_SUBJECT, mContext.getString(R.string.title_export_email));
         if (defaultEmail != null && defaultEmail.trim().length() > 0){
             shareIntent.putExtra(Intent.EXTRA_EMAIL, new String[]{defaultEmail});
@@ -272,56 +248,4 @@ public class ExporterTask extends AsyncTask<ExportParams, Void, Boolean> {
 
         mContext.startActivity(Intent.createChooser(shareIntent, mContext.getString(R.string.title_select_export_destination)));
     }
-
-    /**
-     * Copies a file from <code>src</code> to <code>dst</code>
-     * @param src Absolute path to the source file
-     * @param dst Absolute path to the destination file
-     * @throws IOException if the file could not be copied
-     */
-    public static void copyFile(File src, File dst) throws IOException
-    {
-        //TODO: Make this asynchronous at some time, t in the future.
-        FileChannel inChannel = new FileInputStream(src).getChannel();
-        FileChannel outChannel = new FileOutputStream(dst).getChannel();
-        try
-        {
-            inChannel.transferTo(0, inChannel.size(), outChannel);
-        }
-        finally
-        {
-            if (inChannel != null)
-                inChannel.close();
-            if (outChannel != null)
-                outChannel.close();
-        }
-    }
-
-    /**
-     * Writes out the document held in <code>node</code> to <code>outputWriter</code>
-     * @param node {@link Node} containing the OFX document structure. Usually the parent node
-     * @param outputWriter {@link Writer} to use in writing the file to stream
-     * @param omitXmlDeclaration Flag which causes the XML declaration to be omitted
-     */
-    public void write(Node node, Writer outputWriter, boolean omitXmlDeclaration){
-        try {
-            TransformerFactory transformerFactory = TransformerFactory
-                    .newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(node);
-            StreamResult result = new StreamResult(outputWriter);
-
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            if (omitXmlDeclaration) {
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            }
-
-            transformer.transform(source, result);
-        } catch (TransformerConfigurationException txconfigException) {
-            txconfigException.printStackTrace();
-        } catch (TransformerException tfException) {
-            tfException.printStackTrace();
-        }
-    }
 }
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import org.gnucash.android.R;
+import org.gnucash.android.db.TransactionsDbAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Service which runs the scheduled background exports.
+ * <p>All runs are queued on the single worker thread of the service, so scheduled exports never run concurrently.
+ * A run only exports the transactions which changed since the last scheduled export. It first checks the change
+ * sequence of the database, and does nothing if no transaction was added or modified since then</p>
+ * <p>Scheduled exports use their own export profile, so they do not interfere with the exports made by the user.
+ * Each run writes all formats selected in the preferences in a single pass over the transactions.
+ * If the GnuCash XML format is one of them, each run also writes the whole book. Only the newest
+ * {@link #KEPT_BOOK_COUNT} books are kept, together with the files written since the oldest of them.
+ * Older files are deleted, since their transactions are contained in the kept books. The files written by scheduled
+ * exports have names of their own, so files exported by the user are never deleted</p>
+ * <p>A failed run is logged and does not affect the schedule, the next run exports the same changes again</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ * @see org.gnucash.android.receivers.ExportScheduler
+ */
+public class ScheduledExportService extends IntentService {
+    /**
+     * Name of the export profile of scheduled exports
+     */
+    public static final String EXPORT_PROFILE_NAME = "scheduled";
+
+    /**
+     * Directory to which scheduled exports are written if none is configured, relative to the external storage
+     */
+    public static final String DEFAULT_EXPORT_DIRECTORY = "gnucash/auto";
+
+    /**
+     * Number of GnuCash XML books which are kept in the export directory
+     */
+    public static final int KEPT_BOOK_COUNT = 5;
+
+    /**
+     * Tag for logging
+     */
+    private static final String TAG = "ScheduledExportService";
+
+    /**
+     * Intent extra which is set if the service was started with the wake lock held
+     */
+    private static final String EXTRA_WAKEFUL = "org.gnucash.android.extra.WAKEFUL";
+
+    /**
+     * Prefix of the names of the files written by scheduled exports.
+     * It keeps the cleanup of old exports away from the files exported by the user
+     */
+    public static final String FILENAME_PREFIX = "scheduled_";
+
+    /**
+     * Names of the files written by scheduled exports. The time of the export follows the prefix, so they sort chronologically
+     * @see #buildExportFilename(ExportFormat)
+     */
+    private static final Pattern EXPORT_FILENAME_PATTERN = Pattern.compile(
+            Pattern.quote(FILENAME_PREFIX) + "\\d{8}_\\d{6}_gnucash_all.*");
+
+    /**
+     * Length of the time after the prefix of the export file names
+     */
+    private static final int FILENAME_TIME_LENGTH = 15;
+
+    /**
+     * Time after which the wake lock is released even if the export has not finished,
+     * so that a stuck export cannot keep the device awake
+     */
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Keeps the device awake from the alarm until the end of the scheduled export
+     */
+    private static PowerManager.WakeLock sWakeLock;
+
+    public ScheduledExportService(){
+        super(TAG);
+    }
+
+    /**
+     * Starts a scheduled export while holding a wake lock, which is released when the export has finished.
+     * Called by the receiver of the alarm, since the device may fall asleep again as soon as the receiver returns
+     * @param context Application context
+     */
+    public static void startWakeful(Context context){
+        synchronized (ScheduledExportService.class){
+            if (sWakeLock == null){
+                PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                sWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            }
+            sWakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+        }
+        Intent intent = new Intent(context, ScheduledExportService.class).putExtra(EXTRA_WAKEFUL, true);
+        if (context.startService(intent) == null){
+            Log.e(TAG, "Could not start the scheduled export");
+            releaseWakeLock();
+        }
+    }
+
+    /**
+     * Releases the wake lock acquired by {@link #startWakeful(Context)}, unless it has already timed out
+     */
+    private static void releaseWakeLock(){
+        synchronized (ScheduledExportService.class){
+            if (sWakeLock != null && sWakeLock.isHeld())
+                sWakeLock.release();
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            export();
+        } catch (RuntimeException e) {
+            //keep the service and the schedule alive, the changes are exported again by the next run
+            Log.e(TAG, "Scheduled export failed", e);
+        } finally {
+            if (intent != null && intent.getBooleanExtra(EXTRA_WAKEFUL, false))
+                releaseWakeLock();
+        }
+    }
+
+    /**
+     * Runs the scheduled export, if enabled and if transactions changed since the last one
+     */
+    private void export(){
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        if (!sharedPreferences.getBoolean(getString(R.string.key_scheduled_export), false))
+            return;
+
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(this);
+        boolean hasChanges = transactionsDbAdapter.hasUnexportedChanges(EXPORT_PROFILE_NAME);
+        transactionsDbAdapter.close();
+        if (!hasChanges){
+            Log.d(TAG, "No transactions changed since the last scheduled export");
+            return;
+        }
+
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())){
+            Log.w(TAG, "External storage is not available, skipping scheduled export");
+            return;
+        }
+
+        List<ExportFormat> formats = ExportFormat.parseList(sharedPreferences.getString(
+                getString(R.string.key_scheduled_export_format), ExportFormat.QIF.name()));
+        if (formats.isEmpty())
+            formats = Collections.singletonList(ExportFormat.QIF);
+        //the main format determines the file name, a GnuCash book is only the main format if it is the only one
+        ExportFormat format = formats.get(0);
+        File exportDirectory = getExportDirectory(sharedPreferences.getString(
+                getString(R.string.key_scheduled_export_directory), null));
+        if (!exportDirectory.isDirectory() && !exportDirectory.mkdirs()){
+            Log.e(TAG, "Could not create export directory " + exportDirectory);
+            return;
+        }
+
+        ExportParams exportParams = new ExportParams(format);
+        //all formats are written in the same pass over the database
+        exportParams.setExportFormats(formats);
+        exportParams.setExportAllTransactions(false);
+        exportParams.setExportProfile(EXPORT_PROFILE_NAME);
+        exportParams.setExportTarget(ExportParams.ExportTarget.SD_CARD);
+        exportParams.setTargetFilepath(new File(exportDirectory,
+                buildExportFilename(format)).getAbsolutePath());
+        if (format == ExportFormat.GNC_XML)
+            exportParams.setCompression(ExportParams.Compression.GZIP);
+
+        ExportRunner exportRunner = new ExportRunner(this, exportParams);
+        try {
+            exportRunner.run();
+            Log.i(TAG, "Scheduled export written to " + exportRunner.getExportedFiles());
+        } catch (IOException e) {
+            Log.e(TAG, "Scheduled export failed: " + e.getMessage());
+            return;
+        }
+        deleteSupersededExports(exportDirectory, KEPT_BOOK_COUNT);
+    }
+
+    /**
+     * Builds the name of a file written by a scheduled export, from the current time.
+     * Only files with such names are deleted by {@link #deleteSupersededExports(File, int)}
+     * @param format Format of the export
+     * @return File name
+     */
+    public static String buildExportFilename(ExportFormat format){
+        return FILENAME_PREFIX + ExportDialogFragment.buildExportFilename(format);
+    }
+
+    /**
+     * Deletes the scheduled export files in <code>directory</code> which were written before the oldest of the newest
+     * <code>keptBookCount</code> GnuCash XML books. Those books contain all transactions of the deleted files.
+     * Nothing is deleted while there are not more books than that, so incremental exports are never lost
+     * @param directory Directory of the scheduled exports
+     * @param keptBookCount Number of books to keep, at least 1
+     * @return Number of deleted files
+     */
+    public static int deleteSupersededExports(File directory, int keptBookCount){
+        if (keptBookCount < 1)
+            throw new IllegalArgumentException("At least one book must be kept");
+        File[] files = directory.listFiles();
+        if (files == null)
+            return 0;
+
+        List<String> bookTimes = new ArrayList<String>();
+        for (File file : files) {
+            String name = file.getName();
+            if (EXPORT_FILENAME_PATTERN.matcher(name).matches() && name.contains(ExportFormat.GNC_XML.getExtension())){
+                String time = getExportTime(name);
+                if (!bookTimes.contains(time))
+                    bookTimes.add(time);
+            }
+        }
+        if (bookTimes.size() <= keptBookCount)
+            return 0;
+
+        Collections.sort(bookTimes, Collections.reverseOrder());
+        String oldestKeptTime = bookTimes.get(keptBookCount - 1);
+        int deletedCount = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (EXPORT_FILENAME_PATTERN.matcher(name).matches()
+                    && getExportTime(name).compareTo(oldestKeptTime) < 0){
+                if (file.delete())
+                    deletedCount++;
+                else
+                    Log.w(TAG, "Could not delete old export " + file);
+            }
+        }
+        Log.i(TAG, "Deleted " + deletedCount + " old exports");
+        return deletedCount;
+    }
+
+    /**
+     * Returns the time of the export from the name of a scheduled export file
+     */
+    private static String getExportTime(String filename){
+        return filename.substring(FILENAME_PREFIX.length(), FILENAME_PREFIX.length() + FILENAME_TIME_LENGTH);
+    }
+
+    /**
+     * Returns the directory to which scheduled exports are written
+     * @param path Configured path, absolute or relative to the external storage. May be <code>null</code>
+     * @return Export directory
+     */
+    private static File getExportDirectory(String path){
+        if (path == null || path.trim().length() == 0)
+            path = DEFAULT_EXPORT_DIRECTORY;
+        File directory = new File(path.trim());
+        if (directory.isAbsolute())
+            return directory;
+        return new File(Environment.getExternalStorageDirectory(), path.trim());
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.export.csv;
+
+import android.content.Context;
+import android.database.Cursor;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.Exporter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Exports the transactions in the database as comma separated values, for use in spreadsheets.
+ * <p>The file starts with a header row, followed by one row per transaction. Fields are quoted as described
+ * in RFC 4180 and rows end with CRLF. The columns, the date pattern, the delimiter and the decimal separator
+ * can be configured</p>
+ * <p>In {@link Mode#BOOK} mode, each transaction is listed once, under the account which owns it.
+ * In {@link Mode#ACCOUNTS} mode, the rows form a ledger for each account: transfers are also listed under
+ * their transfer account, with the amount negated</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class CsvExporter extends Exporter {
+    /**
+     * Columns which can be exported
+     */
+    public enum Column {
+        DATE("Date"), ACCOUNT("Account"), TRANSFER_ACCOUNT("Transfer Account"), DESCRIPTION("Description"),
+        NOTES("Notes"), AMOUNT("Amount"), CURRENCY("Currency"), UID("Transaction ID");
+
+        /**
+         * Title of the column in the header row
+         */
+        private final String mTitle;
+
+        Column(String title){
+            mTitle = title;
+        }
+
+        /**
+         * Parses a comma separated list of column names, as stored in the preferences
+         * @param columnNames Names of the columns, for example <code>DATE,DESCRIPTION,AMOUNT</code>
+         * @return Columns in the order in which they are listed. Empty if no column is listed
+         * @throws IllegalArgumentException if a name is not the name of a column
+         */
+        public static Column[] parseList(String columnNames){
+            List<Column> columns = new ArrayList<Column>();
+            for (String columnName : columnNames.split(",")) {
+                if (columnName.trim().length() > 0)
+                    columns.add(valueOf(columnName.trim()));
+            }
+            return columns.toArray(new Column[columns.size()]);
+        }
+    }
+
+    /**
+     * Modes for listing the transactions. See {@link CsvExporter}
+     */
+    public enum Mode {BOOK, ACCOUNTS}
+
+    /**
+     * Date pattern used by default. It sorts chronologically and is recognized by spreadsheets
+     */
+    public static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd";
+
+    /**
+     * Line ending required by RFC 4180
+     */
+    private static final String LINE_END = "\r\n";
+
+    private static final char QUOTE = '"';
+
+    /**
+     * Columns to export, in order
+     */
+    private Column[] mColumns = Column.values();
+
+    private Mode mMode = Mode.BOOK;
+
+    /**
+     * Pattern of {@link SimpleDateFormat} for the date column
+     */
+    private String mDatePattern = DEFAULT_DATE_PATTERN;
+
+    private char mDelimiter = ',';
+
+    private char mDecimalSeparator = '.';
+
+    public CsvExporter(Context context, boolean exportAll){
+        super(context, exportAll);
+    }
+
+    /**
+     * Sets the columns to export. By default, all columns are exported in the order of {@link Column}
+     * @param columns Columns in the order in which they are written
+     */
+    public void setColumns(Column... columns){
+        mColumns = columns;
+    }
+
+    /**
+     * Sets whether each transaction is listed once or in the ledger of each of its accounts.
+     * By default, each transaction is listed once
+     * @param mode Mode for listing the transactions
+     */
+    public void setMode(Mode mode){
+        mMode = mode;
+    }
+
+    /**
+     * Sets the pattern for formatting the dates of the transactions
+     * @param datePattern Pattern as accepted by {@link SimpleDateFormat}
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public void setDatePattern(String datePattern){
+        //fail here rather than in the middle of the export
+        new SimpleDateFormat(datePattern, Locale.US);
+        mDatePattern = datePattern;
+    }
+
+    /**
+     * Sets the character which separates the fields of a row. By default, this is a comma.
+     * Spreadsheets in locales which use the comma as decimal separator often expect a semicolon instead
+     * @param delimiter Field delimiter
+     */
+    public void setDelimiter(char delimiter){
+        mDelimiter = delimiter;
+    }
+
+    /**
+     * Sets the decimal separator of the amounts. By default, this is a point
+     * @param decimalSeparator Decimal separator
+     */
+    public void setDecimalSeparator(char decimalSeparator){
+        mDecimalSeparator = decimalSeparator;
+    }
+
+    @Override
+    protected boolean includesTransferSide() {
+        return mMode == Mode.ACCOUNTS;
+    }
+
+    /**
+     * Writes the header row with the titles of the columns
+     * @param writer Writer for the output
+     * @throws IOException if the output could not be written
+     */
+    @Override
+    protected void writeHeader(Writer writer) throws IOException {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0)
+                writer.write(mDelimiter);
+            writeField(writer, mColumns[i].mTitle);
+        }
+        writer.write(LINE_END);
+    }
+
+    /**
+     * Starts the rows of the account in the current row of <code>cursor</code>. The rows of an account
+     * have no header of their own, so nothing is written until the section receives the transactions
+     * @param writer Writer for the rows
+     * @param cursor Export cursor, positioned at the first transaction of the account
+     * @return Section which writes a row for each transaction
+     * @see TransactionsDbAdapter#fetchTransactionsForExport(boolean, long, boolean)
+     */
+    @Override
+    protected AccountSection startAccount(Writer writer, Cursor cursor) {
+        return new RowSection();
+    }
+
+    /**
+     * Rows of the transactions of an account
+     */
+    private class RowSection implements AccountSection {
+        //formatters are not thread-safe, and the accounts may be written on several threads
+        private final SimpleDateFormat mDateFormat = new SimpleDateFormat(mDatePattern, Locale.US);
+
+        private final Date mDate = new Date();
+
+        @Override
+        public void writeTransaction(Writer writer, Cursor cursor) throws IOException {
+            for (int i = 0; i < mColumns.length; i++) {
+                if (i > 0)
+                    writer.write(mDelimiter);
+
+                switch (mColumns[i]){
+                    case DATE:
+                        mDate.setTime(cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_TIMESTAMP));
+                        writeField(writer, mDateFormat.format(mDate));
+                        break;
+                    case ACCOUNT:
+                        writeField(writer, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_FULL_NAME));
+                        break;
+                    case TRANSFER_ACCOUNT:
+                        writeField(writer, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_FULL_NAME));
+                        break;
+                    case DESCRIPTION:
+                        writeField(writer, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+                        break;
+                    case NOTES:
+                        writeField(writer, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_DESCRIPTION));
+                        break;
+                    case AMOUNT:
+                        writeField(writer, formatAmount(cursor));
+                        break;
+                    case CURRENCY:
+                        writeField(writer, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_CURRENCY_CODE));
+                        break;
+                    case UID:
+                        writeField(writer, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_UID));
+                        break;
+                }
+            }
+            writer.write(LINE_END);
+        }
+
+        @Override
+        public void finish(Writer writer) {
+            //the last row already ends with a line break
+        }
+
+        @Override
+        public void merge(AccountSection following) {
+            //the rows do not depend on each other
+        }
+    }
+
+    /**
+     * Returns the amount of the transaction in the current row of <code>cursor</code>, as seen from the listed account
+     */
+    private String formatAmount(Cursor cursor){
+        BigDecimal amount = new BigDecimal(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_AMOUNT));
+        if (cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_SIDE) == 1)
+            amount = amount.negate();
+        String formattedAmount = amount.toPlainString();
+        return mDecimalSeparator == '.' ? formattedAmount : formattedAmount.replace('.', mDecimalSeparator);
+    }
+
+    /**
+     * Writes <code>value</code> as a field. Fields which contain the delimiter, quotes or line breaks
+     * are enclosed in quotes, and the quotes in them are doubled. <code>null</code> is written as an empty field
+     */
+    private void writeField(Writer writer, String value) throws IOException {
+        if (value == null)
+            return;
+
+        int length = value.length();
+        boolean needsQuotes = false;
+        for (int i = 0; i < length && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == mDelimiter || c == QUOTE || c == '\r' || c == '\n';
+        }
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write(QUOTE);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE)
+                writer.write(QUOTE);
+            writer.write(c);
+        }
+        writer.write(QUOTE);
+    }
+}
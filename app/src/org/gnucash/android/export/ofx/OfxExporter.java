@@ -16,82 +16,215 @@
 
 package org.gnucash.android.export.ofx;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Currency;
 
+import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Transaction;
-import org.gnucash.android.db.AccountsDbAdapter;
 import org.gnucash.android.db.TransactionsDbAdapter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import android.content.Context;
+import android.database.Cursor;
 
 /**
  * Exports the data in the database in OFX format
  * @author Ngewi Fet <ngewi.fet@gmail.com>
  */
-public class OfxExporter {
+public class OfxExporter extends Exporter {
 
     /**
-	 * List of accounts in the expense report
-	 */
-	private List<Account> mAccountsList;
-	
-	/**
-	 * Flag indicating whether to ignore the 'exported' on transactions
-	 * If set to true, then all transactions will be exported, regardless of whether they were exported previously
-	 */
-	private boolean mExportAll = false;
-	
-	/**
-	 * Reference to the application context
-	 */
-	private Context mContext;
+     * Flag for writing an OFX 2 XML document instead of the SGML header
+     */
+    private final boolean mUseXmlHeader;
+
+    /**
+     * Nesting depth of the account statements in the document: OFX, BANKMSGSRSV1 and STMTTRNRS enclose them
+     */
+    private static final int STATEMENT_DEPTH = 3;
+
+    /**
+     * Nesting depth of the statement transactions: the statement and its transaction list enclose them
+     */
+    private static final int TRANSACTION_DEPTH = STATEMENT_DEPTH + 2;
+
+    /**
+     * Writer for the header and footer of the current document.
+     * Account statements are written by writers of their own, since they may be rendered on worker threads
+     */
+    private OfxWriter mOfxWriter;
+
+    /**
+     * Time of the export, formatted for OFX
+     */
+    private final String mFormattedCurrentTimeString;
 
     /**
 	 * Builds an XML representation of the {@link Account}s and {@link Transaction}s in the database 
 	 * @param context Application context
 	 * @param exportAll Whether all transactions should be exported or only new ones since last export
+	 * @param useXmlHeader Write an OFX 2 XML document if <code>true</code>, or an SGML header if <code>false</code>
 	 */
-	public OfxExporter(Context context, boolean exportAll) {
-		AccountsDbAdapter dbAdapter = new AccountsDbAdapter(context);
-		mAccountsList = exportAll ? dbAdapter.getAllAccounts() : dbAdapter.getExportableAccounts();
-		mExportAll = exportAll;
-		mContext = context;
-        dbAdapter.close();
+	public OfxExporter(Context context, boolean exportAll, boolean useXmlHeader) {
+		super(context, exportAll);
+		mUseXmlHeader = useXmlHeader;
+		mFormattedCurrentTimeString = OfxHelper.getFormattedCurrentTime();
 	}
 
+    @Override
+    protected boolean includesTransferSide() {
+        //each transfer is listed in the statements of both its accounts
+        return true;
+    }
+
+    @Override
+    protected boolean includesExportedTransactions() {
+        //the ledger balance is computed from all transactions of the account
+        return true;
+    }
+
+    @Override
+    protected void writeHeader(Writer writer) throws IOException {
+        mOfxWriter = new OfxWriter(writer, mUseXmlHeader);
+
+        mOfxWriter.startDocument();
+        mOfxWriter.startElement(OfxHelper.TAG_OFX);
+        mOfxWriter.startElement(OfxHelper.TAG_BANK_MESSAGES_V1);
+        mOfxWriter.startElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
+        //unsolicited because the data exported is not as a result of a request
+        mOfxWriter.element(OfxHelper.TAG_TRANSACTION_UID, OfxHelper.UNSOLICITED_TRANSACTION_ID);
+    }
+
+    @Override
+    protected void writeFooter(Writer writer) throws IOException {
+        mOfxWriter.endElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
+        mOfxWriter.endElement(OfxHelper.TAG_BANK_MESSAGES_V1);
+        mOfxWriter.endElement(OfxHelper.TAG_OFX);
+        mOfxWriter.endDocument();
+    }
+
     /**
-	 * Converts all expenses into OFX XML format and adds them to the XML document
-	 * @param doc DOM document of the OFX expenses.
-	 * @param parent Parent node for all expenses in report
-	 */
-	public void toOfx(Document doc, Element parent){
-		Element transactionUid = doc.createElement(OfxHelper.TAG_TRANSACTION_UID);
-		//unsolicited because the data exported is not as a result of a request
-		transactionUid.appendChild(doc.createTextNode(OfxHelper.UNSOLICITED_TRANSACTION_ID));
-
-		Element statementTransactionResponse = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
-		statementTransactionResponse.appendChild(transactionUid);
-		
-		Element bankmsgs = doc.createElement(OfxHelper.TAG_BANK_MESSAGES_V1);
-		bankmsgs.appendChild(statementTransactionResponse);
-		
-		parent.appendChild(bankmsgs);		
-		
-		TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(mContext);
-		for (Account account : mAccountsList) {		
-			if (account.getTransactionCount() == 0)
-				continue; 
-			
-			//add account details (transactions) to the XML document			
-			account.toOfx(doc, statementTransactionResponse, mExportAll);
-			
-			//mark as exported
-			transactionsDbAdapter.markAsExported(account.getUID());
-			
-		}
-		transactionsDbAdapter.close();
-	}
+     * Writes the beginning of the statement of the account in the current row of <code>cursor</code>,
+     * up to the start of the transaction list
+     * @param writer Writer for the statement
+     * @param cursor Export cursor, positioned at the first transaction of the account
+     * @throws IOException if the OFX output could not be written
+     * @see TransactionsDbAdapter#fetchTransactionsForExport(boolean, long, boolean)
+     */
+    @Override
+    protected AccountSection startAccount(Writer writer, Cursor cursor) throws IOException {
+        OfxWriter ofxWriter = new OfxWriter(writer, mUseXmlHeader, STATEMENT_DEPTH);
+        Account.AccountType accountType = Account.AccountType.valueOf(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_TYPE));
+        Currency currency = Currency.getInstance(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_CURRENCY_CODE));
+
+        ofxWriter.startElement(OfxHelper.TAG_STATEMENT_TRANSACTIONS);
+        ofxWriter.element(OfxHelper.TAG_CURRENCY_DEF, currency.getCurrencyCode());
+
+        //================= BEGIN BANK ACCOUNT INFO (BANKACCTFROM) =================================
+        ofxWriter.startElement(OfxHelper.TAG_BANK_ACCOUNT_FROM);
+        ofxWriter.element(OfxHelper.TAG_BANK_ID, OfxHelper.APP_ID);
+        ofxWriter.element(OfxHelper.TAG_ACCOUNT_ID, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_UID));
+        ofxWriter.element(OfxHelper.TAG_ACCOUNT_TYPE, Account.convertToOfxAccountType(accountType).toString());
+        ofxWriter.endElement(OfxHelper.TAG_BANK_ACCOUNT_FROM);
+
+        //================= BEGIN TRANSACTIONS LIST =================================
+        ofxWriter.startElement(OfxHelper.TAG_BANK_TRANSACTION_LIST);
+        ofxWriter.element(OfxHelper.TAG_DATE_START, mFormattedCurrentTimeString);
+        ofxWriter.element(OfxHelper.TAG_DATE_END, mFormattedCurrentTimeString);
+
+        return new StatementSection(currency);
+    }
+
+    /**
+     * Transaction list and balance of an account statement
+     */
+    private class StatementSection implements AccountSection {
+        private final Currency mCurrency;
+
+        /**
+         * Ledger balance of the account. It includes previously exported transactions,
+         * so it is accumulated over all of them. Chunks rendered in parallel add their balances when they are merged
+         */
+        private Money mBalance;
+
+        StatementSection(Currency currency){
+            mCurrency = currency;
+            mBalance = new Money(new BigDecimal(0), currency);
+        }
+
+        @Override
+        public void writeTransaction(Writer writer, Cursor cursor) throws IOException {
+            Money amount = new Money(new BigDecimal(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_AMOUNT)), mCurrency);
+            if (cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_SIDE) == 1)
+                amount = amount.negate();
+
+            mBalance = mBalance.add(amount);
+            if (!mExportAll && cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_EXPORTED) == 1)
+                return;
+
+            writeStatementTransaction(new OfxWriter(writer, mUseXmlHeader, TRANSACTION_DEPTH), cursor, amount);
+        }
+
+        @Override
+        public void finish(Writer writer) throws IOException {
+            OfxWriter ofxWriter = new OfxWriter(writer, mUseXmlHeader, TRANSACTION_DEPTH);
+            ofxWriter.endElement(OfxHelper.TAG_BANK_TRANSACTION_LIST);
+
+            //================= BEGIN ACCOUNT BALANCE INFO =================================
+            ofxWriter.startElement(OfxHelper.TAG_LEDGER_BALANCE);
+            ofxWriter.element(OfxHelper.TAG_BALANCE_AMOUNT, mBalance.toPlainString());
+            ofxWriter.element(OfxHelper.TAG_DATE_AS_OF, mFormattedCurrentTimeString);
+            ofxWriter.endElement(OfxHelper.TAG_LEDGER_BALANCE);
+
+            ofxWriter.endElement(OfxHelper.TAG_STATEMENT_TRANSACTIONS);
+        }
+
+        @Override
+        public void merge(AccountSection following) {
+            mBalance = mBalance.add(((StatementSection) following).mBalance);
+        }
+    }
+
+    /**
+     * Writes the statement transaction in the current row of <code>cursor</code>
+     * @param ofxWriter OFX writer
+     * @param cursor Export cursor, positioned at the transaction
+     * @param amount Amount of the transaction, as seen from the statement account
+     * @throws IOException if the OFX output could not be written
+     */
+    private void writeStatementTransaction(OfxWriter ofxWriter, Cursor cursor, Money amount) throws IOException {
+        long time = cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_TIMESTAMP);
+
+        ofxWriter.startElement(OfxHelper.TAG_STATEMENT_TRANSACTION);
+        ofxWriter.element(OfxHelper.TAG_TRANSACTION_TYPE, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TYPE));
+        ofxWriter.timeElement(OfxHelper.TAG_DATE_POSTED, time);
+        ofxWriter.timeElement(OfxHelper.TAG_DATE_USER, time);
+        ofxWriter.element(OfxHelper.TAG_TRANSACTION_AMOUNT, amount.toPlainString());
+        ofxWriter.element(OfxHelper.TAG_TRANSACTION_FITID, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_UID));
+        ofxWriter.element(OfxHelper.TAG_NAME, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+
+        String description = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_DESCRIPTION);
+        if (description != null && description.length() > 0){
+            ofxWriter.element(OfxHelper.TAG_MEMO, description);
+        }
+
+        String transferAccountUID = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_UID);
+        if (transferAccountUID != null && transferAccountUID.length() > 0){
+            String transferAccountType = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_TYPE);
+            Account.OfxAccountType ofxAccountType = transferAccountType == null
+                    ? Account.OfxAccountType.CHECKING
+                    : Account.convertToOfxAccountType(Account.AccountType.valueOf(transferAccountType));
+
+            ofxWriter.startElement(OfxHelper.TAG_BANK_ACCOUNT_TO);
+            ofxWriter.element(OfxHelper.TAG_BANK_ID, OfxHelper.APP_ID);
+            ofxWriter.element(OfxHelper.TAG_ACCOUNT_ID, transferAccountUID);
+            ofxWriter.element(OfxHelper.TAG_ACCOUNT_TYPE, ofxAccountType.toString());
+            ofxWriter.endElement(OfxHelper.TAG_BANK_ACCOUNT_TO);
+        }
+
+        ofxWriter.endElement(OfxHelper.TAG_STATEMENT_TRANSACTION);
+    }
 }
@@ -15,9 +15,14 @@
  */
 package org.gnucash.android.export.ofx;
 
-import java.text.SimpleDateFormat;
+import org.gnucash.android.export.ExportDateFormatter;
+import org.gnucash.android.model.Account;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.text.ParseException;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -28,9 +33,15 @@ import java.util.TimeZone;
  */
 public class OfxHelper {
     /**
-     * A date formatter used when creating file names for the exported data
+     * Formatter for the times in OFX documents, in the default time zone.
+     * It is thread-safe, so it is shared by the threads of a parallel export
+     */
+    public final static ExportDateFormatter OFX_DATE_FORMATTER = new ExportDateFormatter(ExportDateFormatter.Layout.OFX);
+
+    /**
+     * Time zone which is appended to formatted times, in the form <code>[hours:name]</code>
      */
-    public final static SimpleDateFormat OFX_DATE_FORMATTER = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US);
+    private static final String TIME_ZONE_SUFFIX = buildTimeZoneSuffix(TimeZone.getDefault());
 
     /**
      * The Transaction ID is usually the client ID sent in a request.
@@ -51,6 +62,7 @@ public class OfxHelper {
     /*
     * XML tag name constants for the OFX file
      */
+    public static final String TAG_OFX                  = "OFX";
     public static final String TAG_TRANSACTION_UID      = "TRNUID";
     public static final String TAG_BANK_MESSAGES_V1     = "BANKMSGSRSV1";
     public static final String TAG_CURRENCY_DEF         = "CURDEF";
@@ -71,6 +83,9 @@ public class OfxHelper {
     public static final String TAG_NAME                 = "NAME";
     public static final String TAG_MEMO                 = "MEMO";
     public static final String TAG_BANK_ACCOUNT_TO      = "BANKACCTTO";
+    public static final String TAG_CREDIT_CARD_ACCOUNT_FROM = "CCACCTFROM";
+    public static final String TAG_CREDIT_CARD_ACCOUNT_TO   = "CCACCTTO";
+    public static final String TAG_CREDIT_CARD_STATEMENT_TRANSACTIONS = "CCSTMTRS";
     public static final String TAG_BANK_TRANSACTION_LIST    = "BANKTRANLIST";
     public static final String TAG_STATEMENT_TRANSACTIONS   = "STMTRS";
     public static final String TAG_STATEMENT_TRANSACTION    = "STMTTRN";
@@ -97,12 +112,103 @@ public class OfxHelper {
      * @return Formatted string representation of time in <code>milliseconds</code>
      */
     public static String getOfxFormattedTime(long milliseconds){
-        Date date = new Date(milliseconds);
-        String dateString = OFX_DATE_FORMATTER.format(date);
-        TimeZone tz = Calendar.getInstance().getTimeZone();
-        int offset = tz.getRawOffset();
+        return OFX_DATE_FORMATTER.format(milliseconds) + TIME_ZONE_SUFFIX;
+    }
+
+    /**
+     * Writes the time in <code>milliseconds</code> to <code>writer</code>, formatted as by {@link #getOfxFormattedTime(long)},
+     * without creating intermediate strings
+     * @param milliseconds Long value representing the time to be formatted
+     * @param writer Writer for the formatted time
+     * @throws IOException if the time could not be written
+     */
+    public static void writeOfxFormattedTime(long milliseconds, Writer writer) throws IOException {
+        OFX_DATE_FORMATTER.format(milliseconds, writer);
+        writer.write(TIME_ZONE_SUFFIX);
+    }
+
+    /**
+     * Parses an OFX time of the form <code>YYYYMMDDHHMMSS.XXX[gmt offset:tz name]</code>.
+     * The time of day, the milliseconds and the time zone may be missing. Times without a time zone are in
+     * the time zone of <code>calendar</code>
+     * @param ofxTime Time from an OFX document, e.g. <code>20140321140500.000[-5:EST]</code>
+     * @param calendar Calendar which is modified by the method
+     * @return Time in milliseconds since epoch
+     * @throws ParseException if <code>ofxTime</code> is not a valid OFX time
+     * @see #getOfxFormattedTime(long)
+     */
+    public static long parseOfxTime(String ofxTime, Calendar calendar) throws ParseException {
+        String time = ofxTime.trim();
+        int zoneStart = time.indexOf('[');
+        String dateTime = zoneStart >= 0 ? time.substring(0, zoneStart) : time;
+        int fractionStart = dateTime.indexOf('.');
+        String digits = fractionStart >= 0 ? dateTime.substring(0, fractionStart) : dateTime;
+        if (digits.length() < 8)
+            throw new ParseException("Invalid OFX time " + ofxTime, 0);
+        try {
+            calendar.clear();
+            calendar.set(Integer.parseInt(digits.substring(0, 4)), Integer.parseInt(digits.substring(4, 6)) - 1,
+                    Integer.parseInt(digits.substring(6, 8)),
+                    digits.length() >= 10 ? Integer.parseInt(digits.substring(8, 10)) : 0,
+                    digits.length() >= 12 ? Integer.parseInt(digits.substring(10, 12)) : 0,
+                    digits.length() >= 14 ? Integer.parseInt(digits.substring(12, 14)) : 0);
+            if (fractionStart >= 0 && dateTime.length() > fractionStart + 1){
+                String fraction = (dateTime.substring(fractionStart + 1) + "00").substring(0, 3);
+                calendar.set(Calendar.MILLISECOND, Integer.parseInt(fraction));
+            }
+            long timeMillis = calendar.getTimeInMillis();
+            if (zoneStart < 0)
+                return timeMillis;
+
+            int zoneEnd = time.indexOf(':', zoneStart);
+            if (zoneEnd < 0)
+                zoneEnd = time.indexOf(']', zoneStart);
+            if (zoneEnd < 0)
+                throw new ParseException("Invalid time zone in OFX time " + ofxTime, zoneStart);
+            //the offset is in hours, and may have a fraction
+            long offsetMillis = new BigDecimal(time.substring(zoneStart + 1, zoneEnd).trim().replace("+", ""))
+                    .multiply(new BigDecimal(60 * 60 * 1000)).longValue();
+            //the fields were set in the time zone of the calendar instead of the time zone of the OFX time
+            return timeMillis + calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET) - offsetMillis;
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid OFX time " + ofxTime, 0);
+        }
+    }
+
+    /**
+     * Parses an OFX amount. Amounts may use a comma as the decimal separator
+     * @param amountString Amount from an OFX document, e.g. <code>-15.50</code>
+     * @return Amount
+     * @throws NumberFormatException if <code>amountString</code> is not a valid amount
+     */
+    public static BigDecimal parseAmount(String amountString){
+        String amount = amountString.trim();
+        if (amount.indexOf('.') < 0)
+            amount = amount.replace(',', '.');
+        if (amount.startsWith("+"))
+            amount = amount.substring(1);
+        return new BigDecimal(amount);
+    }
+
+    /**
+     * Returns the account type for an OFX account type. Several account types are exported with the same
+     * OFX account type, so this is not the exact inverse of {@link Account#convertToOfxAccountType(Account.AccountType)}
+     * @param ofxAccountType OFX account type, e.g. <code>CHECKING</code>. May be <code>null</code>
+     * @return {@link Account.AccountType#CREDIT} for credit lines, {@link Account.AccountType#BANK} otherwise
+     */
+    public static Account.AccountType getAccountType(String ofxAccountType){
+        if (ofxAccountType != null && ofxAccountType.trim().equalsIgnoreCase(Account.OfxAccountType.CREDITLINE.name()))
+            return Account.AccountType.CREDIT;
+        return Account.AccountType.BANK;
+    }
+
+    /**
+     * Builds the suffix with the standard offset and the short name of <code>timeZone</code>
+     */
+    private static String buildTimeZoneSuffix(TimeZone timeZone){
+        int offset = timeZone.getRawOffset();
         int hours   = (int) (( offset / (1000*60*60)) % 24);
         String sign = offset > 0 ?  "+" : "";
-        return dateString + "[" + sign + hours + ":" + tz.getDisplayName(false, TimeZone.SHORT, Locale.getDefault()) + "]";
+        return "[" + sign + hours + ":" + timeZone.getDisplayName(false, TimeZone.SHORT, Locale.getDefault()) + "]";
     }
 }
@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.ofx;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.BatchInserter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Imports the statement transactions in an OFX document, such as the statements written by {@link OfxExporter}
+ * or downloaded from a bank.
+ * <p>Both the SGML dialect, in which elements with a value have no end tag, and the XML dialect are understood.
+ * The document is read through a reused buffer and only the values of the current <code>STMTTRN</code>
+ * element are kept, so statements of any size are imported in constant memory and in one database transaction</p>
+ * <p>Banks identify every statement transaction with a FITID, which is unique within the account.
+ * The unique ID of an imported transaction is derived from the account and the FITID, and transactions
+ * which already exist are skipped. Importing overlapping statements therefore only adds the new transactions.
+ * Statements exported by the app already contain the unique IDs of the transactions and accounts as FITID and
+ * account ID, so they are used as they are</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ * @see OfxHelper
+ */
+public class OfxImporter {
+    /**
+     * Tag for logging
+     */
+    private static final String LOG_TAG = "OfxImporter";
+
+    /**
+     * Size of the buffer into which the document is read
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Number of bytes which are inspected to detect an OFX document and its character set
+     */
+    private static final int HEADER_SIZE = 512;
+
+    /**
+     * Character set of SGML documents whose header declares none that is supported.
+     * It is the usual character set of banks which write <code>ENCODING:USASCII</code>, and a superset of ASCII
+     */
+    private static final String DEFAULT_SGML_CHARSET = "windows-1252";
+
+    /**
+     * Encoding declaration in the header of OFX 2 XML documents
+     */
+    private static final Pattern XML_ENCODING_PATTERN = Pattern.compile("<\\?xml[^>]*encoding=[\"']([^\"']+)[\"']");
+
+    /**
+     * Account to which transactions are imported, either from the database or created during the import
+     */
+    private static class AccountEntry {
+        final String uid;
+        final Currency currency;
+        final Account.AccountType accountType;
+
+        AccountEntry(String uid, Currency currency, Account.AccountType accountType){
+            this.uid = uid;
+            this.currency = currency;
+            this.accountType = accountType;
+        }
+    }
+
+    private final Context mContext;
+
+    /**
+     * Accounts by unique ID
+     */
+    private final HashMap<String, AccountEntry> mAccounts = new HashMap<String, AccountEntry>();
+
+    private BatchInserter mInserter;
+    private String mDefaultAccountUID;
+
+    /*
+    State of the tokenizer
+     */
+    private Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mBufferPosition = 0;
+    private int mBufferLimit = 0;
+    private final StringBuilder mTag = new StringBuilder(32);
+    private final StringBuilder mText = new StringBuilder(128);
+
+    /**
+     * Element whose value is being read, or <code>null</code> if the text is not a value
+     */
+    private String mValueElement;
+
+    /*
+    State of the current statement
+     */
+    private Account.AccountType mStatementAccountType;
+    private String mCurrencyCode;
+    private String mBankId;
+    private String mAccountId;
+    private String mOfxAccountType;
+    private AccountEntry mStatementAccount;
+    private boolean mInAccountFrom;
+    private boolean mInAccountTo;
+
+    /*
+    Values of the current statement transaction. They are reset at the start of every transaction
+     */
+    private boolean mInTransaction;
+    private String mAmount;
+    private String mDatePosted;
+    private String mFitId;
+    private String mName;
+    private String mMemo;
+    private String mTransferBankId;
+    private String mTransferAccountId;
+
+    /**
+     * Calendar which is reused for parsing times
+     */
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    private int mDuplicateTransactionCount = 0;
+    private int mSkippedTransactionCount = 0;
+
+    /**
+     * Creates an importer which adds the transactions to the database of <code>context</code>
+     * @param context Application context
+     */
+    public OfxImporter(Context context){
+        mContext = context;
+    }
+
+    /**
+     * Sets the account to which the transactions of bank statements are imported. If it is not set,
+     * an account named after the account ID of the statement is created, unless it exists from an earlier import
+     * @param accountUID Unique ID of an existing account
+     */
+    public void setDefaultAccountUID(String accountUID){
+        mDefaultAccountUID = accountUID;
+    }
+
+    /**
+     * Imports the statements in the OFX document in <code>inputStream</code>. Nothing is imported if an error occurs
+     * <p>The document is decoded in the character set declared by its header. See {@link #detectCharset(InputStream)}</p>
+     * @param inputStream Input stream of an OFX document. It is not closed
+     * @throws IOException if the document could not be read
+     */
+    public void importOfx(InputStream inputStream) throws IOException {
+        if (!inputStream.markSupported())
+            inputStream = new BufferedInputStream(inputStream);
+        String charset = detectCharset(inputStream);
+        Log.d(LOG_TAG, "Reading OFX document as " + charset);
+
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(mContext);
+        try {
+            loadAccounts(accountsDbAdapter);
+            mInserter = accountsDbAdapter.beginBatchInsert();
+            mReader = new InputStreamReader(inputStream, charset);
+
+            int c;
+            while ((c = read()) != -1){
+                if (c == '<'){
+                    if (mValueElement != null){
+                        readValue(mValueElement, mText.toString().trim());
+                        mValueElement = null;
+                    }
+                    readTag();
+                } else if (mValueElement != null){
+                    mText.append((char) c);
+                }
+            }
+
+            int transactionCount = mInserter.getTransactionCount();
+            mInserter.commit();
+            Log.i(LOG_TAG, "Imported " + transactionCount + " transactions, skipped " + mDuplicateTransactionCount
+                    + " existing and " + mSkippedTransactionCount + " invalid transactions");
+        } finally {
+            if (mInserter != null)
+                mInserter.close();
+            accountsDbAdapter.close();
+        }
+    }
+
+    /**
+     * Returns the number of transactions which were added by the import
+     * @return Number of new transactions
+     */
+    public int getTransactionCount(){
+        return mInserter == null ? 0 : mInserter.getTransactionCount();
+    }
+
+    /**
+     * Returns the number of transactions which were skipped because they already exist
+     * @return Number of existing transactions
+     */
+    public int getDuplicateTransactionCount(){
+        return mDuplicateTransactionCount;
+    }
+
+    /**
+     * Returns the number of transactions which were skipped because they have no FITID, time or amount
+     * @return Number of invalid transactions
+     */
+    public int getSkippedTransactionCount(){
+        return mSkippedTransactionCount;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>inputStream</code> contains an OFX document in the SGML or XML dialect.
+     * The stream must support {@link InputStream#mark(int)} and is reset to its start
+     * @param inputStream Input stream of an imported file
+     * @return <code>true</code> if the stream contains an OFX document, <code>false</code> otherwise
+     * @throws IOException if the stream could not be read
+     */
+    public static boolean isOfx(InputStream inputStream) throws IOException {
+        String header = readHeader(inputStream);
+        return header.contains("OFXHEADER") || header.contains("<" + OfxHelper.TAG_OFX + ">");
+    }
+
+    /**
+     * Returns the character set of the OFX document in <code>inputStream</code>, as declared by its header.
+     * The stream must support {@link InputStream#mark(int)} and is reset to its start
+     * <p>XML documents are decoded in the encoding of their XML declaration, which defaults to UTF-8.
+     * The SGML header of OFX 1 declares <code>ENCODING:UTF-8</code>, or <code>ENCODING:USASCII</code> together with
+     * a code page in <code>CHARSET</code>, such as <code>1252</code> or <code>ISO-8859-1</code>.
+     * SGML documents without a supported declaration are decoded as Windows-1252</p>
+     * @param inputStream Input stream of an OFX document
+     * @return Name of the character set of the document
+     * @throws IOException if the stream could not be read
+     */
+    public static String detectCharset(InputStream inputStream) throws IOException {
+        String header = readHeader(inputStream);
+        int tagStart = header.indexOf('<');
+        if (tagStart >= 0 && header.startsWith("<?xml", tagStart)){
+            Matcher matcher = XML_ENCODING_PATTERN.matcher(header);
+            if (matcher.find() && isSupported(matcher.group(1)))
+                return matcher.group(1);
+            return "UTF-8";
+        }
+
+        String encoding = null;
+        String charset = null;
+        //the SGML header consists of KEY:VALUE lines before the first tag
+        for (String line : (tagStart >= 0 ? header.substring(0, tagStart) : header).split("[\\r\\n]+")) {
+            int separator = line.indexOf(':');
+            if (separator < 0)
+                continue;
+            String key = line.substring(0, separator).trim().toUpperCase(Locale.US);
+            String value = line.substring(separator + 1).trim().toUpperCase(Locale.US);
+            if (key.equals("ENCODING"))
+                encoding = value;
+            else if (key.equals("CHARSET"))
+                charset = value;
+        }
+
+        if ("UTF-8".equals(encoding) || "UNICODE".equals(encoding))
+            return "UTF-8";
+        if (charset == null || charset.equals("NONE"))
+            return DEFAULT_SGML_CHARSET;
+        if (charset.matches("\\d+")){
+            //Windows code page number
+            String codePage = "windows-" + charset;
+            return isSupported(codePage) ? codePage : DEFAULT_SGML_CHARSET;
+        }
+        return isSupported(charset) ? charset : DEFAULT_SGML_CHARSET;
+    }
+
+    /**
+     * Reads the start of the document in <code>inputStream</code> as ASCII, and resets the stream to its start
+     * @param inputStream Input stream which supports {@link InputStream#mark(int)}
+     * @return Up to {@link #HEADER_SIZE} characters of the document
+     * @throws IOException if the stream could not be read
+     */
+    private static String readHeader(InputStream inputStream) throws IOException {
+        inputStream.mark(HEADER_SIZE);
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            int length = 0;
+            int count;
+            while (length < HEADER_SIZE && (count = inputStream.read(header, length, HEADER_SIZE - length)) > 0){
+                length += count;
+            }
+            return new String(header, 0, length, "US-ASCII");
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the character set <code>charsetName</code> can be decoded
+     */
+    private static boolean isSupported(String charsetName){
+        try {
+            return Charset.isSupported(charsetName);
+        } catch (IllegalCharsetNameException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the accounts in the database, by unique ID
+     * @param accountsDbAdapter Accounts database adapter
+     */
+    private void loadAccounts(AccountsDbAdapter accountsDbAdapter){
+        Cursor cursor = accountsDbAdapter.fetchAllRecords();
+        if (cursor == null)
+            return;
+        try {
+            int uidColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_UID);
+            int currencyColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_CURRENCY_CODE);
+            int typeColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_TYPE);
+            while (cursor.moveToNext()){
+                String uid = cursor.getString(uidColumn);
+                mAccounts.put(uid, new AccountEntry(uid, Currency.getInstance(cursor.getString(currencyColumn)),
+                        Account.AccountType.valueOf(cursor.getString(typeColumn))));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the next character of the document
+     * @return Next character, or -1 at the end of the document
+     * @throws IOException if the document could not be read
+     */
+    private int read() throws IOException {
+        if (mBufferPosition >= mBufferLimit){
+            mBufferLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mBufferPosition = 0;
+            if (mBufferLimit <= 0){
+                mBufferLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mBufferPosition++];
+    }
+
+    /**
+     * Reads the tag after a <code>&lt;</code> and handles the start or end of the element.
+     * Processing instructions, such as the XML header, and comments are skipped
+     * @throws IOException if the document could not be read
+     */
+    private void readTag() throws IOException {
+        mTag.setLength(0);
+        int c;
+        while ((c = read()) != -1 && c != '>'){
+            mTag.append((char) c);
+        }
+        if (mTag.length() == 0 || mTag.charAt(0) == '?' || mTag.charAt(0) == '!')
+            return;
+
+        //OFX elements have no attributes
+        String name = mTag.toString().trim().toUpperCase();
+        if (name.startsWith("/")){
+            endElement(name.substring(1));
+        } else if (name.endsWith("/")){
+            //empty XML element
+            startElement(name.substring(0, name.length() - 1));
+        } else {
+            startElement(name);
+        }
+    }
+
+    /**
+     * Handles the start tag of the element <code>name</code>
+     * @param name Element name
+     */
+    private void startElement(String name){
+        if (name.equals(OfxHelper.TAG_STATEMENT_TRANSACTIONS)){
+            startStatement(Account.AccountType.BANK);
+        } else if (name.equals(OfxHelper.TAG_CREDIT_CARD_STATEMENT_TRANSACTIONS)){
+            startStatement(Account.AccountType.CREDIT);
+        } else if (name.equals(OfxHelper.TAG_BANK_ACCOUNT_FROM) || name.equals(OfxHelper.TAG_CREDIT_CARD_ACCOUNT_FROM)){
+            mInAccountFrom = true;
+        } else if (name.equals(OfxHelper.TAG_BANK_ACCOUNT_TO) || name.equals(OfxHelper.TAG_CREDIT_CARD_ACCOUNT_TO)){
+            mInAccountTo = true;
+            mTransferBankId = null;
+            mTransferAccountId = null;
+        } else if (name.equals(OfxHelper.TAG_STATEMENT_TRANSACTION)){
+            startTransaction();
+        } else {
+            //the text up to the next tag is the value, unless the element is an aggregate
+            mValueElement = name;
+            mText.setLength(0);
+        }
+    }
+
+    /**
+     * Handles the end tag of the element <code>name</code>.
+     * In the SGML dialect, only aggregates have end tags
+     * @param name Element name
+     */
+    private void endElement(String name){
+        if (name.equals(OfxHelper.TAG_BANK_ACCOUNT_FROM) || name.equals(OfxHelper.TAG_CREDIT_CARD_ACCOUNT_FROM)){
+            mInAccountFrom = false;
+            mStatementAccount = getStatementAccount();
+        } else if (name.equals(OfxHelper.TAG_BANK_ACCOUNT_TO) || name.equals(OfxHelper.TAG_CREDIT_CARD_ACCOUNT_TO)){
+            mInAccountTo = false;
+        } else if (name.equals(OfxHelper.TAG_STATEMENT_TRANSACTION)){
+            mInTransaction = false;
+            saveTransaction();
+        } else if (name.equals(OfxHelper.TAG_STATEMENT_TRANSACTIONS)
+                || name.equals(OfxHelper.TAG_CREDIT_CARD_STATEMENT_TRANSACTIONS)){
+            mStatementAccount = null;
+        }
+    }
+
+    /**
+     * Stores the value of the element <code>name</code>, if it is imported
+     * @param name Element name
+     * @param value Text of the element, which may contain character references
+     */
+    private void readValue(String name, String value){
+        value = decodeEntities(value);
+        if (mInAccountFrom){
+            if (name.equals(OfxHelper.TAG_BANK_ID))
+                mBankId = value;
+            else if (name.equals(OfxHelper.TAG_ACCOUNT_ID))
+                mAccountId = value;
+            else if (name.equals(OfxHelper.TAG_ACCOUNT_TYPE))
+                mOfxAccountType = value;
+        } else if (mInAccountTo){
+            if (name.equals(OfxHelper.TAG_BANK_ID))
+                mTransferBankId = value;
+            else if (name.equals(OfxHelper.TAG_ACCOUNT_ID))
+                mTransferAccountId = value;
+        } else if (mInTransaction){
+            if (name.equals(OfxHelper.TAG_TRANSACTION_AMOUNT))
+                mAmount = value;
+            else if (name.equals(OfxHelper.TAG_DATE_POSTED))
+                mDatePosted = value;
+            else if (name.equals(OfxHelper.TAG_TRANSACTION_FITID))
+                mFitId = value;
+            else if (name.equals(OfxHelper.TAG_NAME))
+                mName = value;
+            else if (name.equals(OfxHelper.TAG_MEMO))
+                mMemo = value;
+        } else if (name.equals(OfxHelper.TAG_CURRENCY_DEF)){
+            mCurrencyCode = value;
+        }
+    }
+
+    /**
+     * Resets the state for a new bank or credit card statement
+     * @param accountType Type of the accounts of the statement
+     */
+    private void startStatement(Account.AccountType accountType){
+        mStatementAccountType = accountType;
+        mCurrencyCode = null;
+        mBankId = null;
+        mAccountId = null;
+        mOfxAccountType = null;
+        mStatementAccount = null;
+    }
+
+    /**
+     * Resets the values for a new statement transaction
+     */
+    private void startTransaction(){
+        mInTransaction = true;
+        mAmount = null;
+        mDatePosted = null;
+        mFitId = null;
+        mName = null;
+        mMemo = null;
+        mTransferBankId = null;
+        mTransferAccountId = null;
+    }
+
+    /**
+     * Returns the account of the current statement. Accounts of statements exported by the app are found
+     * by their unique ID. Bank accounts are imported to the default account, or to an account
+     * whose unique ID is derived from the bank and account ID, which is created if it does not exist yet
+     * @return Account of the statement, or <code>null</code> if the statement has no account ID
+     */
+    private AccountEntry getStatementAccount(){
+        if (mAccountId == null)
+            return null;
+        if (OfxHelper.APP_ID.equals(mBankId) && mAccounts.containsKey(mAccountId))
+            return mAccounts.get(mAccountId);
+        if (mDefaultAccountUID != null && mAccounts.containsKey(mDefaultAccountUID))
+            return mAccounts.get(mDefaultAccountUID);
+
+        String accountUID = getAccountUID(mBankId, mAccountId);
+        AccountEntry accountEntry = mAccounts.get(accountUID);
+        if (accountEntry != null)
+            return accountEntry;
+
+        Account.AccountType accountType = mStatementAccountType == Account.AccountType.CREDIT
+                ? Account.AccountType.CREDIT : OfxHelper.getAccountType(mOfxAccountType);
+        Currency currency = Currency.getInstance(mCurrencyCode != null ? mCurrencyCode : Money.DEFAULT_CURRENCY_CODE);
+        Account account = new Account(mAccountId, currency);
+        account.setUID(accountUID);
+        account.setAccountType(accountType);
+        mInserter.addAccount(account);
+
+        accountEntry = new AccountEntry(accountUID, currency, accountType);
+        mAccounts.put(accountUID, accountEntry);
+        return accountEntry;
+    }
+
+    /**
+     * Returns the unique ID of the account with the OFX account ID <code>accountId</code>
+     * @param bankId Bank ID, which is {@link OfxHelper#APP_ID} for statements exported by the app
+     * @param accountId Account ID
+     * @return Unique ID of the account
+     */
+    private static String getAccountUID(String bankId, String accountId){
+        if (OfxHelper.APP_ID.equals(bankId))
+            return accountId;
+        return GncXmlHelper.formatGuid("ofx:" + bankId + ":" + accountId);
+    }
+
+    /**
+     * Adds the current statement transaction to the inserter, unless it exists already
+     */
+    private void saveTransaction(){
+        if (mStatementAccount == null || mFitId == null || mAmount == null || mDatePosted == null){
+            Log.w(LOG_TAG, "Skipping incomplete transaction " + mFitId);
+            mSkippedTransactionCount++;
+            return;
+        }
+
+        //FITIDs are only unique within an account, except those of the app which are unique IDs
+        String transactionUID = OfxHelper.APP_ID.equals(mBankId) ? mFitId
+                : GncXmlHelper.formatGuid("ofx:" + mStatementAccount.uid + ":" + mFitId);
+        if (mInserter.containsTransaction(transactionUID)){
+            mDuplicateTransactionCount++;
+            return;
+        }
+
+        long time;
+        BigDecimal amountValue;
+        try {
+            time = OfxHelper.parseOfxTime(mDatePosted, mCalendar);
+            amountValue = OfxHelper.parseAmount(mAmount);
+        } catch (ParseException e) {
+            Log.w(LOG_TAG, "Skipping transaction with invalid time " + mDatePosted);
+            mSkippedTransactionCount++;
+            return;
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Skipping transaction with invalid amount " + mAmount);
+            mSkippedTransactionCount++;
+            return;
+        }
+
+        Money amount = new Money(amountValue, mStatementAccount.currency);
+        boolean hasDebitNormalBalance = mStatementAccount.accountType.hasDebitNormalBalance();
+        //same mapping as for transactions entered in the app
+        Transaction.TransactionType type = amount.isNegative() == hasDebitNormalBalance
+                ? Transaction.TransactionType.CREDIT : Transaction.TransactionType.DEBIT;
+
+        String name = mName != null ? mName : mMemo;
+        Transaction transaction = new Transaction(amount, name == null ? "" : name, type);
+        transaction.setUID(transactionUID);
+        transaction.setAccountUID(mStatementAccount.uid);
+        transaction.setTime(time);
+        if (mName != null)
+            transaction.setDescription(mMemo);
+        if (mTransferAccountId != null){
+            AccountEntry transferAccount = mAccounts.get(getAccountUID(mTransferBankId, mTransferAccountId));
+            if (transferAccount != null)
+                transaction.setDoubleEntryAccountUID(transferAccount.uid);
+        }
+        mInserter.addTransaction(transaction);
+    }
+
+    /**
+     * Replaces the predefined entities and the numeric character references in <code>value</code>
+     * @param value Text from the document
+     * @return Decoded text
+     */
+    private static String decodeEntities(String value){
+        if (value.indexOf('&') < 0)
+            return value;
+        StringBuilder decoded = new StringBuilder(value.length());
+        int position = 0;
+        while (position < value.length()){
+            char c = value.charAt(position);
+            int end = c == '&' ? value.indexOf(';', position) : -1;
+            if (end < 0){
+                decoded.append(c);
+                position++;
+                continue;
+            }
+            String entity = value.substring(position + 1, end);
+            try {
+                if (entity.equals("amp"))
+                    decoded.append('&');
+                else if (entity.equals("lt"))
+                    decoded.append('<');
+                else if (entity.equals("gt"))
+                    decoded.append('>');
+                else if (entity.equals("quot"))
+                    decoded.append('"');
+                else if (entity.equals("apos"))
+                    decoded.append('\'');
+                else if (entity.startsWith("#x") || entity.startsWith("#X"))
+                    decoded.append((char) Integer.parseInt(entity.substring(2), 16));
+                else if (entity.startsWith("#"))
+                    decoded.append((char) Integer.parseInt(entity.substring(1)));
+                else
+                    decoded.append(value, position, end + 1);
+            } catch (NumberFormatException e) {
+                //not a character reference, the ampersand is part of the text
+                decoded.append(value, position, end + 1);
+            }
+            position = end + 1;
+        }
+        return decoded.toString();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.export.ofx;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming writer for OFX documents.
+ * <p>Elements are written to the output as soon as they are added, so no document tree is kept in memory.
+ * Elements are closed explicitly and indented by two spaces. The XML and the SGML flavour of OFX
+ * only differ in the header written by {@link #startDocument()}</p>
+ * <p>Parts of a document can be rendered separately by writers which start at the nesting depth of the part.
+ * The concatenated output is then the same as if the whole document had been written by one writer</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class OfxWriter {
+    private static final String INDENT = "  ";
+
+    private final Writer mWriter;
+
+    /**
+     * Flag for writing an OFX 2 XML document instead of the SGML header
+     */
+    private final boolean mUseXmlHeader;
+
+    /**
+     * Nesting depth of the element which is currently open
+     */
+    private int mDepth;
+
+    /**
+     * Creates a new OFX writer
+     * @param writer Writer to which the OFX document is written
+     * @param useXmlHeader If <code>true</code>, an OFX 2 XML document is written.
+     *                     Otherwise the document starts with the SGML header, for compatibility with GnuCash desktop
+     */
+    public OfxWriter(Writer writer, boolean useXmlHeader){
+        this(writer, useXmlHeader, 0);
+    }
+
+    /**
+     * Creates a new OFX writer for a part of a document
+     * @param writer Writer to which the part is written
+     * @param useXmlHeader Flag for the XML flavour of OFX. See {@link #OfxWriter(Writer, boolean)}
+     * @param depth Number of elements which enclose the part in the document
+     */
+    public OfxWriter(Writer writer, boolean useXmlHeader, int depth){
+        mWriter = writer;
+        mUseXmlHeader = useXmlHeader;
+        mDepth = depth;
+    }
+
+    /**
+     * Writes the OFX header. Must be called before any element is written
+     * @throws IOException if the output could not be written
+     */
+    public void startDocument() throws IOException {
+        if (mUseXmlHeader){
+            mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            mWriter.write("<?OFX " + OfxHelper.OFX_HEADER + "?>\n");
+        } else {
+            mWriter.write(OfxHelper.OFX_SGML_HEADER);
+            mWriter.write('\n');
+        }
+    }
+
+    /**
+     * Opens an aggregate element. Every call must be matched with a call to {@link #endElement(String)}
+     * @param tag Name of the element
+     * @throws IOException if the output could not be written
+     */
+    public void startElement(String tag) throws IOException {
+        indent();
+        mWriter.write('<');
+        mWriter.write(tag);
+        mWriter.write(">\n");
+        mDepth++;
+    }
+
+    /**
+     * Closes the aggregate element which was last opened
+     * @param tag Name of the element
+     * @throws IOException if the output could not be written
+     */
+    public void endElement(String tag) throws IOException {
+        mDepth--;
+        indent();
+        mWriter.write("</");
+        mWriter.write(tag);
+        mWriter.write(">\n");
+    }
+
+    /**
+     * Writes an element containing only the text <code>value</code>
+     * @param tag Name of the element
+     * @param value Text content of the element. <code>null</code> is written as an empty element
+     * @throws IOException if the output could not be written
+     */
+    public void element(String tag, String value) throws IOException {
+        indent();
+        mWriter.write('<');
+        mWriter.write(tag);
+        mWriter.write('>');
+        if (value != null)
+            writeEscaped(value);
+        mWriter.write("</");
+        mWriter.write(tag);
+        mWriter.write(">\n");
+    }
+
+    /**
+     * Writes an element containing a time in the OFX date format
+     * @param tag Name of the element
+     * @param timeMillis Time in milliseconds since epoch
+     * @throws IOException if the output could not be written
+     * @see OfxHelper#getOfxFormattedTime(long)
+     */
+    public void timeElement(String tag, long timeMillis) throws IOException {
+        indent();
+        mWriter.write('<');
+        mWriter.write(tag);
+        mWriter.write('>');
+        OfxHelper.writeOfxFormattedTime(timeMillis, mWriter);
+        mWriter.write("</");
+        mWriter.write(tag);
+        mWriter.write(">\n");
+    }
+
+    /**
+     * Finishes the document and flushes the output. The underlying writer is not closed
+     * @throws IOException if the output could not be written
+     */
+    public void endDocument() throws IOException {
+        mWriter.flush();
+    }
+
+    /**
+     * Indents the next line according to the current nesting depth
+     */
+    private void indent() throws IOException {
+        for (int i = 0; i < mDepth; i++) {
+            mWriter.write(INDENT);
+        }
+    }
+
+    /**
+     * Writes <code>text</code> with the markup characters replaced by entities
+     */
+    private void writeEscaped(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c){
+                case '&':
+                    mWriter.write("&amp;");
+                    break;
+                case '<':
+                    mWriter.write("&lt;");
+                    break;
+                case '>':
+                    mWriter.write("&gt;");
+                    break;
+                default:
+                    mWriter.write(c);
+            }
+        }
+    }
+}
@@ -16,45 +16,117 @@
 package org.gnucash.android.export.qif;
 
 import android.content.Context;
+import android.database.Cursor;
+import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Account;
-import org.gnucash.android.db.AccountsDbAdapter;
 import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.model.Money;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Currency;
 
 /**
  * @author Ngewi
  */
-public class QifExporter {
-    boolean mExportAll;
-    Context mContext;
-    private List<Account> mAccountsList;
+public class QifExporter extends Exporter {
+    private static final char NEW_LINE = '\n';
 
     public QifExporter(Context context, boolean exportAll){
-        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(context);
-        mAccountsList = exportAll ? accountsDbAdapter.getAllAccounts() : accountsDbAdapter.getExportableAccounts();
-        accountsDbAdapter.close();
+        super(context, exportAll);
+    }
 
-        this.mExportAll = exportAll;
-        this.mContext = context;
+    @Override
+    protected boolean includesTransferSide() {
+        //transfers are only listed under the account which owns them. They are written as splits
+        return false;
     }
 
-    public String generateQIF(){
-        StringBuffer qifBuffer = new StringBuffer();
+    /**
+     * Writes the QIF account entry of the account in the current row of <code>cursor</code>.
+     * The section then writes the transactions of the account which have not been exported yet,
+     * or all of them if all transactions are exported
+     * @param writer Writer for the QIF output
+     * @param cursor Export cursor, positioned at the first transaction of the account
+     * @throws IOException if the QIF output could not be written
+     * @see TransactionsDbAdapter#fetchTransactionsForExport(boolean, long, boolean)
+     */
+    @Override
+    protected AccountSection startAccount(Writer writer, Cursor cursor) throws IOException {
+        final Currency currency = Currency.getInstance(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_CURRENCY_CODE));
+        Account.AccountType accountType = Account.AccountType.valueOf(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_TYPE));
+
+        writer.write(QifHelper.ACCOUNT_HEADER);
+        writer.write(NEW_LINE);
+        writer.write(QifHelper.ACCOUNT_NAME_PREFIX);
+        writer.write(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_FULL_NAME));
+        writer.write(NEW_LINE);
+        writer.write(QifHelper.ENTRY_TERMINATOR);
+        writer.write(NEW_LINE);
+
+        writer.write(QifHelper.getQifHeader(accountType));
+        writer.write(NEW_LINE);
+
+        return new AccountSection() {
+            @Override
+            public void writeTransaction(Writer writer, Cursor cursor) throws IOException {
+                if (!mExportAll && cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_EXPORTED) == 1)
+                    return;
 
-        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(mContext);
-        for (Account account : mAccountsList) {
-            if (account.getTransactionCount() == 0)
-                continue;
+                writeEntry(writer, cursor, currency);
+                writer.write(NEW_LINE);
+            }
 
-            qifBuffer.append(account.toQIF(mExportAll) + "\n");
+            @Override
+            public void finish(Writer writer) throws IOException {
+                writer.write(NEW_LINE);
+            }
 
-            //mark as exported
-            transactionsDbAdapter.markAsExported(account.getUID());
+            @Override
+            public void merge(AccountSection following) {
+                //the entries do not depend on each other
+            }
+        };
+    }
+
+    /**
+     * Writes the QIF entry for the transaction in the current row of <code>cursor</code>.
+     * The transfer account is written as the split category, or the imbalance account if there is none
+     * @param writer Writer for the QIF output
+     * @param cursor Export cursor, positioned at the transaction
+     * @param currency Currency of the account of the transaction
+     * @throws IOException if the QIF output could not be written
+     */
+    private void writeEntry(Writer writer, Cursor cursor, Currency currency) throws IOException {
+        //all transactions are double transactions
+        String splitAccountFullName = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_FULL_NAME);
+        if (splitAccountFullName == null){
+            splitAccountFullName = QifHelper.getImbalanceAccountName(currency);
         }
-        transactionsDbAdapter.close();
+        Money amount = new Money(new BigDecimal(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_AMOUNT)), currency);
 
-        return qifBuffer.toString();
+        writer.write(QifHelper.DATE_PREFIX);
+        QifHelper.formatDate(cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_TIMESTAMP), writer);
+        writer.write(NEW_LINE);
+        writer.write(QifHelper.MEMO_PREFIX);
+        writer.write(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+        writer.write(NEW_LINE);
+
+        writer.write(QifHelper.SPLIT_CATEGORY_PREFIX);
+        writer.write(splitAccountFullName);
+        writer.write(NEW_LINE);
+        String description = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_DESCRIPTION);
+        if (description != null && description.length() > 0){
+            writer.write(QifHelper.SPLIT_MEMO_PREFIX);
+            writer.write(description);
+            writer.write(NEW_LINE);
+        }
+        writer.write(QifHelper.SPLIT_AMOUNT_PREFIX);
+        writer.write(amount.asString());
+        writer.write(NEW_LINE);
+        writer.write(QifHelper.ENTRY_TERMINATOR);
+        writer.write(NEW_LINE);
     }
 
 }
@@ -18,11 +18,15 @@ package org.gnucash.android.export.qif;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.export.ExportDateFormatter;
 import org.gnucash.android.model.Account;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.Calendar;
 import java.util.Currency;
-import java.util.Date;
 
 /**
  * @author Ngewi
@@ -41,20 +45,131 @@ public class QifHelper {
     public static final String SPLIT_PERCENTAGE_PREFIX  = "%";
     public static final String ACCOUNT_HEADER           = "!Account";
     public static final String ACCOUNT_NAME_PREFIX      = "N";
+    public static final String ACCOUNT_TYPE_PREFIX      = "T";
+    public static final String PAYEE_PREFIX             = "P";
+    public static final String TYPE_HEADER_PREFIX       = "!Type:";
 
 
     public static final String ENTRY_TERMINATOR = "^";
-    private static final SimpleDateFormat QIF_DATE_FORMATTER = new SimpleDateFormat("yyyy/M/d");
+    /**
+     * Formatter for QIF dates in the default time zone. It is thread-safe, so it is shared by the threads of a parallel export
+     */
+    private static final ExportDateFormatter QIF_DATE_FORMATTER = new ExportDateFormatter(ExportDateFormatter.Layout.QIF);
 
     /**
-     * Formats the date for QIF in the form d MMMM YYYY.
-     * For example 25 January 2013
+     * Formats the date for QIF in the form yyyy/M/d.
+     * For example 2013/1/25
      * @param timeMillis Time in milliseconds since epoch
      * @return Formatted date from the time
      */
     public static final String formatDate(long timeMillis){
-        Date date = new Date(timeMillis);
-        return QIF_DATE_FORMATTER.format(date);
+        return QIF_DATE_FORMATTER.format(timeMillis);
+    }
+
+    /**
+     * Writes the date for QIF in the form yyyy/M/d to <code>writer</code>, without creating intermediate strings
+     * @param timeMillis Time in milliseconds since epoch
+     * @param writer Writer for the formatted date
+     * @throws IOException if the date could not be written
+     * @see #formatDate(long)
+     */
+    public static void formatDate(long timeMillis, Writer writer) throws IOException {
+        QIF_DATE_FORMATTER.format(timeMillis, writer);
+    }
+
+    /**
+     * Parses a QIF date. Besides the form yyyy/M/d which is exported, the US forms M/d/yy, M/d/yyyy and M/d'yy
+     * written by other applications are understood, as well as d.M.yyyy. Years with two digits are in 2000 - 2049
+     * or 1950 - 1999, or always after 2000 if they follow an apostrophe
+     * @param dateString Date from a QIF file
+     * @param calendar Calendar in the time zone of the date, which is modified by the method
+     * @return Time of the start of the day in milliseconds since epoch
+     * @throws ParseException if <code>dateString</code> is not a valid date
+     * @see #formatDate(long)
+     */
+    public static long parseDate(String dateString, Calendar calendar) throws ParseException {
+        int[] fields = new int[3];
+        int[] fieldLengths = new int[3];
+        int fieldCount = 0;
+        boolean inField = false;
+        boolean apostrophe = false;
+        boolean dotted = false;
+        for (int i = 0; i < dateString.length(); i++) {
+            char c = dateString.charAt(i);
+            if (c >= '0' && c <= '9'){
+                if (!inField){
+                    if (fieldCount == 3)
+                        throw new ParseException("Too many fields in date " + dateString, i);
+                    fieldCount++;
+                    inField = true;
+                }
+                fields[fieldCount - 1] = fields[fieldCount - 1] * 10 + (c - '0');
+                fieldLengths[fieldCount - 1]++;
+            } else {
+                //separators, padding spaces and the apostrophe before two digit years
+                inField = false;
+                apostrophe |= c == '\'';
+                dotted |= c == '.';
+            }
+        }
+        if (fieldCount != 3)
+            throw new ParseException("Incomplete date " + dateString, 0);
+
+        int year, month, day;
+        if (fieldLengths[0] == 4){
+            year = fields[0];
+            month = fields[1];
+            day = fields[2];
+        } else {
+            month = dotted ? fields[1] : fields[0];
+            day = dotted ? fields[0] : fields[1];
+            year = fields[2];
+            if (fieldLengths[2] <= 2)
+                year += apostrophe || year < 50 ? 2000 : 1900;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > 31)
+            throw new ParseException("Invalid date " + dateString, 0);
+
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Parses a QIF amount, which may contain commas as thousands separators
+     * @param amountString Amount from a QIF file, e.g. <code>-1,234.56</code>
+     * @return Amount
+     * @throws NumberFormatException if <code>amountString</code> is not a valid amount
+     */
+    public static BigDecimal parseAmount(String amountString){
+        StringBuilder amount = new StringBuilder(amountString.length());
+        for (int i = 0; i < amountString.length(); i++) {
+            char c = amountString.charAt(i);
+            if (c != ',' && c != ' ')
+                amount.append(c);
+        }
+        return new BigDecimal(amount.toString());
+    }
+
+    /**
+     * Returns the account type for a QIF account type, as written after {@link #TYPE_HEADER_PREFIX}
+     * or in the type field of account entries. This is the inverse of {@link #getQifHeader(Account.AccountType)}
+     * @param qifType QIF account type, e.g. <code>Bank</code> or <code>CCard</code>
+     * @return Account type, or <code>null</code> if the QIF type does not contain bank transactions
+     */
+    public static Account.AccountType getAccountType(String qifType){
+        String type = qifType.trim();
+        if (type.equalsIgnoreCase("Cash"))
+            return Account.AccountType.CASH;
+        if (type.equalsIgnoreCase("Bank"))
+            return Account.AccountType.BANK;
+        if (type.equalsIgnoreCase("CCard"))
+            return Account.AccountType.CREDIT;
+        if (type.equalsIgnoreCase("Oth A"))
+            return Account.AccountType.ASSET;
+        if (type.equalsIgnoreCase("Oth L"))
+            return Account.AccountType.LIABILITY;
+        return null;
     }
 
     /**
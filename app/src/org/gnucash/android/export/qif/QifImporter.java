@@ -0,0 +1,596 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.qif;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+import org.gnucash.android.R;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.BatchInserter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Transaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Currency;
+import java.util.HashMap;
+
+/**
+ * Imports the accounts and transactions in a QIF file, such as the files written by {@link QifExporter}
+ * or downloaded from a bank.
+ * <p>The file is read line by line into a reused buffer and every entry is added to a {@link BatchInserter}
+ * as soon as it ends, so files of any size are imported in constant memory and in one database transaction.
+ * Only the accounts and the keys of the entries of the current date are kept in memory.</p>
+ * <p>The transactions in a <code>!Type:</code> section belong to the account of the preceding <code>!Account</code>
+ * entry. The category, or the category of the only split, is the transfer account of the transaction.
+ * Accounts and categories which do not exist yet are created, including their parent accounts</p>
+ * <p>QIF files do not contain unique IDs, so the unique ID of a transaction is a hash of its content.
+ * Importing the same file again updates the transactions instead of adding them twice.
+ * Identical entries, e.g. two equal payments on the same day, are counted among the entries of their date
+ * so that they are still imported as separate transactions, even if other entries come between them.
+ * The entries of a QIF file are ordered by date, so the counts are dropped whenever the date changes</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ * @see QifHelper
+ */
+public class QifImporter {
+    /**
+     * Tag for logging
+     */
+    private static final String LOG_TAG = "QifImporter";
+
+    /**
+     * Size of the buffer into which the file is read
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /*
+    Field prefixes which are only imported
+     */
+    private static final char AMOUNT_PREFIX_ALTERNATE = 'U';
+    private static final char SPLIT_AMOUNT_PREFIX = QifHelper.SPLIT_AMOUNT_PREFIX.charAt(0);
+    private static final char ENTRY_TERMINATOR = QifHelper.ENTRY_TERMINATOR.charAt(0);
+    private static final char HEADER_PREFIX = '!';
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /**
+     * Kinds of sections in a QIF file
+     */
+    private enum Section {ACCOUNTS, TRANSACTIONS, INVESTMENTS, OTHER}
+
+    /**
+     * Account to which transactions are imported, either from the database or created during the import
+     */
+    private static class AccountEntry {
+        final String uid;
+        final Currency currency;
+
+        AccountEntry(String uid, Currency currency){
+            this.uid = uid;
+            this.currency = currency;
+        }
+    }
+
+    private final Context mContext;
+
+    /**
+     * Accounts by fully qualified name
+     */
+    private final HashMap<String, AccountEntry> mAccounts = new HashMap<String, AccountEntry>();
+
+    /**
+     * Prefix of the names of imbalance accounts. Transactions with such a category have no transfer account
+     */
+    private final String mImbalanceAccountPrefix;
+
+    private BatchInserter mInserter;
+
+    /*
+    State of the line reader
+     */
+    private Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mBufferPosition = 0;
+    private int mBufferLimit = 0;
+    private final StringBuilder mLine = new StringBuilder(128);
+
+    /*
+    State of the current section
+     */
+    private Section mSection = Section.OTHER;
+    private Account.AccountType mSectionAccountType;
+    private String mSectionTypeName;
+    private AccountEntry mCurrentAccount;
+    private String mPendingAccountName;
+    private AccountEntry mDefaultAccount;
+    private String mDefaultAccountUID;
+
+    /*
+    Fields of the current entry. They are reset at the end of every entry
+     */
+    private String mDate;
+    private String mAmount;
+    private String mPayee;
+    private String mMemo;
+    private String mCategory;
+    private String mName;
+    private String mAccountType;
+    private String mSplitCategory;
+    private String mSplitMemo;
+    private String mSplitAmount;
+    private int mSplitCount;
+    private boolean mEntryHasFields;
+
+    /**
+     * Calendar which is reused for parsing dates
+     */
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /**
+     * Number of entries with the same content imported so far, by content key.
+     * Only contains the entries with the time {@link #mOccurrencesTime}
+     */
+    private final HashMap<String, Integer> mEntryOccurrences = new HashMap<String, Integer>();
+
+    /**
+     * Time of the entries counted in {@link #mEntryOccurrences}
+     */
+    private long mOccurrencesTime;
+
+    private int mSkippedTransactionCount = 0;
+
+    /**
+     * Creates an importer which adds the accounts and transactions to the database of <code>context</code>
+     * @param context Application context
+     */
+    public QifImporter(Context context){
+        mContext = context;
+        mImbalanceAccountPrefix = context.getString(R.string.imbalance_account_name) + "-";
+    }
+
+    /**
+     * Sets the account to which the transactions of sections without a preceding <code>!Account</code> entry
+     * are imported. Bank downloads usually contain no account entry. If it is not set,
+     * such transactions are imported to an account which is named after the QIF type of the section
+     * @param accountUID Unique ID of an existing account
+     */
+    public void setDefaultAccountUID(String accountUID){
+        mDefaultAccountUID = accountUID;
+    }
+
+    /**
+     * Imports the QIF file in <code>inputStream</code>. Nothing is imported if an error occurs
+     * @param inputStream Input stream of a QIF file in UTF-8. It is not closed
+     * @throws IOException if the file could not be read
+     */
+    public void importQif(InputStream inputStream) throws IOException {
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(mContext);
+        try {
+            loadAccounts(accountsDbAdapter);
+            mInserter = accountsDbAdapter.beginBatchInsert();
+            mReader = new InputStreamReader(inputStream, "UTF-8");
+            mEntryOccurrences.clear();
+            resetEntry();
+
+            while (readLine()){
+                if (mLine.length() > 0 && mLine.charAt(0) == BYTE_ORDER_MARK)
+                    mLine.deleteCharAt(0);
+                if (mLine.length() == 0)
+                    continue;
+                char prefix = mLine.charAt(0);
+                if (prefix == HEADER_PREFIX){
+                    startSection(mLine.toString().trim());
+                } else if (prefix == ENTRY_TERMINATOR){
+                    endEntry();
+                } else {
+                    readField(prefix, mLine.substring(1).trim());
+                }
+            }
+            //the terminator of the last entry is sometimes missing
+            if (mEntryHasFields)
+                endEntry();
+
+            int accountCount = mInserter.getAccountCount();
+            int transactionCount = mInserter.getTransactionCount();
+            mInserter.commit();
+            Log.i(LOG_TAG, "Imported " + accountCount + " accounts and " + transactionCount + " transactions, skipped "
+                    + mSkippedTransactionCount + " transactions");
+        } finally {
+            if (mInserter != null)
+                mInserter.close();
+            accountsDbAdapter.close();
+        }
+    }
+
+    /**
+     * Returns the number of transactions which were added or updated by the import
+     * @return Number of imported transactions
+     */
+    public int getTransactionCount(){
+        return mInserter == null ? 0 : mInserter.getTransactionCount();
+    }
+
+    /**
+     * Returns the number of transactions which were skipped because they could not be represented,
+     * e.g. because they have several splits or are investment transactions, or could not be parsed
+     * @return Number of skipped transactions
+     */
+    public int getSkippedTransactionCount(){
+        return mSkippedTransactionCount;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>inputStream</code> contains a QIF file, which starts with a header line.
+     * The stream must support {@link InputStream#mark(int)} and is reset to its start
+     * @param inputStream Input stream of an imported file
+     * @return <code>true</code> if the stream contains a QIF file, <code>false</code> otherwise
+     * @throws IOException if the stream could not be read
+     */
+    public static boolean isQif(InputStream inputStream) throws IOException {
+        inputStream.mark(64);
+        try {
+            int c;
+            int count = 0;
+            //skips the byte order mark and leading white space
+            while ((c = inputStream.read()) != -1 && count++ < 64){
+                if (c == HEADER_PREFIX)
+                    return true;
+                if (c != 0xEF && c != 0xBB && c != 0xBF && !Character.isWhitespace(c))
+                    return false;
+            }
+            return false;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Reads the accounts in the database, by fully qualified name
+     * @param accountsDbAdapter Accounts database adapter
+     */
+    private void loadAccounts(AccountsDbAdapter accountsDbAdapter){
+        Cursor cursor = accountsDbAdapter.fetchAllRecords();
+        if (cursor == null)
+            return;
+        try {
+            int uidColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_UID);
+            int currencyColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_CURRENCY_CODE);
+            int fullNameColumn = cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_FULL_NAME);
+            while (cursor.moveToNext()){
+                AccountEntry account = new AccountEntry(cursor.getString(uidColumn),
+                        Currency.getInstance(cursor.getString(currencyColumn)));
+                String fullName = cursor.getString(fullNameColumn);
+                if (fullName != null)
+                    mAccounts.put(fullName, account);
+                if (account.uid.equals(mDefaultAccountUID))
+                    mDefaultAccount = account;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the next line into {@link #mLine}, without the line terminator
+     * @return <code>true</code> if a line was read, <code>false</code> at the end of the file
+     * @throws IOException if the file could not be read
+     */
+    private boolean readLine() throws IOException {
+        mLine.setLength(0);
+        while (true){
+            if (mBufferPosition >= mBufferLimit){
+                mBufferLimit = mReader.read(mBuffer, 0, mBuffer.length);
+                mBufferPosition = 0;
+                if (mBufferLimit <= 0){
+                    mBufferLimit = 0;
+                    return mLine.length() > 0;
+                }
+            }
+            int start = mBufferPosition;
+            while (mBufferPosition < mBufferLimit){
+                char c = mBuffer[mBufferPosition];
+                if (c == '\n' || c == '\r')
+                    break;
+                mBufferPosition++;
+            }
+            mLine.append(mBuffer, start, mBufferPosition - start);
+            if (mBufferPosition < mBufferLimit){
+                //consumes the terminator. A \r\n pair yields an empty line which is skipped
+                mBufferPosition++;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Starts the section of the header line <code>header</code>
+     * @param header Header line, e.g. <code>!Type:Bank</code>
+     */
+    private void startSection(String header){
+        if (mEntryHasFields)
+            endEntry();
+
+        if (header.equalsIgnoreCase(QifHelper.ACCOUNT_HEADER)){
+            mSection = Section.ACCOUNTS;
+        } else if (header.regionMatches(true, 0, QifHelper.TYPE_HEADER_PREFIX, 0, QifHelper.TYPE_HEADER_PREFIX.length())){
+            String typeName = header.substring(QifHelper.TYPE_HEADER_PREFIX.length()).trim();
+            Account.AccountType accountType = QifHelper.getAccountType(typeName);
+            if (accountType != null){
+                mSection = Section.TRANSACTIONS;
+                mSectionAccountType = accountType;
+                mSectionTypeName = typeName;
+                if (mPendingAccountName != null){
+                    mCurrentAccount = getAccount(mPendingAccountName, accountType,
+                            Currency.getInstance(Money.DEFAULT_CURRENCY_CODE));
+                    mPendingAccountName = null;
+                }
+            } else if (typeName.equalsIgnoreCase("Invst")){
+                mSection = Section.INVESTMENTS;
+                mCurrentAccount = null;
+            } else {
+                //categories, classes and memorized transactions
+                mSection = Section.OTHER;
+            }
+        } else if (!header.regionMatches(true, 0, "!Option", 0, 7) && !header.regionMatches(true, 0, "!Clear", 0, 6)){
+            Log.w(LOG_TAG, "Skipping unknown section " + header);
+            mSection = Section.OTHER;
+        }
+        //options do not change the section
+    }
+
+    /**
+     * Stores the field of the current entry
+     * @param prefix Prefix of the field
+     * @param value Value of the field
+     */
+    private void readField(char prefix, String value){
+        mEntryHasFields = true;
+        if (mSection == Section.ACCOUNTS){
+            if (prefix == QifHelper.ACCOUNT_NAME_PREFIX.charAt(0))
+                mName = value;
+            else if (prefix == QifHelper.ACCOUNT_TYPE_PREFIX.charAt(0))
+                mAccountType = value;
+            return;
+        }
+
+        switch (prefix){
+            case 'D':
+                mDate = value;
+                break;
+            case 'T':
+            case AMOUNT_PREFIX_ALTERNATE:
+                mAmount = value;
+                break;
+            case 'P':
+                mPayee = value;
+                break;
+            case 'M':
+                mMemo = value;
+                break;
+            case 'L':
+                mCategory = value;
+                break;
+            case 'S':
+                mSplitCount++;
+                if (mSplitCount == 1)
+                    mSplitCategory = value;
+                break;
+            case 'E':
+                if (mSplitCount <= 1)
+                    mSplitMemo = value;
+                break;
+            default:
+                if (prefix == SPLIT_AMOUNT_PREFIX && mSplitCount <= 1)
+                    mSplitAmount = value;
+                //other fields, such as the check number and the cleared status, are not imported
+        }
+    }
+
+    /**
+     * Saves the current entry and resets the fields
+     */
+    private void endEntry(){
+        switch (mSection){
+            case ACCOUNTS:
+                if (mName != null){
+                    Account.AccountType accountType = mAccountType == null ? null : QifHelper.getAccountType(mAccountType);
+                    if (accountType != null){
+                        mCurrentAccount = getAccount(mName, accountType, Currency.getInstance(Money.DEFAULT_CURRENCY_CODE));
+                        mPendingAccountName = null;
+                    } else {
+                        //the type of an exported account is only known from the header of its transactions
+                        mCurrentAccount = null;
+                        mPendingAccountName = mName;
+                    }
+                }
+                break;
+            case TRANSACTIONS:
+                saveTransaction();
+                break;
+            case INVESTMENTS:
+                mSkippedTransactionCount++;
+                break;
+            default:
+                break;
+        }
+        resetEntry();
+    }
+
+    /**
+     * Adds the transaction of the current entry to the inserter, if it can be represented
+     */
+    private void saveTransaction(){
+        if (mSplitCount > 1){
+            Log.w(LOG_TAG, "Skipping transaction " + mPayee + " with " + mSplitCount + " splits");
+            mSkippedTransactionCount++;
+            return;
+        }
+        String amountString = mAmount != null ? mAmount : mSplitAmount;
+        if (mDate == null || amountString == null){
+            Log.w(LOG_TAG, "Skipping incomplete transaction " + mPayee);
+            mSkippedTransactionCount++;
+            return;
+        }
+
+        long time;
+        BigDecimal amountValue;
+        try {
+            time = QifHelper.parseDate(mDate, mCalendar);
+            amountValue = QifHelper.parseAmount(amountString);
+        } catch (ParseException e) {
+            Log.w(LOG_TAG, "Skipping transaction with invalid date " + mDate);
+            mSkippedTransactionCount++;
+            return;
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Skipping transaction with invalid amount " + amountString);
+            mSkippedTransactionCount++;
+            return;
+        }
+
+        AccountEntry account = getTransactionAccount();
+        Money amount = new Money(amountValue, account.currency);
+        String name = mPayee != null ? mPayee : mMemo;
+        String description = mSplitMemo != null ? mSplitMemo : (mPayee != null ? mMemo : null);
+        String transferAccountUID = getTransferAccountUID(mSplitCount == 1 ? mSplitCategory : mCategory,
+                amount.isNegative(), account.currency);
+
+        boolean hasDebitNormalBalance = mSectionAccountType.hasDebitNormalBalance();
+        //same mapping as for transactions entered in the app
+        Transaction.TransactionType type = amount.isNegative() == hasDebitNormalBalance
+                ? Transaction.TransactionType.CREDIT : Transaction.TransactionType.DEBIT;
+
+        Transaction transaction = new Transaction(amount, name == null ? "" : name, type);
+        transaction.setUID(getTransactionUID(account.uid, time, amount, name, description, transferAccountUID));
+        transaction.setAccountUID(account.uid);
+        transaction.setDoubleEntryAccountUID(transferAccountUID);
+        transaction.setTime(time);
+        transaction.setDescription(description);
+        mInserter.addTransaction(transaction);
+    }
+
+    /**
+     * Returns the account of the transactions in the current section
+     * @return Account of the preceding account entry, the default account or an account named after the section type
+     */
+    private AccountEntry getTransactionAccount(){
+        if (mCurrentAccount == null){
+            mCurrentAccount = mDefaultAccount != null ? mDefaultAccount
+                    : getAccount(mSectionTypeName, mSectionAccountType, Currency.getInstance(Money.DEFAULT_CURRENCY_CODE));
+        }
+        return mCurrentAccount;
+    }
+
+    /**
+     * Returns the unique ID of the transfer account for the QIF category <code>category</code>
+     * @param category Category, e.g. <code>Expenses:Food</code>, or transfer account in brackets, e.g. <code>[Savings]</code>.
+     *                 May be followed by a class after a slash
+     * @param isNegative <code>true</code> if the transaction is a payment, which is booked to an expense category
+     * @param currency Currency of the transaction, used for new accounts
+     * @return Unique ID of the transfer account, or <code>null</code> if the transaction has no transfer account
+     */
+    private String getTransferAccountUID(String category, boolean isNegative, Currency currency){
+        if (category == null)
+            return null;
+        int classStart = category.indexOf('/');
+        if (classStart >= 0)
+            category = category.substring(0, classStart);
+        category = category.trim();
+
+        Account.AccountType accountType;
+        if (category.startsWith("[") && category.endsWith("]")){
+            category = category.substring(1, category.length() - 1).trim();
+            accountType = mSectionAccountType;
+        } else {
+            accountType = isNegative ? Account.AccountType.EXPENSE : Account.AccountType.INCOME;
+        }
+        if (category.length() == 0 || category.startsWith(mImbalanceAccountPrefix))
+            return null;
+        return getAccount(category, accountType, currency).uid;
+    }
+
+    /**
+     * Returns the account with the fully qualified name <code>fullName</code>.
+     * If it does not exist, it is created along with its missing parent accounts
+     * @param fullName Fully qualified name of the account, e.g. <code>Expenses:Food</code>
+     * @param accountType Type of the account and its parents, if they are created
+     * @param currency Currency of the account and its parents, if they are created
+     * @return Account
+     */
+    private AccountEntry getAccount(String fullName, Account.AccountType accountType, Currency currency){
+        AccountEntry accountEntry = mAccounts.get(fullName);
+        if (accountEntry != null)
+            return accountEntry;
+
+        int nameStart = fullName.lastIndexOf(':');
+        Account account = new Account(fullName.substring(nameStart + 1), currency);
+        account.setAccountType(accountType);
+        if (nameStart > 0)
+            account.setParentUID(getAccount(fullName.substring(0, nameStart), accountType, currency).uid);
+        mInserter.addAccount(account);
+
+        accountEntry = new AccountEntry(account.getUID(), currency);
+        mAccounts.put(fullName, accountEntry);
+        return accountEntry;
+    }
+
+    /**
+     * Returns the unique ID of a transaction, which is derived from its content
+     * and the number of identical transactions which precede it
+     * @return Unique ID of the transaction
+     */
+    private String getTransactionUID(String accountUID, long time, Money amount, String name, String description,
+                                     String transferAccountUID){
+        //identical entries have the same date, so the entries of earlier dates are not needed any more
+        if (time != mOccurrencesTime){
+            mEntryOccurrences.clear();
+            mOccurrencesTime = time;
+        }
+        String entryKey = "qif:" + accountUID + ":" + time + ":" + amount.asString() + ":" + name + ":"
+                + description + ":" + transferAccountUID;
+        Integer previousOccurrences = mEntryOccurrences.get(entryKey);
+        int occurrence = previousOccurrences == null ? 0 : previousOccurrences;
+        mEntryOccurrences.put(entryKey, occurrence + 1);
+        return GncXmlHelper.formatGuid(entryKey + ":" + occurrence);
+    }
+
+    /**
+     * Clears the fields of the current entry
+     */
+    private void resetEntry(){
+        mDate = null;
+        mAmount = null;
+        mPayee = null;
+        mMemo = null;
+        mCategory = null;
+        mName = null;
+        mAccountType = null;
+        mSplitCategory = null;
+        mSplitMemo = null;
+        mSplitAmount = null;
+        mSplitCount = 0;
+        mEntryHasFields = false;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.export.xml;
+
+import android.content.Context;
+import android.database.Cursor;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.Exporter;
+import org.gnucash.android.model.Account;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Exports the accounts and transactions in the database as a GnuCash XML book, which can be opened by GnuCash desktop.
+ * <p>The account tree, including colors and placeholder flags, is written in the header of the book.
+ * The transactions then follow account by account, each with a split for its account and one for its transfer account.
+ * Transactions without a transfer account only have one split, and are balanced by GnuCash when the book is opened</p>
+ * <p>Both the accounts and the transactions are read from database cursors and written as they are read,
+ * so the memory use does not depend on the size of the book. The output can be compressed like a native GnuCash file
+ * with {@link org.gnucash.android.export.ExportParams.Compression#GZIP}</p>
+ * <p>A book always contains all transactions, so this exporter ignores which transactions have been exported before</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ * @see org.gnucash.android.util.GnucashAccountXmlHandler
+ */
+public class GncXmlExporter extends Exporter {
+
+    /**
+     * Nesting depth of the transactions in the document: gnc-v2 and gnc:book enclose them
+     */
+    private static final int TRANSACTION_DEPTH = 2;
+
+    /**
+     * Unique ID which is hashed to the GUID of the root account, if the database does not contain a GnuCash ROOT account
+     */
+    private static final String ROOT_ACCOUNT_UID = "gnucash-android-root-account";
+
+    /**
+     * Name of the root account, if the database does not contain a GnuCash ROOT account
+     */
+    private static final String ROOT_ACCOUNT_NAME = "Root Account";
+
+    /**
+     * GUID of the book. It is the same for all parts of a split export
+     */
+    private final String mBookGuid;
+
+    /**
+     * Writer for the header and footer of the current document.
+     * Transactions are written by writers of their own, since they may be rendered on worker threads
+     */
+    private GncXmlWriter mXmlWriter;
+
+    /**
+     * Creates an exporter for the whole book
+     * @param context Application context
+     */
+    public GncXmlExporter(Context context){
+        super(context, true);
+        mBookGuid = UUID.randomUUID().toString().replace("-", "");
+    }
+
+    @Override
+    protected boolean includesTransferSide() {
+        //each transaction is written once, with a split for each of its accounts
+        return false;
+    }
+
+    /**
+     * Writes the beginning of the book, including the commodities and the complete account tree
+     * @param writer Writer for the output
+     * @throws IOException if the output could not be written
+     */
+    @Override
+    protected void writeHeader(Writer writer) throws IOException {
+        mXmlWriter = new GncXmlWriter(writer);
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(mContext);
+        try {
+            List<String> currencyCodes = accountsDbAdapter.getCurrencyCodes();
+            String rootAccountUID = accountsDbAdapter.getGnuCashRootAccountUID();
+            String rootAccountGuid = GncXmlHelper.formatGuid(rootAccountUID == null ? ROOT_ACCOUNT_UID : rootAccountUID);
+            Cursor accountsCursor = accountsDbAdapter.fetchAccountsForExport();
+            try {
+                mXmlWriter.startDocument();
+                mXmlWriter.startElement(GncXmlHelper.TAG_ROOT, GncXmlHelper.NAMESPACE_ATTRIBUTES);
+                writeCount(GncXmlHelper.COUNT_TYPE_BOOK, 1);
+                mXmlWriter.startElement(GncXmlHelper.TAG_BOOK, GncXmlHelper.ATTR_VERSION, GncXmlHelper.BOOK_VERSION);
+                mXmlWriter.element(GncXmlHelper.TAG_BOOK_ID, mBookGuid, GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+                writeCount(GncXmlHelper.COUNT_TYPE_COMMODITY, currencyCodes.size());
+                //the root account is not in the cursor
+                writeCount(GncXmlHelper.COUNT_TYPE_ACCOUNT, accountsCursor.getCount() + 1);
+
+                for (String currencyCode : currencyCodes) {
+                    mXmlWriter.startElement(GncXmlHelper.TAG_COMMODITY, GncXmlHelper.ATTR_VERSION, GncXmlHelper.BOOK_VERSION);
+                    writeCommodity(mXmlWriter, currencyCode);
+                    mXmlWriter.endElement(GncXmlHelper.TAG_COMMODITY);
+                }
+
+                mXmlWriter.startElement(GncXmlHelper.TAG_ACCOUNT, GncXmlHelper.ATTR_VERSION, GncXmlHelper.BOOK_VERSION);
+                mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_NAME, ROOT_ACCOUNT_NAME);
+                mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_ID, rootAccountGuid, GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+                mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_TYPE, Account.AccountType.ROOT.name());
+                mXmlWriter.endElement(GncXmlHelper.TAG_ACCOUNT);
+
+                while (accountsCursor.moveToNext()) {
+                    writeAccountElement(accountsCursor, rootAccountGuid);
+                }
+            } finally {
+                accountsCursor.close();
+            }
+        } finally {
+            accountsDbAdapter.close();
+        }
+    }
+
+    @Override
+    protected void writeFooter(Writer writer) throws IOException {
+        mXmlWriter.endElement(GncXmlHelper.TAG_BOOK);
+        mXmlWriter.endElement(GncXmlHelper.TAG_ROOT);
+        mXmlWriter.endDocument();
+    }
+
+    /**
+     * Starts the transactions of the account in the current row of <code>cursor</code>.
+     * The transactions of a book are not grouped by account, so nothing is written for the account itself
+     * @param writer Writer for the transactions
+     * @param cursor Export cursor, positioned at the first transaction of the account
+     * @return Section which writes the transactions with their splits
+     * @see TransactionsDbAdapter#fetchTransactionsForExport(boolean, long, boolean)
+     */
+    @Override
+    protected AccountSection startAccount(Writer writer, Cursor cursor) {
+        final String accountGuid = GncXmlHelper.formatGuid(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_UID));
+        final Currency currency = Currency.getInstance(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_CURRENCY_CODE));
+        return new AccountSection() {
+            @Override
+            public void writeTransaction(Writer writer, Cursor cursor) throws IOException {
+                writeTransactionElement(new GncXmlWriter(writer, TRANSACTION_DEPTH), cursor, accountGuid, currency);
+            }
+
+            @Override
+            public void finish(Writer writer) {
+                //the transactions are not enclosed by an account element
+            }
+
+            @Override
+            public void merge(AccountSection following) {
+                //the transactions do not depend on each other
+            }
+        };
+    }
+
+    /**
+     * Writes the transaction in the current row of <code>cursor</code> with its splits
+     */
+    private void writeTransactionElement(GncXmlWriter xmlWriter, Cursor cursor, String accountGuid, Currency currency) throws IOException {
+        String transactionUID = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_UID);
+        String date = GncXmlHelper.formatDate(cursor.getLong(TransactionsDbAdapter.EXPORT_COLUMN_TIMESTAMP));
+        BigDecimal amount = new BigDecimal(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_AMOUNT));
+
+        xmlWriter.startElement(GncXmlHelper.TAG_TRANSACTION, GncXmlHelper.ATTR_VERSION, GncXmlHelper.BOOK_VERSION);
+        xmlWriter.element(GncXmlHelper.TAG_TRANSACTION_ID, GncXmlHelper.formatGuid(transactionUID),
+                GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+        xmlWriter.startElement(GncXmlHelper.TAG_TRANSACTION_CURRENCY);
+        writeCommodity(xmlWriter, currency.getCurrencyCode());
+        xmlWriter.endElement(GncXmlHelper.TAG_TRANSACTION_CURRENCY);
+        xmlWriter.startElement(GncXmlHelper.TAG_DATE_POSTED);
+        xmlWriter.element(GncXmlHelper.TAG_DATE, date);
+        xmlWriter.endElement(GncXmlHelper.TAG_DATE_POSTED);
+        xmlWriter.startElement(GncXmlHelper.TAG_DATE_ENTERED);
+        xmlWriter.element(GncXmlHelper.TAG_DATE, date);
+        xmlWriter.endElement(GncXmlHelper.TAG_DATE_ENTERED);
+        xmlWriter.element(GncXmlHelper.TAG_TRANSACTION_DESCRIPTION, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+
+        String notes = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_DESCRIPTION);
+        if (notes != null && notes.length() > 0){
+            xmlWriter.startElement(GncXmlHelper.TAG_TRANSACTION_SLOTS);
+            writeSlot(xmlWriter, GncXmlHelper.KEY_NOTES, notes);
+            xmlWriter.endElement(GncXmlHelper.TAG_TRANSACTION_SLOTS);
+        }
+
+        xmlWriter.startElement(GncXmlHelper.TAG_SPLITS);
+        int fractionDigits = currency.getDefaultFractionDigits();
+        writeSplit(xmlWriter, transactionUID, accountGuid, GncXmlHelper.formatAmount(amount, fractionDigits));
+        String transferAccountUID = cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_UID);
+        if (transferAccountUID != null && transferAccountUID.length() > 0){
+            writeSplit(xmlWriter, transactionUID, GncXmlHelper.formatGuid(transferAccountUID),
+                    GncXmlHelper.formatAmount(amount.negate(), fractionDigits));
+        }
+        xmlWriter.endElement(GncXmlHelper.TAG_SPLITS);
+
+        xmlWriter.endElement(GncXmlHelper.TAG_TRANSACTION);
+    }
+
+    /**
+     * Writes a split of the transaction <code>transactionUID</code> in the account with GUID <code>accountGuid</code>.
+     * Transactions are in the currency of their account, so the quantity of the split is the same as its value
+     */
+    private static void writeSplit(GncXmlWriter xmlWriter, String transactionUID, String accountGuid, String value) throws IOException {
+        xmlWriter.startElement(GncXmlHelper.TAG_SPLIT);
+        //derived from the transaction and account, so that the split keeps its GUID in later exports
+        xmlWriter.element(GncXmlHelper.TAG_SPLIT_ID, GncXmlHelper.formatGuid(transactionUID + ":" + accountGuid),
+                GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+        xmlWriter.element(GncXmlHelper.TAG_RECONCILED_STATE, GncXmlHelper.RECONCILED_STATE_NEW);
+        xmlWriter.element(GncXmlHelper.TAG_SPLIT_VALUE, value);
+        xmlWriter.element(GncXmlHelper.TAG_SPLIT_QUANTITY, value);
+        xmlWriter.element(GncXmlHelper.TAG_SPLIT_ACCOUNT, accountGuid, GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+        xmlWriter.endElement(GncXmlHelper.TAG_SPLIT);
+    }
+
+    /**
+     * Writes the account in the current row of the accounts cursor <code>cursor</code>
+     * @param rootAccountGuid GUID of the root account, which is the parent of all top level accounts
+     */
+    private void writeAccountElement(Cursor cursor, String rootAccountGuid) throws IOException {
+        String currencyCode = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_CURRENCY_CODE));
+        String parentUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_PARENT_ACCOUNT_UID));
+        String colorCode = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_COLOR_CODE));
+        boolean placeholder = cursor.getInt(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_PLACEHOLDER)) == 1;
+
+        mXmlWriter.startElement(GncXmlHelper.TAG_ACCOUNT, GncXmlHelper.ATTR_VERSION, GncXmlHelper.BOOK_VERSION);
+        mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_NAME, cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_NAME)));
+        mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_ID,
+                GncXmlHelper.formatGuid(cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_UID))),
+                GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+        mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_TYPE, cursor.getString(cursor.getColumnIndexOrThrow(DatabaseHelper.KEY_TYPE)));
+        mXmlWriter.startElement(GncXmlHelper.TAG_ACCOUNT_COMMODITY);
+        writeCommodity(mXmlWriter, currencyCode);
+        mXmlWriter.endElement(GncXmlHelper.TAG_ACCOUNT_COMMODITY);
+        mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_COMMODITY_SCU,
+                GncXmlHelper.formatCommodityScu(Currency.getInstance(currencyCode).getDefaultFractionDigits()));
+
+        if (placeholder || colorCode != null){
+            mXmlWriter.startElement(GncXmlHelper.TAG_ACCOUNT_SLOTS);
+            if (colorCode != null)
+                writeSlot(mXmlWriter, GncXmlHelper.KEY_COLOR, colorCode);
+            if (placeholder)
+                writeSlot(mXmlWriter, GncXmlHelper.KEY_PLACEHOLDER, "true");
+            mXmlWriter.endElement(GncXmlHelper.TAG_ACCOUNT_SLOTS);
+        }
+
+        String parentGuid = parentUID == null || parentUID.length() == 0
+                ? rootAccountGuid : GncXmlHelper.formatGuid(parentUID);
+        mXmlWriter.element(GncXmlHelper.TAG_ACCOUNT_PARENT, parentGuid, GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_GUID);
+        mXmlWriter.endElement(GncXmlHelper.TAG_ACCOUNT);
+    }
+
+    /**
+     * Writes the count of objects of type <code>countType</code> in the book
+     */
+    private void writeCount(String countType, int count) throws IOException {
+        mXmlWriter.element(GncXmlHelper.TAG_COUNT_DATA, String.valueOf(count), GncXmlHelper.ATTR_COUNT_TYPE, countType);
+    }
+
+    /**
+     * Writes the commodity space and ID of the currency <code>currencyCode</code>
+     */
+    private static void writeCommodity(GncXmlWriter xmlWriter, String currencyCode) throws IOException {
+        xmlWriter.element(GncXmlHelper.TAG_COMMODITY_SPACE, GncXmlHelper.COMMODITY_SPACE_ISO4217);
+        xmlWriter.element(GncXmlHelper.TAG_COMMODITY_ID, currencyCode);
+    }
+
+    /**
+     * Writes a slot with the text value <code>value</code>
+     */
+    private static void writeSlot(GncXmlWriter xmlWriter, String key, String value) throws IOException {
+        xmlWriter.startElement(GncXmlHelper.TAG_SLOT);
+        xmlWriter.element(GncXmlHelper.TAG_SLOT_KEY, key);
+        xmlWriter.element(GncXmlHelper.TAG_SLOT_VALUE, value, GncXmlHelper.ATTR_TYPE, GncXmlHelper.TYPE_STRING);
+        xmlWriter.endElement(GncXmlHelper.TAG_SLOT);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.export.xml;
+
+import org.gnucash.android.export.ExportDateFormatter;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Collection of constants and helper methods for the GnuCash XML book format
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class GncXmlHelper {
+    /**
+     * Version of the book, account, commodity and transaction elements
+     */
+    public static final String BOOK_VERSION = "2.0.0";
+
+    /**
+     * Commodity namespace of currencies
+     */
+    public static final String COMMODITY_SPACE_ISO4217 = "ISO4217";
+
+    /**
+     * Value of <code>type</code> attributes of elements containing a GUID
+     */
+    public static final String TYPE_GUID    = "guid";
+
+    /**
+     * Value of <code>type</code> attributes of slot values containing text
+     */
+    public static final String TYPE_STRING  = "string";
+
+    /**
+     * Reconciled state of splits which have not been reconciled
+     */
+    public static final String RECONCILED_STATE_NEW = "n";
+
+    /*
+     * Slot keys for the account and transaction properties which are not written as elements
+     */
+    public static final String KEY_PLACEHOLDER  = "placeholder";
+    public static final String KEY_COLOR        = "color";
+    public static final String KEY_NOTES        = "notes";
+
+    /**
+     * Namespace declarations of the document element, as pairs of attribute name and value
+     */
+    public static final String[] NAMESPACE_ATTRIBUTES = {
+            "xmlns:gnc",    "http://www.gnucash.org/XML/gnc",
+            "xmlns:act",    "http://www.gnucash.org/XML/act",
+            "xmlns:book",   "http://www.gnucash.org/XML/book",
+            "xmlns:cd",     "http://www.gnucash.org/XML/cd",
+            "xmlns:cmdty",  "http://www.gnucash.org/XML/cmdty",
+            "xmlns:slot",   "http://www.gnucash.org/XML/slot",
+            "xmlns:split",  "http://www.gnucash.org/XML/split",
+            "xmlns:trn",    "http://www.gnucash.org/XML/trn",
+            "xmlns:ts",     "http://www.gnucash.org/XML/ts"
+    };
+
+    /*
+     * Attribute names used in the GnuCash XML file
+     */
+    public static final String ATTR_VERSION         = "version";
+    public static final String ATTR_TYPE            = "type";
+    public static final String ATTR_COUNT_TYPE      = "cd:type";
+
+    /*
+     * Qualified tag names of the GnuCash XML file
+     */
+    public static final String TAG_ROOT             = "gnc-v2";
+    public static final String TAG_COUNT_DATA       = "gnc:count-data";
+    public static final String TAG_BOOK             = "gnc:book";
+    public static final String TAG_BOOK_ID          = "book:id";
+    public static final String TAG_COMMODITY        = "gnc:commodity";
+    public static final String TAG_COMMODITY_SPACE  = "cmdty:space";
+    public static final String TAG_COMMODITY_ID     = "cmdty:id";
+    public static final String TAG_ACCOUNT          = "gnc:account";
+    public static final String TAG_ACCOUNT_NAME     = "act:name";
+    public static final String TAG_ACCOUNT_ID       = "act:id";
+    public static final String TAG_ACCOUNT_TYPE     = "act:type";
+    public static final String TAG_ACCOUNT_COMMODITY        = "act:commodity";
+    public static final String TAG_ACCOUNT_COMMODITY_SCU    = "act:commodity-scu";
+    public static final String TAG_ACCOUNT_SLOTS    = "act:slots";
+    public static final String TAG_ACCOUNT_PARENT   = "act:parent";
+    public static final String TAG_SLOT             = "slot";
+    public static final String TAG_SLOT_KEY         = "slot:key";
+    public static final String TAG_SLOT_VALUE       = "slot:value";
+    public static final String TAG_TRANSACTION      = "gnc:transaction";
+    public static final String TAG_TRANSACTION_ID   = "trn:id";
+    public static final String TAG_TRANSACTION_CURRENCY     = "trn:currency";
+    public static final String TAG_DATE_POSTED      = "trn:date-posted";
+    public static final String TAG_DATE_ENTERED     = "trn:date-entered";
+    public static final String TAG_DATE             = "ts:date";
+    public static final String TAG_TRANSACTION_DESCRIPTION  = "trn:description";
+    public static final String TAG_TRANSACTION_SLOTS        = "trn:slots";
+    public static final String TAG_SPLITS           = "trn:splits";
+    public static final String TAG_SPLIT            = "trn:split";
+    public static final String TAG_SPLIT_ID         = "split:id";
+    public static final String TAG_RECONCILED_STATE = "split:reconciled-state";
+    public static final String TAG_SPLIT_VALUE      = "split:value";
+    public static final String TAG_SPLIT_QUANTITY   = "split:quantity";
+    public static final String TAG_SPLIT_ACCOUNT    = "split:account";
+
+    /**
+     * Count types of the <code>gnc:count-data</code> elements
+     */
+    public static final String COUNT_TYPE_BOOK      = "book";
+    public static final String COUNT_TYPE_COMMODITY = "commodity";
+    public static final String COUNT_TYPE_ACCOUNT   = "account";
+
+    /**
+     * Formatter for the time stamps of transactions in the default time zone.
+     * It is thread-safe, so it is shared by the threads of a parallel export
+     */
+    private static final ExportDateFormatter DATE_FORMATTER = new ExportDateFormatter(ExportDateFormatter.Layout.GNC_XML);
+
+    /**
+     * Parsers for the time stamps of transactions, one per thread since {@link SimpleDateFormat} is not thread-safe
+     */
+    private static final ThreadLocal<SimpleDateFormat> DATE_PARSER = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(ExportDateFormatter.Layout.GNC_XML.getPattern(), Locale.US);
+        }
+    };
+
+    /**
+     * Pattern of GnuCash GUIDs, which are 32 hexadecimal digits
+     */
+    private static final Pattern GUID_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
+
+    /**
+     * Pattern of UUIDs in the form of {@link java.util.UUID#toString()}, which are GUIDs with dashes
+     */
+    private static final Pattern UUID_PATTERN = Pattern.compile(
+            "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Returns a GnuCash GUID for the unique ID <code>uid</code>.
+     * <p>Unique IDs which are already GUIDs, such as those of imported accounts and of transactions, are used as they are.
+     * The dashes are removed from UUIDs, e.g. the unique IDs of transactions created by older versions of the app.
+     * Other unique IDs, for example those of accounts created in the app, are hashed to a GUID.
+     * The same unique ID always results in the same GUID, so the GUIDs are stable across exports.
+     * When the book is imported again, the records are matched to the existing ones by this GUID</p>
+     * @param uid Unique ID of an account or transaction
+     * @return GUID of 32 lower case hexadecimal digits
+     */
+    public static String formatGuid(String uid){
+        if (GUID_PATTERN.matcher(uid).matches())
+            return uid.toLowerCase(Locale.US);
+        if (UUID_PATTERN.matcher(uid).matches())
+            return uid.replace("-", "").toLowerCase(Locale.US);
+
+        try {
+            //MD5 digests are exactly as long as a GUID
+            byte[] digest = MessageDigest.getInstance("MD5").digest(uid.getBytes("UTF-8"));
+            char[] guid = new char[2 * digest.length];
+            for (int i = 0; i < digest.length; i++) {
+                guid[2 * i]     = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+                guid[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0f];
+            }
+            return new String(guid);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the time <code>milliseconds</code> formatted for a <code>ts:date</code> element
+     * @param milliseconds Time in milliseconds since the epoch
+     * @return Formatted time, for example <code>2014-03-21 14:05:00 +0100</code>
+     */
+    public static String formatDate(long milliseconds){
+        return DATE_FORMATTER.format(milliseconds);
+    }
+
+    /**
+     * Parses the time in a <code>ts:date</code> element
+     * @param dateString Formatted time, for example <code>2014-03-21 14:05:00 +0100</code>
+     * @return Time in milliseconds since the epoch
+     * @throws ParseException if <code>dateString</code> is not a valid time
+     * @see #formatDate(long)
+     */
+    public static long parseDate(String dateString) throws ParseException {
+        return DATE_PARSER.get().parse(dateString).getTime();
+    }
+
+    /**
+     * Parses a split value or quantity, which GnuCash writes as a fraction such as <code>1050/100</code>.
+     * Fractions whose denominator is not a power of ten are rounded to 16 significant digits
+     * @param amountString Numerator and denominator separated by a slash, or a decimal number
+     * @return Amount of money
+     * @throws NumberFormatException if <code>amountString</code> is not a valid amount
+     * @see #formatAmount(BigDecimal, int)
+     */
+    public static BigDecimal parseAmount(String amountString){
+        int slash = amountString.indexOf('/');
+        if (slash < 0)
+            return new BigDecimal(amountString.trim());
+
+        BigDecimal numerator = new BigDecimal(amountString.substring(0, slash).trim());
+        BigDecimal denominator = new BigDecimal(amountString.substring(slash + 1).trim());
+        try {
+            return numerator.divide(denominator);
+        } catch (ArithmeticException e) {
+            //non-terminating decimal expansion
+            return numerator.divide(denominator, MathContext.DECIMAL64);
+        }
+    }
+
+    /**
+     * Returns <code>amount</code> formatted as the fraction which GnuCash uses for split values, e.g. <code>1050/100</code>
+     * @param amount Amount of money
+     * @param fractionDigits Minimum number of decimal places of the fraction, usually those of the currency
+     * @return Amount as numerator and denominator separated by a slash
+     */
+    public static String formatAmount(BigDecimal amount, int fractionDigits){
+        //only ever increases the scale, so no rounding is needed
+        BigDecimal scaledAmount = amount.setScale(Math.max(Math.max(amount.scale(), fractionDigits), 0));
+        return scaledAmount.unscaledValue().toString() + "/" + BigInteger.TEN.pow(scaledAmount.scale()).toString();
+    }
+
+    /**
+     * Returns the smallest commodity unit for a currency, as written in <code>act:commodity-scu</code> elements
+     * @param fractionDigits Number of decimal places of the currency
+     * @return Smallest commodity unit, e.g. <code>100</code> for two decimal places
+     */
+    public static String formatCommodityScu(int fractionDigits){
+        return BigInteger.TEN.pow(Math.max(fractionDigits, 0)).toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.export.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming writer for GnuCash XML documents.
+ * <p>Elements are written to the output as soon as they are added, so no document tree is kept in memory.
+ * Elements are closed explicitly and indented by two spaces. Attributes are passed as pairs of name and value</p>
+ * <p>Parts of a document can be rendered separately by writers which start at the nesting depth of the part.
+ * The concatenated output is then the same as if the whole document had been written by one writer</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ * @see org.gnucash.android.export.ofx.OfxWriter
+ */
+public class GncXmlWriter {
+    private static final String INDENT = "  ";
+
+    private final Writer mWriter;
+
+    /**
+     * Nesting depth of the element which is currently open
+     */
+    private int mDepth;
+
+    /**
+     * Creates a new GnuCash XML writer
+     * @param writer Writer to which the document is written
+     */
+    public GncXmlWriter(Writer writer){
+        this(writer, 0);
+    }
+
+    /**
+     * Creates a new GnuCash XML writer for a part of a document
+     * @param writer Writer to which the part is written
+     * @param depth Number of elements which enclose the part in the document
+     */
+    public GncXmlWriter(Writer writer, int depth){
+        mWriter = writer;
+        mDepth = depth;
+    }
+
+    /**
+     * Writes the XML declaration. Must be called before any element is written
+     * @throws IOException if the output could not be written
+     */
+    public void startDocument() throws IOException {
+        mWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
+    }
+
+    /**
+     * Opens an element. Every call must be matched with a call to {@link #endElement(String)}
+     * @param tag Qualified name of the element
+     * @param attributes Attribute names, each followed by its value
+     * @throws IOException if the output could not be written
+     */
+    public void startElement(String tag, String... attributes) throws IOException {
+        writeStartTag(tag, attributes);
+        mWriter.write('\n');
+        mDepth++;
+    }
+
+    /**
+     * Closes the element which was last opened
+     * @param tag Qualified name of the element
+     * @throws IOException if the output could not be written
+     */
+    public void endElement(String tag) throws IOException {
+        mDepth--;
+        indent();
+        writeEndTag(tag);
+    }
+
+    /**
+     * Writes an element containing only the text <code>value</code>
+     * @param tag Qualified name of the element
+     * @param value Text content of the element. <code>null</code> is written as an empty element
+     * @param attributes Attribute names, each followed by its value
+     * @throws IOException if the output could not be written
+     */
+    public void element(String tag, String value, String... attributes) throws IOException {
+        writeStartTag(tag, attributes);
+        if (value != null)
+            writeEscaped(value);
+        writeEndTag(tag);
+    }
+
+    /**
+     * Finishes the document and flushes the output. The underlying writer is not closed
+     * @throws IOException if the output could not be written
+     */
+    public void endDocument() throws IOException {
+        mWriter.flush();
+    }
+
+    private void writeStartTag(String tag, String[] attributes) throws IOException {
+        indent();
+        mWriter.write('<');
+        mWriter.write(tag);
+        for (int i = 0; i + 1 < attributes.length; i += 2) {
+            mWriter.write(' ');
+            mWriter.write(attributes[i]);
+            mWriter.write("=\"");
+            writeEscaped(attributes[i + 1]);
+            mWriter.write('"');
+        }
+        mWriter.write('>');
+    }
+
+    private void writeEndTag(String tag) throws IOException {
+        mWriter.write("</");
+        mWriter.write(tag);
+        mWriter.write(">\n");
+    }
+
+    /**
+     * Indents the next line according to the current nesting depth
+     */
+    private void indent() throws IOException {
+        for (int i = 0; i < mDepth; i++) {
+            mWriter.write(INDENT);
+        }
+    }
+
+    /**
+     * Writes <code>text</code> with the markup characters replaced by entities
+     */
+    private void writeEscaped(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c){
+                case '&':
+                    mWriter.write("&amp;");
+                    break;
+                case '<':
+                    mWriter.write("&lt;");
+                    break;
+                case '>':
+                    mWriter.write("&gt;");
+                    break;
+                case '"':
+                    mWriter.write("&quot;");
+                    break;
+                default:
+                    mWriter.write(c);
+            }
+        }
+    }
+}
@@ -18,11 +18,7 @@ package org.gnucash.android.model;
 
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.AccountsDbAdapter;
-import org.gnucash.android.export.ofx.OfxHelper;
-import org.gnucash.android.export.qif.QifHelper;
 import org.gnucash.android.model.Transaction.TransactionType;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -137,7 +133,9 @@ public class Account {
 	private AccountType mAccountType = AccountType.CASH;
 	
 	/**
-	 * List of transactions in this account
+	 * List of transactions in this account.
+	 * Accounts loaded from the database contain only the account header, the transactions
+	 * have to be loaded explicitly using {@link AccountsDbAdapter#loadTransactions(Account)}
 	 */
 	private List<Transaction> mTransactionsList = new ArrayList<Transaction>();
 
@@ -343,26 +341,15 @@ public class Account {
 	}
 	
 	/**
-	 * Returns the number of transactions in this account
+	 * Returns the number of transactions in this account object.
+	 * <p>This only counts the transactions which have been set on the account. To count the transactions of an
+	 * account in the database, use {@link AccountsDbAdapter#getTransactionCount(long)}</p>
 	 * @return Number transactions in account
 	 */
 	public int getTransactionCount(){
 		return mTransactionsList.size();
 	}
 	
-	/**
-	 * Returns true if there is at least one transaction in the account
-	 * which has not yet been exported
-	 * @return <code>true</code> if there are unexported transactions, <code>false</code> otherwise.
-	 */
-	public boolean hasUnexportedTransactions(){
-		for (Transaction transaction : mTransactionsList) {
-			if (!transaction.isExported())
-				return true;			
-		}
-		return false;
-	}
-	
 	/**
 	 * Returns the aggregate of all transactions in this account.
 	 * It takes into account debit and credit amounts, it does not however consider sub-accounts
@@ -541,117 +528,4 @@ public class Account {
 			return OfxAccountType.CHECKING;
 		}
 	}
-	
-	/**
-	 * Converts this account's transactions into XML and adds them to the DOM document
-	 * @param doc XML DOM document for the OFX data
-	 * @param parent Parent node to which to add this account's transactions in XML
-	 */
-	public void toOfx(Document doc, Element parent, boolean exportAllTransactions){
-		Element currency = doc.createElement(OfxHelper.TAG_CURRENCY_DEF);
-		currency.appendChild(doc.createTextNode(mCurrency.getCurrencyCode()));						
-		
-		//================= BEGIN BANK ACCOUNT INFO (BANKACCTFROM) =================================
-		
-		Element bankId = doc.createElement(OfxHelper.TAG_BANK_ID);
-		bankId.appendChild(doc.createTextNode(OfxHelper.APP_ID));
-		
-		Element acctId = doc.createElement(OfxHelper.TAG_ACCOUNT_ID);
-		acctId.appendChild(doc.createTextNode(mUID));
-		
-		Element accttype = doc.createElement(OfxHelper.TAG_ACCOUNT_TYPE);
-		String ofxAccountType = convertToOfxAccountType(mAccountType).toString();
-		accttype.appendChild(doc.createTextNode(ofxAccountType));
-		
-		Element bankFrom = doc.createElement(OfxHelper.TAG_BANK_ACCOUNT_FROM);
-		bankFrom.appendChild(bankId);
-		bankFrom.appendChild(acctId);
-		bankFrom.appendChild(accttype);
-		
-		//================= END BANK ACCOUNT INFO ============================================
-		
-		
-		//================= BEGIN ACCOUNT BALANCE INFO =================================
-		String balance = getBalance().toPlainString();
-		String formattedCurrentTimeString = OfxHelper.getFormattedCurrentTime();
-		
-		Element balanceAmount = doc.createElement(OfxHelper.TAG_BALANCE_AMOUNT);
-		balanceAmount.appendChild(doc.createTextNode(balance));			
-		Element dtasof = doc.createElement(OfxHelper.TAG_DATE_AS_OF);
-		dtasof.appendChild(doc.createTextNode(formattedCurrentTimeString));
-		
-		Element ledgerBalance = doc.createElement(OfxHelper.TAG_LEDGER_BALANCE);
-		ledgerBalance.appendChild(balanceAmount);
-		ledgerBalance.appendChild(dtasof);
-		
-		//================= END ACCOUNT BALANCE INFO =================================
-		
-		
-		//================= BEGIN TIME PERIOD INFO =================================
-		
-		Element dtstart = doc.createElement(OfxHelper.TAG_DATE_START);
-		dtstart.appendChild(doc.createTextNode(formattedCurrentTimeString));
-		
-		Element dtend = doc.createElement(OfxHelper.TAG_DATE_END);
-		dtend.appendChild(doc.createTextNode(formattedCurrentTimeString));
-		
-		//================= END TIME PERIOD INFO =================================
-		
-		
-		//================= BEGIN TRANSACTIONS LIST =================================
-		Element bankTransactionsList = doc.createElement(OfxHelper.TAG_BANK_TRANSACTION_LIST);
-		bankTransactionsList.appendChild(dtstart);
-		bankTransactionsList.appendChild(dtend);
-		
-		for (Transaction transaction : mTransactionsList) {
-			if (!exportAllTransactions && transaction.isExported())
-				continue;
-			
-			bankTransactionsList.appendChild(transaction.toOfx(doc, mUID));
-		}		
-		//================= END TRANSACTIONS LIST =================================
-					
-		Element statementTransactions = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTIONS);
-		statementTransactions.appendChild(currency);
-		statementTransactions.appendChild(bankFrom);
-		statementTransactions.appendChild(bankTransactionsList);
-		statementTransactions.appendChild(ledgerBalance);
-		
-		parent.appendChild(statementTransactions);
-				
-	}
-
-    /**
-     * Exports the account info and transactions in the QIF format
-     * @param exportAllTransactions Flag to determine whether to export all transactions, or only new transactions since last export
-     * @return QIF representation of the account information
-     */
-    public String toQIF(boolean exportAllTransactions) {
-        StringBuffer accountQifBuffer = new StringBuffer();
-        final String newLine = "\n";
-
-        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(GnuCashApplication.getAppContext());
-        String fullyQualifiedAccountName = accountsDbAdapter.getFullyQualifiedAccountName(mUID);
-        accountsDbAdapter.close();
-
-        accountQifBuffer.append(QifHelper.ACCOUNT_HEADER).append(newLine);
-        accountQifBuffer.append(QifHelper.ACCOUNT_NAME_PREFIX).append(fullyQualifiedAccountName).append(newLine);
-        accountQifBuffer.append(QifHelper.ENTRY_TERMINATOR).append(newLine);
-
-        String header = QifHelper.getQifHeader(mAccountType);
-        accountQifBuffer.append(header + newLine);
-
-        for (Transaction transaction : mTransactionsList) {
-            //ignore those which are loaded as double transactions.
-            // They will be handled as splits
-            if (!transaction.getAccountUID().equals(mUID))
-                continue;
-
-            if (!exportAllTransactions && transaction.isExported())
-                continue;
-
-            accountQifBuffer.append(transaction.toQIF() + newLine);
-        }
-        return accountQifBuffer.toString();
-    }
 }
@@ -22,14 +22,6 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.UUID;
 
-import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.model.Account.OfxAccountType;
-import org.gnucash.android.db.AccountsDbAdapter;
-import org.gnucash.android.export.ofx.OfxHelper;
-import org.gnucash.android.export.qif.QifHelper;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
 import android.content.Intent;
 
 /**
@@ -104,12 +96,6 @@ public class Transaction {
 	 */
 	private String mDoubleEntryAccountUID = null;
 	
-	/**
-	 * Flag indicating if this transaction has been exported before or not
-	 * The transactions are typically exported as bank statement in the OFX format
-	 */
-	private int mIsExported = 0;
-	
 	/**
 	 * Timestamp when this transaction occurred
 	 */
@@ -182,7 +168,6 @@ public class Transaction {
         setTransactionType(transaction.getTransactionType());
         setAccountUID(transaction.getAccountUID());
         setDoubleEntryAccountUID(transaction.getDoubleEntryAccountUID());
-        setExported(transaction.isExported());
         setTime(transaction.getTimeMillis());
         if (!generateNewUID){
             setUID(transaction.getUID());
@@ -196,9 +181,19 @@ public class Transaction {
 		setAmount(new Money());
 		this.mTimestamp = System.currentTimeMillis();
 		this.mType = TransactionType.DEBIT;
-		mTransactionUID = UUID.randomUUID().toString();
+		mTransactionUID = generateUID();
 		
 	}
+
+    /**
+     * Generates a new unique ID for a transaction.
+     * <p>The ID is a random UUID in the 32 character hexadecimal form which is also used by GnuCash desktop,
+     * i.e. without the dashes of {@link UUID#toString()}</p>
+     * @return Unique ID string
+     */
+    private static String generateUID(){
+        return UUID.randomUUID().toString().replace("-", "");
+    }
 	
 	/**
 	 * Set the amount of this transaction
@@ -346,7 +341,7 @@ public class Transaction {
      * Resets the UID of this transaction to a newly generated one
      */
     public void resetUID(){
-        this.mTransactionUID = UUID.randomUUID().toString();
+        this.mTransactionUID = generateUID();
     }
 	/**
 	 * Returns unique ID string for transaction
@@ -396,22 +391,6 @@ public class Transaction {
 		return mAccountUID;
 	}
 	
-	/**
-	 * Sets the exported flag on the transaction
-	 * @param isExported <code>true</code> if the transaction has been exported, <code>false</code> otherwise
-	 */
-	public void setExported(boolean isExported){
-		mIsExported = isExported ? 1 : 0;
-	}
-	
-	/**
-	 * Returns <code>true</code> if the transaction has been exported, <code>false</code> otherwise
-	 * @return <code>true</code> if the transaction has been exported, <code>false</code> otherwise
-	 */
-	public boolean isExported(){
-		return mIsExported == 1;
-	}
-	
 	/**
 	 * Set the account UID of the account to which this transaction belongs
 	 * @param accountUID the UID of the account which owns this transaction
@@ -436,104 +415,6 @@ public class Transaction {
         this.mRecurrencePeriod = recurrenceId;
     }
 
-    /**
-	 * Converts transaction to XML DOM corresponding to OFX Statement transaction and 
-	 * returns the element node for the transaction.
-	 * The Unique ID of the account is needed in order to properly export double entry transactions
-	 * @param doc XML document to which transaction should be added
-	 * @param accountUID Unique Identifier of the account which called the method.
-	 * @return Element in DOM corresponding to transaction
-	 */
-	public Element toOfx(Document doc, String accountUID){		
-		Element transactionNode = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTION);
-		Element type = doc.createElement(OfxHelper.TAG_TRANSACTION_TYPE);
-		type.appendChild(doc.createTextNode(mType.toString()));
-		transactionNode.appendChild(type);
-
-		Element datePosted = doc.createElement(OfxHelper.TAG_DATE_POSTED);
-		datePosted.appendChild(doc.createTextNode(OfxHelper.getOfxFormattedTime(mTimestamp)));
-		transactionNode.appendChild(datePosted);
-		
-		Element dateUser = doc.createElement(OfxHelper.TAG_DATE_USER);
-		dateUser.appendChild(doc.createTextNode(
-				OfxHelper.getOfxFormattedTime(mTimestamp)));
-		transactionNode.appendChild(dateUser);
-		
-		Element amount = doc.createElement(OfxHelper.TAG_TRANSACTION_AMOUNT);
-		amount.appendChild(doc.createTextNode(mAmount.toPlainString()));
-		transactionNode.appendChild(amount);
-		
-		Element transID = doc.createElement(OfxHelper.TAG_TRANSACTION_FITID);
-		transID.appendChild(doc.createTextNode(mTransactionUID));
-		transactionNode.appendChild(transID);
-		
-		Element name = doc.createElement(OfxHelper.TAG_NAME);
-		name.appendChild(doc.createTextNode(mName));
-		transactionNode.appendChild(name);
-		
-		if (mDescription != null && mDescription.length() > 0){
-			Element memo = doc.createElement(OfxHelper.TAG_MEMO);
-			memo.appendChild(doc.createTextNode(mDescription));
-			transactionNode.appendChild(memo);
-		}
-		
-		if (mDoubleEntryAccountUID != null && mDoubleEntryAccountUID.length() > 0){
-			Element bankId = doc.createElement(OfxHelper.TAG_BANK_ID);
-			bankId.appendChild(doc.createTextNode(OfxHelper.APP_ID));
-			
-			//select the proper account as the double account
-			String doubleAccountUID = mDoubleEntryAccountUID.equals(accountUID) ? mAccountUID : mDoubleEntryAccountUID;
-			
-			Element acctId = doc.createElement(OfxHelper.TAG_ACCOUNT_ID);
-			acctId.appendChild(doc.createTextNode(doubleAccountUID));
-			
-			Element accttype = doc.createElement(OfxHelper.TAG_ACCOUNT_TYPE);
-			AccountsDbAdapter acctDbAdapter = new AccountsDbAdapter(GnuCashApplication.getAppContext());
-			OfxAccountType ofxAccountType = Account.convertToOfxAccountType(acctDbAdapter.getAccountType(doubleAccountUID));
-			accttype.appendChild(doc.createTextNode(ofxAccountType.toString()));
-			acctDbAdapter.close();
-			
-			Element bankAccountTo = doc.createElement(OfxHelper.TAG_BANK_ACCOUNT_TO);
-			bankAccountTo.appendChild(bankId);
-			bankAccountTo.appendChild(acctId);
-			bankAccountTo.appendChild(accttype);
-			
-			transactionNode.appendChild(bankAccountTo);
-		}
-		
-		return transactionNode;
-	}
-
-    /**
-     * Builds a QIF entry representing this transaction
-     * @return String QIF representation of this transaction
-     */
-    public String toQIF(){
-        final String newLine = "\n";
-
-        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(GnuCashApplication.getAppContext());
-
-        //all transactions are double transactions
-        String splitAccountFullName = QifHelper.getImbalanceAccountName(mAmount.getCurrency());
-        if (mDoubleEntryAccountUID != null && mDoubleEntryAccountUID.length() > 0){
-            splitAccountFullName = accountsDbAdapter.getFullyQualifiedAccountName(mDoubleEntryAccountUID);
-        }
-
-        StringBuilder transactionQifBuffer = new StringBuilder();
-        transactionQifBuffer.append(QifHelper.DATE_PREFIX).append(QifHelper.formatDate(mTimestamp)).append(newLine);
-        transactionQifBuffer.append(QifHelper.MEMO_PREFIX).append(mName).append(newLine);
-
-        transactionQifBuffer.append(QifHelper.SPLIT_CATEGORY_PREFIX).append(splitAccountFullName).append(newLine);
-        if (mDescription != null && mDescription.length() > 0){
-            transactionQifBuffer.append(QifHelper.SPLIT_MEMO_PREFIX).append(mDescription).append(newLine);
-        }
-        transactionQifBuffer.append(QifHelper.SPLIT_AMOUNT_PREFIX).append(mAmount.asString()).append(newLine);
-        transactionQifBuffer.append(QifHelper.ENTRY_TERMINATOR).append(newLine);
-
-        accountsDbAdapter.close();
-        return transactionQifBuffer.toString();
-    }
-
     /**
      * Creates an Intent with arguments from the <code>transaction</code>.
      * This intent can be broadcast to create a new transaction
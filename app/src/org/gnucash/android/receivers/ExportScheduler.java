@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.receivers;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import org.gnucash.android.R;
+import org.gnucash.android.export.ScheduledExportService;
+
+import java.util.Calendar;
+
+/**
+ * Schedules the background exports with the {@link AlarmManager}.
+ * <p>The alarms wake up the device at night, daily or weekly as set in the preferences, and are delivered
+ * to this receiver. It starts the {@link ScheduledExportService} while holding a wake lock, which the service
+ * releases when the export has finished, so the device cannot fall asleep before or during the export.
+ * Alarms do not survive a reboot, so the receiver schedules them again when the device has booted</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class ExportScheduler extends BroadcastReceiver {
+    /**
+     * Hour of the day at which scheduled exports run
+     */
+    private static final int EXPORT_HOUR_OF_DAY = 3;
+
+    /**
+     * Action of the alarms which run the scheduled exports
+     */
+    public static final String ACTION_RUN_SCHEDULED_EXPORT = "org.gnucash.android.action.RUN_SCHEDULED_EXPORT";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (ACTION_RUN_SCHEDULED_EXPORT.equals(intent.getAction())){
+            ScheduledExportService.startWakeful(context);
+            return;
+        }
+        Log.i("ExportScheduler", "Received boot completed intent, scheduling exports");
+        schedule(context);
+    }
+
+    /**
+     * Schedules the background exports as set in the preferences, or cancels them if they are disabled.
+     * Replaces any previously scheduled export
+     * @param context Application context
+     */
+    public static void schedule(Context context){
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, ExportScheduler.class).setAction(ACTION_RUN_SCHEDULED_EXPORT);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        if (!sharedPreferences.getBoolean(context.getString(R.string.key_scheduled_export), false)){
+            alarmManager.cancel(pendingIntent);
+            pendingIntent.cancel();
+            return;
+        }
+
+        long interval = Long.parseLong(sharedPreferences.getString(
+                context.getString(R.string.key_scheduled_export_interval), Long.toString(AlarmManager.INTERVAL_DAY)));
+
+        Calendar nextRun = Calendar.getInstance();
+        nextRun.set(Calendar.HOUR_OF_DAY, EXPORT_HOUR_OF_DAY);
+        nextRun.set(Calendar.MINUTE, 0);
+        nextRun.set(Calendar.SECOND, 0);
+        nextRun.set(Calendar.MILLISECOND, 0);
+        if (nextRun.getTimeInMillis() <= System.currentTimeMillis())
+            nextRun.add(Calendar.DAY_OF_MONTH, 1);
+
+        //inexact alarms are batched with other wake ups, the exact time does not matter
+        alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, nextRun.getTimeInMillis(), interval, pendingIntent);
+    }
+}
@@ -26,6 +26,7 @@ import android.database.Cursor;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.view.LayoutInflater;
@@ -543,12 +544,10 @@ public class AccountFormFragment extends SherlockFragment {
                 + getAllowedParentAccountTypes(accountType) + ") ";
 
         if (mAccount != null){  //if editing an account
-            // limit cyclic account hierarchies. Still technically possible since we don't forbid descendant accounts
-            condition += " AND (" + DatabaseHelper.KEY_PARENT_ACCOUNT_UID + " IS NULL "
-                    + " OR " + DatabaseHelper.KEY_PARENT_ACCOUNT_UID + " != '" + mAccount.getUID() + "')"
-                    + " AND " + DatabaseHelper.KEY_ROW_ID + " != " + mSelectedAccountId;
-
-            //TODO: Limit all descendants of the account to eliminate the possibility of cyclic hierarchy
+            // exclude the account and all its descendants to prevent cyclic account hierarchies
+            List<Long> subtreeIds = mAccountsDbAdapter.getAccountTree().getSubtreeIds(mSelectedAccountId);
+            subtreeIds.add(mSelectedAccountId); //in case the account is not yet in the tree
+            condition += " AND " + DatabaseHelper.KEY_ROW_ID + " NOT IN (" + TextUtils.join(",", subtreeIds) + ")";
         }
 
         //if we are reloading the list, close the previous cursor first
@@ -47,6 +47,8 @@ import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.viewpagerindicator.TitlePageIndicator;
 import org.gnucash.android.R;
+import org.gnucash.android.export.ofx.OfxImporter;
+import org.gnucash.android.export.qif.QifImporter;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.ui.util.Refreshable;
 import org.gnucash.android.ui.UxArgument;
@@ -555,6 +557,11 @@ public class AccountsActivity extends SherlockFragmentActivity implements OnAcco
         private final Context context;
         private ProgressDialog progressDialog;
 
+        /**
+         * Number of transactions which could not be imported
+         */
+        private int skippedTransactionCount = 0;
+
         public AccountImporterTask(Context context){
             this.context = context;
         }
@@ -572,7 +579,18 @@ public class AccountsActivity extends SherlockFragmentActivity implements OnAcco
         @Override
         protected Boolean doInBackground(InputStream... inputStreams) {
             try {
-                GnucashAccountXmlHandler.parse(context, inputStreams[0]);
+                InputStream inputStream = GnucashAccountXmlHandler.openBook(inputStreams[0]);
+                if (QifImporter.isQif(inputStream)){
+                    QifImporter qifImporter = new QifImporter(context);
+                    qifImporter.importQif(inputStream);
+                    skippedTransactionCount = qifImporter.getSkippedTransactionCount();
+                } else if (OfxImporter.isOfx(inputStream)){
+                    OfxImporter ofxImporter = new OfxImporter(context);
+                    ofxImporter.importOfx(inputStream);
+                    skippedTransactionCount = ofxImporter.getSkippedTransactionCount();
+                } else {
+                    skippedTransactionCount = GnucashAccountXmlHandler.parse(context, inputStream);
+                }
             } catch (Exception exception){
                 exception.printStackTrace();
                 return false;
@@ -586,6 +604,10 @@ public class AccountsActivity extends SherlockFragmentActivity implements OnAcco
 
             int message = importSuccess ? R.string.toast_success_importing_accounts : R.string.toast_error_importing_accounts;
             Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+            if (skippedTransactionCount > 0){
+                Toast.makeText(context, context.getString(R.string.toast_skipped_importing_transactions,
+                        skippedTransactionCount), Toast.LENGTH_LONG).show();
+            }
 
             AccountsActivity.start(context);
         }
@@ -298,8 +298,7 @@ public class AccountsListFragment extends SherlockListFragment implements
      * @param rowId The record ID of the account
      */
     public void tryDeleteAccount(long rowId) {
-        Account acc = mAccountsDbAdapter.getAccount(rowId);
-        if (acc.getTransactionCount() > 0 || mAccountsDbAdapter.getSubAccountCount(rowId) > 0) {
+        if (mAccountsDbAdapter.hasTransactions(rowId) || mAccountsDbAdapter.getSubAccountCount(rowId) > 0) {
             showConfirmationDialog(rowId);
         } else {
             deleteAccount(rowId, false);
@@ -634,7 +633,7 @@ public class AccountsListFragment extends SherlockListFragment implements
 
             if (mFilter != null){
                 cursor = ((AccountsDbAdapter)mDatabaseAdapter)
-                        .fetchAccounts(DatabaseHelper.KEY_NAME + " LIKE '%" + mFilter + "%'");
+                        .fetchAccountsForList(DatabaseHelper.KEY_NAME + " LIKE '%" + mFilter + "%'");
             } else {
                 if (mParentAccountId > 0)
                     cursor = ((AccountsDbAdapter) mDatabaseAdapter).fetchSubAccounts(mParentAccountId);
@@ -686,9 +685,11 @@ public class AccountsListFragment extends SherlockListFragment implements
             super.bindView(v, context, cursor);
 
             final long accountId = cursor.getLong(DatabaseAdapter.COLUMN_ROW_ID);
+            //structural information is answered from the shared account tree, not with queries per row
+            AccountTree accountTree = mAccountsDbAdapter.getAccountTree();
 
             TextView subAccountTextView = (TextView) v.findViewById(R.id.secondary_text);
-            int subAccountCount = mAccountsDbAdapter.getSubAccountCount(accountId);
+            int subAccountCount = accountTree.getChildCount(accountId);
             if (subAccountCount > 0) {
                 subAccountTextView.setVisibility(View.VISIBLE);
                 String text = getResources().getQuantityString(R.plurals.label_sub_accounts, subAccountCount, subAccountCount);
@@ -702,7 +703,7 @@ public class AccountsListFragment extends SherlockListFragment implements
             new AccountBalanceTask(accountBalanceTextView, getActivity()).execute(accountId);
 
             View colorStripView = v.findViewById(R.id.account_color_strip);
-            String accountColor = cursor.getString(DatabaseAdapter.COLUMN_COLOR_CODE);
+            String accountColor = cursor.getString(AccountsDbAdapter.ACCOUNT_LIST_COLUMN_COLOR_CODE);
             if (accountColor != null){
                 int color = Color.parseColor(accountColor);
                 colorStripView.setBackgroundColor(color);
@@ -710,7 +711,7 @@ public class AccountsListFragment extends SherlockListFragment implements
                 colorStripView.setBackgroundColor(Color.TRANSPARENT);
             }
 
-            boolean isPlaceholderAccount = mAccountsDbAdapter.isPlaceholderAccount(accountId);
+            boolean isPlaceholderAccount = accountTree.isPlaceholder(accountId);
             ImageButton newTransactionButton = (ImageButton) v.findViewById(R.id.btn_new_transaction);
             if (isPlaceholderAccount){
                 newTransactionButton.setVisibility(View.GONE);
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.ui.settings;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.res.TypedArray;
+import android.preference.DialogPreference;
+import android.util.AttributeSet;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Preference for selecting several values of a list, which are stored as a comma separated list.
+ * <p>The values and their names are set with <code>android:entryValues</code> and <code>android:entries</code>,
+ * as for a list preference. A list with a single value is also a valid value, so the preference can replace
+ * a list preference. The selected values are stored in the order of the entries, and at least one value
+ * has to be selected. The multiple choice list preference of the platform requires API level 11</p>
+ *
+ * @author Ngewi Fet <ngewif@gmail.com>
+ */
+public class MultipleChoicePreference extends DialogPreference {
+    /**
+     * Attributes read from the preference XML. They are sorted, as required by {@link Context#obtainStyledAttributes(AttributeSet, int[])}
+     */
+    private static final int[] ATTRIBUTES = new int[]{android.R.attr.entries, android.R.attr.entryValues};
+
+    private final CharSequence[] mEntries;
+    private final CharSequence[] mEntryValues;
+
+    /**
+     * Flags of the entries which are checked in the open dialog
+     */
+    private boolean[] mCheckedEntries;
+
+    public MultipleChoicePreference(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        TypedArray a = context.obtainStyledAttributes(attrs, ATTRIBUTES);
+        mEntries = a.getTextArray(0);
+        mEntryValues = a.getTextArray(1);
+        a.recycle();
+        if (mEntries == null || mEntryValues == null || mEntries.length != mEntryValues.length)
+            throw new IllegalArgumentException("Entries and entry values of the same length are required");
+    }
+
+    @Override
+    protected Object onGetDefaultValue(TypedArray a, int index) {
+        return a.getString(index);
+    }
+
+    @Override
+    protected void onSetInitialValue(boolean restorePersistedValue, Object defaultValue) {
+        if (!restorePersistedValue && defaultValue != null)
+            persistString((String) defaultValue);
+        updateSummary();
+    }
+
+    @Override
+    protected void onPrepareDialogBuilder(AlertDialog.Builder builder) {
+        List<String> selectedValues = getSelectedValues();
+        mCheckedEntries = new boolean[mEntryValues.length];
+        for (int i = 0; i < mEntryValues.length; i++) {
+            mCheckedEntries[i] = selectedValues.contains(mEntryValues[i].toString());
+        }
+        builder.setMultiChoiceItems(mEntries, mCheckedEntries,
+                new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                        mCheckedEntries[which] = isChecked;
+                    }
+                });
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (!positiveResult)
+            return;
+
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < mEntryValues.length; i++) {
+            if (mCheckedEntries[i])
+                values.append(values.length() == 0 ? "" : ",").append(mEntryValues[i]);
+        }
+        //at least one value has to be selected
+        if (values.length() > 0 && callChangeListener(values.toString())){
+            persistString(values.toString());
+            updateSummary();
+        }
+    }
+
+    /**
+     * Returns the selected values
+     * @return Values of the selected entries, as they are persisted
+     */
+    private List<String> getSelectedValues(){
+        return Arrays.asList(getPersistedString("").split(","));
+    }
+
+    /**
+     * Shows the names of the selected entries as the summary, if any are selected
+     */
+    private void updateSummary(){
+        List<String> selectedValues = getSelectedValues();
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < mEntryValues.length; i++) {
+            if (selectedValues.contains(mEntryValues[i].toString()))
+                summary.append(summary.length() == 0 ? "" : ", ").append(mEntries[i]);
+        }
+        if (summary.length() > 0)
+            setSummary(summary);
+    }
+}
@@ -391,7 +391,7 @@ public class ScheduledTransactionsListFragment extends SherlockListFragment impl
         public void bindView(View view, Context context, Cursor cursor) {
             super.bindView(view, context, cursor);
             AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(getActivity());
-            long accountID = accountsDbAdapter.getAccountID(cursor.getString(DatabaseAdapter.COLUMN_ACCOUNT_UID));
+            long accountID = cursor.getLong(DatabaseAdapter.COLUMN_ACCOUNT_ID);
 
             Money amount = new Money(
                     cursor.getString(DatabaseAdapter.COLUMN_AMOUNT),
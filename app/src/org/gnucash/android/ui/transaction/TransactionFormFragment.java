@@ -296,7 +296,6 @@ public class TransactionFormFragment extends SherlockFragment implements
             public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
                 mTransaction = mTransactionsDbAdapter.getTransaction(id);
                 mTransaction.setUID(UUID.randomUUID().toString());
-                mTransaction.setExported(false);
                 mTransaction.setTime(System.currentTimeMillis());
                 long accountId = ((TransactionsActivity)getSherlockActivity()).getCurrentAccountID();
                 mTransaction.setAccountUID(mTransactionsDbAdapter.getAccountUID(accountId));
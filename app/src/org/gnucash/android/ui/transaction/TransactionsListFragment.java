@@ -81,6 +81,11 @@ public class TransactionsListFragment extends SherlockListFragment implements
 	private boolean mInEditMode = false;
 	private long mAccountID;
 
+	/**
+	 * Currency code of the account whose transactions are displayed
+	 */
+	private String mCurrencyCode;
+
 	/**
 	 * Callback listener for editing transactions
 	 */
@@ -254,6 +259,8 @@ public class TransactionsListFragment extends SherlockListFragment implements
 	@Override
 	public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
 		Log.d(LOG_TAG, "Transactions loader finished. Swapping in cursor");
+		//all transactions in the list are displayed in the currency of the account
+		mCurrencyCode = mTransactionsDbAdapter.getCurrencyCode(mAccountID);
 		mCursorAdapter.swapCursor(cursor);
 		mCursorAdapter.notifyDataSetChanged();		
 	}
@@ -416,18 +423,17 @@ public class TransactionsListFragment extends SherlockListFragment implements
 			super.bindView(view, context, cursor);			
 			
 			Money amount = new Money(
-					cursor.getString(DatabaseAdapter.COLUMN_AMOUNT), 
-					mTransactionsDbAdapter.getCurrencyCode(mAccountID));
+					cursor.getString(TransactionsDbAdapter.TRANSACTION_LIST_COLUMN_AMOUNT),
+					mCurrencyCode);
 
             //FIXME: Take normal account balances into consideration for double entries
 //            String mainAccountUID = cursor.getString(DatabaseAdapter.COLUMN_ACCOUNT_UID);
 //            Account.AccountType mainAccountType = mTransactionsDbAdapter.getAccountType(mainAccountUID);
 
 			//negate any transactions if this account is the origin in double entry
-			String transferAccountUID = cursor.getString(DatabaseAdapter.COLUMN_DOUBLE_ENTRY_ACCOUNT_UID);
+			long transferAccountId = cursor.getLong(TransactionsDbAdapter.TRANSACTION_LIST_COLUMN_DOUBLE_ENTRY_ACCOUNT_ID);
 
-			if (transferAccountUID != null
-					&& mTransactionsDbAdapter.isSameAccount(mAccountID, transferAccountUID)){
+			if (transferAccountId == mAccountID){
 //                Account.AccountType transferAccountType = mTransactionsDbAdapter.getAccountType(transferAccountUID);
 //
 //                if (mainAccountType.getNormalBalanceType() == transferAccountType.getNormalBalanceType())
@@ -443,7 +449,7 @@ public class TransactionsListFragment extends SherlockListFragment implements
 				tramount.setTextColor(getResources().getColor(R.color.credit_green));
 			
 			TextView trNote = (TextView) view.findViewById(R.id.secondary_text);
-			String description = cursor.getString(DatabaseAdapter.COLUMN_DESCRIPTION);
+			String description = cursor.getString(TransactionsDbAdapter.TRANSACTION_LIST_COLUMN_DESCRIPTION);
 			if (description == null || description.length() == 0)
 				trNote.setVisibility(View.GONE);
 			else {
@@ -462,7 +468,7 @@ public class TransactionsListFragment extends SherlockListFragment implements
          * @see #isSameDay(long, long)
          */
         private void setSectionHeaderVisibility(View view, Cursor cursor) {
-            long transactionTime = cursor.getLong(DatabaseAdapter.COLUMN_TIMESTAMP);
+            long transactionTime = cursor.getLong(TransactionsDbAdapter.TRANSACTION_LIST_COLUMN_TIMESTAMP);
             int position = cursor.getPosition();
 
             boolean hasSectionHeader;
@@ -470,7 +476,7 @@ public class TransactionsListFragment extends SherlockListFragment implements
                 hasSectionHeader = true;
             } else {
                 cursor.moveToPosition(position - 1);
-                long previousTimestamp = cursor.getLong(DatabaseAdapter.COLUMN_TIMESTAMP);
+                long previousTimestamp = cursor.getLong(TransactionsDbAdapter.TRANSACTION_LIST_COLUMN_TIMESTAMP);
                 cursor.moveToPosition(position);
                 //has header if two consecutive transactions were not on same day
                 hasSectionHeader = !isSameDay(previousTimestamp, transactionTime);
@@ -518,7 +524,7 @@ public class TransactionsListFragment extends SherlockListFragment implements
 		@Override
 		public Cursor loadInBackground() {
 			mDatabaseAdapter = new TransactionsDbAdapter(getContext());
-			Cursor c = ((TransactionsDbAdapter) mDatabaseAdapter).fetchAllTransactionsForAccount(accountID);
+			Cursor c = ((TransactionsDbAdapter) mDatabaseAdapter).fetchTransactionsForList(accountID);
 			if (c != null)
 				registerContentObserver(c);
 			return c;
@@ -20,8 +20,12 @@ import android.content.Context;
 import android.util.Log;
 import android.widget.Toast;
 import org.gnucash.android.R;
+import org.gnucash.android.db.BatchInserter;
+import org.gnucash.android.export.xml.GncXmlHelper;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Transaction;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -31,12 +35,24 @@ import org.xml.sax.helpers.DefaultHandler;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
+import java.math.BigDecimal;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
 import java.util.regex.Pattern;
 
 /**
- * Handler for parsing the GnuCash accounts structure file.
- * The discovered accounts are automatically added to the database
+ * Handler for parsing the GnuCash accounts structure file or a complete GnuCash book.
+ * The discovered accounts and transactions are automatically added to the database.
+ * <p>All records of a file are saved in one database transaction, which is only committed
+ * when the end of the document is reached. The full account names are computed after all accounts are known</p>
+ * <p>Transactions are streamed into the database as they are parsed, only the account types and currencies are kept
+ * in memory. Transactions with one or two splits are mapped to an account and a double entry account, with the quantity
+ * of the first split, which is the amount in the currency of its account. Transactions with more splits, in a commodity
+ * which is not a currency, or between accounts with different currencies cannot be represented and are skipped.
+ * The number of skipped transactions is returned by {@link #parse(Context, InputStream)}</p>
+ * <p>The imported transactions are already in the book they come from, so they are recorded as exported
+ * with every export profile which was up to date before the import</p>
  *
  * @author Ngewi Fet <ngewif@gmail.com>
  */
@@ -55,6 +71,20 @@ public class GnucashAccountXmlHandler extends DefaultHandler {
     public static final String TAG_SLOT_KEY         = "slot:key";
     public static final String TAG_SLOT_VALUE       = "slot:value";
 
+    /*
+     * GnuCash book qualified tag names of transactions
+     */
+    public static final String TAG_TRANSACTION          = "gnc:transaction";
+    public static final String TAG_TRANSACTION_UID      = "trn:id";
+    public static final String TAG_TRANSACTION_DESCRIPTION = "trn:description";
+    public static final String TAG_DATE_POSTED          = "trn:date-posted";
+    public static final String TAG_DATE                 = "ts:date";
+    public static final String TAG_SPLIT                = "trn:split";
+    public static final String TAG_SPLIT_VALUE          = "split:value";
+    public static final String TAG_SPLIT_QUANTITY       = "split:quantity";
+    public static final String TAG_SPLIT_ACCOUNT        = "split:account";
+    public static final String TAG_TEMPLATE_TRANSACTIONS = "gnc:template-transactions";
+
     /**
      * ISO 4217 currency code for "No Currency"
      */
@@ -75,8 +105,29 @@ public class GnucashAccountXmlHandler extends DefaultHandler {
      */
     private static final String COLOR_KEY = "color";
 
+    /**
+     * Maximum number of splits of transactions which can be imported
+     */
+    private static final int MAX_SPLITS = 2;
+
+    /**
+     * Size of the buffers for reading and decompressing the file
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * First two bytes of gzip compressed files
+     */
+    private static final int GZIP_MAGIC_0 = 0x1f;
+    private static final int GZIP_MAGIC_1 = 0x8b;
+
     AccountsDbAdapter mDatabaseAdapter;
 
+    /**
+     * Inserter to which the accounts and transactions are added while parsing
+     */
+    BatchInserter mInserter;
+
     /**
      * StringBuilder for accumulating characters between XML tags
      */
@@ -91,23 +142,122 @@ public class GnucashAccountXmlHandler extends DefaultHandler {
     boolean mInPlaceHolderSlot  = false;
     boolean mISO4217Currency    = false;
 
+    /**
+     * Types of the parsed accounts by unique ID, needed to determine the type of their transactions
+     */
+    HashMap<String, Account.AccountType> mAccountTypes = new HashMap<String, Account.AccountType>();
+
+    /**
+     * Currency codes of the parsed accounts by unique ID. Split quantities are amounts in these currencies
+     */
+    HashMap<String, String> mAccountCurrencyCodes = new HashMap<String, String>();
+
+    /**
+     * Set while parsing the templates of scheduled transactions, which are not imported
+     */
+    boolean mInTemplates        = false;
+
+    /*
+     * Attributes of the transaction which is currently parsed
+     */
+    boolean mInTransaction      = false;
+    boolean mInDatePosted       = false;
+    boolean mInNotesSlot        = false;
+    String mTransactionUID;
+    String mTransactionName;
+    String mTransactionNotes;
+    String mTransactionCurrencyCode;
+    long mTransactionTime;
+
+    /**
+     * Number of splits of the current transaction. Only the first {@link #MAX_SPLITS} splits are kept
+     */
+    int mSplitCount;
+    BigDecimal[] mSplitQuantities = new BigDecimal[MAX_SPLITS];
+    String[] mSplitAccountUIDs  = new String[MAX_SPLITS];
+
+    /**
+     * Number of transactions which could not be imported
+     */
+    int mSkippedTransactionCount = 0;
+
     public GnucashAccountXmlHandler(Context context) {
         mDatabaseAdapter = new AccountsDbAdapter(context);
         mContent = new StringBuilder();
     }
 
+    @Override
+    public void startDocument() throws SAXException {
+        mInserter = mDatabaseAdapter.beginBatchInsert();
+        mInserter.markExported();
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        int accountCount = mInserter.getAccountCount();
+        int transactionCount = mInserter.getTransactionCount();
+        mInserter.commit();
+        Log.i(LOG_TAG, "Imported " + accountCount + " accounts and " + transactionCount + " transactions, skipped "
+                + mSkippedTransactionCount + " transactions");
+    }
+
+    /**
+     * Discards the records if the document was not parsed completely, and closes the database
+     */
+    void close(){
+        if (mInserter != null)
+            mInserter.close();
+        mDatabaseAdapter.close();
+    }
+
     @Override
     public void startElement(String uri, String localName,
                              String qualifiedName, Attributes attributes) throws SAXException {
+        if (qualifiedName.equalsIgnoreCase(TAG_TEMPLATE_TRANSACTIONS)){
+            mInTemplates = true;
+        }
+        if (mInTemplates)
+            return;
+
         if (qualifiedName.equalsIgnoreCase(TAG_ACCOUNT)) {
             mAccount = new Account("new"); //dummy name, will be replaced when we find name tag
         }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_TRANSACTION)){
+            mInTransaction = true;
+            mTransactionUID = null;
+            mTransactionName = "";
+            mTransactionNotes = null;
+            mTransactionCurrencyCode = null;
+            mTransactionTime = 0;
+            mSplitCount = 0;
+            for (int i = 0; i < MAX_SPLITS; i++) {
+                mSplitQuantities[i] = null;
+                mSplitAccountUIDs[i] = null;
+            }
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_DATE_POSTED)){
+            mInDatePosted = true;
+        }
     }
 
     @Override
     public void endElement(String uri, String localName, String qualifiedName) throws SAXException {
         String characterString = mContent.toString().trim();
 
+        if (mInTemplates){
+            mInTemplates = !qualifiedName.equalsIgnoreCase(TAG_TEMPLATE_TRANSACTIONS);
+            mContent.setLength(0);
+            return;
+        }
+
+        if (mInTransaction){
+            endTransactionElement(qualifiedName, characterString);
+            mContent.setLength(0);
+            return;
+        }
+
         if (qualifiedName.equalsIgnoreCase(TAG_NAME)) {
             mAccount.setName(characterString);
         }
@@ -138,8 +288,11 @@ public class GnucashAccountXmlHandler extends DefaultHandler {
         }
 
         if (qualifiedName.equalsIgnoreCase(TAG_ACCOUNT)){
-            Log.d(LOG_TAG, "Saving account...");
-            mDatabaseAdapter.addAccount(mAccount);
+            mInserter.addAccount(mAccount);
+            mAccountTypes.put(mAccount.getUID(), mAccount.getAccountType());
+            mAccountCurrencyCodes.put(mAccount.getUID(), mAccount.getCurrency().getCurrencyCode());
+            //the account belongs to the inserter now
+            mAccount = null;
 
             //reset ISO 4217 flag for next account
             mISO4217Currency = false;
@@ -154,7 +307,7 @@ public class GnucashAccountXmlHandler extends DefaultHandler {
             }
         }
 
-        if (qualifiedName.equalsIgnoreCase(TAG_SLOT_VALUE)){
+        if (qualifiedName.equalsIgnoreCase(TAG_SLOT_VALUE) && mAccount != null){
             if (mInPlaceHolderSlot){
                 if (characterString.equals("true")){
                     Log.d(LOG_TAG, "Setting account placeholder flag");
@@ -184,28 +337,181 @@ public class GnucashAccountXmlHandler extends DefaultHandler {
         mContent.setLength(0);
     }
 
+    /**
+     * Handles the end of an element inside a <code>gnc:transaction</code>
+     * @param qualifiedName Qualified name of the element
+     * @param characterString Trimmed text content of the element
+     * @throws SAXException if the date or a split quantity is invalid
+     */
+    private void endTransactionElement(String qualifiedName, String characterString) throws SAXException {
+        if (qualifiedName.equalsIgnoreCase(TAG_TRANSACTION_UID)){
+            mTransactionUID = characterString;
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_TRANSACTION_DESCRIPTION)){
+            mTransactionName = characterString;
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_COMMODITY_SPACE)){
+            mISO4217Currency = characterString.equalsIgnoreCase(GncXmlHelper.COMMODITY_SPACE_ISO4217);
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_CURRENCY)){
+            mTransactionCurrencyCode = mISO4217Currency ? characterString : null;
+            mISO4217Currency = false;
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_DATE) && mInDatePosted){
+            try {
+                mTransactionTime = GncXmlHelper.parseDate(characterString);
+            } catch (java.text.ParseException e) {
+                throw new SAXException("Invalid date of transaction " + mTransactionUID + ": " + characterString, e);
+            }
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_DATE_POSTED)){
+            mInDatePosted = false;
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_SLOT_KEY)){
+            mInNotesSlot = characterString.equals(GncXmlHelper.KEY_NOTES);
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_SLOT_VALUE) && mInNotesSlot){
+            mTransactionNotes = characterString;
+            mInNotesSlot = false;
+        }
+
+        //the value is in the currency of the transaction, the quantity in the currency of the account
+        if (qualifiedName.equalsIgnoreCase(TAG_SPLIT_QUANTITY) && mSplitCount < MAX_SPLITS){
+            try {
+                mSplitQuantities[mSplitCount] = GncXmlHelper.parseAmount(characterString);
+            } catch (NumberFormatException e) {
+                throw new SAXException("Invalid split quantity in transaction " + mTransactionUID + ": " + characterString, e);
+            }
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_SPLIT_ACCOUNT) && mSplitCount < MAX_SPLITS){
+            mSplitAccountUIDs[mSplitCount] = characterString;
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_SPLIT)){
+            mSplitCount++;
+        }
+
+        if (qualifiedName.equalsIgnoreCase(TAG_TRANSACTION)){
+            mInTransaction = false;
+            saveTransaction();
+        }
+    }
+
+    /**
+     * Adds the transaction which was parsed last to the inserter, if it can be represented
+     */
+    private void saveTransaction(){
+        if (mSplitCount == 0)
+            return;
+
+        String accountUID = mSplitAccountUIDs[0];
+        String currencyCode = getAccountCurrencyCode(accountUID);
+        //a transfer has a single amount, so both accounts must have the same currency
+        boolean isSameCurrency = mSplitCount < MAX_SPLITS
+                || (currencyCode != null && currencyCode.equals(getAccountCurrencyCode(mSplitAccountUIDs[1])));
+        if (mSplitCount > MAX_SPLITS || mTransactionCurrencyCode == null || mSplitQuantities[0] == null
+                || currencyCode == null || NO_CURRENCY_CODE.equals(currencyCode) || !isSameCurrency){
+            Log.w(LOG_TAG, "Skipping transaction " + mTransactionUID + " with " + mSplitCount + " splits in "
+                    + mTransactionCurrencyCode + " of account in " + currencyCode);
+            mSkippedTransactionCount++;
+            return;
+        }
+
+        Money amount = new Money(mSplitQuantities[0], Currency.getInstance(currencyCode));
+        Account.AccountType accountType = mAccountTypes.get(accountUID);
+        boolean hasDebitNormalBalance = accountType == null || accountType.hasDebitNormalBalance();
+        //same mapping as for transactions entered in the app
+        Transaction.TransactionType type = amount.isNegative() == hasDebitNormalBalance
+                ? Transaction.TransactionType.CREDIT : Transaction.TransactionType.DEBIT;
+
+        Transaction transaction = new Transaction(amount, mTransactionName, type);
+        if (mTransactionUID != null)
+            transaction.setUID(mTransactionUID);
+        transaction.setAccountUID(accountUID);
+        if (mSplitCount == MAX_SPLITS)
+            transaction.setDoubleEntryAccountUID(mSplitAccountUIDs[1]);
+        transaction.setTime(mTransactionTime);
+        transaction.setDescription(mTransactionNotes);
+        mInserter.addTransaction(transaction);
+    }
+
+    /**
+     * Returns the currency code of an account in the imported file, or of an existing account
+     * @param accountUID Unique ID of the account
+     * @return ISO 4217 currency code, or <code>null</code> if the account is unknown
+     */
+    private String getAccountCurrencyCode(String accountUID){
+        if (accountUID == null)
+            return null;
+        String currencyCode = mAccountCurrencyCodes.get(accountUID);
+        if (currencyCode == null)
+            currencyCode = mDatabaseAdapter.getCurrencyCode(accountUID);
+        return currencyCode;
+    }
+
     @Override
     public void characters(char[] chars, int start, int length) throws SAXException {
         mContent.append(chars, start, length);
     }
 
-    public static void parse(Context context, InputStream accountsInputStream){
+    /**
+     * Returns a buffered stream of the XML of a GnuCash file.
+     * <p>GnuCash saves books gzip compressed by default. Compressed files are recognized by their first bytes
+     * and decompressed while they are read, so the uncompressed book is never held in memory or written to storage</p>
+     * @param inputStream Input stream of a plain or gzip compressed GnuCash XML file
+     * @return Input stream of the uncompressed XML
+     * @throws IOException if the start of the file could not be read
+     */
+    public static InputStream openBook(InputStream inputStream) throws IOException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+        bufferedInputStream.mark(2);
+        int magic0 = bufferedInputStream.read();
+        int magic1 = bufferedInputStream.read();
+        bufferedInputStream.reset();
+        if (magic0 == GZIP_MAGIC_0 && magic1 == GZIP_MAGIC_1){
+            Log.d(LOG_TAG, "Decompressing gzip compressed book");
+            return new BufferedInputStream(new GZIPInputStream(bufferedInputStream, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return bufferedInputStream;
+    }
+
+    /**
+     * Imports the accounts and transactions in a GnuCash XML file
+     * @param context Application context
+     * @param accountsInputStream Input stream of the XML file, which may be gzip compressed
+     * @return Number of transactions which were skipped because they could not be represented,
+     * e.g. because they have more than two splits
+     */
+    public static int parse(Context context, InputStream accountsInputStream){
         try {
             SAXParserFactory spf = SAXParserFactory.newInstance();
             SAXParser sp = spf.newSAXParser();
             XMLReader xr = sp.getXMLReader();
 
-            BufferedInputStream bos = new BufferedInputStream(accountsInputStream);
+            InputStream bookInputStream = openBook(accountsInputStream);
 
             /** Create handler to handle XML Tags ( extends DefaultHandler ) */
 
             GnucashAccountXmlHandler handler = new GnucashAccountXmlHandler(context);
             xr.setContentHandler(handler);
-            xr.parse(new InputSource(bos));
-            handler.mDatabaseAdapter.close();
+            try {
+                xr.parse(new InputSource(bookInputStream));
+            } finally {
+                handler.close();
+            }
+            return handler.mSkippedTransactionCount;
         } catch (Exception e) {
             e.printStackTrace();
             Toast.makeText(context, R.string.toast_error_importing_accounts, Toast.LENGTH_LONG).show();
+            return 0;
         }
     }
 }
@@ -5,7 +5,10 @@ import java.util.List;
 
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.Transaction;
+import org.gnucash.android.db.BatchInserter;
+import org.gnucash.android.db.AccountTree;
 import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseHelper;
 
 import android.test.AndroidTestCase;
 
@@ -52,11 +55,103 @@ public class AccountsDbAdapterTest extends AndroidTestCase {
 		
 		mAdapter.addAccount(acc1);
 		
-		Account account = mAdapter.getAccount("simile");
+		Account account = mAdapter.loadTransactions(mAdapter.getAccount("simile"));
+		assertEquals(2, account.getTransactionCount());
 		for (Transaction t : account.getTransactions()) {
 			assertEquals("JPY", t.getAmount().getCurrency().getCurrencyCode());
 		}
 	}
+
+	public void testAccountsAreLoadedWithoutTransactions(){
+		Account account = new Account("Lazy");
+		account.addTransaction(new Transaction("1.99", "Coffee"));
+		account.addTransaction(new Transaction("2.49", "Croissant"));
+		long accountId = mAdapter.addAccount(account);
+
+		Account loadedAccount = mAdapter.getAccount(accountId);
+		assertEquals(0, loadedAccount.getTransactionCount());
+		assertEquals(2, mAdapter.getTransactionCount(accountId));
+		assertTrue(mAdapter.hasTransactions(accountId));
+
+		long emptyAccountId = mAdapter.addAccount(new Account("Empty"));
+		assertEquals(0, mAdapter.getTransactionCount(emptyAccountId));
+		assertFalse(mAdapter.hasTransactions(emptyAccountId));
+	}
+
+	public void testAccountTreeHierarchy(){
+		Account root = new Account("ROOT");
+		root.setAccountType(Account.AccountType.ROOT);
+		Account expenses = new Account("Expenses");
+		expenses.setParentUID(root.getUID());
+		Account food = new Account("Food");
+		food.setParentUID(expenses.getUID());
+		food.setPlaceHolderFlag(true);
+		Account groceries = new Account("Groceries");
+		groceries.setParentUID(food.getUID());
+		Account dining = new Account("Dining");
+		dining.setParentUID(food.getUID());
+
+		mAdapter.addAccount(root);
+		long expensesId = mAdapter.addAccount(expenses);
+		long foodId = mAdapter.addAccount(food);
+		long groceriesId = mAdapter.addAccount(groceries);
+		long diningId = mAdapter.addAccount(dining);
+
+		AccountTree tree = mAdapter.getAccountTree();
+		assertEquals(7, tree.size());
+		assertEquals(0, tree.getDepth(expensesId));
+		assertEquals(2, tree.getDepth(groceriesId));
+		assertEquals(expensesId, tree.getParentId(foodId));
+		assertEquals("Expenses:Food:Groceries", tree.getFullName(groceriesId));
+		assertEquals("Expenses:Food:Groceries", mAdapter.getFullyQualifiedAccountName(groceriesId));
+		assertTrue(tree.isPlaceholder(foodId));
+		assertFalse(tree.isPlaceholder(groceriesId));
+
+		//children are ordered by name
+		List<Long> childIds = tree.getChildIds(foodId);
+		assertEquals(2, childIds.size());
+		assertEquals(diningId, (long) childIds.get(0));
+		assertEquals(groceriesId, (long) childIds.get(1));
+
+		assertTrue(tree.isDescendant(expensesId, diningId));
+		assertFalse(tree.isDescendant(foodId, expensesId));
+		assertEquals(4, tree.getSubtreeIds(expensesId).size());
+
+		//modifications discard the snapshot
+		mAdapter.updateAccount(diningId, DatabaseHelper.KEY_NAME, "Restaurants");
+		assertEquals("Expenses:Food:Restaurants", mAdapter.getAccountTree().getFullName(diningId));
+		mAdapter.recursiveDestructiveDelete(foodId);
+		assertEquals(0, mAdapter.getSubAccountCount(expensesId));
+		assertFalse(mAdapter.getAccountTree().contains(groceriesId));
+	}
+
+	public void testBatchInsertResolvesFullNamesAtCommit(){
+		Account parent = new Account("Assets");
+		Account child = new Account("Current");
+		child.setParentUID(parent.getUID());
+		Account alpha = mAdapter.getAllAccounts().get(0);
+		alpha.setName("Alpha renamed");
+
+		BatchInserter inserter = mAdapter.beginBatchInsert();
+		//the child is added before its parent, as it may appear in an imported file
+		inserter.addAccount(child);
+		inserter.addAccount(parent);
+		inserter.addAccount(alpha);
+		assertEquals(3, inserter.getAccountCount());
+		inserter.commit();
+
+		assertEquals(4, mAdapter.getAllAccounts().size());
+		assertEquals("Assets:Current", mAdapter.getFullyQualifiedAccountName(child.getUID()));
+		assertEquals("Assets:Current", mAdapter.getAccount(child.getUID()).getFullName());
+		assertEquals("Alpha renamed", mAdapter.getAccountName(alpha.getUID()));
+
+		//accounts of an inserter which is closed without committing are discarded
+		inserter = mAdapter.beginBatchInsert();
+		inserter.addAccount(new Account("Discarded"));
+		inserter.close();
+		assertFalse(inserter.isCommitted());
+		assertEquals(4, mAdapter.getAllAccounts().size());
+	}
 	
 	@Override
 	protected void tearDown() throws Exception {
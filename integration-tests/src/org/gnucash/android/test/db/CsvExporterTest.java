@@ -0,0 +1,211 @@
+package org.gnucash.android.test.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Currency;
+
+import org.gnucash.android.R;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.BatchInserter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportRunner;
+import org.gnucash.android.export.csv.CsvExporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class CsvExporterTest extends AndroidTestCase {
+	private static final String CHECKING_ACCOUNT_UID = "checking";
+	private static final String EXPENSES_ACCOUNT_UID = "expenses";
+
+	/**
+	 * Number of transactions of the throughput benchmark
+	 */
+	private static final int BENCHMARK_TRANSACTIONS = 20000;
+
+	/**
+	 * Lowest accepted throughput of the benchmark. It is far below the throughput of current devices
+	 * and emulators, so that only a regression to row-by-row queries or unbuffered output fails the test
+	 */
+	private static final long MIN_ROWS_PER_SECOND = 2000;
+
+	private static long noonOf(int year, int month, int day){
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day, 12, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+
+		Account checking = new Account("Checking", Currency.getInstance("EUR"));
+		checking.setUID(CHECKING_ACCOUNT_UID);
+		Transaction rent = new Transaction("-1015.50", "Rent; March");
+		rent.setDescription("Said \"thanks\"\r\nand left");
+		rent.setTime(noonOf(2014, Calendar.MARCH, 21));
+		rent.setDoubleEntryAccountUID(EXPENSES_ACCOUNT_UID);
+		checking.addTransaction(rent);
+		Transaction coffee = new Transaction("2.00", "Coffee, large");
+		coffee.setTime(noonOf(2014, Calendar.MARCH, 22));
+		checking.addTransaction(coffee);
+
+		Account expenses = new Account("Expenses", Currency.getInstance("EUR"));
+		expenses.setUID(EXPENSES_ACCOUNT_UID);
+
+		accountsAdapter.addAccount(checking);
+		accountsAdapter.addAccount(expenses);
+		accountsAdapter.close();
+	}
+
+	public void testExportedRowsMatchExactly() throws Exception {
+		CsvExporter exporter = new CsvExporter(getContext(), true);
+		exporter.setMode(CsvExporter.Mode.ACCOUNTS);
+		exporter.setColumns(CsvExporter.Column.DATE, CsvExporter.Column.ACCOUNT, CsvExporter.Column.TRANSFER_ACCOUNT,
+				CsvExporter.Column.DESCRIPTION, CsvExporter.Column.NOTES, CsvExporter.Column.AMOUNT,
+				CsvExporter.Column.CURRENCY);
+		exporter.setDelimiter(';');
+		exporter.setDecimalSeparator(',');
+		StringWriter writer = new StringWriter();
+		exporter.export(writer);
+
+		//only fields with the delimiter, quotes or line breaks are quoted, the comma is no delimiter here
+		assertEquals("Date;Account;Transfer Account;Description;Notes;Amount;Currency\r\n"
+				+ "2014-03-22;Checking;;Coffee, large;;2,00;EUR\r\n"
+				+ "2014-03-21;Checking;Expenses;\"Rent; March\";\"Said \"\"thanks\"\"\r\nand left\";-1015,50;EUR\r\n"
+				+ "2014-03-21;Expenses;Checking;\"Rent; March\";\"Said \"\"thanks\"\"\r\nand left\";1015,50;EUR\r\n",
+				writer.toString());
+	}
+
+	public void testDefaultFormatQuotesCommas() throws Exception {
+		CsvExporter exporter = new CsvExporter(getContext(), true);
+		exporter.setColumns(CsvExporter.Column.DESCRIPTION, CsvExporter.Column.AMOUNT);
+		StringWriter writer = new StringWriter();
+		exporter.export(writer);
+
+		assertEquals("Description,Amount\r\n"
+				+ "\"Coffee, large\",2.00\r\n"
+				+ "Rent; March,-1015.50\r\n",
+				writer.toString());
+	}
+
+	public void testExportRunnerAppliesPreferences() throws Exception {
+		SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getContext());
+		preferences.edit()
+				.putString(getContext().getString(R.string.key_csv_export_columns), "DATE,DESCRIPTION,AMOUNT")
+				.putString(getContext().getString(R.string.key_csv_date_pattern), "dd.MM.yyyy")
+				.putString(getContext().getString(R.string.key_csv_delimiter), ";")
+				.putString(getContext().getString(R.string.key_csv_decimal_separator), ",")
+				.commit();
+		File target = new File(getContext().getCacheDir(), "preferences-test.csv");
+		try {
+			ExportParams exportParams = new ExportParams(ExportFormat.CSV);
+			exportParams.setExportAllTransactions(true);
+			exportParams.setTargetFilepath(target.getAbsolutePath());
+			new ExportRunner(getContext(), exportParams).run();
+
+			assertEquals("Date;Description;Amount\r\n"
+					+ "22.03.2014;Coffee, large;2,00\r\n"
+					+ "21.03.2014;\"Rent; March\";-1015,50\r\n",
+					read(target));
+		} finally {
+			preferences.edit()
+					.remove(getContext().getString(R.string.key_csv_export_columns))
+					.remove(getContext().getString(R.string.key_csv_date_pattern))
+					.remove(getContext().getString(R.string.key_csv_delimiter))
+					.remove(getContext().getString(R.string.key_csv_decimal_separator))
+					.commit();
+			target.delete();
+		}
+	}
+
+	private static String read(File file) throws Exception {
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		StringBuilder contents = new StringBuilder();
+		char[] buffer = new char[1024];
+		int count;
+		while ((count = reader.read(buffer)) > 0) {
+			contents.append(buffer, 0, count);
+		}
+		reader.close();
+		return contents.toString();
+	}
+
+	/**
+	 * Measures the rows exported per second from the database, including the query,
+	 * and checks that they are at least {@link #MIN_ROWS_PER_SECOND}
+	 */
+	public void testExportThroughput() throws Exception {
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		BatchInserter inserter = accountsAdapter.beginBatchInsert();
+		try {
+			long time = System.currentTimeMillis();
+			for (int i = 0; i < BENCHMARK_TRANSACTIONS; i++) {
+				Transaction transaction = new Transaction(i + ".25", "Payment " + i);
+				transaction.setAccountUID(CHECKING_ACCOUNT_UID);
+				transaction.setDescription(i % 7 == 0 ? "Note, \"quoted\"" : "Note");
+				transaction.setTime(time - i * 60000L);
+				if (i % 3 == 0)
+					transaction.setDoubleEntryAccountUID(EXPENSES_ACCOUNT_UID);
+				inserter.addTransaction(transaction);
+			}
+			inserter.commit();
+		} finally {
+			inserter.close();
+			accountsAdapter.close();
+		}
+
+		final int[] lineCount = new int[1];
+		Writer countingWriter = new Writer() {
+			@Override
+			public void write(char[] buffer, int offset, int count) {
+				for (int i = offset; i < offset + count; i++) {
+					if (buffer[i] == '\n')
+						lineCount[0]++;
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+
+		CsvExporter exporter = new CsvExporter(getContext(), true);
+		exporter.setColumns(CsvExporter.Column.DATE, CsvExporter.Column.ACCOUNT, CsvExporter.Column.DESCRIPTION,
+				CsvExporter.Column.AMOUNT, CsvExporter.Column.CURRENCY, CsvExporter.Column.UID);
+		long start = System.nanoTime();
+		exporter.export(countingWriter);
+		long elapsed = System.nanoTime() - start;
+
+		int rows = BENCHMARK_TRANSACTIONS + 2;
+		assertEquals(rows + 1, lineCount[0]);
+		long rowsPerSecond = rows * 1000000000L / Math.max(elapsed, 1);
+		Log.i("CsvExporterTest", "Exported " + rows + " rows at " + rowsPerSecond + " rows per second");
+		assertTrue("Exported only " + rowsPerSecond + " rows per second", rowsPerSecond >= MIN_ROWS_PER_SECOND);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
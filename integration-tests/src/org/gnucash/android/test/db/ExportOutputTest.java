@@ -0,0 +1,175 @@
+package org.gnucash.android.test.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.export.ExportOutput;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.test.AndroidTestCase;
+
+public class ExportOutputTest extends AndroidTestCase {
+	private static final String[] ACCOUNT_NAMES = new String[]{"Alpha", "Bravo", "Charlie"};
+
+	private File mExportDirectory;
+
+	/**
+	 * Uncompressed QIF export of all accounts to a single writer
+	 */
+	private String mExpectedExport;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		for (String name : ACCOUNT_NAMES) {
+			Account account = new Account(name);
+			account.addTransaction(new Transaction("2.99", name + " T800"));
+			account.addTransaction(new Transaction("-4.99", name + " T1000"));
+			accountsAdapter.addAccount(account);
+		}
+		accountsAdapter.close();
+
+		mExportDirectory = new File(getContext().getCacheDir(), "export-output-test");
+		deleteExportDirectory();
+
+		StringWriter writer = new StringWriter();
+		new QifExporter(getContext(), true).export(writer);
+		mExpectedExport = writer.toString();
+	}
+
+	private List<File> exportToFiles(ExportParams.Compression compression, long maxPartSize, int threadCount)
+			throws Exception {
+		ExportOutput output = new ExportOutput(new File(mExportDirectory, "export.qif").getAbsolutePath(),
+				compression, maxPartSize);
+		QifExporter exporter = new QifExporter(getContext(), true);
+		exporter.setThreadCount(threadCount);
+		exporter.export(output);
+		output.close();
+		return output.getFiles();
+	}
+
+	/**
+	 * Reads a written file back, decompressing it
+	 */
+	private static String readFile(File file, ExportParams.Compression compression) throws Exception {
+		InputStream inputStream = new FileInputStream(file);
+		switch (compression) {
+			case GZIP:
+				inputStream = new GZIPInputStream(inputStream);
+				break;
+			case ZIP:
+				ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+				ZipEntry entry = zipInputStream.getNextEntry();
+				assertEquals(file.getName().replace(".zip", ""), entry.getName());
+				inputStream = zipInputStream;
+				break;
+			default:
+				break;
+		}
+		return read(inputStream);
+	}
+
+	private static String read(InputStream inputStream) throws Exception {
+		Reader reader = new InputStreamReader(inputStream, "UTF-8");
+		StringBuilder contents = new StringBuilder();
+		char[] buffer = new char[1024];
+		int count;
+		while ((count = reader.read(buffer)) > 0) {
+			contents.append(buffer, 0, count);
+		}
+		reader.close();
+		return contents.toString();
+	}
+
+	public void testFileGetsFinalNameWhenClosed() throws Exception {
+		File target = new File(mExportDirectory, "export.qif");
+		File tempFile = new File(target.getPath() + ".tmp");
+		ExportOutput output = new ExportOutput(target.getAbsolutePath(), ExportParams.Compression.NONE, 0);
+		Writer writer = output.nextPart();
+		writer.write("!Account");
+		writer.flush();
+		assertTrue(tempFile.exists());
+		assertFalse(target.exists());
+
+		output.close();
+		assertFalse(tempFile.exists());
+		assertEquals("!Account", read(new FileInputStream(target)));
+	}
+
+	public void testDeletedOutputLeavesNoFiles() throws Exception {
+		File target = new File(mExportDirectory, "export.qif");
+		ExportOutput output = new ExportOutput(target.getAbsolutePath(), ExportParams.Compression.NONE, 0);
+		output.nextPart().write("!Account");
+		output.deleteFiles();
+
+		assertFalse(target.exists());
+		assertFalse(new File(target.getPath() + ".tmp").exists());
+	}
+
+	public void testGzipOutputContainsExport() throws Exception {
+		List<File> files = exportToFiles(ExportParams.Compression.GZIP, 0, 1);
+		assertEquals(1, files.size());
+		assertEquals("export.qif.gz", files.get(0).getName());
+		assertEquals(mExpectedExport, readFile(files.get(0), ExportParams.Compression.GZIP));
+	}
+
+	public void testZipOutputContainsExport() throws Exception {
+		List<File> files = exportToFiles(ExportParams.Compression.ZIP, 0, 1);
+		assertEquals(1, files.size());
+		assertEquals("export.qif.zip", files.get(0).getName());
+		assertEquals(mExpectedExport, readFile(files.get(0), ExportParams.Compression.ZIP));
+	}
+
+	public void testSplitOutputEndsPartsAtAccountBoundaries() throws Exception {
+		for (int threadCount = 1; threadCount <= 4; threadCount += 3) {
+			//every account fills a part
+			List<File> files = exportToFiles(ExportParams.Compression.GZIP, 1, threadCount);
+			assertEquals(ACCOUNT_NAMES.length, files.size());
+			StringBuilder contents = new StringBuilder();
+			for (int i = 0; i < files.size(); i++) {
+				assertEquals("export_" + (i + 1) + ".qif.gz", files.get(i).getName());
+				String part = readFile(files.get(i), ExportParams.Compression.GZIP);
+				//each part is a complete QIF file with one account
+				assertTrue(part.startsWith("!Account"));
+				assertEquals(1, part.split("!Account", -1).length - 1);
+				contents.append(part);
+			}
+			assertEquals(mExpectedExport, contents.toString());
+			deleteExportDirectory();
+		}
+	}
+
+	private void deleteExportDirectory(){
+		File[] files = mExportDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mExportDirectory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		deleteExportDirectory();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
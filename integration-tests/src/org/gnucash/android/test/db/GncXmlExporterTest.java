@@ -0,0 +1,128 @@
+package org.gnucash.android.test.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.xml.GncXmlExporter;
+import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.util.GnucashAccountXmlHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import android.test.AndroidTestCase;
+
+public class GncXmlExporterTest extends AndroidTestCase {
+	private static final String ALPHA_ACCOUNT_UID = "alpha-team";
+	private static final String BRAVO_ACCOUNT_UID = "bravo-team";
+	private static final String ROOT_ACCOUNT_UID = "root-book";
+
+	/**
+	 * Unique ID as created by older versions of the app
+	 */
+	private static final String LEGACY_TRANSACTION_UID = "6f1c2a3b-4d5e-4f60-8a7b-9c0d1e2f3a4b";
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+
+		Account first = new Account("Alpha");
+		first.setUID(ALPHA_ACCOUNT_UID);
+		first.setPlaceHolderFlag(true);
+		Transaction transfer = new Transaction("15.50", "Transfer");
+		transfer.setDoubleEntryAccountUID(BRAVO_ACCOUNT_UID);
+		first.addTransaction(transfer);
+
+		Account second = new Account("Bravo");
+		second.setUID(BRAVO_ACCOUNT_UID);
+		second.setParentUID(ALPHA_ACCOUNT_UID);
+		second.addTransaction(new Transaction("2.99", "T800 & T1000"));
+
+		accountsAdapter.addAccount(first);
+		accountsAdapter.addAccount(second);
+		accountsAdapter.close();
+	}
+
+	public void testBookContainsAccountTreeAndBalancedTransfers() throws Exception {
+		StringWriter writer = new StringWriter();
+		new GncXmlExporter(getContext()).export(writer);
+
+		final Map<String, Integer> elementCounts = new HashMap<String, Integer>();
+		DefaultHandler handler = new DefaultHandler(){
+			@Override
+			public void startElement(String uri, String localName, String qualifiedName, Attributes attributes) {
+				Integer count = elementCounts.get(qualifiedName);
+				elementCounts.put(qualifiedName, count == null ? 1 : count + 1);
+			}
+		};
+		XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+		reader.setContentHandler(handler);
+		reader.parse(new InputSource(new StringReader(writer.toString())));
+
+		//the root account and the two accounts
+		assertEquals(3, elementCounts.get(GncXmlHelper.TAG_ACCOUNT).intValue());
+		assertEquals(2, elementCounts.get(GncXmlHelper.TAG_ACCOUNT_PARENT).intValue());
+		assertEquals(2, elementCounts.get(GncXmlHelper.TAG_TRANSACTION).intValue());
+		//the transfer has a split in each account
+		assertEquals(3, elementCounts.get(GncXmlHelper.TAG_SPLIT).intValue());
+
+		String book = writer.toString();
+		assertTrue(book.contains("<split:value>1550/100</split:value>"));
+		assertTrue(book.contains("<split:value>-1550/100</split:value>"));
+		assertTrue(book.contains("<slot:key>placeholder</slot:key>"));
+		assertTrue(book.contains("<split:account type=\"guid\">" + GncXmlHelper.formatGuid(BRAVO_ACCOUNT_UID) + "</split:account>"));
+	}
+
+	public void testReimportedBookMatchesExistingRecords() throws Exception {
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		Account root = new Account("Root Account");
+		root.setUID(ROOT_ACCOUNT_UID);
+		root.setAccountType(Account.AccountType.ROOT);
+		accountsAdapter.addAccount(root);
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		Transaction payment = new Transaction("7.25", "Payment");
+		payment.setUID(LEGACY_TRANSACTION_UID);
+		payment.setAccountUID(BRAVO_ACCOUNT_UID);
+		transactionsAdapter.addTransaction(payment);
+		int accountCount = accountsAdapter.getAllAccounts().size();
+		long transactionCount = transactionsAdapter.getAllTransactionsCount();
+
+		StringWriter writer = new StringWriter();
+		new GncXmlExporter(getContext()).export(writer);
+		String book = writer.toString();
+		assertTrue(book.contains(LEGACY_TRANSACTION_UID.replace("-", "")));
+		assertFalse(book.contains(ALPHA_ACCOUNT_UID));
+		GnucashAccountXmlHandler.parse(getContext(), new ByteArrayInputStream(book.getBytes("UTF-8")));
+
+		//the records keep their unique IDs instead of being copied with their GUIDs
+		assertEquals(accountCount, accountsAdapter.getAllAccounts().size());
+		assertEquals(ROOT_ACCOUNT_UID, accountsAdapter.getGnuCashRootAccountUID());
+		assertEquals(-1, accountsAdapter.getAccountID(GncXmlHelper.formatGuid(ROOT_ACCOUNT_UID)));
+		assertEquals(ALPHA_ACCOUNT_UID, accountsAdapter.getParentAccountUID(BRAVO_ACCOUNT_UID));
+		assertEquals(transactionCount, transactionsAdapter.getAllTransactionsCount());
+		assertTrue(transactionsAdapter.fetchTransactionWithUID(LEGACY_TRANSACTION_UID) > 0);
+		assertEquals(BRAVO_ACCOUNT_UID, transactionsAdapter.getAllTransactionsForAccount(BRAVO_ACCOUNT_UID).get(0).getAccountUID());
+		transactionsAdapter.close();
+		accountsAdapter.close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
@@ -0,0 +1,209 @@
+package org.gnucash.android.test.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.util.GnucashAccountXmlHandler;
+
+import android.test.AndroidTestCase;
+
+public class GncXmlImporterTest extends AndroidTestCase {
+	private static final String ROOT_UID		= "00000000000000000000000000000000";
+	private static final String CHECKING_UID	= "11111111111111111111111111111111";
+	private static final String GROCERIES_UID	= "22222222222222222222222222222222";
+	private static final String EXPENSES_UID	= "33333333333333333333333333333333";
+	private static final String TRANSFER_UID	= "44444444444444444444444444444444";
+	private static final String WALLET_UID		= "77777777777777777777777777777777";
+	private static final String PAYMENT_UID		= "88888888888888888888888888888888";
+
+	private static final String BOOK = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+			+ "<gnc-v2 xmlns:gnc=\"http://www.gnucash.org/XML/gnc\" xmlns:act=\"http://www.gnucash.org/XML/act\""
+			+ " xmlns:trn=\"http://www.gnucash.org/XML/trn\" xmlns:split=\"http://www.gnucash.org/XML/split\""
+			+ " xmlns:ts=\"http://www.gnucash.org/XML/ts\" xmlns:cmdty=\"http://www.gnucash.org/XML/cmdty\""
+			+ " xmlns:slot=\"http://www.gnucash.org/XML/slot\">\n"
+			+ "<gnc:book version=\"2.0.0\">\n"
+			+ account("Root Account", ROOT_UID, "ROOT", null)
+			//the child comes before its parent
+			+ account("Groceries", GROCERIES_UID, "EXPENSE", EXPENSES_UID)
+			+ account("Expenses", EXPENSES_UID, "EXPENSE", ROOT_UID)
+			+ account("Checking", CHECKING_UID, "BANK", ROOT_UID)
+			+ "<gnc:transaction version=\"2.0.0\">\n"
+			+ "<trn:id type=\"guid\">" + TRANSFER_UID + "</trn:id>\n"
+			+ "<trn:currency><cmdty:space>ISO4217</cmdty:space><cmdty:id>EUR</cmdty:id></trn:currency>\n"
+			+ "<trn:date-posted><ts:date>2014-03-21 14:05:00 +0000</ts:date></trn:date-posted>\n"
+			+ "<trn:date-entered><ts:date>2014-03-22 09:00:00 +0000</ts:date></trn:date-entered>\n"
+			+ "<trn:description>Market</trn:description>\n"
+			+ "<trn:slots><slot><slot:key>notes</slot:key><slot:value type=\"string\">Fruit</slot:value></slot></trn:slots>\n"
+			+ "<trn:splits>\n"
+			+ split("-1550/100", CHECKING_UID)
+			+ split("1550/100", GROCERIES_UID)
+			+ "</trn:splits>\n"
+			+ "</gnc:transaction>\n"
+			+ "<gnc:transaction version=\"2.0.0\">\n"
+			+ "<trn:id type=\"guid\">55555555555555555555555555555555</trn:id>\n"
+			+ "<trn:currency><cmdty:space>ISO4217</cmdty:space><cmdty:id>EUR</cmdty:id></trn:currency>\n"
+			+ "<trn:date-posted><ts:date>2014-03-23 10:00:00 +0000</ts:date></trn:date-posted>\n"
+			+ "<trn:description>Split shopping</trn:description>\n"
+			+ "<trn:splits>\n"
+			+ split("-3000/100", CHECKING_UID)
+			+ split("1000/100", GROCERIES_UID)
+			+ split("2000/100", EXPENSES_UID)
+			+ "</trn:splits>\n"
+			+ "</gnc:transaction>\n"
+			+ "<gnc:template-transactions>\n"
+			+ account("Template", "66666666666666666666666666666666", "ASSET", null)
+			+ "</gnc:template-transactions>\n"
+			+ "</gnc:book>\n"
+			+ "</gnc-v2>\n";
+
+	/**
+	 * Book with an account in another currency than the transactions
+	 */
+	private static final String FOREIGN_CURRENCY_BOOK = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+			+ "<gnc-v2 xmlns:gnc=\"http://www.gnucash.org/XML/gnc\" xmlns:act=\"http://www.gnucash.org/XML/act\""
+			+ " xmlns:trn=\"http://www.gnucash.org/XML/trn\" xmlns:split=\"http://www.gnucash.org/XML/split\""
+			+ " xmlns:ts=\"http://www.gnucash.org/XML/ts\" xmlns:cmdty=\"http://www.gnucash.org/XML/cmdty\">\n"
+			+ "<gnc:book version=\"2.0.0\">\n"
+			+ account("Root Account", ROOT_UID, "ROOT", null)
+			+ account("Checking", CHECKING_UID, "BANK", ROOT_UID)
+			+ account("Wallet", WALLET_UID, "CASH", ROOT_UID, "USD")
+			+ "<gnc:transaction version=\"2.0.0\">\n"
+			+ "<trn:id type=\"guid\">" + PAYMENT_UID + "</trn:id>\n"
+			+ "<trn:currency><cmdty:space>ISO4217</cmdty:space><cmdty:id>EUR</cmdty:id></trn:currency>\n"
+			+ "<trn:date-posted><ts:date>2014-03-21 14:05:00 +0000</ts:date></trn:date-posted>\n"
+			+ "<trn:description>Taxi</trn:description>\n"
+			+ "<trn:splits>\n"
+			+ split("-1000/100", "-1250/100", WALLET_UID)
+			+ "</trn:splits>\n"
+			+ "</gnc:transaction>\n"
+			//a transfer between accounts with different currencies has no single amount
+			+ "<gnc:transaction version=\"2.0.0\">\n"
+			+ "<trn:id type=\"guid\">" + TRANSFER_UID + "</trn:id>\n"
+			+ "<trn:currency><cmdty:space>ISO4217</cmdty:space><cmdty:id>EUR</cmdty:id></trn:currency>\n"
+			+ "<trn:date-posted><ts:date>2014-03-22 14:05:00 +0000</ts:date></trn:date-posted>\n"
+			+ "<trn:description>Exchange</trn:description>\n"
+			+ "<trn:splits>\n"
+			+ split("-2000/100", CHECKING_UID)
+			+ split("2000/100", "2500/100", WALLET_UID)
+			+ "</trn:splits>\n"
+			+ "</gnc:transaction>\n"
+			+ "</gnc:book>\n"
+			+ "</gnc-v2>\n";
+
+	private static String account(String name, String uid, String type, String parentUID){
+		return account(name, uid, type, parentUID, "EUR");
+	}
+
+	private static String account(String name, String uid, String type, String parentUID, String currencyCode){
+		return "<gnc:account version=\"2.0.0\">\n"
+				+ "<act:name>" + name + "</act:name>\n"
+				+ "<act:id type=\"guid\">" + uid + "</act:id>\n"
+				+ "<act:type>" + type + "</act:type>\n"
+				+ "<act:commodity><cmdty:space>ISO4217</cmdty:space><cmdty:id>" + currencyCode + "</cmdty:id></act:commodity>\n"
+				+ (parentUID == null ? "" : "<act:parent type=\"guid\">" + parentUID + "</act:parent>\n")
+				+ "</gnc:account>\n";
+	}
+
+	private static String split(String value, String accountUID){
+		return split(value, value, accountUID);
+	}
+
+	private static String split(String value, String quantity, String accountUID){
+		return "<trn:split>\n"
+				+ "<split:reconciled-state>n</split:reconciled-state>\n"
+				+ "<split:value>" + value + "</split:value>\n"
+				+ "<split:quantity>" + quantity + "</split:quantity>\n"
+				+ "<split:account type=\"guid\">" + accountUID + "</split:account>\n"
+				+ "</trn:split>\n";
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+
+	public void testImportMapsTwoSplitTransactionsToTransfers() throws Exception {
+		int skipped = GnucashAccountXmlHandler.parse(getContext(), new ByteArrayInputStream(BOOK.getBytes("UTF-8")));
+		assertEquals(1, skipped);
+
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		//neither the root account nor the template accounts are listed
+		assertEquals(3, accountsAdapter.getAllAccounts().size());
+		assertEquals("Expenses:Groceries", accountsAdapter.getFullyQualifiedAccountName(GROCERIES_UID));
+		accountsAdapter.close();
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(1, transactionsAdapter.getAllTransactionsCount());
+		List<Transaction> transactions = transactionsAdapter.getAllTransactionsForAccount(CHECKING_UID);
+		assertEquals(1, transactions.size());
+		Transaction transfer = transactions.get(0);
+		assertEquals(TRANSFER_UID, transfer.getUID());
+		assertEquals("Market", transfer.getName());
+		assertEquals("Fruit", transfer.getDescription());
+		assertEquals(GROCERIES_UID, transfer.getDoubleEntryAccountUID());
+		assertEquals("-15.50", transfer.getAmount().toPlainString());
+		assertEquals(Transaction.TransactionType.CREDIT, transfer.getTransactionType());
+		assertEquals(1395410700000L, transfer.getTimeMillis());
+		transactionsAdapter.close();
+	}
+
+	public void testImportUsesAmountsInAccountCurrency() throws Exception {
+		int skipped = GnucashAccountXmlHandler.parse(getContext(),
+				new ByteArrayInputStream(FOREIGN_CURRENCY_BOOK.getBytes("UTF-8")));
+		assertEquals(1, skipped);
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(1, transactionsAdapter.getAllTransactionsCount());
+		Transaction payment = transactionsAdapter.getAllTransactionsForAccount(WALLET_UID).get(0);
+		assertEquals(PAYMENT_UID, payment.getUID());
+		assertEquals("-12.50", payment.getAmount().toPlainString());
+		assertEquals("USD", payment.getAmount().getCurrency().getCurrencyCode());
+		transactionsAdapter.close();
+	}
+
+	public void testIncrementalExportAfterImportIsEmpty() throws Exception {
+		GnucashAccountXmlHandler.parse(getContext(), new ByteArrayInputStream(BOOK.getBytes("UTF-8")));
+
+		StringWriter incrementalExport = new StringWriter();
+		new QifExporter(getContext(), false).export(incrementalExport);
+		assertEquals("", incrementalExport.toString());
+
+		StringWriter fullExport = new StringWriter();
+		new QifExporter(getContext(), true).export(fullExport);
+		assertTrue(fullExport.toString().contains("Market"));
+	}
+
+	public void testImportGzipCompressedBook() throws Exception {
+		ByteArrayOutputStream compressedBook = new ByteArrayOutputStream();
+		GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedBook);
+		gzipOutputStream.write(BOOK.getBytes("UTF-8"));
+		gzipOutputStream.close();
+
+		GnucashAccountXmlHandler.parse(getContext(), new ByteArrayInputStream(compressedBook.toByteArray()));
+
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		assertEquals(3, accountsAdapter.getAllAccounts().size());
+		accountsAdapter.close();
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(1, transactionsAdapter.getAllTransactionsCount());
+		transactionsAdapter.close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
@@ -0,0 +1,132 @@
+package org.gnucash.android.test.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportOutput;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportRunner;
+import org.gnucash.android.export.Exporter;
+import org.gnucash.android.export.csv.CsvExporter;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.test.AndroidTestCase;
+
+public class MultiFormatExportTest extends AndroidTestCase {
+	private static final String ALPHA_ACCOUNT_UID = "alpha-team";
+	private static final String BRAVO_ACCOUNT_UID = "bravo-team";
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+
+		Account first = new Account("Alpha");
+		first.setUID(ALPHA_ACCOUNT_UID);
+		Transaction transfer = new Transaction("15.50", "Rent payment");
+		transfer.setDoubleEntryAccountUID(BRAVO_ACCOUNT_UID);
+		first.addTransaction(transfer);
+		first.addTransaction(new Transaction("4.99", "T1000"));
+
+		Account second = new Account("Bravo");
+		second.setUID(BRAVO_ACCOUNT_UID);
+		second.addTransaction(new Transaction("2.99", "T800"));
+
+		accountsAdapter.addAccount(first);
+		accountsAdapter.addAccount(second);
+		accountsAdapter.close();
+	}
+
+	public void testSinglePassMatchesSeparateExports() throws Exception {
+		StringWriter qifWriter = new StringWriter();
+		new QifExporter(getContext(), true).export(qifWriter);
+		StringWriter csvWriter = new StringWriter();
+		CsvExporter csvExporter = new CsvExporter(getContext(), true);
+		csvExporter.setMode(CsvExporter.Mode.ACCOUNTS);
+		csvExporter.export(csvWriter);
+
+		for (int threadCount = 1; threadCount <= 4; threadCount += 3) {
+			StringWriter multiQifWriter = new StringWriter();
+			StringWriter multiCsvWriter = new StringWriter();
+			CsvExporter multiCsvExporter = new CsvExporter(getContext(), true);
+			multiCsvExporter.setMode(CsvExporter.Mode.ACCOUNTS);
+			Exporter exporter = new QifExporter(getContext(), true);
+			exporter.addFormat(multiCsvExporter, new ExportOutput(multiCsvWriter));
+			exporter.setThreadCount(threadCount);
+			exporter.export(multiQifWriter);
+
+			//the transfer is only listed under its own account in QIF, but under both accounts in CSV
+			assertEquals(qifWriter.toString(), multiQifWriter.toString());
+			assertEquals(csvWriter.toString(), multiCsvWriter.toString());
+			assertEquals(1, countOccurrences(multiQifWriter.toString(), "Rent payment"));
+			assertEquals(2, countOccurrences(multiCsvWriter.toString(), "Rent payment"));
+		}
+	}
+
+	public void testExportRunnerWritesAllFormats() throws Exception {
+		File directory = new File(getContext().getCacheDir(), "multi-format-export");
+		ExportParams exportParams = new ExportParams(ExportFormat.QIF);
+		exportParams.setExportFormats(Arrays.asList(ExportFormat.QIF, ExportFormat.CSV));
+		exportParams.setExportAllTransactions(true);
+		exportParams.setTargetFilepath(new File(directory, "book.qif").getAbsolutePath());
+
+		ExportRunner runner = new ExportRunner(getContext(), exportParams);
+		runner.run();
+		List<File> files = runner.getExportedFiles();
+		assertEquals(Arrays.asList(new File(directory, "book.qif"), new File(directory, "book.csv")), files);
+
+		String qif = readFile(files.get(0));
+		assertTrue(qif.startsWith("!Account\nNAlpha\n^\n"));
+		assertEquals(2, countOccurrences(qif, "!Account"));
+		assertEquals(3, countOccurrences(qif, "\n^\n") - 2);
+		assertEquals(1, countOccurrences(qif, "Rent payment"));
+
+		String csv = readFile(files.get(1));
+		assertTrue(csv.startsWith("Date,Account,Transfer Account,Description,Notes,Amount,Currency,Transaction ID\r\n"));
+		//a header row and one row for each transaction
+		assertEquals(4, countOccurrences(csv, "\r\n"));
+		assertEquals(1, countOccurrences(csv, "Rent payment"));
+		assertTrue(csv.contains(",Alpha,Bravo,Rent payment,"));
+
+		for (File file : files) {
+			file.delete();
+		}
+	}
+
+	private static String readFile(File file) throws Exception {
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		StringWriter writer = new StringWriter();
+		char[] buffer = new char[1024];
+		for (int count = reader.read(buffer); count >= 0; count = reader.read(buffer)) {
+			writer.write(buffer, 0, count);
+		}
+		reader.close();
+		return writer.toString();
+	}
+
+	private static int countOccurrences(String text, String part){
+		int count = 0;
+		for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
@@ -0,0 +1,195 @@
+package org.gnucash.android.test.db;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.Currency;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.ofx.OfxExporter;
+import org.gnucash.android.export.ofx.OfxHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.test.AndroidTestCase;
+
+public class OfxExporterTest extends AndroidTestCase {
+	private static final String CHECKING_ACCOUNT_UID = "checking";
+	private static final String EXPENSES_ACCOUNT_UID = "expenses";
+	private static final String RENT_UID = "rent";
+	private static final String COFFEE_UID = "coffee";
+
+	/**
+	 * Placeholder for the time of the export, which is written as start and end date and as date of the balance
+	 */
+	private static final String EXPORT_TIME = "NOW";
+
+	private static long noonOf(int year, int month, int day){
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day, 12, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+
+		Account checking = new Account("Checking", Currency.getInstance("EUR"));
+		checking.setUID(CHECKING_ACCOUNT_UID);
+		checking.setAccountType(Account.AccountType.BANK);
+		Transaction rent = new Transaction("-1015.50", "Rent & <March>");
+		rent.setUID(RENT_UID);
+		rent.setDescription("Paid \"cash\" & <left>");
+		rent.setTime(noonOf(2014, Calendar.MARCH, 21));
+		rent.setDoubleEntryAccountUID(EXPENSES_ACCOUNT_UID);
+		checking.addTransaction(rent);
+		Transaction coffee = new Transaction("2.00", "Coffee");
+		coffee.setUID(COFFEE_UID);
+		coffee.setTime(noonOf(2014, Calendar.MARCH, 22));
+		checking.addTransaction(coffee);
+
+		Account expenses = new Account("Expenses", Currency.getInstance("EUR"));
+		expenses.setUID(EXPENSES_ACCOUNT_UID);
+		expenses.setAccountType(Account.AccountType.EXPENSE);
+
+		accountsAdapter.addAccount(checking);
+		accountsAdapter.addAccount(expenses);
+		accountsAdapter.close();
+	}
+
+	/**
+	 * Exports all accounts and replaces the time of the export by {@link #EXPORT_TIME}
+	 */
+	private String export(boolean useXmlHeader) throws Exception {
+		StringWriter writer = new StringWriter();
+		new OfxExporter(getContext(), true, useXmlHeader).export(writer);
+		return writer.toString().replaceAll("<(DTSTART|DTEND|DTASOF)>[^<]*</", "<$1>" + EXPORT_TIME + "</");
+	}
+
+	/**
+	 * Returns the document expected after the header, which is the same in SGML and XML
+	 */
+	private static String expectedBody(){
+		String rentTime = OfxHelper.getOfxFormattedTime(noonOf(2014, Calendar.MARCH, 21));
+		String coffeeTime = OfxHelper.getOfxFormattedTime(noonOf(2014, Calendar.MARCH, 22));
+		return "<OFX>\n"
+				+ "  <BANKMSGSRSV1>\n"
+				+ "    <STMTTRNRS>\n"
+				+ "      <TRNUID>0</TRNUID>\n"
+				+ "      <STMTRS>\n"
+				+ "        <CURDEF>EUR</CURDEF>\n"
+				+ "        <BANKACCTFROM>\n"
+				+ "          <BANKID>org.gnucash.android</BANKID>\n"
+				+ "          <ACCTID>checking</ACCTID>\n"
+				+ "          <ACCTTYPE>SAVINGS</ACCTTYPE>\n"
+				+ "        </BANKACCTFROM>\n"
+				+ "        <BANKTRANLIST>\n"
+				+ "          <DTSTART>NOW</DTSTART>\n"
+				+ "          <DTEND>NOW</DTEND>\n"
+				+ "          <STMTTRN>\n"
+				+ "            <TRNTYPE>DEBIT</TRNTYPE>\n"
+				+ "            <DTPOSTED>" + coffeeTime + "</DTPOSTED>\n"
+				+ "            <DTUSER>" + coffeeTime + "</DTUSER>\n"
+				+ "            <TRNAMT>2.00</TRNAMT>\n"
+				+ "            <FITID>coffee</FITID>\n"
+				+ "            <NAME>Coffee</NAME>\n"
+				+ "          </STMTTRN>\n"
+				+ "          <STMTTRN>\n"
+				+ "            <TRNTYPE>DEBIT</TRNTYPE>\n"
+				+ "            <DTPOSTED>" + rentTime + "</DTPOSTED>\n"
+				+ "            <DTUSER>" + rentTime + "</DTUSER>\n"
+				+ "            <TRNAMT>-1015.50</TRNAMT>\n"
+				+ "            <FITID>rent</FITID>\n"
+				+ "            <NAME>Rent &amp; &lt;March&gt;</NAME>\n"
+				+ "            <MEMO>Paid \"cash\" &amp; &lt;left&gt;</MEMO>\n"
+				+ "            <BANKACCTTO>\n"
+				+ "              <BANKID>org.gnucash.android</BANKID>\n"
+				+ "              <ACCTID>expenses</ACCTID>\n"
+				+ "              <ACCTTYPE>CHECKING</ACCTTYPE>\n"
+				+ "            </BANKACCTTO>\n"
+				+ "          </STMTTRN>\n"
+				+ "        </BANKTRANLIST>\n"
+				+ "        <LEDGERBAL>\n"
+				+ "          <BALAMT>-1013.50</BALAMT>\n"
+				+ "          <DTASOF>NOW</DTASOF>\n"
+				+ "        </LEDGERBAL>\n"
+				+ "      </STMTRS>\n"
+				+ "      <STMTRS>\n"
+				+ "        <CURDEF>EUR</CURDEF>\n"
+				+ "        <BANKACCTFROM>\n"
+				+ "          <BANKID>org.gnucash.android</BANKID>\n"
+				+ "          <ACCTID>expenses</ACCTID>\n"
+				+ "          <ACCTTYPE>CHECKING</ACCTTYPE>\n"
+				+ "        </BANKACCTFROM>\n"
+				+ "        <BANKTRANLIST>\n"
+				+ "          <DTSTART>NOW</DTSTART>\n"
+				+ "          <DTEND>NOW</DTEND>\n"
+				+ "          <STMTTRN>\n"
+				+ "            <TRNTYPE>DEBIT</TRNTYPE>\n"
+				+ "            <DTPOSTED>" + rentTime + "</DTPOSTED>\n"
+				+ "            <DTUSER>" + rentTime + "</DTUSER>\n"
+				+ "            <TRNAMT>1015.50</TRNAMT>\n"
+				+ "            <FITID>rent</FITID>\n"
+				+ "            <NAME>Rent &amp; &lt;March&gt;</NAME>\n"
+				+ "            <MEMO>Paid \"cash\" &amp; &lt;left&gt;</MEMO>\n"
+				+ "            <BANKACCTTO>\n"
+				+ "              <BANKID>org.gnucash.android</BANKID>\n"
+				+ "              <ACCTID>checking</ACCTID>\n"
+				+ "              <ACCTTYPE>SAVINGS</ACCTTYPE>\n"
+				+ "            </BANKACCTTO>\n"
+				+ "          </STMTTRN>\n"
+				+ "        </BANKTRANLIST>\n"
+				+ "        <LEDGERBAL>\n"
+				+ "          <BALAMT>1015.50</BALAMT>\n"
+				+ "          <DTASOF>NOW</DTASOF>\n"
+				+ "        </LEDGERBAL>\n"
+				+ "      </STMTRS>\n"
+				+ "    </STMTTRNRS>\n"
+				+ "  </BANKMSGSRSV1>\n"
+				+ "</OFX>\n";
+	}
+
+	public void testSgmlExportMatchesExactly() throws Exception {
+		assertEquals("ENCODING:UTF-8\nOFXHEADER:100\nDATA:OFXSGML\nVERSION:211\nSECURITY:NONE\nCHARSET:UTF-8\n"
+				+ "COMPRESSION:NONE\nOLDFILEUID:NONE\nNEWFILEUID:NONE\n"
+				+ expectedBody(),
+				export(false));
+	}
+
+	public void testXmlExportMatchesExactly() throws Exception {
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<?OFX OFXHEADER=\"200\" VERSION=\"211\" SECURITY=\"NONE\" OLDFILEUID=\"NONE\" NEWFILEUID=\"NONE\"?>\n"
+				+ expectedBody(),
+				export(true));
+	}
+
+	public void testLedgerBalanceIncludesExportedTransactions() throws Exception {
+		export(false);
+		Transaction refund = new Transaction("13.50", "Refund");
+		refund.setAccountUID(CHECKING_ACCOUNT_UID);
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		transactionsAdapter.addTransaction(refund);
+		transactionsAdapter.close();
+
+		//only the new transaction is listed, but the balance still covers all of them
+		StringWriter writer = new StringWriter();
+		new OfxExporter(getContext(), false, false).export(writer);
+		String document = writer.toString();
+		assertEquals(1, document.split("<STMTTRN>", -1).length - 1);
+		assertTrue(document.contains("<NAME>Refund</NAME>"));
+		assertTrue(document.contains("<BALAMT>-1000.00</BALAMT>"));
+		//the expenses account has no new transactions, so it has no statement
+		assertFalse(document.contains("<ACCTID>expenses</ACCTID>"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
@@ -0,0 +1,153 @@
+package org.gnucash.android.test.db;
+
+import java.io.ByteArrayInputStream;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.ofx.OfxHelper;
+import org.gnucash.android.export.ofx.OfxImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.test.AndroidTestCase;
+
+public class OfxImporterTest extends AndroidTestCase {
+
+	private static String sgmlStatement(String... transactions){
+		StringBuilder statement = new StringBuilder(OfxHelper.OFX_SGML_HEADER + "\n\n<OFX>\n<BANKMSGSRSV1>\n<STMTTRNRS>\n<TRNUID>0\n"
+				+ "<STMTRS>\n<CURDEF>EUR\n"
+				+ "<BANKACCTFROM>\n<BANKID>12345678\n<ACCTID>987654321\n<ACCTTYPE>CHECKING\n</BANKACCTFROM>\n"
+				+ "<BANKTRANLIST>\n<DTSTART>20140301\n<DTEND>20140331\n");
+		for (String transaction : transactions) {
+			statement.append(transaction);
+		}
+		return statement.append("</BANKTRANLIST>\n</STMTRS>\n</STMTTRNRS>\n</BANKMSGSRSV1>\n</OFX>\n").toString();
+	}
+
+	private static String sgmlTransaction(String fitId, String date, String amount, String name){
+		return "<STMTTRN>\n<TRNTYPE>DEBIT\n<DTPOSTED>" + date + "\n<TRNAMT>" + amount + "\n<FITID>" + fitId
+				+ "\n<NAME>" + name + "\n<MEMO>Card payment\n</STMTTRN>\n";
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+
+	public void testImportSgmlStatement() throws Exception {
+		String statement = sgmlStatement(sgmlTransaction("T1", "20140321", "-15.50", "Market &amp; Co"),
+				sgmlTransaction("T2", "20140322120000.000[+1:CET]", "1200.00", "Salary"));
+		OfxImporter importer = new OfxImporter(getContext());
+		importer.importOfx(new ByteArrayInputStream(statement.getBytes("UTF-8")));
+		assertEquals(2, importer.getTransactionCount());
+
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		List<Account> accounts = accountsAdapter.getAllAccounts();
+		assertEquals(1, accounts.size());
+		Account account = accounts.get(0);
+		assertEquals("987654321", account.getName());
+		assertEquals("EUR", account.getCurrency().getCurrencyCode());
+		accountsAdapter.close();
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		List<Transaction> transactions = transactionsAdapter.getAllTransactionsForAccount(account.getUID());
+		assertEquals(2, transactions.size());
+		Transaction payment = transactions.get(0).getName().equals("Salary") ? transactions.get(1) : transactions.get(0);
+		assertEquals("Market & Co", payment.getName());
+		assertEquals("Card payment", payment.getDescription());
+		assertEquals("-15.50", payment.getAmount().toPlainString());
+		assertEquals(Transaction.TransactionType.CREDIT, payment.getTransactionType());
+		//imported statements are new changes for the next export
+		assertTrue(transactionsAdapter.hasUnexportedChanges(DatabaseHelper.DEFAULT_EXPORT_PROFILE_NAME));
+		transactionsAdapter.close();
+	}
+
+	public void testImportingOverlappingStatementsOnlyAddsNewTransactions() throws Exception {
+		String march = sgmlStatement(sgmlTransaction("T1", "20140321", "-15.50", "Market"),
+				sgmlTransaction("T2", "20140322", "-2.00", "Coffee"));
+		String april = sgmlStatement(sgmlTransaction("T2", "20140322", "-2.00", "Coffee"),
+				sgmlTransaction("T3", "20140402", "-40.00", "Fuel"));
+
+		new OfxImporter(getContext()).importOfx(new ByteArrayInputStream(march.getBytes("UTF-8")));
+		OfxImporter importer = new OfxImporter(getContext());
+		importer.importOfx(new ByteArrayInputStream(april.getBytes("UTF-8")));
+		assertEquals(1, importer.getTransactionCount());
+		assertEquals(1, importer.getDuplicateTransactionCount());
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(3, transactionsAdapter.getAllTransactionsCount());
+		transactionsAdapter.close();
+	}
+
+	public void testImportXmlStatement() throws Exception {
+		String statement = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<?OFX " + OfxHelper.OFX_HEADER + "?>\n"
+				+ "<OFX><BANKMSGSRSV1><STMTTRNRS><TRNUID>0</TRNUID><STMTRS><CURDEF>USD</CURDEF>"
+				+ "<BANKACCTFROM><BANKID>12345678</BANKID><ACCTID>111</ACCTID><ACCTTYPE>SAVINGS</ACCTTYPE></BANKACCTFROM>"
+				+ "<BANKTRANLIST>"
+				+ "<STMTTRN><TRNTYPE>CREDIT</TRNTYPE><DTPOSTED>20140321</DTPOSTED><TRNAMT>25.00</TRNAMT>"
+				+ "<FITID>X1</FITID><NAME>Refund</NAME></STMTTRN>"
+				+ "</BANKTRANLIST></STMTRS></STMTTRNRS></BANKMSGSRSV1></OFX>";
+		OfxImporter importer = new OfxImporter(getContext());
+		importer.importOfx(new ByteArrayInputStream(statement.getBytes("UTF-8")));
+		assertEquals(1, importer.getTransactionCount());
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(1, transactionsAdapter.getAllTransactionsCount());
+		transactionsAdapter.close();
+	}
+
+	public void testImportDecodesDeclaredCharset() throws Exception {
+		//the en dash only exists in Windows-1252, not in ISO-8859-1
+		String name = "Caf\u00e9 \u2013 Z\u00fcrich";
+		String statement = sgmlStatement(sgmlTransaction("T1", "20140321", "-4.20", name))
+				.replace(OfxHelper.OFX_SGML_HEADER, "OFXHEADER:100\r\nDATA:OFXSGML\r\nVERSION:102\r\nSECURITY:NONE\r\n"
+						+ "ENCODING:USASCII\r\nCHARSET:1252\r\nCOMPRESSION:NONE\r\nOLDFILEUID:NONE\r\nNEWFILEUID:NONE\r\n");
+		OfxImporter importer = new OfxImporter(getContext());
+		importer.importOfx(new ByteArrayInputStream(statement.getBytes("windows-1252")));
+		assertEquals(1, importer.getTransactionCount());
+
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		String accountUID = accountsAdapter.getAllAccounts().get(0).getUID();
+		accountsAdapter.close();
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		List<Transaction> transactions = transactionsAdapter.getAllTransactionsForAccount(accountUID);
+		assertEquals(name, transactions.get(0).getName());
+		transactionsAdapter.close();
+	}
+
+	public void testDetectCharset() throws Exception {
+		assertEquals("UTF-8", detectCharset(OfxHelper.OFX_SGML_HEADER + "\n<OFX>"));
+		assertEquals("ISO-8859-1", detectCharset("OFXHEADER:100\nENCODING:USASCII\nCHARSET:ISO-8859-1\n<OFX>"));
+		assertEquals("windows-1252", detectCharset("OFXHEADER:100\nENCODING:USASCII\nCHARSET:NONE\n<OFX>"));
+		assertEquals("UTF-8", detectCharset("<?xml version=\"1.0\"?>\n<?OFX " + OfxHelper.OFX_HEADER + "?>\n<OFX>"));
+	}
+
+	private static String detectCharset(String header) throws Exception {
+		return OfxImporter.detectCharset(new ByteArrayInputStream(header.getBytes("US-ASCII")));
+	}
+
+	public void testParseOfxTime() throws Exception {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		assertEquals(1395410700000L, OfxHelper.parseOfxTime("20140321140500", calendar));
+		assertEquals(1395410700000L, OfxHelper.parseOfxTime("20140321090500.000[-5:EST]", calendar));
+		calendar.clear();
+		calendar.set(2014, Calendar.MARCH, 21);
+		assertEquals(calendar.getTimeInMillis(), OfxHelper.parseOfxTime("20140321", calendar));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
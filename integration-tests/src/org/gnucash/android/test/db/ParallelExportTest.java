@@ -0,0 +1,198 @@
+package org.gnucash.android.test.db;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.ExportProgressListener;
+import org.gnucash.android.export.Exporter;
+import org.gnucash.android.export.csv.CsvExporter;
+import org.gnucash.android.export.ofx.OfxExporter;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.export.xml.GncXmlExporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+public class ParallelExportTest extends AndroidTestCase {
+	private static final String ALPHA_ACCOUNT_UID = "alpha-team";
+	private static final String BRAVO_ACCOUNT_UID = "bravo-team";
+	private static final String CHARLIE_ACCOUNT_UID = "charlie-team";
+
+	/**
+	 * Enough transactions to render the account in several chunks
+	 */
+	private static final int LARGE_ACCOUNT_TRANSACTIONS = 700;
+
+	/**
+	 * Time to wait for another chunk of the large account to be rendered at the same time
+	 */
+	private static final long CHUNK_TIMEOUT_SECONDS = 10;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+
+		Account alpha = new Account("Alpha");
+		alpha.setUID(ALPHA_ACCOUNT_UID);
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < LARGE_ACCOUNT_TRANSACTIONS; i++) {
+			Transaction transaction = new Transaction(i + ".25", "Payment \"" + i + "\", part");
+			transaction.setDescription("Note " + i);
+			transaction.setTime(time - i * 60000L);
+			if (i % 3 == 0)
+				transaction.setDoubleEntryAccountUID(i % 2 == 0 ? BRAVO_ACCOUNT_UID : CHARLIE_ACCOUNT_UID);
+			alpha.addTransaction(transaction);
+		}
+
+		Account bravo = new Account("Bravo");
+		bravo.setUID(BRAVO_ACCOUNT_UID);
+		bravo.addTransaction(new Transaction("2.99", "T800"));
+
+		Account charlie = new Account("Charlie");
+		charlie.setUID(CHARLIE_ACCOUNT_UID);
+
+		accountsAdapter.addAccount(alpha);
+		accountsAdapter.addAccount(bravo);
+		accountsAdapter.addAccount(charlie);
+		accountsAdapter.close();
+	}
+
+	public void testParallelQifExportIsIdentical() throws Exception {
+		assertParallelExportIsIdentical(new QifExporter(getContext(), true));
+	}
+
+	public void testParallelOfxExportIsIdentical() throws Exception {
+		assertParallelExportIsIdentical(new OfxExporter(getContext(), true, true));
+	}
+
+	public void testParallelCsvExportIsIdentical() throws Exception {
+		CsvExporter exporter = new CsvExporter(getContext(), true);
+		exporter.setMode(CsvExporter.Mode.ACCOUNTS);
+		assertParallelExportIsIdentical(exporter);
+	}
+
+	public void testParallelGncXmlExportIsIdentical() throws Exception {
+		assertParallelExportIsIdentical(new GncXmlExporter(getContext()));
+	}
+
+	public void testExportIsCancelledWithinLargeAccount() throws Exception {
+		for (int threadCount = 1; threadCount <= 4; threadCount += 3) {
+			final List<Integer> reportedRows = new ArrayList<Integer>();
+			Exporter exporter = new QifExporter(getContext(), true);
+			exporter.setThreadCount(threadCount);
+			exporter.setProgressListener(new ExportProgressListener() {
+				@Override
+				public void onExportProgress(int processedRows, int totalRows) {
+					reportedRows.add(processedRows);
+				}
+
+				@Override
+				public boolean isExportCancelled() {
+					return !reportedRows.isEmpty();
+				}
+			});
+
+			try {
+				exporter.export(new StringWriter());
+				fail("Export should have been cancelled");
+			} catch (InterruptedIOException e) {
+				//the first account alone has more rows than the first report
+				assertEquals(1, reportedRows.size());
+				assertTrue(reportedRows.get(0) > 0);
+				assertTrue(reportedRows.get(0) < LARGE_ACCOUNT_TRANSACTIONS);
+			}
+		}
+	}
+
+	public void testChunksOfOneAccountAreRenderedAtTheSameTime() throws Exception {
+		ConcurrentChunkExporter exporter = new ConcurrentChunkExporter();
+		exporter.setThreadCount(4);
+		StringWriter writer = new StringWriter();
+		exporter.export(writer);
+		assertEquals(0, exporter.mRenderingChunks.getCount());
+		assertTrue(writer.toString().startsWith("Alpha\n"));
+	}
+
+	/**
+	 * Exporter whose sections for the large account wait until two of them are being rendered,
+	 * so the export fails unless the chunks of the account are rendered in parallel
+	 */
+	private class ConcurrentChunkExporter extends Exporter {
+		private final CountDownLatch mRenderingChunks = new CountDownLatch(2);
+
+		ConcurrentChunkExporter(){
+			super(ParallelExportTest.this.getContext(), true);
+		}
+
+		@Override
+		protected boolean includesTransferSide() {
+			return false;
+		}
+
+		@Override
+		protected AccountSection startAccount(Writer writer, Cursor cursor) throws IOException {
+			if (ALPHA_ACCOUNT_UID.equals(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_UID))){
+				mRenderingChunks.countDown();
+				try {
+					if (!mRenderingChunks.await(CHUNK_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+						throw new IOException("The chunks of the account were not rendered in parallel");
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			writer.write(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_FULL_NAME) + "\n");
+			return new AccountSection() {
+				@Override
+				public void writeTransaction(Writer writer, Cursor cursor) throws IOException {
+					writer.write(cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_UID) + "\n");
+				}
+
+				@Override
+				public void finish(Writer writer) {
+				}
+
+				@Override
+				public void merge(AccountSection following) {
+				}
+			};
+		}
+	}
+
+	/**
+	 * Exports with one and with several threads, using the same exporter so that generated IDs
+	 * and the time of the export are the same
+	 */
+	private static void assertParallelExportIsIdentical(Exporter exporter) throws Exception {
+		StringWriter sequentialWriter = new StringWriter();
+		exporter.setThreadCount(1);
+		exporter.export(sequentialWriter);
+
+		for (int threadCount = 2; threadCount <= 8; threadCount *= 2) {
+			StringWriter parallelWriter = new StringWriter();
+			exporter.setThreadCount(threadCount);
+			exporter.export(parallelWriter);
+			assertEquals(sequentialWriter.toString(), parallelWriter.toString());
+		}
+		assertTrue(sequentialWriter.toString().contains("Payment"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
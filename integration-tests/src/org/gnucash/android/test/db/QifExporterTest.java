@@ -0,0 +1,94 @@
+package org.gnucash.android.test.db;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.Currency;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.export.qif.QifHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.test.AndroidTestCase;
+
+public class QifExporterTest extends AndroidTestCase {
+	private static final String ASSETS_ACCOUNT_UID = "assets";
+	private static final String CHECKING_ACCOUNT_UID = "checking";
+	private static final String EXPENSES_ACCOUNT_UID = "expenses";
+
+	private static long noonOf(int year, int month, int day){
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month, day, 12, 0);
+		return calendar.getTimeInMillis();
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+
+		Account assets = new Account("Assets", Currency.getInstance("EUR"));
+		assets.setUID(ASSETS_ACCOUNT_UID);
+		assets.setAccountType(Account.AccountType.ASSET);
+
+		Account checking = new Account("Checking", Currency.getInstance("EUR"));
+		checking.setUID(CHECKING_ACCOUNT_UID);
+		checking.setParentUID(ASSETS_ACCOUNT_UID);
+		checking.setAccountType(Account.AccountType.BANK);
+		Transaction rent = new Transaction("-1015.50", "Rent");
+		rent.setDescription("March and April");
+		rent.setTime(noonOf(2014, Calendar.MARCH, 21));
+		rent.setDoubleEntryAccountUID(EXPENSES_ACCOUNT_UID);
+		checking.addTransaction(rent);
+		Transaction coffee = new Transaction("2.00", "Coffee");
+		coffee.setTime(noonOf(2014, Calendar.MARCH, 22));
+		checking.addTransaction(coffee);
+
+		Account expenses = new Account("Expenses", Currency.getInstance("EUR"));
+		expenses.setUID(EXPENSES_ACCOUNT_UID);
+		expenses.setAccountType(Account.AccountType.EXPENSE);
+
+		accountsAdapter.addAccount(assets);
+		accountsAdapter.addAccount(checking);
+		accountsAdapter.addAccount(expenses);
+		accountsAdapter.close();
+	}
+
+	public void testExportedEntriesMatchExactly() throws Exception {
+		StringWriter writer = new StringWriter();
+		new QifExporter(getContext(), true).export(writer);
+
+		//transfers are only listed under the account which owns them, so neither Assets nor Expenses have entries.
+		//A transaction without transfer account is split to the imbalance account
+		assertEquals("!Account\n"
+				+ "NAssets:Checking\n"
+				+ "^\n"
+				+ "!Type:Bank\n"
+				+ "D2014/3/22\n"
+				+ "MCoffee\n"
+				+ "S" + QifHelper.getImbalanceAccountName(Currency.getInstance("EUR")) + "\n"
+				+ "$2.00\n"
+				+ "^\n"
+				+ "\n"
+				+ "D2014/3/21\n"
+				+ "MRent\n"
+				+ "SExpenses\n"
+				+ "EMarch and April\n"
+				+ "$-1015.50\n"
+				+ "^\n"
+				+ "\n"
+				+ "\n",
+				writer.toString());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
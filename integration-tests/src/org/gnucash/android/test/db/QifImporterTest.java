@@ -0,0 +1,154 @@
+package org.gnucash.android.test.db;
+
+import java.io.ByteArrayInputStream;
+import java.util.Calendar;
+import java.util.List;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.qif.QifHelper;
+import org.gnucash.android.export.qif.QifImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.test.AndroidTestCase;
+
+public class QifImporterTest extends AndroidTestCase {
+	private static final String QIF = "!Account\n"
+			+ "NAssets:Checking\n"
+			+ "^\n"
+			+ "!Type:Bank\n"
+			+ "D3/21'14\n"
+			+ "T-1,015.50\n"
+			+ "PMarket\n"
+			+ "MFruit\n"
+			+ "LExpenses:Groceries\n"
+			+ "^\n"
+			+ "D2014/3/22\n"
+			+ "PTransfer\n"
+			+ "S[Assets:Savings]\n"
+			+ "$-200.00\n"
+			+ "^\n"
+			//two identical payments on the same day
+			+ "D2014/3/23\n"
+			+ "T-2.00\n"
+			+ "PCoffee\n"
+			+ "^\n"
+			+ "D2014/3/23\n"
+			+ "T-2.00\n"
+			+ "PCoffee\n"
+			+ "^\n"
+			+ "D2014/3/24\n"
+			+ "T-30.00\n"
+			+ "PSplit shopping\n"
+			+ "SExpenses:Groceries\n"
+			+ "$-10.00\n"
+			+ "SExpenses:Household\n"
+			+ "$-20.00\n"
+			+ "^\n";
+
+	/**
+	 * Two identical payments with another payment between them
+	 */
+	private static final String INTERLEAVED_QIF = "!Account\n"
+			+ "NAssets:Checking\n"
+			+ "^\n"
+			+ "!Type:Bank\n"
+			+ "D2014/3/23\n"
+			+ "T-2.00\n"
+			+ "PCoffee\n"
+			+ "^\n"
+			+ "D2014/3/23\n"
+			+ "T-3.00\n"
+			+ "PTea\n"
+			+ "^\n"
+			+ "D2014/3/23\n"
+			+ "T-2.00\n"
+			+ "PCoffee\n"
+			+ "^\n";
+
+	private static String findAccountUID(AccountsDbAdapter accountsAdapter, String fullName){
+		for (Account account : accountsAdapter.getAllAccounts()) {
+			if (fullName.equals(accountsAdapter.getFullyQualifiedAccountName(account.getUID())))
+				return account.getUID();
+		}
+		return null;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+
+	public void testImportCreatesAccountsAndTransfers() throws Exception {
+		QifImporter importer = new QifImporter(getContext());
+		importer.importQif(new ByteArrayInputStream(QIF.getBytes("UTF-8")));
+		assertEquals(4, importer.getTransactionCount());
+		assertEquals(1, importer.getSkippedTransactionCount());
+
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		String checkingUID = findAccountUID(accountsAdapter, "Assets:Checking");
+		String groceriesUID = findAccountUID(accountsAdapter, "Expenses:Groceries");
+		assertNotNull(checkingUID);
+		assertNotNull(groceriesUID);
+		assertNotNull(findAccountUID(accountsAdapter, "Assets:Savings"));
+		accountsAdapter.close();
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		List<Transaction> transactions = transactionsAdapter.getAllTransactionsForAccount(checkingUID);
+		assertEquals(4, transactions.size());
+		Transaction payment = null;
+		for (Transaction transaction : transactions) {
+			if (transaction.getName().equals("Market"))
+				payment = transaction;
+		}
+		assertNotNull(payment);
+		assertEquals("Fruit", payment.getDescription());
+		assertEquals(groceriesUID, payment.getDoubleEntryAccountUID());
+		assertEquals("-1015.50", payment.getAmount().toPlainString());
+		assertEquals(Transaction.TransactionType.CREDIT, payment.getTransactionType());
+		transactionsAdapter.close();
+	}
+
+	public void testImportingTwiceDoesNotDuplicateTransactions() throws Exception {
+		new QifImporter(getContext()).importQif(new ByteArrayInputStream(QIF.getBytes("UTF-8")));
+		new QifImporter(getContext()).importQif(new ByteArrayInputStream(QIF.getBytes("UTF-8")));
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(4, transactionsAdapter.getAllTransactionsCount());
+		transactionsAdapter.close();
+	}
+
+	public void testIdenticalEntriesWithOtherEntriesBetweenThemAreKept() throws Exception {
+		QifImporter importer = new QifImporter(getContext());
+		importer.importQif(new ByteArrayInputStream(INTERLEAVED_QIF.getBytes("UTF-8")));
+		assertEquals(3, importer.getTransactionCount());
+		new QifImporter(getContext()).importQif(new ByteArrayInputStream(INTERLEAVED_QIF.getBytes("UTF-8")));
+
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertEquals(3, transactionsAdapter.getAllTransactionsCount());
+		transactionsAdapter.close();
+	}
+
+	public void testParseDate() throws Exception {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2014, Calendar.MARCH, 21);
+		long expected = calendar.getTimeInMillis();
+		assertEquals(expected, QifHelper.parseDate("2014/3/21", calendar));
+		assertEquals(expected, QifHelper.parseDate("3/21/14", calendar));
+		assertEquals(expected, QifHelper.parseDate("3/21'14", calendar));
+		assertEquals(expected, QifHelper.parseDate("21.03.2014", calendar));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
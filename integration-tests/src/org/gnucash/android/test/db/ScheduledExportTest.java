@@ -0,0 +1,166 @@
+package org.gnucash.android.test.db;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gnucash.android.R;
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.TransactionsDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ScheduledExportService;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.receivers.ExportScheduler;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+public class ScheduledExportTest extends AndroidTestCase {
+	/**
+	 * Time to wait for the service to finish an export
+	 */
+	private static final long EXPORT_TIMEOUT_MILLIS = 10000;
+
+	private File mExportDirectory;
+
+	private SharedPreferences mPreferences;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		Account account = new Account("Alpha");
+		account.addTransaction(new Transaction("2.99", "T800"));
+		accountsAdapter.addAccount(account);
+		accountsAdapter.close();
+
+		mExportDirectory = new File(getContext().getExternalFilesDir(null), "scheduled-export-test");
+		deleteExportDirectory();
+		mPreferences = PreferenceManager.getDefaultSharedPreferences(getContext());
+		mPreferences.edit()
+				.putBoolean(getContext().getString(R.string.key_scheduled_export), true)
+				.putString(getContext().getString(R.string.key_scheduled_export_format), ExportFormat.CSV.name())
+				.putString(getContext().getString(R.string.key_scheduled_export_directory), mExportDirectory.getAbsolutePath())
+				.commit();
+	}
+
+	private PendingIntent getScheduledAlarm(){
+		Intent intent = new Intent(getContext(), ExportScheduler.class)
+				.setAction(ExportScheduler.ACTION_RUN_SCHEDULED_EXPORT);
+		return PendingIntent.getBroadcast(getContext(), 0, intent, PendingIntent.FLAG_NO_CREATE);
+	}
+
+	public void testScheduleFollowsPreference() throws Exception {
+		ExportScheduler.schedule(getContext());
+		assertNotNull(getScheduledAlarm());
+
+		mPreferences.edit().putBoolean(getContext().getString(R.string.key_scheduled_export), false).commit();
+		ExportScheduler.schedule(getContext());
+		assertNull(getScheduledAlarm());
+	}
+
+	/**
+	 * Starts the service and waits until it has exported the changes
+	 */
+	private void runScheduledExport() throws Exception {
+		TransactionsDbAdapter transactionsAdapter = new TransactionsDbAdapter(getContext());
+		assertTrue(transactionsAdapter.hasUnexportedChanges(ScheduledExportService.EXPORT_PROFILE_NAME));
+
+		ScheduledExportService.startWakeful(getContext());
+		long deadline = System.currentTimeMillis() + EXPORT_TIMEOUT_MILLIS;
+		while (transactionsAdapter.hasUnexportedChanges(ScheduledExportService.EXPORT_PROFILE_NAME)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(100);
+		}
+		assertFalse(transactionsAdapter.hasUnexportedChanges(ScheduledExportService.EXPORT_PROFILE_NAME));
+		transactionsAdapter.close();
+	}
+
+	public void testServiceExportsOnlyChanges() throws Exception {
+		runScheduledExport();
+
+		String[] files = mExportDirectory.list();
+		assertEquals(1, files.length);
+		assertTrue(files[0].startsWith(ScheduledExportService.FILENAME_PREFIX));
+		assertTrue(files[0].endsWith(ExportFormat.CSV.getExtension()));
+	}
+
+	public void testServiceWritesAllSelectedFormats() throws Exception {
+		mPreferences.edit()
+				.putString(getContext().getString(R.string.key_scheduled_export_format),
+						ExportFormat.GNC_XML.name() + "," + ExportFormat.QIF.name() + "," + ExportFormat.CSV.name())
+				.commit();
+		runScheduledExport();
+
+		//the files of one run share their name and differ in the extension
+		String[] files = mExportDirectory.list();
+		Arrays.sort(files);
+		assertEquals(3, files.length);
+		String name = files[0].substring(0, files[0].length() - ExportFormat.CSV.getExtension().length());
+		assertEquals(name + ExportFormat.CSV.getExtension(), files[0]);
+		assertEquals(name + ExportFormat.GNC_XML.getExtension(), files[1]);
+		assertEquals(name + ExportFormat.QIF.getExtension(), files[2]);
+	}
+
+	public void testOnlyFilesContainedInKeptBooksAreDeleted() throws Exception {
+		assertTrue(mExportDirectory.mkdirs());
+		String[] names = new String[]{
+				"scheduled_20140301_030000_gnucash_all.qif",
+				"scheduled_20140301_030000_gnucash_all.gnucash.gz",
+				"scheduled_20140302_030000_gnucash_all.qif",
+				"scheduled_20140302_030000_gnucash_all.gnucash.gz",
+				"scheduled_20140303_030000_gnucash_all.qif",
+				"scheduled_20140303_030000_gnucash_all.gnucash.gz",
+				//exported by the user
+				"20140228_120000_gnucash_all.qif",
+				"20140228_120000_gnucash_all.gnucash.gz",
+				"notes.txt"
+		};
+		for (String name : names) {
+			assertTrue(new File(mExportDirectory, name).createNewFile());
+		}
+
+		//nothing is deleted while there are not more books than are kept
+		assertEquals(0, ScheduledExportService.deleteSupersededExports(mExportDirectory, 3));
+
+		assertEquals(2, ScheduledExportService.deleteSupersededExports(mExportDirectory, 2));
+		List<String> remaining = Arrays.asList(mExportDirectory.list());
+		assertEquals(7, remaining.size());
+		assertFalse(remaining.contains("scheduled_20140301_030000_gnucash_all.qif"));
+		assertFalse(remaining.contains("scheduled_20140301_030000_gnucash_all.gnucash.gz"));
+		assertTrue(remaining.contains("scheduled_20140302_030000_gnucash_all.qif"));
+		assertTrue(remaining.contains("20140228_120000_gnucash_all.qif"));
+		assertTrue(remaining.contains("20140228_120000_gnucash_all.gnucash.gz"));
+		assertTrue(remaining.contains("notes.txt"));
+	}
+
+	private void deleteExportDirectory(){
+		File[] files = mExportDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mExportDirectory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		mPreferences.edit()
+				.remove(getContext().getString(R.string.key_scheduled_export))
+				.remove(getContext().getString(R.string.key_scheduled_export_format))
+				.remove(getContext().getString(R.string.key_scheduled_export_directory))
+				.commit();
+		ExportScheduler.schedule(getContext());
+		deleteExportDirectory();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
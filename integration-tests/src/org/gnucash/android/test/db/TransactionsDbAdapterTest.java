@@ -1,12 +1,15 @@
 package org.gnucash.android.test.db;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.TransactionsDbAdapter;
 
+import android.database.Cursor;
 import android.test.AndroidTestCase;
 
 public class TransactionsDbAdapterTest extends AndroidTestCase {
@@ -43,6 +46,121 @@ public class TransactionsDbAdapterTest extends AndroidTestCase {
 		assertEquals("T1000", transactionsList.get(0).getName());
 		assertEquals("T800", transactionsList.get(1).getName());
 	}
+
+	public void testTransactionsAreLinkedToAccountsAddedLater(){
+		Transaction transfer = new Transaction("15.00", "Transfer");
+		transfer.setAccountUID(ALPHA_ACCOUNT_UID);
+		transfer.setDoubleEntryAccountUID("charlie-team");
+		mAdapter.addTransaction(transfer);
+		assertEquals(3, mAdapter.getTransactionsCount(ALPHA_ACCOUNT_UID));
+
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(mContext);
+		Account third = new Account("Charlie");
+		third.setUID("charlie-team");
+		long thirdId = accountsAdapter.addAccount(third);
+		accountsAdapter.close();
+
+		assertEquals(1, mAdapter.getTransactionsCount(thirdId));
+		assertTrue(mAdapter.hasTransactions(thirdId));
+	}
+
+	public void testExportCursorListsTransfersUnderBothAccounts(){
+		Transaction transfer = new Transaction("15.00", "Transfer");
+		transfer.setAccountUID(ALPHA_ACCOUNT_UID);
+		transfer.setDoubleEntryAccountUID("charlie-team");
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(mContext);
+		Account third = new Account("Charlie");
+		third.setUID("charlie-team");
+		accountsAdapter.addAccount(third);
+		accountsAdapter.close();
+		mAdapter.addTransaction(transfer);
+
+		Cursor cursor = mAdapter.fetchTransactionsForExport(false, 0, false);
+		assertEquals(4, cursor.getCount());
+		cursor.close();
+
+		cursor = mAdapter.fetchTransactionsForExport(true, 0, false);
+		assertEquals(5, cursor.getCount());
+		int transferRows = 0;
+		while (cursor.moveToNext()){
+			if (cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_SIDE) == 1){
+				transferRows++;
+				assertEquals("charlie-team", cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_UID));
+				assertEquals(ALPHA_ACCOUNT_UID, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_UID));
+				assertEquals(ALPHA_ACCOUNT_NAME, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_TRANSFER_ACCOUNT_FULL_NAME));
+			}
+		}
+		cursor.close();
+		assertEquals(1, transferRows);
+	}
+
+	public void testExportProfilesTrackChangedTransactions(){
+		long exportedSequence = mAdapter.getCurrentChangeSequence();
+		mAdapter.setLastExportedSequence("backup", exportedSequence);
+		assertEquals(exportedSequence, mAdapter.getLastExportedSequence("backup"));
+		assertEquals(0, mAdapter.getLastExportedSequence("email"));
+
+		Transaction transaction = new Transaction("1.99", "T1000 upgrade");
+		transaction.setAccountUID(ALPHA_ACCOUNT_UID);
+		mAdapter.addTransaction(transaction);
+		assertTrue(mAdapter.getCurrentChangeSequence() > exportedSequence);
+
+		Cursor cursor = mAdapter.fetchTransactionsForExport(false, exportedSequence, true);
+		assertEquals(1, cursor.getCount());
+		cursor.moveToFirst();
+		assertEquals("T1000 upgrade", cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+		assertEquals(0, cursor.getInt(TransactionsDbAdapter.EXPORT_COLUMN_EXPORTED));
+		cursor.close();
+
+		cursor = mAdapter.fetchTransactionsForExport(false, 0, true);
+		assertEquals(4, cursor.getCount());
+		cursor.close();
+	}
+
+	public void testSavingUnchangedTransactionKeepsChangeSequence(){
+		Transaction transaction = new Transaction("1.99", "T1000 upgrade");
+		transaction.setAccountUID(ALPHA_ACCOUNT_UID);
+		mAdapter.addTransaction(transaction);
+		long sequence = mAdapter.getCurrentChangeSequence();
+		mAdapter.setLastExportedSequence(DatabaseHelper.DEFAULT_EXPORT_PROFILE_NAME, sequence);
+
+		mAdapter.addTransaction(transaction);
+		assertEquals(sequence, mAdapter.getCurrentChangeSequence());
+		assertTrue(mAdapter.getNonExportedTransactionsForAccount(ALPHA_ACCOUNT_UID).isEmpty());
+
+		transaction.setDescription("Faster");
+		mAdapter.addTransaction(transaction);
+		assertTrue(mAdapter.getCurrentChangeSequence() > sequence);
+		List<Transaction> changedTransactions = mAdapter.getNonExportedTransactionsForAccount(ALPHA_ACCOUNT_UID);
+		assertEquals(1, changedTransactions.size());
+		assertEquals(transaction.getUID(), changedTransactions.get(0).getUID());
+	}
+
+	public void testExportCursorFiltersByDateAndAccount(){
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(mContext);
+		long alphaId = accountsAdapter.getId(ALPHA_ACCOUNT_UID);
+		accountsAdapter.close();
+
+		Cursor cursor = mAdapter.fetchTransactionsForExport(false, 0, false, 0, Long.MAX_VALUE, Arrays.asList(alphaId));
+		assertEquals(2, cursor.getCount());
+		while (cursor.moveToNext()){
+			assertEquals(ALPHA_ACCOUNT_UID, cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_ACCOUNT_UID));
+		}
+		cursor.close();
+
+		cursor = mAdapter.fetchTransactionsForExport(false, 0, false, 0, System.currentTimeMillis() - 5000, null);
+		assertEquals(1, cursor.getCount());
+		cursor.moveToFirst();
+		assertEquals("T800", cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+		cursor.close();
+
+		cursor = mAdapter.fetchTransactionsForExport(false, 0, false, System.currentTimeMillis() - 5000, Long.MAX_VALUE,
+				Arrays.asList(alphaId));
+		assertEquals(1, cursor.getCount());
+		cursor.moveToFirst();
+		assertEquals("T1000", cursor.getString(TransactionsDbAdapter.EXPORT_COLUMN_NAME));
+		cursor.close();
+	}
 	
 	@Override
 	protected void tearDown() throws Exception {
@@ -0,0 +1,134 @@
+package org.gnucash.android.test.db;
+
+import java.io.File;
+import java.util.Currency;
+
+import org.gnucash.android.db.AccountsDbAdapter;
+import org.gnucash.android.db.BatchInserter;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Transaction;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Reports the space taken by the unique IDs of a synthetic book, and what 16 byte binary GUIDs would save
+ */
+public class UidStorageTest extends AndroidTestCase {
+	private static final String LOG_TAG = "UidStorageTest";
+
+	private static final int ACCOUNT_COUNT = 50;
+
+	private static final int TRANSACTION_COUNT = 20000;
+
+	/**
+	 * Size of a GUID stored as binary instead of 32 hexadecimal digits
+	 */
+	private static final int BINARY_GUID_SIZE = 16;
+
+	/**
+	 * Name of the index which is built to measure the size of an index of transaction UIDs
+	 */
+	private static final String MEASURED_INDEX_NAME = "uid_storage_test_index";
+
+	private DatabaseHelper mDatabaseHelper;
+
+	private SQLiteDatabase mDb;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		for (int i = 0; i < ACCOUNT_COUNT; i++) {
+			Account account = new Account("Account " + i, Currency.getInstance("EUR"));
+			account.setUID("account-" + i);
+			accountsAdapter.addAccount(account);
+		}
+
+		BatchInserter inserter = accountsAdapter.beginBatchInsert();
+		try {
+			long time = System.currentTimeMillis();
+			for (int i = 0; i < TRANSACTION_COUNT; i++) {
+				Transaction transaction = new Transaction(i + ".25", "Payment " + i);
+				transaction.setAccountUID("account-" + (i % ACCOUNT_COUNT));
+				transaction.setTime(time - i * 60000L);
+				if (i % 3 == 0)
+					transaction.setDoubleEntryAccountUID("account-" + ((i + 1) % ACCOUNT_COUNT));
+				inserter.addTransaction(transaction);
+			}
+			inserter.commit();
+		} finally {
+			inserter.close();
+			accountsAdapter.close();
+		}
+
+		mDatabaseHelper = new DatabaseHelper(getContext());
+		mDb = mDatabaseHelper.getWritableDatabase();
+	}
+
+	private long queryLong(String sql){
+		Cursor cursor = mDb.rawQuery(sql, null);
+		try {
+			assertTrue(cursor.moveToFirst());
+			return cursor.getLong(0);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by the pages of the database
+	 */
+	private long getUsedSize(){
+		return (queryLong("PRAGMA page_count") - queryLong("PRAGMA freelist_count")) * queryLong("PRAGMA page_size");
+	}
+
+	public void testReportUidStorageSize() throws Exception {
+		mDb.execSQL("VACUUM");
+		long fileSize = new File(mDb.getPath()).length();
+		long usedSize = getUsedSize();
+
+		//the unique constraint has an index of its own, so a second index on the column has the same size
+		mDb.execSQL("CREATE INDEX " + MEASURED_INDEX_NAME + " ON " + DatabaseHelper.TRANSACTIONS_TABLE_NAME
+				+ " (" + DatabaseHelper.KEY_UID + ")");
+		long uidIndexSize = getUsedSize() - usedSize;
+		mDb.execSQL("DROP INDEX " + MEASURED_INDEX_NAME);
+
+		String guidCondition = " WHERE length(" + DatabaseHelper.KEY_UID + ") = 32"
+				+ " AND " + DatabaseHelper.KEY_UID + " NOT GLOB '*[^0-9a-f]*'";
+		long transactionCount = queryLong("SELECT COUNT(*) FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME);
+		long uidBytes = queryLong("SELECT SUM(length(" + DatabaseHelper.KEY_UID + ")) FROM "
+				+ DatabaseHelper.TRANSACTIONS_TABLE_NAME);
+		long guidCount = queryLong("SELECT COUNT(*) FROM " + DatabaseHelper.TRANSACTIONS_TABLE_NAME + guidCondition);
+		long accountUidBytes = queryLong("SELECT SUM(length(" + DatabaseHelper.KEY_UID + ")) FROM "
+				+ DatabaseHelper.ACCOUNTS_TABLE_NAME);
+
+		assertEquals(TRANSACTION_COUNT, transactionCount);
+		//new transactions get GUIDs
+		assertEquals(transactionCount, guidCount);
+		assertTrue(uidIndexSize > 0);
+		assertTrue(fileSize >= usedSize);
+
+		//binary GUIDs would save the same bytes in the table and in the index of the unique constraint
+		long binarySavings = 2 * guidCount * (32 - BINARY_GUID_SIZE);
+		Log.i(LOG_TAG, "Synthetic book of " + ACCOUNT_COUNT + " accounts and " + transactionCount + " transactions: "
+				+ "database file " + fileSize + " bytes, " + usedSize + " bytes in use, "
+				+ "index of transaction UIDs " + uidIndexSize + " bytes, "
+				+ "transaction UID text " + uidBytes + " bytes, account UID text " + accountUidBytes + " bytes. "
+				+ "Binary GUIDs would save about " + binarySavings + " bytes ("
+				+ (100 * binarySavings / Math.max(usedSize, 1)) + "% of the used size)");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		mDatabaseHelper.close();
+		AccountsDbAdapter accountsAdapter = new AccountsDbAdapter(getContext());
+		accountsAdapter.deleteAllRecords();
+		accountsAdapter.close();
+	}
+}
@@ -348,7 +348,7 @@ public class TransactionsActivityTest extends
 		AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(getActivity());
 		accountsDbAdapter.addAccount(account);
 		
-		int beforeOriginCount = accountsDbAdapter.getAccount(DUMMY_ACCOUNT_UID).getTransactionCount();
+		int beforeOriginCount = accountsDbAdapter.getTransactionCount(accountsDbAdapter.getId(DUMMY_ACCOUNT_UID));
 		
 		mSolo.waitForText(DUMMY_ACCOUNT_NAME);
 		
@@ -370,10 +370,10 @@ public class TransactionsActivityTest extends
 		
 		mSolo.waitForDialogToClose(2000);
 		
-		int targetCount = accountsDbAdapter.getAccount(account.getUID()).getTransactionCount();		
+		int targetCount = accountsDbAdapter.getTransactionCount(accountsDbAdapter.getId(account.getUID()));		
 		assertEquals(1, targetCount);
 		
-		int afterOriginCount = accountsDbAdapter.getAccount(DUMMY_ACCOUNT_UID).getTransactionCount();
+		int afterOriginCount = accountsDbAdapter.getTransactionCount(accountsDbAdapter.getId(DUMMY_ACCOUNT_UID));
 		assertEquals(beforeOriginCount-1, afterOriginCount);
 		
 		accountsDbAdapter.close();
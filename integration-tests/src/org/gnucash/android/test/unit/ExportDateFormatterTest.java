@@ -0,0 +1,81 @@
+package org.gnucash.android.test.unit;
+
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.gnucash.android.export.ExportDateFormatter;
+
+public class ExportDateFormatterTest extends TestCase {
+	private static final String[] TIME_ZONES = {"UTC", "Europe/Berlin", "America/New_York",
+			"America/Sao_Paulo", "Asia/Kolkata", "Australia/Lord_Howe", "Pacific/Chatham"};
+
+	private static final long MINUTE = 60 * 1000L;
+
+	public void testMatchesSimpleDateFormatAcrossDaylightSavingTransitions(){
+		for (String timeZoneId : TIME_ZONES) {
+			TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+			for (ExportDateFormatter.Layout layout : ExportDateFormatter.Layout.values()) {
+				ExportDateFormatter formatter = new ExportDateFormatter(layout, timeZone);
+				SimpleDateFormat dateFormat = new SimpleDateFormat(layout.getPattern(), Locale.US);
+				dateFormat.setTimeZone(timeZone);
+
+				//every 37 minutes through 2014, backwards like the export cursor
+				for (long time = 1420070400000L; time >= 1388534400000L; time -= 37 * MINUTE) {
+					assertFormat(formatter, dateFormat, time);
+				}
+				//around each transition of the year, to the second
+				for (long time = 1388534400000L; time < 1420070400000L; time += 60 * MINUTE) {
+					if (timeZone.getOffset(time) != timeZone.getOffset(time + 60 * MINUTE)) {
+						for (long second = time; second <= time + 60 * MINUTE; second += 1000) {
+							assertFormat(formatter, dateFormat, second);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public void testMatchesSimpleDateFormatForRandomTimes(){
+		Random random = new Random(42);
+		for (String timeZoneId : TIME_ZONES) {
+			TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+			for (ExportDateFormatter.Layout layout : ExportDateFormatter.Layout.values()) {
+				ExportDateFormatter formatter = new ExportDateFormatter(layout, timeZone);
+				SimpleDateFormat dateFormat = new SimpleDateFormat(layout.getPattern(), Locale.US);
+				dateFormat.setTimeZone(timeZone);
+				//from before the Gregorian calendar until after the year 9999
+				for (int i = 0; i < 5000; i++) {
+					long time = (long) ((random.nextDouble() - 0.5) * 2 * 300000000000000L);
+					assertFormat(formatter, dateFormat, time);
+				}
+			}
+		}
+	}
+
+	public void testLayouts() throws Exception {
+		TimeZone timeZone = TimeZone.getTimeZone("UTC");
+		long time = 1362268805000L; //2013-03-03 00:00:05 UTC
+		assertEquals("20130303000005", new ExportDateFormatter(ExportDateFormatter.Layout.OFX, timeZone).format(time));
+		assertEquals("2013/3/3", new ExportDateFormatter(ExportDateFormatter.Layout.QIF, timeZone).format(time));
+		assertEquals("2013-03-03 00:00:05 +0000", new ExportDateFormatter(ExportDateFormatter.Layout.GNC_XML, timeZone).format(time));
+		assertEquals("2013-03-02 20:15:05 -0345", new ExportDateFormatter(ExportDateFormatter.Layout.GNC_XML,
+				TimeZone.getTimeZone("GMT-03:45")).format(time));
+
+		StringWriter writer = new StringWriter();
+		char[] buffer = new char[ExportDateFormatter.MAX_LENGTH + 2];
+		ExportDateFormatter formatter = new ExportDateFormatter(ExportDateFormatter.Layout.QIF, timeZone);
+		formatter.format(time, writer);
+		int length = formatter.format(time, buffer, 2);
+		assertEquals(writer.toString(), new String(buffer, 2, length));
+	}
+
+	private static void assertFormat(ExportDateFormatter formatter, SimpleDateFormat dateFormat, long time){
+		assertEquals("Time " + time, dateFormat.format(new Date(time)), formatter.format(time));
+	}
+}